@@ -79,6 +79,17 @@ public interface HttpCacheConfig {
      */
     boolean canInvalidate(String path);
 
+    /**
+     * Get the request URI patterns of the cached responses derived from the given JCR path, as per the configured
+     * invalidation mappings. A <code>*</code> in a pattern matches any sequence of characters, such as the selectors
+     * and extension of a page URI.
+     *
+     * @param path the jcr path
+     * @return URI patterns to invalidate. Empty if no mapping applies, in which case the whole cache of this config
+     * has to be invalidated.
+     */
+    List<String> getInvalidationUriPatterns(String path);
+
     /**
      * Returns true if the key is generated using this cache config.
      *
@@ -101,4 +112,26 @@ public interface HttpCacheConfig {
      * @return True if it accepts.
      */
     boolean acceptsRule(String servicePid);
-}
\ No newline at end of file
+
+    /**
+     * Get the age after which cached responses of this config are stale and due for a background refresh.
+     *
+     * @return Soft TTL in seconds. Negative if responses never get stale by age.
+     */
+    long getSoftTtl();
+
+    /**
+     * Get the time stale responses of this config keep being served, counted from the moment they got stale by age
+     * or by invalidation.
+     *
+     * @return Grace period in seconds. Zero or negative if stale responses are not served.
+     */
+    long getGracePeriod();
+
+    /**
+     * Check if the cached response, however stale, is served when rendering its replacement fails.
+     *
+     * @return
+     */
+    boolean isServeStaleOnError();
+}
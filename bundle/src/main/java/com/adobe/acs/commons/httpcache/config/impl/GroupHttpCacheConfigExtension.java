@@ -13,7 +13,6 @@ import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.felix.scr.annotations.*;
 import org.apache.felix.scr.annotations.Properties;
-import org.apache.jackrabbit.api.security.user.User;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.slf4j.Logger;
@@ -50,6 +49,9 @@ public class GroupHttpCacheConfigExtension implements HttpCacheConfigExtension,
     private static final String PROP_USER_GROUPS = "httpcache.config.extension.user-groups.allowed";
     private List<String> userGroups;
 
+    @Reference
+    private GroupMembershipCache groupMembershipCache;
+
     //-------------------------<HttpCacheConfigExtension methods>
 
     @Override
@@ -71,8 +73,8 @@ public class GroupHttpCacheConfigExtension implements HttpCacheConfigExtension,
             }
 
             try {
-                List<String> requestUserGroupNames = UserUtils.getUserGroupMembershipNames(request
-                        .getResourceResolver().adaptTo(User.class));
+                List<String> requestUserGroupNames = groupMembershipCache.getUserGroupMembershipNames(request
+                        .getResourceResolver());
 
                 // At least one of the group in config should match.
                 boolean isGroupMatchFound = CollectionUtils.containsAny(userGroups, requestUserGroupNames);
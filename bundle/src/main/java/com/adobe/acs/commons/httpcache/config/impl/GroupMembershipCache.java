@@ -0,0 +1,20 @@
+package com.adobe.acs.commons.httpcache.config.impl;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.RepositoryException;
+import java.util.List;
+
+/**
+ * Cache of the group memberships of users, shared by all the {@link GroupHttpCacheConfigExtension} configs.
+ */
+public interface GroupMembershipCache {
+    /**
+     * Get the names of the groups the user of the given resource resolver is a member of.
+     *
+     * @param resourceResolver
+     * @return Read-only list of group names. Empty if the user cannot be resolved.
+     * @throws RepositoryException
+     */
+    List<String> getUserGroupMembershipNames(ResourceResolver resourceResolver) throws RepositoryException;
+}
@@ -0,0 +1,165 @@
+package com.adobe.acs.commons.httpcache.config.impl;
+
+import com.adobe.acs.commons.httpcache.util.UserUtils;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.felix.scr.annotations.*;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, TTL'd cache of the group memberships of users, keyed by user ID. Saves authenticated requests the walk of
+ * the group memberships of the user in the repository for every group based cache config. <p> Group memberships are
+ * held on the group nodes, hence the whole cache is invalidated on any change below the groups home. </p>
+ */
+// @formatter:off
+@Component(label = "ACS AEM Commons - HTTP Cache - Group membership cache.",
+           description = "Caches the group memberships of users for the group based cache configs.",
+           metatype = true)
+@Properties({
+        @Property(name = EventConstants.EVENT_TOPIC,
+                  value = {SlingConstants.TOPIC_RESOURCE_CHANGED, SlingConstants.TOPIC_RESOURCE_ADDED,
+                          SlingConstants.TOPIC_RESOURCE_REMOVED},
+                  propertyPrivate = true),
+        @Property(label = "Group paths to watch for changes.",
+                  value = "(" + SlingConstants.PROPERTY_PATH + "=/home/groups*)",
+                  description = "Paths expressed in LDAP syntax. Any change under these paths invalidates the cache.",
+                  name = EventConstants.EVENT_FILTER),
+        @Property(name = "jmx.objectname",
+                  value = "com.adobe.acs.httpcache:type=Group Membership Cache",
+                  propertyPrivate = true)
+})
+@Service(value = {GroupMembershipCache.class, EventHandler.class, DynamicMBean.class})
+// @formatter:on
+public class GroupMembershipCacheImpl extends AnnotatedStandardMBean implements GroupMembershipCache, EventHandler,
+        GroupMembershipCacheMBean {
+    private static final Logger log = LoggerFactory.getLogger(GroupMembershipCacheImpl.class);
+
+    @Property(label = "TTL",
+              description = "TTL for the group memberships of a user in seconds. Default to 300.",
+              longValue = GroupMembershipCacheImpl.DEFAULT_TTL)
+    private static final String PROP_TTL = "httpcache.groupmembership.cache.ttl";
+    private static final long DEFAULT_TTL = 300L;
+    private long ttl;
+
+    @Property(label = "Maximum number of users",
+              description = "Maximum number of users whose group memberships are cached. Default to 10000.",
+              longValue = GroupMembershipCacheImpl.DEFAULT_MAX_SIZE)
+    private static final String PROP_MAX_SIZE = "httpcache.groupmembership.cache.maxsize";
+    private static final long DEFAULT_MAX_SIZE = 10000L;
+
+    /** Group names by user ID. */
+    private Cache<String, List<String>> cache;
+
+    private final AtomicLong invalidationsCount = new AtomicLong(0L);
+
+    public GroupMembershipCacheImpl() throws NotCompliantMBeanException {
+        super(GroupMembershipCacheMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> configs) {
+        ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
+        final long maxSize = PropertiesUtil.toLong(configs.get(PROP_MAX_SIZE), DEFAULT_MAX_SIZE);
+
+        cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats()
+                .build();
+
+        log.info("GroupMembershipCacheImpl activated / modified.");
+    }
+
+    @Deactivate
+    protected void deactivate(Map<String, Object> configs) {
+        cache.invalidateAll();
+        log.info("GroupMembershipCacheImpl deactivated.");
+    }
+
+    //-------------------------<GroupMembershipCache methods>
+
+    @Override
+    public List<String> getUserGroupMembershipNames(ResourceResolver resourceResolver) throws RepositoryException {
+        final String userId = resourceResolver.getUserID();
+        if (null != userId) {
+            final List<String> groupNames = cache.getIfPresent(userId);
+            if (null != groupNames) {
+                return groupNames;
+            }
+        }
+
+        final User user = resourceResolver.adaptTo(User.class);
+        if (null == user) {
+            return Collections.emptyList();
+        }
+        final List<String> groupNames = Collections.unmodifiableList(UserUtils.getUserGroupMembershipNames(user));
+        if (null != userId) {
+            cache.put(userId, groupNames);
+        }
+        return groupNames;
+    }
+
+    //-------------------------<EventHandler methods>
+
+    @Override
+    public void handleEvent(Event event) {
+        // Memberships are held on the group nodes; the users affected by a change cannot be told apart.
+        cache.invalidateAll();
+        invalidationsCount.incrementAndGet();
+        log.debug("Group membership cache invalidated on change of {}", event.getProperty(SlingConstants
+                .PROPERTY_PATH));
+    }
+
+    //-------------------------<Mbean specific implementation>
+
+    @Override
+    public void clearCache() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long getCacheEntriesCount() {
+        return cache.size();
+    }
+
+    @Override
+    public long getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public String getHitRate() {
+        return String.format("%.0f%%", cache.stats().hitRate() * 100);
+    }
+
+    @Override
+    public long getInvalidationsCount() {
+        return invalidationsCount.get();
+    }
+}
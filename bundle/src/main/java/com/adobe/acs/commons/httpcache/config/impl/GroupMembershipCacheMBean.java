@@ -0,0 +1,31 @@
+package com.adobe.acs.commons.httpcache.config.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * JMX MBean for the group membership cache.
+ */
+@Description("ACS AEM Commons - Http Cache - Group Membership Cache")
+public interface GroupMembershipCacheMBean {
+
+    @Description("Clear entire cache")
+    void clearCache();
+
+    @Description("Number of users in the cache")
+    long getCacheEntriesCount();
+
+    @Description("Cache TTL in Seconds")
+    long getTtl();
+
+    @Description("Membership lookups served from the cache")
+    long getHitCount();
+
+    @Description("Membership lookups resolved from the repository")
+    long getMissCount();
+
+    @Description("Share of membership lookups served from the cache")
+    String getHitRate();
+
+    @Description("Number of times the cache got invalidated by group changes")
+    long getInvalidationsCount();
+}
@@ -9,6 +9,7 @@ import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.keys.CacheKeyFactory;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.util.UserUtils;
+import com.adobe.acs.commons.util.ParameterUtil;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.*;
@@ -38,7 +39,10 @@ import java.util.regex.Pattern;
                         "Request URIs blacklist: {httpcache.config.requesturi.patterns.blacklisted}, " +
                         "Authentication: {httpcache.config.request.authentication}, " +
                         "Invalidation paths: {httpcache.config.invalidation.oak.paths}, " +
-                        "Cache type: {httpcache.config.cachestore}",
+                        "Invalidation mappings: {httpcache.config.invalidation.mappings}, " +
+                        "Cache type: {httpcache.config.cachestore}, " +
+                        "Soft TTL: {httpcache.config.stale.soft-ttl}, " +
+                        "Grace: {httpcache.config.stale.grace}",
                 propertyPrivate = true)
 })
 @Service
@@ -103,19 +107,31 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
     private List<String> cacheInvalidationPathPatterns;
     private List<Pattern> cacheInvalidationPathPatternsAsRegEx;
 
+    // Invalidation mappings
+    @Property(label = "JCR path to request URI mappings for cache invalidation",
+              description = "Optional mappings narrowing the invalidation down to the cached request URIs derived " +
+                      "from the changed JCR path. Format: <JCR path pattern (REGEX)>=<request URI pattern>, multiple " +
+                      "URI patterns separated by '&'. URI patterns take the REGEX groups as $1, $2, etc. and '*' as " +
+                      "wildcard. Example - /content/mysite/(.*)/jcr:content(.*)=/content/mysite/$1.* . Paths without " +
+                      "a matching mapping invalidate the whole cache of this config.",
+              cardinality = Integer.MAX_VALUE)
+    private static final String PROP_CACHE_INVALIDATION_MAPPINGS = "httpcache.config.invalidation.mappings";
+    private Map<Pattern, String[]> cacheInvalidationMappings;
+
     // Cache store
     // @formatter:off
     @Property(label = "Cache store",
               description = "Cache store for caching the response for this request URI. Example - MEM. This should "
                       + "be one of the cache stores active in this installation. Mandatory parameter.",
-              propertyPrivate = true, // Made private as only MEM implementation available now.
               options = {
                       @PropertyOption(name = HttpCacheStore.VALUE_MEM_CACHE_STORE_TYPE,
                                          value = HttpCacheStore.VALUE_MEM_CACHE_STORE_TYPE),
                       @PropertyOption(name = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE,
                                       value = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE),
                       @PropertyOption(name = HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE,
-                                      value = HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE)
+                                      value = HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE),
+                      @PropertyOption(name = HttpCacheStore.VALUE_TIERED_CACHE_STORE_TYPE,
+                                      value = HttpCacheStore.VALUE_TIERED_CACHE_STORE_TYPE)
               },
             value = HttpCacheStore.VALUE_MEM_CACHE_STORE_TYPE)
     // @formatter:on
@@ -123,6 +139,33 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
     private static final String DEFAULT_CACHE_STORE = "MEM"; // Defaults to memory cache store
     private String cacheStore;
 
+    // Stale content
+    @Property(label = "Soft TTL",
+              description = "Age in seconds after which cached responses are stale and get refreshed in the " +
+                      "background while still being served within the grace period. Shorter than the TTL of the " +
+                      "cache store to be of use. Defaults to -1 meaning responses never get stale by age.",
+              longValue = HttpCacheConfigImpl.DEFAULT_SOFT_TTL)
+    private static final String PROP_SOFT_TTL = "httpcache.config.stale.soft-ttl";
+    private static final long DEFAULT_SOFT_TTL = -1L;
+    private long softTtl;
+
+    @Property(label = "Grace period",
+              description = "Time in seconds stale responses, by age or by invalidation, keep being served while a " +
+                      "single background request refreshes them. Only honoured by cache stores tracking stale " +
+                      "responses, such as MEM. Defaults to 0 meaning stale responses are not served.",
+              longValue = HttpCacheConfigImpl.DEFAULT_GRACE_PERIOD)
+    private static final String PROP_GRACE_PERIOD = "httpcache.config.stale.grace";
+    private static final long DEFAULT_GRACE_PERIOD = 0L;
+    private long gracePeriod;
+
+    @Property(label = "Serve stale on error",
+              description = "Serve the cached response, however stale, when rendering its replacement fails with an " +
+                      "exception or a 5xx status.",
+              boolValue = HttpCacheConfigImpl.DEFAULT_SERVE_STALE_ON_ERROR)
+    private static final String PROP_SERVE_STALE_ON_ERROR = "httpcache.config.stale.serve-on-error";
+    private static final boolean DEFAULT_SERVE_STALE_ON_ERROR = false;
+    private boolean serveStaleOnError;
+
     // Making the cache config extension configurable.
     @Property(name = "cacheConfigExtension.target",
               label = "HttpCacheConfigExtension service pid",
@@ -176,11 +219,21 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
         // Cache store
         cacheStore = PropertiesUtil.toString(configs.get(PROP_CACHE_STORE), DEFAULT_CACHE_STORE);
 
+        // Stale content.
+        softTtl = PropertiesUtil.toLong(configs.get(PROP_SOFT_TTL), DEFAULT_SOFT_TTL);
+        gracePeriod = PropertiesUtil.toLong(configs.get(PROP_GRACE_PERIOD), DEFAULT_GRACE_PERIOD);
+        serveStaleOnError = PropertiesUtil.toBoolean(configs.get(PROP_SERVE_STALE_ON_ERROR),
+                DEFAULT_SERVE_STALE_ON_ERROR);
+
         // Cache invalidation paths.
         cacheInvalidationPathPatterns = Arrays.asList(PropertiesUtil.toStringArray(configs.get
                 (PROP_CACHE_INVALIDATION_PATH_PATTERNS), new String[]{}));
         cacheInvalidationPathPatternsAsRegEx = compileToPatterns(cacheInvalidationPathPatterns);
 
+        // Cache invalidation mappings.
+        cacheInvalidationMappings = compileToMappings(ParameterUtil.toMap(PropertiesUtil.toStringArray(configs.get
+                (PROP_CACHE_INVALIDATION_MAPPINGS), new String[]{}), "="));
+
         order = PropertiesUtil.toInteger(configs.get(PROP_ORDER), DEFAULT_ORDER);
 
         // PIDs of cache handling rules.
@@ -215,6 +268,24 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
         return patterns;
     }
 
+    /**
+     * Converts the JCR path to request URI mappings into compiled Patterns and their URI patterns.
+     *
+     * @param mappings the mappings keyed by JCR path regex
+     * @return the mappings keyed by compiled Pattern, in the configured order
+     */
+    private Map<Pattern, String[]> compileToMappings(final Map<String, String> mappings) {
+        final Map<Pattern, String[]> compiled = new LinkedHashMap<Pattern, String[]>();
+
+        for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+            if (StringUtils.isNotBlank(mapping.getKey()) && StringUtils.isNotBlank(mapping.getValue())) {
+                compiled.put(Pattern.compile(mapping.getKey()), StringUtils.split(mapping.getValue(), '&'));
+            }
+        }
+
+        return compiled;
+    }
+
     @Deactivate
     protected void deactivate(Map<String, Object> configs) {
         log.info("HttpCacheConfigImpl deactivated.");
@@ -297,7 +368,36 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
 
     @Override
     public boolean canInvalidate(final String path) {
-        return matches(cacheInvalidationPathPatternsAsRegEx, path);
+        if (matches(cacheInvalidationPathPatternsAsRegEx, path)) {
+            return true;
+        }
+        for (Pattern pattern : cacheInvalidationMappings.keySet()) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<String> getInvalidationUriPatterns(final String path) {
+        final List<String> uriPatterns = new ArrayList<String>();
+
+        for (Map.Entry<Pattern, String[]> mapping : cacheInvalidationMappings.entrySet()) {
+            final Matcher matcher = mapping.getKey().matcher(path);
+            for (String uriPattern : mapping.getValue()) {
+                // Reset, as appending a replacement moves the append position of the matcher past the match.
+                matcher.reset();
+                if (matcher.matches()) {
+                    // Substitutes the groups of the matched path.
+                    final StringBuffer uri = new StringBuffer();
+                    matcher.appendReplacement(uri, StringUtils.trim(uriPattern));
+                    uriPatterns.add(uri.toString());
+                }
+            }
+        }
+
+        return uriPatterns;
     }
 
     @Override
@@ -334,4 +434,19 @@ public class HttpCacheConfigImpl implements HttpCacheConfig {
     public boolean acceptsRule(String servicePid) {
         return cacheHandlingRulesPid.contains(servicePid);
     }
+
+    @Override
+    public long getSoftTtl() {
+        return this.softTtl;
+    }
+
+    @Override
+    public long getGracePeriod() {
+        return this.gracePeriod;
+    }
+
+    @Override
+    public boolean isServeStaleOnError() {
+        return this.serveStaleOnError;
+    }
 }
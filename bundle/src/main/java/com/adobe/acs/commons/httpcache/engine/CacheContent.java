@@ -3,10 +3,13 @@ package com.adobe.acs.commons.httpcache.engine;
 import com.adobe.acs.commons.httpcache.engine.impl.HttpCacheServletResponseWrapper;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -18,6 +21,9 @@ import java.util.Map;
 public class CacheContent {
     private static final Logger log = LoggerFactory.getLogger(CacheContent.class);
 
+    /** Content coding of gzipped content */
+    public static final String GZIP_CONTENT_ENCODING = "gzip";
+
     /** Response character encoding */
     private String charEncoding;
     /** Response content type */
@@ -120,6 +126,75 @@ public class CacheContent {
         return dataInputStream;
     }
 
+    /**
+     * Write the response content to the given output stream. Cache stores holding the content in memory or in mapped
+     * files override this to write their bytes directly rather than copying them through an input stream.
+     *
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        IOUtils.copy(getInputDataStream(), outputStream);
+    }
+
+    /**
+     * Get the length of the response content as provided by {@link #getInputDataStream()}, if known upfront. Cache
+     * stores knowing it override this, letting the content be copied without buffering it first.
+     *
+     * @return Length in bytes, or -1 if unknown.
+     */
+    public long getLength() {
+        return -1L;
+    }
+
+    /**
+     * Get the content coding the cache store holds the response content in, such as {@link #GZIP_CONTENT_ENCODING}.
+     * {@link #getInputDataStream()} and {@link #writeTo(OutputStream)} always provide the decoded content; {@link
+     * #writeEncodedTo(OutputStream)} provides it as held, for clients accepting the content coding.
+     *
+     * @return Content coding, or null if the content is held as is.
+     */
+    public String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Write the response content to the given output stream in the content coding it is held in by the cache store.
+     *
+     * @param outputStream
+     * @throws IOException
+     * @see #getContentEncoding()
+     */
+    public void writeEncodedTo(OutputStream outputStream) throws IOException {
+        writeTo(outputStream);
+    }
+
+    /**
+     * Release the resources held by this cache content, such as its data stream.
+     */
+    public void close() {
+        IOUtils.closeQuietly(dataInputStream);
+    }
+
+    /**
+     * Get the time the content got cached. Cache stores tracking stale content override this.
+     *
+     * @return Time in milliseconds, or -1 if unknown.
+     */
+    public long getCreationTime() {
+        return -1L;
+    }
+
+    /**
+     * Get the time the content got invalidated while kept by the cache store to be served stale. Cache stores
+     * tracking stale content override this.
+     *
+     * @return Time in milliseconds, or -1 if the content hasn't been invalidated.
+     */
+    public long getInvalidationTime() {
+        return -1L;
+    }
+
     /**
      * Get the temp size attached to this cache content.
      * @return
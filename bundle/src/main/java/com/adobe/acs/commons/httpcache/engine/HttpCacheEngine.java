@@ -6,6 +6,9 @@ import com.adobe.acs.commons.httpcache.exception.*;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Access gateway and controlling module for http cache sub-system. Coordinates with cache store, cache handling rules,
  * cache configs and cache invalidators.
@@ -46,6 +49,42 @@ public interface HttpCacheEngine {
     boolean isCacheHit(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
             HttpCachePersistenceException, HttpCacheKeyCreationException;
 
+    /**
+     * Get the cached content for the given request in a single cache store lookup. Stale content, by the soft TTL of
+     * the cache config or by invalidation, is returned within the grace period of the cache config while a single
+     * background request refreshes it.
+     *
+     * @param request
+     * @param cacheConfig
+     * @return Cached content or null if the request cannot be served from cache.
+     * @throws HttpCachePersistenceException
+     * @throws HttpCacheKeyCreationException
+     */
+    CacheContent getCacheContent(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
+            HttpCachePersistenceException, HttpCacheKeyCreationException;
+
+    /**
+     * Coalesce concurrent cache misses for the same cache key. The first request claims the key and goes on rendering
+     * the response; requests arriving while it is in flight wait for it up to the configured time before they check
+     * the cache again. A request which claimed the key must call {@link #releaseResponse(SlingHttpServletRequest)}
+     * once done with the response.
+     *
+     * @param request
+     * @param cacheConfig
+     * @return True if the request claimed the key. False if it waited on a concurrent request.
+     * @throws HttpCacheKeyCreationException
+     */
+    boolean claimOrAwaitResponse(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
+            HttpCacheKeyCreationException;
+
+    /**
+     * Release the claim taken by {@link #claimOrAwaitResponse(SlingHttpServletRequest, HttpCacheConfig)}, waking up
+     * the requests waiting on it. No-op if the request doesn't hold a claim.
+     *
+     * @param request
+     */
+    void releaseResponse(SlingHttpServletRequest request);
+
     /**
      * Deliver the response from the cache. Custom cache handling rule hook {@link com.adobe.acs.commons.httpcache
      * .rule.HttpCacheHandlingRule#onCacheDeliver(SlingHttpServletRequest, SlingHttpServletResponse)} exposed.
@@ -62,6 +101,39 @@ public interface HttpCacheEngine {
             cacheConfig) throws HttpCachePersistenceException, HttpCacheKeyCreationException,
             HttpCacheDataStreamException;
 
+    /**
+     * Deliver the cached content obtained through {@link #getCacheContent(SlingHttpServletRequest, HttpCacheConfig)}.
+     * Custom cache handling rule hook {@link com.adobe.acs.commons.httpcache.rule.HttpCacheHandlingRule#onCacheDeliver
+     * (SlingHttpServletRequest, SlingHttpServletResponse, HttpCacheConfig, CacheContent)} exposed. Content held in a
+     * content coding, such as gzip, is delivered as is to clients accepting it and decoded for the others. The cached
+     * content is closed once delivered.
+     *
+     * @param request
+     * @param response
+     * @param cacheConfig
+     * @param cacheContent
+     * @return False if cache cannot deliver this.
+     * @throws HttpCacheDataStreamException
+     */
+    boolean deliverCacheContent(SlingHttpServletRequest request, SlingHttpServletResponse response, HttpCacheConfig
+            cacheConfig, CacheContent cacheContent) throws HttpCacheDataStreamException;
+
+    /**
+     * Deliver the cached response for the given request, however stale, in place of a failed rendering. Only done
+     * for cache configs serving stale content on error, and while the response is not committed.
+     *
+     * @param request
+     * @param response
+     * @param cacheConfig
+     * @return False if no cached response could be delivered.
+     * @throws HttpCacheKeyCreationException
+     * @throws HttpCacheDataStreamException
+     * @throws HttpCachePersistenceException
+     */
+    boolean deliverStaleCacheContent(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                     HttpCacheConfig cacheConfig) throws HttpCacheKeyCreationException,
+            HttpCacheDataStreamException, HttpCachePersistenceException;
+
     /**
      * Wrap the response so that response stream can be duplicated.
      *
@@ -103,11 +175,31 @@ public interface HttpCacheEngine {
 
     /**
      * Invalidate the cache for the {@linkplain com.adobe.acs.commons.httpcache.config.HttpCacheConfig} which is
-     * interested in the given path. Custom cache handling rule hook {@link com.adobe.acs.commons.httpcache.rule
+     * interested in the given path. Only the cached request URIs mapped from the path are invalidated when the config
+     * has matching invalidation mappings. Custom cache handling rule hook {@link com.adobe.acs.commons.httpcache.rule
      * .HttpCacheHandlingRule#onCacheInvalidate(String)} exposed.
      *
      * @param path JCR repository path.
      * @throws HttpCachePersistenceException
      */
     void invalidateCache(String path) throws HttpCachePersistenceException;
+
+    /**
+     * Invalidate the cache for a batch of changed JCR paths. Each cache config interested in any of the paths gets
+     * invalidated at most once, for the union of the request URIs mapped from its paths.
+     *
+     * @param paths JCR repository paths.
+     * @throws HttpCachePersistenceException
+     * @see #invalidateCache(String)
+     */
+    void invalidateCache(Collection<String> paths) throws HttpCachePersistenceException;
+
+    /**
+     * Get the request URIs most often delivered from cache to anonymous requests lately, counts decaying over time so
+     * that URIs no longer requested drop out. Lets the cache be warmed up with the responses most worth caching.
+     *
+     * @param max Maximum number of URIs.
+     * @return URIs, most often delivered first.
+     */
+    List<String> getHotRequestUris(int max);
 }
@@ -0,0 +1,148 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deliveries counts of a bounded number of request URIs, ageing so that they follow changes of popularity.
+ * <p> Counts are halved every half-life, and URIs counted down to zero are dropped. Once the maximum number of URIs
+ * is tracked, the URIs delivered once, such as the ones of a crawler sweep, are dropped to make room; if there are
+ * none, the counts are halved right away. Ageing is done by one thread at a time, the others go on without waiting.
+ * Deliveries racing with ageing may get lost. </p>
+ */
+class HotRequestUris {
+    private final int maxSize;
+    private final long halfLife;
+
+    private final ConcurrentHashMap<String, AtomicLong> deliveriesByUri = new ConcurrentHashMap<String,
+            AtomicLong>();
+    private final AtomicBoolean ageing = new AtomicBoolean(false);
+    private volatile long agedAt;
+
+    /**
+     * @param maxSize  Maximum number of request URIs tracked.
+     * @param halfLife Time in ms after which the counts are halved.
+     */
+    HotRequestUris(int maxSize, long halfLife) {
+        this.maxSize = maxSize;
+        this.halfLife = halfLife;
+        this.agedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Count a delivery of the request URI.
+     *
+     * @param requestUri
+     */
+    void record(String requestUri) {
+        record(requestUri, System.currentTimeMillis());
+    }
+
+    void record(String requestUri, long now) {
+        if (now - agedAt >= halfLife) {
+            age(now, false);
+        }
+
+        AtomicLong deliveries = deliveriesByUri.get(requestUri);
+        if (null == deliveries) {
+            if (deliveriesByUri.size() >= maxSize && (!age(now, true) || deliveriesByUri.size() >= maxSize)) {
+                // Aged by another thread, or still full.
+                return;
+            }
+            deliveriesByUri.putIfAbsent(requestUri, new AtomicLong(0L));
+            deliveries = deliveriesByUri.get(requestUri);
+            if (null == deliveries) {
+                // Dropped by ageing meanwhile.
+                return;
+            }
+        }
+        deliveries.incrementAndGet();
+    }
+
+    /**
+     * Get the request URIs delivered most often.
+     *
+     * @param max Maximum number of URIs.
+     * @return URIs, most often delivered first.
+     */
+    List<String> getTop(int max) {
+        // Counts keep going up while sorting; sort a snapshot.
+        final Map<String, Long> snapshot = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : deliveriesByUri.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+
+        final List<String> requestUris = new ArrayList<String>(snapshot.keySet());
+        Collections.sort(requestUris, new Comparator<String>() {
+            @Override
+            public int compare(String uri1, String uri2) {
+                final long deliveries1 = snapshot.get(uri1);
+                final long deliveries2 = snapshot.get(uri2);
+                return deliveries1 < deliveries2 ? 1 : (deliveries1 == deliveries2 ? uri1.compareTo(uri2) : -1);
+            }
+        });
+        return requestUris.size() > max ? new ArrayList<String>(requestUris.subList(0, Math.max(max, 0))) :
+                requestUris;
+    }
+
+    int size() {
+        return deliveriesByUri.size();
+    }
+
+    /**
+     * Halve the counts, or only drop the URIs delivered once to make room if there are any, and drop the URIs counted
+     * down to zero.
+     *
+     * @param now
+     * @param makeRoom True to drop the URIs delivered once rather than halving, if there are any.
+     * @return True if aged by this thread.
+     */
+    private boolean age(long now, boolean makeRoom) {
+        if (!ageing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            if (makeRoom && dropDeliveredOnce()) {
+                return true;
+            }
+            for (Iterator<AtomicLong> iterator = deliveriesByUri.values().iterator(); iterator.hasNext(); ) {
+                final AtomicLong deliveries = iterator.next();
+                long current;
+                do {
+                    current = deliveries.get();
+                } while (!deliveries.compareAndSet(current, current / 2));
+                if (current / 2 == 0) {
+                    iterator.remove();
+                }
+            }
+            agedAt = now;
+            return true;
+        } finally {
+            ageing.set(false);
+        }
+    }
+
+    /**
+     * Drop the URIs delivered once.
+     *
+     * @return True if any got dropped.
+     */
+    private boolean dropDeliveredOnce() {
+        boolean dropped = false;
+        for (Iterator<AtomicLong> iterator = deliveriesByUri.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().get() <= 1L) {
+                iterator.remove();
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,139 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.acs.commons.httpcache.config.AuthenticationStatusConfigConstants;
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-selects the cache configs which may accept a request, out of the request URI and authentication status, in a
+ * single pass over the URI. <p> The literal prefixes of the request URI patterns of all the configs are compiled into
+ * a character trie. Walking the request URI down the trie yields the configs with a pattern whose literal prefix the
+ * URI starts with; only these patterns can match the URI. Configs whose authentication requirement rules out the
+ * request are dropped up front. </p> <p> The pre-selection is conservative: the candidates still have to accept the
+ * request, but configs left out are guaranteed not to. Immutable; rebuilt whenever cache configs come and go. </p>
+ */
+class HttpCacheConfigMatcher {
+    /** Characters ending the literal prefix of a regex. */
+    private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    /** Cache configs in order. Candidates are indexes into this array. */
+    private final HttpCacheConfig[] cacheConfigs;
+    /** Configs accepting anonymous requests. */
+    private final BitSet anonymousConfigs = new BitSet();
+    /** Configs accepting authenticated requests. */
+    private final BitSet authenticatedConfigs = new BitSet();
+    /** Trie of the literal prefixes of the request URI patterns. */
+    private final TrieNode root = new TrieNode();
+
+    /**
+     * Compile the cache configs.
+     *
+     * @param cacheConfigs Cache configs sorted by order.
+     */
+    HttpCacheConfigMatcher(List<HttpCacheConfig> cacheConfigs) {
+        this.cacheConfigs = cacheConfigs.toArray(new HttpCacheConfig[cacheConfigs.size()]);
+
+        for (int i = 0; i < this.cacheConfigs.length; i++) {
+            final HttpCacheConfig cacheConfig = this.cacheConfigs[i];
+
+            final String authenticationRequirement = cacheConfig.getAuthenticationRequirement();
+            if (!AuthenticationStatusConfigConstants.AUTHENTICATED_REQUEST.equals(authenticationRequirement)) {
+                anonymousConfigs.set(i);
+            }
+            if (!AuthenticationStatusConfigConstants.ANONYMOUS_REQUEST.equals(authenticationRequirement)) {
+                authenticatedConfigs.set(i);
+            }
+
+            for (Pattern pattern : cacheConfig.getRequestUriPatterns()) {
+                root.add(getLiteralPrefix(pattern), 0).configs.set(i);
+            }
+        }
+    }
+
+    /**
+     * Get the cache configs which may accept a request with the given URI and authentication status.
+     *
+     * @param uri
+     * @param isAnonymous
+     * @return Candidates in cache config order.
+     */
+    List<HttpCacheConfig> getCandidates(String uri, boolean isAnonymous) {
+        // Walk the URI down the trie, collecting the configs of every prefix passed.
+        final BitSet candidates = new BitSet(cacheConfigs.length);
+        TrieNode node = root;
+        int position = 0;
+        while (node != null) {
+            candidates.or(node.configs);
+            if (position == uri.length()) {
+                break;
+            }
+            node = node.children.get(uri.charAt(position++));
+        }
+        candidates.and(isAnonymous ? anonymousConfigs : authenticatedConfigs);
+
+        final List<HttpCacheConfig> matches = new ArrayList<HttpCacheConfig>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            matches.add(cacheConfigs[i]);
+        }
+        return matches;
+    }
+
+    /**
+     * Get the literal prefix any input matching the pattern starts with. Empty if it cannot be determined.
+     *
+     * @param pattern
+     * @return
+     */
+    static String getLiteralPrefix(Pattern pattern) {
+        final String regex = pattern.pattern();
+        // Flags and top level alternatives may void any literal prefix.
+        if (pattern.flags() != 0 || regex.indexOf('|') >= 0) {
+            return "";
+        }
+
+        int start = regex.startsWith("^") ? 1 : 0;
+        int end = start;
+        while (end < regex.length() && REGEX_META_CHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        // A quantifier makes the last literal character optional.
+        if (end < regex.length() && end > start && "?*{".indexOf(regex.charAt(end)) >= 0) {
+            end--;
+        }
+        return regex.substring(start, end);
+    }
+
+    /**
+     * Node of the literal prefix trie.
+     */
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+        /** Configs having a request URI pattern with the literal prefix ending at this node. */
+        private final BitSet configs = new BitSet();
+
+        /**
+         * Get the node of the given prefix, creating the missing nodes.
+         *
+         * @param prefix
+         * @param position Position in the prefix this node stands for.
+         * @return
+         */
+        TrieNode add(String prefix, int position) {
+            if (position == prefix.length()) {
+                return this;
+            }
+            TrieNode child = children.get(prefix.charAt(position));
+            if (null == child) {
+                child = new TrieNode();
+                children.put(prefix.charAt(position), child);
+            }
+            return child.add(prefix, position + 1);
+        }
+    }
+}
@@ -9,14 +9,22 @@ import com.adobe.acs.commons.httpcache.exception.*;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.rule.HttpCacheHandlingRule;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
+import com.adobe.acs.commons.httpcache.util.UserUtils;
 import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
-import org.apache.commons.io.IOUtils;
+import com.day.cq.contentsync.handler.util.RequestResponseFactory;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.FastDateFormat;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.felix.scr.annotations.*;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.engine.SlingRequestProcessor;
 import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,10 +32,21 @@ import org.slf4j.LoggerFactory;
 import javax.management.DynamicMBean;
 import javax.management.NotCompliantMBeanException;
 import javax.management.openmbean.*;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default implementation for {@link HttpCacheEngine}. Binds multiple {@link HttpCacheConfig}. Multiple {@link
@@ -73,6 +92,10 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
     /** Thread safe list to contain the registered HttpCacheConfig references. */
     private static final CopyOnWriteArrayList<HttpCacheConfig> cacheConfigs = new CopyOnWriteArrayList<HttpCacheConfig>();
 
+    /** Pre-selection of the cache configs for a request. Rebuilt along with cacheConfigs. */
+    private static volatile HttpCacheConfigMatcher cacheConfigMatcher = new HttpCacheConfigMatcher(Collections
+            .<HttpCacheConfig>emptyList());
+
     /** Method name that binds cache store */
     static final String METHOD_NAME_TO_BIND_CACHE_STORE = "httpCacheStore";
     /** Thread safe hash map to contain the registered cache store references. */
@@ -80,9 +103,12 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
 
     /** Method name that binds cache handling rules */
     static final String METHOD_NAME_TO_BIND_CACHE_HANDLING_RULES = "httpCacheHandlingRule";
-    /** Thread safe map to contain the registered HttpCacheHandlingRule references. */
-    private static final ConcurrentHashMap<String, HttpCacheHandlingRule> cacheHandlingRules = new
-            ConcurrentHashMap<String, HttpCacheHandlingRule>();
+    /** Thread safe map to contain the registered HttpCacheHandlingRule references, along with their timings. */
+    private static final ConcurrentHashMap<String, TimedCacheHandlingRule> cacheHandlingRules = new
+            ConcurrentHashMap<String, TimedCacheHandlingRule>();
+
+    /** Applicable rules by cache config, global rules first. Rebuilt whenever rules or configs come and go. */
+    private volatile Map<HttpCacheConfig, TimedCacheHandlingRule[]> ruleChains = Collections.emptyMap();
 
     // formatter:off
     @Property(label = "Global HttpCacheHandlingRules",
@@ -97,6 +123,144 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
     private static final String PROP_GLOBAL_CACHE_HANDLING_RULES_PID = "httpcache.engine.cache-handling-rules.global";
     private List<String> globalCacheHandlingRulesPid;
 
+    @Property(label = "Coalesce concurrent cache misses",
+              description = "Let only the first of concurrent requests for the same uncached response render it, "
+                      + "while the others wait for it to be cached.",
+              boolValue = HttpCacheEngineImpl.DEFAULT_COALESCING_ENABLED)
+    private static final String PROP_COALESCING_ENABLED = "httpcache.engine.coalescing.enabled";
+    private static final boolean DEFAULT_COALESCING_ENABLED = true;
+    private boolean coalescingEnabled;
+
+    @Property(label = "Coalescing wait time",
+              description = "Maximum time in milliseconds a request waits for a concurrent request rendering the same "
+                      + "response. The request renders the response itself afterwards.",
+              longValue = HttpCacheEngineImpl.DEFAULT_COALESCING_WAIT)
+    private static final String PROP_COALESCING_WAIT = "httpcache.engine.coalescing.wait";
+    private static final long DEFAULT_COALESCING_WAIT = 5000L;
+    private long coalescingWait;
+
+    @Property(label = "Maximum cacheable size",
+              description = "Maximum size in KB of the responses to cache. Larger responses are delivered as usual but "
+                      + "stop being copied for the cache as soon as they outgrow it. -1 for no limit.",
+              longValue = HttpCacheEngineImpl.DEFAULT_MAX_CACHEABLE_SIZE)
+    private static final String PROP_MAX_CACHEABLE_SIZE = "httpcache.engine.max-cacheable-size";
+    private static final long DEFAULT_MAX_CACHEABLE_SIZE = -1L;
+    /** Maximum cacheable size in bytes, -1 for no limit. */
+    private long maxCacheableSize;
+
+    private final AtomicLong oversizedResponsesCount = new AtomicLong(0L);
+
+    /** Headers of content negotiation on encoding. */
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final String VARY_HEADER = "Vary";
+
+    /** Headers of conditional requests. */
+    private static final String ETAG_HEADER = "ETag";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+    private static final String WEAK_ETAG_PREFIX = "W/";
+    /** Format of HTTP dates. */
+    private static final String HTTP_DATE_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private static final FastDateFormat HTTP_DATE_FORMAT = FastDateFormat.getInstance(HTTP_DATE_PATTERN, TimeZone
+            .getTimeZone("GMT"), Locale.US);
+
+    /** Request attribute holding the cache key built for the request. */
+    private static final String ATTR_CACHE_KEY = HttpCacheEngineImpl.class.getName() + ".cacheKey";
+
+    /** Request attribute holding the claim of a request rendering a response other requests may wait on. */
+    private static final String ATTR_IN_FLIGHT_RESPONSE = HttpCacheEngineImpl.class.getName() + ".inFlightResponse";
+
+    /** Latches of the responses being rendered, by cache key. */
+    private final ConcurrentHashMap<CacheKey, CountDownLatch> inFlightResponses = new ConcurrentHashMap<CacheKey,
+            CountDownLatch>();
+
+    private final AtomicLong coalescedRequestsCount = new AtomicLong(0L);
+    private final AtomicLong coalescingTimeoutsCount = new AtomicLong(0L);
+
+    @Property(label = "Asynchronous cache writes",
+              description = "Hand the captured responses over to the cache store on a background worker pool instead "
+                      + "of the request thread. Writes are dropped when the queue is full.",
+              boolValue = HttpCacheEngineImpl.DEFAULT_ASYNC_WRITES_ENABLED)
+    private static final String PROP_ASYNC_WRITES_ENABLED = "httpcache.engine.async-writes.enabled";
+    private static final boolean DEFAULT_ASYNC_WRITES_ENABLED = false;
+
+    @Property(label = "Asynchronous cache writer threads",
+              description = "Number of worker threads writing to the cache stores.",
+              intValue = HttpCacheEngineImpl.DEFAULT_ASYNC_WRITES_THREADS)
+    private static final String PROP_ASYNC_WRITES_THREADS = "httpcache.engine.async-writes.threads";
+    private static final int DEFAULT_ASYNC_WRITES_THREADS = 2;
+
+    @Property(label = "Asynchronous cache write queue size",
+              description = "Maximum number of responses waiting to be written to the cache stores.",
+              intValue = HttpCacheEngineImpl.DEFAULT_ASYNC_WRITES_QUEUE_SIZE)
+    private static final String PROP_ASYNC_WRITES_QUEUE_SIZE = "httpcache.engine.async-writes.queue-size";
+    private static final int DEFAULT_ASYNC_WRITES_QUEUE_SIZE = 500;
+
+    /** Worker pool for asynchronous cache writes. Null when writes are done on the request thread. */
+    private ThreadPoolExecutor cacheWriteExecutor;
+
+    private final AtomicLong asyncCacheWritesCount = new AtomicLong(0L);
+    private final AtomicLong droppedCacheWritesCount = new AtomicLong(0L);
+    private final AtomicLong failedCacheWritesCount = new AtomicLong(0L);
+
+    @Property(label = "Stale response refresh threads",
+              description = "Number of worker threads re-rendering stale responses served within the grace period of "
+                      + "their cache config.",
+              intValue = HttpCacheEngineImpl.DEFAULT_REFRESH_THREADS)
+    private static final String PROP_REFRESH_THREADS = "httpcache.engine.refresh.threads";
+    private static final int DEFAULT_REFRESH_THREADS = 2;
+
+    @Property(label = "Stale response refresh queue size",
+              description = "Maximum number of stale responses waiting to be refreshed. Refreshes are dropped when "
+                      + "the queue is full and retried on a later request.",
+              intValue = HttpCacheEngineImpl.DEFAULT_REFRESH_QUEUE_SIZE)
+    private static final String PROP_REFRESH_QUEUE_SIZE = "httpcache.engine.refresh.queue-size";
+    private static final int DEFAULT_REFRESH_QUEUE_SIZE = 100;
+
+    /** Request attribute marking the synthetic requests refreshing stale responses. */
+    private static final String ATTR_REFRESH = HttpCacheEngineImpl.class.getName() + ".refresh";
+
+    /** Worker pool re-rendering stale responses. */
+    private ThreadPoolExecutor refreshExecutor;
+
+    /** Keys of the stale responses being refreshed, so that each gets a single refresh at a time. */
+    private final ConcurrentHashMap<CacheKey, Boolean> refreshesInFlight = new ConcurrentHashMap<CacheKey,
+            Boolean>();
+
+    private final AtomicLong staleDeliveriesCount = new AtomicLong(0L);
+    private final AtomicLong staleOnErrorDeliveriesCount = new AtomicLong(0L);
+    private final AtomicLong refreshesCount = new AtomicLong(0L);
+    private final AtomicLong failedRefreshesCount = new AtomicLong(0L);
+    private final AtomicLong droppedRefreshesCount = new AtomicLong(0L);
+    private final AtomicLong notModifiedResponsesCount = new AtomicLong(0L);
+
+    /** Request attribute holding the <code>System.nanoTime()</code> of the first cache lookup of the request. */
+    private static final String ATTR_LOOKUP_START = HttpCacheEngineImpl.class.getName() + ".lookupStart";
+
+    /** Maximum number of request URIs tracked for {@link #getHotRequestUris(int)}. */
+    private static final int HOT_REQUEST_URIS_MAX_SIZE = 10000;
+    /** Time after which the deliveries counts of the request URIs are halved. */
+    private static final long HOT_REQUEST_URIS_HALF_LIFE = TimeUnit.HOURS.toMillis(1L);
+    /** Deliveries from cache to anonymous requests by request URI. */
+    private final HotRequestUris anonymousDeliveriesByUri = new HotRequestUris(HOT_REQUEST_URIS_MAX_SIZE,
+            HOT_REQUEST_URIS_HALF_LIFE);
+
+    /** Metrics by cache config. */
+    private final ConcurrentHashMap<HttpCacheConfig, HttpCacheMetrics> configMetrics = new
+            ConcurrentHashMap<HttpCacheConfig, HttpCacheMetrics>();
+    /** Metrics by cache store name, rolled up from the metrics of the cache configs. */
+    private final ConcurrentHashMap<String, HttpCacheMetrics> storeMetrics = new ConcurrentHashMap<String,
+            HttpCacheMetrics>();
+
+    @Reference
+    private SlingRequestProcessor slingRequestProcessor;
+
+    @Reference
+    private RequestResponseFactory requestResponseFactory;
+
     /** Thread safe list containing the OSGi configurations for the registered httpCacheConfigs. Used only for mbean.*/
     private static final ConcurrentHashMap<HttpCacheConfig, Map<String, Object>> cacheConfigConfigs = new
             ConcurrentHashMap<HttpCacheConfig, Map<String, Object>>();
@@ -129,8 +293,10 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             tmp.add(cacheConfig);
 
             Collections.sort(tmp, new HttpCacheConfigComparator());
+            cacheConfigMatcher = new HttpCacheConfigMatcher(tmp);
             this.cacheConfigs.clear();
             this.cacheConfigs.addAll(tmp);
+            buildRuleChains();
         }
 
         this.cacheConfigConfigs.put(cacheConfig, configs);
@@ -155,8 +321,13 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             }
 
             // Remove the entry from the map.
-            cacheConfigs.remove(cacheConfig);
+            synchronized (this.cacheConfigs) {
+                cacheConfigs.remove(cacheConfig);
+                cacheConfigMatcher = new HttpCacheConfigMatcher(cacheConfigs);
+                buildRuleChains();
+            }
             cacheConfigConfigs.remove(cacheConfig);
+            configMetrics.remove(cacheConfig);
 
             log.debug("Total number of cache configs after removal: {}", cacheConfigs.size());
             return;
@@ -210,7 +381,10 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
         // Get the service pid and make it as key.
         String servicePid = PropertiesUtil.toString(configs.get("service.pid"), StringUtils.EMPTY);
         if (!cacheHandlingRules.containsKey(servicePid)) {
-            cacheHandlingRules.put(servicePid, cacheHandlingRule);
+            synchronized (this.cacheConfigs) {
+                cacheHandlingRules.put(servicePid, new TimedCacheHandlingRule(servicePid, cacheHandlingRule));
+                buildRuleChains();
+            }
             log.debug("Cache handling rule implementation {} has been added", cacheHandlingRule.getClass().getName());
             log.debug("Total number of cache handling rule available after addition: {}", cacheHandlingRules.size());
         }
@@ -226,8 +400,11 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             Object> configs) {
 
         String servicePid = PropertiesUtil.toString(configs.get("service.pid"), StringUtils.EMPTY);
-        if (cacheHandlingRules.contains(servicePid)) {
-            cacheHandlingRules.remove(cacheHandlingRule);
+        if (cacheHandlingRules.containsKey(servicePid)) {
+            synchronized (this.cacheConfigs) {
+                cacheHandlingRules.remove(servicePid);
+                buildRuleChains();
+            }
             log.debug("Cache handling rule removed - {}.", cacheHandlingRule.getClass().getName());
             log.debug("Total number of cache handling rules available after removal: {}", cacheHandlingRules.size());
         }
@@ -246,11 +423,62 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
                 listIterator.remove();
             }
         }
+        synchronized (this.cacheConfigs) {
+            buildRuleChains();
+        }
+
+        // Request coalescing.
+        coalescingEnabled = PropertiesUtil.toBoolean(configs.get(PROP_COALESCING_ENABLED),
+                DEFAULT_COALESCING_ENABLED);
+        coalescingWait = PropertiesUtil.toLong(configs.get(PROP_COALESCING_WAIT), DEFAULT_COALESCING_WAIT);
+
+        final long maxCacheableSizeInKb = PropertiesUtil.toLong(configs.get(PROP_MAX_CACHEABLE_SIZE),
+                DEFAULT_MAX_CACHEABLE_SIZE);
+        maxCacheableSize = maxCacheableSizeInKb < 0 ? -1L : maxCacheableSizeInKb * 1024L;
+
+        // Asynchronous cache writes.
+        if (PropertiesUtil.toBoolean(configs.get(PROP_ASYNC_WRITES_ENABLED), DEFAULT_ASYNC_WRITES_ENABLED)) {
+            final int threads = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_ASYNC_WRITES_THREADS),
+                    DEFAULT_ASYNC_WRITES_THREADS));
+            final int queueSize = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_ASYNC_WRITES_QUEUE_SIZE),
+                    DEFAULT_ASYNC_WRITES_QUEUE_SIZE));
+            cacheWriteExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new
+                    ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory(
+                    "acs-commons-httpcache-writer-"));
+        }
+
+        // Refreshes of stale responses.
+        final int refreshThreads = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_REFRESH_THREADS),
+                DEFAULT_REFRESH_THREADS));
+        final int refreshQueueSize = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_REFRESH_QUEUE_SIZE),
+                DEFAULT_REFRESH_QUEUE_SIZE));
+        refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0L, TimeUnit.MILLISECONDS, new
+                ArrayBlockingQueue<Runnable>(refreshQueueSize), new NamedThreadFactory(
+                "acs-commons-httpcache-refresh-"));
+
         log.info("HttpCacheEngineImpl activated.");
     }
 
     @Deactivate
     protected void deactivate(Map<String, Object> configs) {
+        if (null != cacheWriteExecutor) {
+            // Let queued writes finish for a moment; whatever is left is only a cache miss.
+            cacheWriteExecutor.shutdown();
+            try {
+                if (!cacheWriteExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    cacheWriteExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                cacheWriteExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            cacheWriteExecutor = null;
+        }
+        if (null != refreshExecutor) {
+            // Pending refreshes are dropped; the stale responses get refreshed on a later request.
+            refreshExecutor.shutdownNow();
+            refreshExecutor = null;
+        }
         log.info("HttpCacheEngineImpl deactivated.");
     }
 
@@ -260,18 +488,17 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             HttpCacheRepositoryAccessException {
 
         // Execute custom rules.
-        for (final Map.Entry<String, HttpCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
-            // Apply rule if it's a configured global or cache-config tied rule.
-            if (globalCacheHandlingRulesPid.contains(entry.getKey()) || cacheConfig.acceptsRule(entry.getKey())) {
-                HttpCacheHandlingRule rule = entry.getValue();
-                if (!rule.onRequestReceive(request)) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Request cannot be cached for the url {} honoring the rule {}", request
-                                .getRequestURL(), rule.getClass().getName());
-                    }
-                    // Only a single rule need to fail to cause the caching mechanism to be by-passed
-                    return false;
+        for (final TimedCacheHandlingRule timedRule : getRuleChain(cacheConfig)) {
+            final HttpCacheHandlingRule rule = timedRule.getRule();
+            final long start = System.nanoTime();
+            if (!timedRule.record(start, rule.onRequestReceive(request))) {
+                getMetrics(cacheConfig).recordRuleRejection();
+                if (log.isDebugEnabled()) {
+                    log.debug("Request cannot be cached for the url {} honoring the rule {}", request
+                            .getRequestURL(), rule.getClass().getName());
                 }
+                // Only a single rule need to fail to cause the caching mechanism to be by-passed
+                return false;
             }
         }
 
@@ -286,7 +513,9 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
         // Get the first accepting cache config based on the cache config order.
         HttpCacheConfig bestCacheConfig = null;
 
-        for (HttpCacheConfig cacheConfig : cacheConfigs) {
+        // Only the configs whose request URI patterns and authentication requirement may match are evaluated.
+        final boolean isAnonymous = UserUtils.isAnonymous(request.getResourceResolver().getUserID());
+        for (HttpCacheConfig cacheConfig : cacheConfigMatcher.getCandidates(request.getRequestURI(), isAnonymous)) {
             if (bestCacheConfig != null) {
                 // A matching HttpCacheConfig has been found, so check for order + acceptance conflicts
                 if (bestCacheConfig.getOrder() == cacheConfig.getOrder()) {
@@ -315,7 +544,216 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             HttpCacheKeyCreationException, HttpCachePersistenceException {
 
         // Build a cache key and do a lookup in the configured cache store.
-        return getCacheStore(cacheConfig).contains(cacheConfig.buildCacheKey(request));
+        return getCacheStore(cacheConfig).contains(getCacheKey(request, cacheConfig));
+    }
+
+    @Override
+    public CacheContent getCacheContent(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
+            HttpCacheKeyCreationException, HttpCachePersistenceException {
+
+        if (null != request.getAttribute(ATTR_REFRESH)) {
+            // Refreshes always render the response.
+            return null;
+        }
+        if (null == request.getAttribute(ATTR_LOOKUP_START)) {
+            request.setAttribute(ATTR_LOOKUP_START, System.nanoTime());
+        }
+
+        final CacheKey cacheKey = getCacheKey(request, cacheConfig);
+        final CacheContent cacheContent = getCacheStore(cacheConfig).getIfPresent(cacheKey);
+        if (null == cacheContent) {
+            return null;
+        }
+
+        final long staleTime = getStaleTime(cacheContent, cacheConfig);
+        final long now = System.currentTimeMillis();
+        if (staleTime < 0 || now < staleTime) {
+            return cacheContent;
+        }
+
+        if (now - staleTime < TimeUnit.SECONDS.toMillis(cacheConfig.getGracePeriod())) {
+            // Served stale while a single background request renders the response afresh.
+            staleDeliveriesCount.incrementAndGet();
+            submitRefresh(request, cacheKey);
+            return cacheContent;
+        }
+
+        // Past its grace period; the response is rendered by this request.
+        cacheContent.close();
+        return null;
+    }
+
+    /**
+     * Get the time the cached content got stale, by age as per the soft TTL of the cache config or by invalidation,
+     * whichever came first.
+     *
+     * @param cacheContent
+     * @param cacheConfig
+     * @return Time in milliseconds, or -1 if the content isn't due to get stale.
+     */
+    private long getStaleTime(CacheContent cacheContent, HttpCacheConfig cacheConfig) {
+        long staleTime = cacheContent.getInvalidationTime();
+        if (cacheConfig.getSoftTtl() >= 0 && cacheContent.getCreationTime() >= 0) {
+            final long expiryTime = cacheContent.getCreationTime() + TimeUnit.SECONDS.toMillis(cacheConfig
+                    .getSoftTtl());
+            staleTime = staleTime < 0 ? expiryTime : Math.min(staleTime, expiryTime);
+        }
+        return staleTime;
+    }
+
+    /**
+     * Queue the refresh of a stale response, unless one is already pending for its cache key. The response is
+     * re-rendered through a synthetic GET request on the request URI, issued with a clone of the resource resolver of
+     * the request so that it gets the same cache config and key. The synthetic request goes through the cache filter
+     * like any other and replaces the stale response in the cache store.
+     *
+     * @param request
+     * @param cacheKey
+     */
+    private void submitRefresh(final SlingHttpServletRequest request, final CacheKey cacheKey) {
+        if (null != refreshesInFlight.putIfAbsent(cacheKey, Boolean.TRUE)) {
+            return;
+        }
+
+        final String requestUri = request.getRequestURI();
+        final ResourceResolver resourceResolver;
+        try {
+            resourceResolver = request.getResourceResolver().clone(null);
+        } catch (LoginException e) {
+            refreshesInFlight.remove(cacheKey);
+            failedRefreshesCount.incrementAndGet();
+            log.error("Unable to refresh the stale response for the URI " + requestUri, e);
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final HttpServletRequest refreshRequest = requestResponseFactory.createRequest("GET",
+                                requestUri);
+                        refreshRequest.setAttribute(ATTR_REFRESH, Boolean.TRUE);
+                        final HttpServletResponse refreshResponse = requestResponseFactory.createResponse(new
+                                NullOutputStream());
+
+                        slingRequestProcessor.processRequest(refreshRequest, refreshResponse, resourceResolver);
+                        refreshesCount.incrementAndGet();
+                        log.debug("Stale response for the URI refreshed - {}", requestUri);
+                    } catch (ServletException e) {
+                        failedRefreshesCount.incrementAndGet();
+                        log.error("Unable to refresh the stale response for the URI " + requestUri, e);
+                    } catch (IOException e) {
+                        failedRefreshesCount.incrementAndGet();
+                        log.error("Unable to refresh the stale response for the URI " + requestUri, e);
+                    } catch (RuntimeException e) {
+                        failedRefreshesCount.incrementAndGet();
+                        log.error("Unable to refresh the stale response for the URI " + requestUri, e);
+                    } finally {
+                        resourceResolver.close();
+                        refreshesInFlight.remove(cacheKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedRefreshesCount.incrementAndGet();
+            log.debug("Refresh queue is full. Stale response for the URI not refreshed - {}", requestUri);
+            resourceResolver.close();
+            refreshesInFlight.remove(cacheKey);
+        }
+    }
+
+    /**
+     * Get the cache key of the request for the given config. The key is built once per request and config, and kept
+     * in a request attribute for the later phases of the request.
+     *
+     * @param request
+     * @param cacheConfig
+     * @return
+     * @throws HttpCacheKeyCreationException
+     */
+    private CacheKey getCacheKey(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
+            HttpCacheKeyCreationException {
+
+        final Object requestCacheKey = request.getAttribute(ATTR_CACHE_KEY);
+        if (requestCacheKey instanceof RequestCacheKey && ((RequestCacheKey) requestCacheKey).cacheConfig ==
+                cacheConfig) {
+            return ((RequestCacheKey) requestCacheKey).cacheKey;
+        }
+
+        final CacheKey cacheKey = cacheConfig.buildCacheKey(request);
+        request.setAttribute(ATTR_CACHE_KEY, new RequestCacheKey(cacheConfig, cacheKey));
+        return cacheKey;
+    }
+
+    /**
+     * Cache key built for a request along with the config it was built for.
+     */
+    private static class RequestCacheKey {
+        private final HttpCacheConfig cacheConfig;
+        private final CacheKey cacheKey;
+
+        RequestCacheKey(HttpCacheConfig cacheConfig, CacheKey cacheKey) {
+            this.cacheConfig = cacheConfig;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    @Override
+    public boolean claimOrAwaitResponse(SlingHttpServletRequest request, HttpCacheConfig cacheConfig) throws
+            HttpCacheKeyCreationException {
+
+        if (!coalescingEnabled) {
+            return true;
+        }
+
+        final CacheKey cacheKey = getCacheKey(request, cacheConfig);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch inFlightLatch = inFlightResponses.putIfAbsent(cacheKey, latch);
+        if (null == inFlightLatch) {
+            // No other request is rendering this response; claim it.
+            request.setAttribute(ATTR_IN_FLIGHT_RESPONSE, new InFlightResponse(cacheKey, latch));
+            return true;
+        }
+
+        try {
+            if (inFlightLatch.await(coalescingWait, TimeUnit.MILLISECONDS)) {
+                coalescedRequestsCount.incrementAndGet();
+            } else {
+                coalescingTimeoutsCount.incrementAndGet();
+                log.debug("Timed out waiting for a concurrent request rendering [ {} ]", request.getRequestURI());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public void releaseResponse(SlingHttpServletRequest request) {
+        final Object inFlightResponse = request.getAttribute(ATTR_IN_FLIGHT_RESPONSE);
+        if (inFlightResponse instanceof InFlightResponse) {
+            request.removeAttribute(ATTR_IN_FLIGHT_RESPONSE);
+            ((InFlightResponse) inFlightResponse).release();
+        }
+    }
+
+    /**
+     * Claim of a request on rendering the response for a cache key.
+     */
+    private class InFlightResponse {
+        private final CacheKey cacheKey;
+        private final CountDownLatch latch;
+
+        InFlightResponse(CacheKey cacheKey, CountDownLatch latch) {
+            this.cacheKey = cacheKey;
+            this.latch = latch;
+        }
+
+        void release() {
+            inFlightResponses.remove(cacheKey, latch);
+            latch.countDown();
+        }
     }
 
     @Override
@@ -324,14 +762,28 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             HttpCacheDataStreamException, HttpCachePersistenceException {
 
         // Get the cached content from cache
-        CacheContent cacheContent = getCacheStore(cacheConfig).getIfPresent(cacheConfig.buildCacheKey(request));
+        CacheContent cacheContent = getCacheContent(request, cacheConfig);
+        if (null == cacheContent) {
+            // Entry got evicted or expired since the lookup.
+            return false;
+        }
 
-        // Execute custom rules.
-        for (final Map.Entry<String, HttpCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
-            // Apply rule if it's a configured global or cache-config tied rule.
-            if (globalCacheHandlingRulesPid.contains(entry.getKey()) || cacheConfig.acceptsRule(entry.getKey())) {
-                HttpCacheHandlingRule rule = entry.getValue();
-                if (!rule.onCacheDeliver(request, response, cacheConfig, cacheContent)) {
+        return deliverCacheContent(request, response, cacheConfig, cacheContent);
+    }
+
+    @Override
+    public boolean deliverCacheContent(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                       HttpCacheConfig cacheConfig, CacheContent cacheContent) throws
+            HttpCacheDataStreamException {
+
+        final long lookupStart = getLookupStart(request);
+        try {
+            // Execute custom rules.
+            for (final TimedCacheHandlingRule timedRule : getRuleChain(cacheConfig)) {
+                final HttpCacheHandlingRule rule = timedRule.getRule();
+                final long start = System.nanoTime();
+                if (!timedRule.record(start, rule.onCacheDeliver(request, response, cacheConfig, cacheContent))) {
+                    getMetrics(cacheConfig).recordRuleRejection();
                     if (log.isDebugEnabled()) {
                         log.debug("Cache cannot be delivered for the url {} honoring the rule {}", request
                                 .getRequestURL(), rule.getClass().getName());
@@ -339,22 +791,62 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
                     return false;
                 }
             }
-        }
 
-        // Spool header info into the servlet response.
-        for (String headerName : cacheContent.getHeaders().keySet()) {
-            for (String headerValue : cacheContent.getHeaders().get(headerName)) {
-                response.setHeader(headerName, headerValue);
+            // Deliver the content as held by the cache store if the client accepts its content coding.
+            final String contentEncoding = cacheContent.getContentEncoding();
+            final boolean isEncodedDelivery = null != contentEncoding && acceptsEncoding(request.getHeader
+                    (ACCEPT_ENCODING_HEADER), contentEncoding);
+
+            // Validators of the delivered representation; the encoded one has an entity tag of its own.
+            final String etag = getETag(cacheContent, isEncodedDelivery ? contentEncoding : null);
+            final boolean isNotModified = isNotModified(request, etag, getHeader(cacheContent,
+                    LAST_MODIFIED_HEADER));
+
+            // Spool header info into the servlet response.
+            for (Map.Entry<String, List<String>> header : cacheContent.getHeaders().entrySet()) {
+                if ((isEncodedDelivery || isNotModified) && CONTENT_LENGTH_HEADER.equalsIgnoreCase(header.getKey())) {
+                    // Length of the decoded content.
+                    continue;
+                }
+                if (ETAG_HEADER.equalsIgnoreCase(header.getKey())) {
+                    response.setHeader(header.getKey(), etag);
+                    continue;
+                }
+                for (String headerValue : header.getValue()) {
+                    response.setHeader(header.getKey(), headerValue);
+                }
             }
-        }
 
-        // Spool other attributes to the servlet response.
-        response.setCharacterEncoding(cacheContent.getCharEncoding());
-        response.setContentType(cacheContent.getContentType());
+            // Spool other attributes to the servlet response.
+            response.setCharacterEncoding(cacheContent.getCharEncoding());
+            response.setContentType(cacheContent.getContentType());
+            if (null != contentEncoding) {
+                response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+            }
 
-        // Copy the cached data into the servlet output stream.
-        try {
-            IOUtils.copy(cacheContent.getInputDataStream(), response.getOutputStream());
+            if (isNotModified) {
+                // The client holds the response already.
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                notModifiedResponsesCount.incrementAndGet();
+                getMetrics(cacheConfig).recordHit(System.nanoTime() - lookupStart, 0L);
+                recordHotRequestUri(request);
+                if (log.isDebugEnabled()) {
+                    log.debug("Not modified response delivered from cache for the url [ {} ]", request
+                            .getRequestURI());
+                }
+                return true;
+            }
+
+            // Write the cached data straight into the servlet output stream.
+            final CountingOutputStream outputStream = new CountingOutputStream(response.getOutputStream());
+            if (isEncodedDelivery) {
+                response.setHeader(CONTENT_ENCODING_HEADER, contentEncoding);
+                cacheContent.writeEncodedTo(outputStream);
+            } else {
+                cacheContent.writeTo(outputStream);
+            }
+            getMetrics(cacheConfig).recordHit(System.nanoTime() - lookupStart, outputStream.getByteCount());
+            recordHotRequestUri(request);
             if (log.isDebugEnabled()) {
                 log.debug("Response delivered from cache for the url [ {} ]", request.getRequestURI());
             }
@@ -362,7 +854,207 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             return true;
         } catch (IOException e) {
             throw new HttpCacheDataStreamException("Unable to copy from cached data to the servlet output stream.");
+        } finally {
+            // Stores may hold resources, such as repository sessions, until the content is closed.
+            cacheContent.close();
+        }
+    }
+
+    /**
+     * Count the delivery from cache of the request URI, if anonymous. Counts age, see {@link HotRequestUris}.
+     *
+     * @param request
+     */
+    private void recordHotRequestUri(SlingHttpServletRequest request) {
+        if (!UserUtils.isAnonymous(request.getResourceResolver().getUserID())) {
+            return;
+        }
+        anonymousDeliveriesByUri.record(request.getRequestURI());
+    }
+
+    @Override
+    public List<String> getHotRequestUris(int max) {
+        return anonymousDeliveriesByUri.getTop(max);
+    }
+
+    /**
+     * Add an entity tag out of the content digest and a last modification time to the cached response headers, unless
+     * the response carries them already.
+     *
+     * @param cacheContent
+     * @param responseWrapper
+     */
+    private void addValidators(CacheContent cacheContent, HttpCacheServletResponseWrapper responseWrapper) {
+        final Map<String, List<String>> headers = cacheContent.getHeaders();
+        final String contentDigest = responseWrapper.getContentDigest();
+        if (null == getHeader(cacheContent, ETAG_HEADER) && null != contentDigest) {
+            headers.put(ETAG_HEADER, Collections.singletonList("\"" + contentDigest + "\""));
+        }
+        if (null == getHeader(cacheContent, LAST_MODIFIED_HEADER)) {
+            headers.put(LAST_MODIFIED_HEADER, Collections.singletonList(HTTP_DATE_FORMAT.format(System
+                    .currentTimeMillis())));
+        }
+    }
+
+    /**
+     * Get the first value of the given cached response header, matching the header name case insensitively.
+     *
+     * @param cacheContent
+     * @param headerName
+     * @return Header value, or null if absent.
+     */
+    private static String getHeader(CacheContent cacheContent, String headerName) {
+        for (Map.Entry<String, List<String>> header : cacheContent.getHeaders().entrySet()) {
+            if (headerName.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the entity tag of the cached response, as delivered in the given content coding.
+     *
+     * @param cacheContent
+     * @param contentEncoding Content coding of the delivery, or null if delivered decoded.
+     * @return Entity tag, or null if the cached response has none.
+     */
+    private static String getETag(CacheContent cacheContent, String contentEncoding) {
+        final String etag = getHeader(cacheContent, ETAG_HEADER);
+        if (null == etag || null == contentEncoding || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + contentEncoding + "\"";
+    }
+
+    /**
+     * Check if the conditional headers of the request are met by the cached response validators. If-None-Match takes
+     * precedence over If-Modified-Since. Only GET and HEAD requests are answered as not modified.
+     *
+     * @param request
+     * @param etag         Entity tag of the delivered representation. May be null.
+     * @param lastModified Last-Modified header of the cached response. May be null.
+     * @return True if the response can be answered as not modified.
+     */
+    private static boolean isNotModified(SlingHttpServletRequest request, String etag, String lastModified) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return false;
+        }
+
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (null != ifNoneMatch) {
+            return null != etag && matchesETag(ifNoneMatch, etag);
+        }
+
+        final String ifModifiedSince = request.getHeader(IF_MODIFIED_SINCE_HEADER);
+        if (null != ifModifiedSince && null != lastModified) {
+            try {
+                // Both dates are at second precision.
+                return parseHttpDate(lastModified) <= parseHttpDate(ifModifiedSince);
+            } catch (ParseException e) {
+                log.debug("Unable to parse the conditional request dates {} and {}", ifModifiedSince, lastModified);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse an HTTP date.
+     *
+     * @param date
+     * @return Time in milliseconds.
+     * @throws ParseException
+     */
+    private static long parseHttpDate(String date) throws ParseException {
+        // Date formats aren't thread safe.
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(HTTP_DATE_PATTERN, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return dateFormat.parse(date).getTime();
+    }
+
+    /**
+     * Check if the If-None-Match header value matches the entity tag, using the weak comparison.
+     *
+     * @param ifNoneMatch
+     * @param etag
+     * @return
+     */
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if ("*".equals(StringUtils.trim(ifNoneMatch))) {
+            return true;
+        }
+        final String opaqueTag = StringUtils.removeStart(etag, WEAK_ETAG_PREFIX);
+        for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+            if (opaqueTag.equals(StringUtils.removeStart(StringUtils.trim(candidate), WEAK_ETAG_PREFIX))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the given Accept-Encoding header value accepts the content coding, honouring zero qualities and the
+     * <code>*</code> wildcard.
+     *
+     * @param acceptEncoding  Accept-Encoding request header value. May be null.
+     * @param contentEncoding
+     * @return
+     */
+    static boolean acceptsEncoding(String acceptEncoding, String contentEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+
+        boolean isAcceptedByWildcard = false;
+        for (String coding : StringUtils.split(acceptEncoding, ',')) {
+            final String codingName = StringUtils.trim(StringUtils.substringBefore(coding, ";"));
+            if (contentEncoding.equalsIgnoreCase(codingName)) {
+                return getQuality(coding) > 0;
+            } else if ("*".equals(codingName)) {
+                isAcceptedByWildcard = getQuality(coding) > 0;
+            }
+        }
+        return isAcceptedByWildcard;
+    }
+
+    /**
+     * Get the quality value of an Accept-Encoding element. Defaults to 1.
+     *
+     * @param coding Element such as <code>gzip;q=0.8</code>
+     * @return
+     */
+    private static float getQuality(String coding) {
+        for (String parameter : StringUtils.split(StringUtils.substringAfter(coding, ";"), ';')) {
+            final String trimmedParameter = StringUtils.trim(parameter);
+            if (StringUtils.startsWithIgnoreCase(trimmedParameter, "q=")) {
+                return NumberUtils.toFloat(StringUtils.trim(trimmedParameter.substring(2)), 1f);
+            }
+        }
+        return 1f;
+    }
+
+    @Override
+    public boolean deliverStaleCacheContent(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                            HttpCacheConfig cacheConfig) throws HttpCacheKeyCreationException,
+            HttpCacheDataStreamException, HttpCachePersistenceException {
+
+        if (!cacheConfig.isServeStaleOnError() || response.isCommitted()) {
+            return false;
+        }
+
+        // Whatever the cache store still holds, regardless of soft TTL and grace period.
+        final CacheContent cacheContent = getCacheStore(cacheConfig).getIfPresent(getCacheKey(request, cacheConfig));
+        if (null == cacheContent) {
+            return false;
         }
+
+        // Drop the status, headers and buffered output of the failed rendering.
+        response.reset();
+        if (deliverCacheContent(request, response, cacheConfig, cacheContent)) {
+            staleOnErrorDeliveriesCount.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -370,13 +1062,12 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             response, HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException,
             HttpCacheKeyCreationException, HttpCachePersistenceException {
 
-        // Create cache key.
-        CacheKey cacheKey = cacheConfig.buildCacheKey(request);
-
         // Wrap the response to get the copy of the stream.
         // Temp sink for the duplicate stream is chosen based on the cache store configured at cache config.
+        getMetrics(cacheConfig).recordMiss();
         try {
-            return new HttpCacheServletResponseWrapper(response, getCacheStore(cacheConfig).createTempSink());
+            return new HttpCacheServletResponseWrapper(response, getCacheStore(cacheConfig).createTempSink(),
+                    maxCacheableSize);
         } catch (java.io.IOException e) {
             throw new HttpCacheDataStreamException(e);
         }
@@ -387,9 +1078,8 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             cacheConfig) throws HttpCacheKeyCreationException, HttpCacheDataStreamException,
             HttpCachePersistenceException {
 
-        // TODO - This can be made asynchronous to avoid performance penality on response cache.
-
         CacheContent cacheContent = null;
+        boolean isWriteDeferred = false;
         try {
             // Construct the cache content.
             HttpCacheServletResponseWrapper responseWrapper = null;
@@ -398,40 +1088,110 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
             } else {
                 throw new AssertionError("Programming error.");
             }
-            CacheKey cacheKey = cacheConfig.buildCacheKey(request);
+            if (responseWrapper.isOversized()) {
+                // Only partially copied; the cache filter releases the sink, as for any response not cached.
+                oversizedResponsesCount.incrementAndGet();
+                log.debug("Response for the URI exceeds the maximum cacheable size and is not cached - {}", request
+                        .getRequestURI());
+                return;
+            }
+            CacheKey cacheKey = getCacheKey(request, cacheConfig);
             cacheContent = new CacheContent().build(responseWrapper);
 
             // Execute custom rules.
             boolean canCacheResponse = true;
-            for (final Map.Entry<String, HttpCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
-                // Apply rule if it's a configured global or cache-config tied rule.
-                if (globalCacheHandlingRulesPid.contains(entry.getKey()) || cacheConfig.acceptsRule(entry.getKey())) {
-                    HttpCacheHandlingRule rule = entry.getValue();
-                    if (!rule.onResponseCache(request, response, cacheConfig, cacheContent)) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Per custom rule {} caching for this request {} has been cancelled.", rule
-                                    .getClass().getName(), request.getRequestURI());
-                        }
-                        canCacheResponse = false;
-                        break;
+            for (final TimedCacheHandlingRule timedRule : getRuleChain(cacheConfig)) {
+                final HttpCacheHandlingRule rule = timedRule.getRule();
+                final long start = System.nanoTime();
+                if (!timedRule.record(start, rule.onResponseCache(request, response, cacheConfig, cacheContent))) {
+                    getMetrics(cacheConfig).recordRuleRejection();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Per custom rule {} caching for this request {} has been cancelled.", rule
+                                .getClass().getName(), request.getRequestURI());
                     }
+                    canCacheResponse = false;
+                    break;
                 }
             }
 
             // Persist in cache.
             if (canCacheResponse) {
-                getCacheStore(cacheConfig).put(cacheKey, cacheContent);
-                log.debug("Response for the URI cached - {}", request.getRequestURI());
+                addValidators(cacheContent, responseWrapper);
+                final HttpCacheStore cacheStore = getCacheStore(cacheConfig);
+                final long contentLength = responseWrapper.getTempSink().length();
+                if (null != cacheWriteExecutor) {
+                    isWriteDeferred = submitCacheWrite(request, cacheStore, cacheKey, cacheContent, cacheConfig,
+                            contentLength);
+                } else {
+                    cacheStore.put(cacheKey, cacheContent, cacheConfig);
+                    getMetrics(cacheConfig).recordPut(contentLength);
+                    log.debug("Response for the URI cached - {}", request.getRequestURI());
+                }
             }
         } finally {
-            // Close the temp sink input stream.
-            if (null != cacheContent) {
-                IOUtils.closeQuietly(cacheContent.getInputDataStream());
+            // Close the temp sink input stream, unless a cache writer took it over.
+            if (null != cacheContent && !isWriteDeferred) {
+                cacheContent.close();
             }
+            getMetrics(cacheConfig).recordFill(System.nanoTime() - getLookupStart(request));
         }
 
     }
 
+    /**
+     * Queue the write of the captured response to the cache store. The claim of the request on the response, if any,
+     * is handed over to the write, so that coalesced requests are woken up only once the response is in the store.
+     *
+     * @param request
+     * @param cacheStore
+     * @param cacheKey
+     * @param cacheContent
+     * @param cacheConfig
+     * @param contentLength Length of the content in bytes, or -1 if unknown.
+     * @return True if the write got queued and took over the content. False if dropped due to a full queue.
+     */
+    private boolean submitCacheWrite(final SlingHttpServletRequest request, final HttpCacheStore cacheStore, final
+            CacheKey cacheKey, final CacheContent cacheContent, final HttpCacheConfig cacheConfig, final long
+            contentLength) {
+
+        final Object inFlightResponse = request.getAttribute(ATTR_IN_FLIGHT_RESPONSE);
+        request.removeAttribute(ATTR_IN_FLIGHT_RESPONSE);
+        final String requestUri = request.getRequestURI();
+
+        try {
+            cacheWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cacheStore.put(cacheKey, cacheContent, cacheConfig);
+                        getMetrics(cacheConfig).recordPut(contentLength);
+                        log.debug("Response for the URI cached - {}", requestUri);
+                    } catch (HttpCacheDataStreamException e) {
+                        failedCacheWritesCount.incrementAndGet();
+                        log.error("Unable to cache the response for the URI " + requestUri, e);
+                    } catch (RuntimeException e) {
+                        failedCacheWritesCount.incrementAndGet();
+                        log.error("Unable to cache the response for the URI " + requestUri, e);
+                    } finally {
+                        cacheContent.close();
+                        if (inFlightResponse instanceof InFlightResponse) {
+                            ((InFlightResponse) inFlightResponse).release();
+                        }
+                    }
+                }
+            });
+            asyncCacheWritesCount.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedCacheWritesCount.incrementAndGet();
+            log.debug("Cache write queue is full. Response for the URI not cached - {}", requestUri);
+            if (inFlightResponse instanceof InFlightResponse) {
+                ((InFlightResponse) inFlightResponse).release();
+            }
+            return false;
+        }
+    }
+
     @Override
     public boolean isPathPotentialToInvalidate(String path) {
 
@@ -447,29 +1207,159 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
 
     @Override
     public void invalidateCache(String path) throws HttpCachePersistenceException {
+        invalidateCache(Collections.singletonList(path));
+    }
+
+    @Override
+    public void invalidateCache(Collection<String> paths) throws HttpCachePersistenceException {
 
-        // Find out all the cache config which has this path applicable for invalidation.
         for (HttpCacheConfig cacheConfig : cacheConfigs) {
-            if (cacheConfig.canInvalidate(path)) {
-
-                // Execute custom rules.
-                for (final Map.Entry<String, HttpCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
-                    // Apply rule if it's a configured global or cache-config tied rule.
-                    if (globalCacheHandlingRulesPid.contains(entry.getKey()) || cacheConfig.acceptsRule(entry.getKey
-                            ())) {
-                        HttpCacheHandlingRule rule = entry.getValue();
-                        if (rule.onCacheInvalidate(path)) {
-                            getCacheStore(cacheConfig).invalidate(cacheConfig);
-                        } else {
-                            log.debug("Cache invalidation rejected for path {} per custom rule {}", path, rule
-                                    .getClass().getName());
-                        }
+            // Collect the URIs to invalidate for all the paths applicable for this cache config.
+            boolean isPathFound = false;
+            boolean isFullInvalidation = false;
+            final Set<String> uriPatterns = new LinkedHashSet<String>();
+            for (String path : paths) {
+                if (cacheConfig.canInvalidate(path) && acceptsInvalidation(cacheConfig, path)) {
+                    isPathFound = true;
+                    final List<String> pathUriPatterns = cacheConfig.getInvalidationUriPatterns(path);
+                    if (pathUriPatterns.isEmpty()) {
+                        isFullInvalidation = true;
+                        break;
                     }
+                    uriPatterns.addAll(pathUriPatterns);
+                }
+            }
+            if (!isPathFound) {
+                continue;
+            }
+
+            final HttpCacheStore cacheStore = getCacheStore(cacheConfig);
+            if (isFullInvalidation) {
+                cacheStore.invalidate(cacheConfig);
+                getMetrics(cacheConfig).recordInvalidations(1);
+            } else {
+                // Only the cached URIs derived from the paths.
+                for (String uriPattern : uriPatterns) {
+                    cacheStore.invalidate(cacheConfig, uriPattern);
                 }
+                getMetrics(cacheConfig).recordInvalidations(uriPatterns.size());
+                log.debug("Cache invalidated for URI patterns {}", uriPatterns);
+            }
+        }
+
+    }
+
+    /**
+     * Check the custom rules applicable for the cache config accept the invalidation by the given path.
+     *
+     * @param cacheConfig
+     * @param path
+     * @return
+     */
+    private boolean acceptsInvalidation(HttpCacheConfig cacheConfig, String path) {
+        for (final TimedCacheHandlingRule timedRule : getRuleChain(cacheConfig)) {
+            final HttpCacheHandlingRule rule = timedRule.getRule();
+            final long start = System.nanoTime();
+            if (!timedRule.record(start, rule.onCacheInvalidate(path))) {
+                log.debug("Cache invalidation rejected for path {} per custom rule {}", path, rule.getClass()
+                        .getName());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the chain of rules applicable for the cache config.
+     *
+     * @param cacheConfig
+     * @return
+     */
+    private TimedCacheHandlingRule[] getRuleChain(HttpCacheConfig cacheConfig) {
+        final TimedCacheHandlingRule[] ruleChain = ruleChains.get(cacheConfig);
+        if (null != ruleChain) {
+            return ruleChain;
+        }
+        // Config not bound to this engine.
+        return buildRuleChain(cacheConfig);
+    }
+
+    /**
+     * Rebuild the rule chains of all the cache configs. To be called under the cacheConfigs lock.
+     */
+    private void buildRuleChains() {
+        final Map<HttpCacheConfig, TimedCacheHandlingRule[]> chains = new HashMap<HttpCacheConfig,
+                TimedCacheHandlingRule[]>();
+        for (HttpCacheConfig cacheConfig : cacheConfigs) {
+            chains.put(cacheConfig, buildRuleChain(cacheConfig));
+        }
+        ruleChains = chains;
+    }
 
+    /**
+     * Build the chain of rules applicable for the cache config: the global rules in the configured order, followed by
+     * the rules tied to the cache config ordered by service pid.
+     *
+     * @param cacheConfig
+     * @return
+     */
+    private TimedCacheHandlingRule[] buildRuleChain(HttpCacheConfig cacheConfig) {
+        final List<String> globalRulesPid = null == globalCacheHandlingRulesPid ? Collections.<String>emptyList() :
+                globalCacheHandlingRulesPid;
+        final List<TimedCacheHandlingRule> ruleChain = new ArrayList<TimedCacheHandlingRule>();
+
+        for (String servicePid : globalRulesPid) {
+            final TimedCacheHandlingRule timedRule = cacheHandlingRules.get(servicePid);
+            if (null != timedRule && !ruleChain.contains(timedRule)) {
+                ruleChain.add(timedRule);
+            }
+        }
+
+        final List<String> servicePids = new ArrayList<String>(cacheHandlingRules.keySet());
+        Collections.sort(servicePids);
+        for (String servicePid : servicePids) {
+            if (!globalRulesPid.contains(servicePid) && cacheConfig.acceptsRule(servicePid)) {
+                final TimedCacheHandlingRule timedRule = cacheHandlingRules.get(servicePid);
+                if (null != timedRule) {
+                    ruleChain.add(timedRule);
+                }
             }
         }
 
+        return ruleChain.toArray(new TimedCacheHandlingRule[ruleChain.size()]);
+    }
+
+    /**
+     * Get the metrics of the cache config, rolling up into the metrics of its cache store.
+     *
+     * @param cacheConfig
+     * @return
+     */
+    private HttpCacheMetrics getMetrics(HttpCacheConfig cacheConfig) {
+        HttpCacheMetrics metrics = configMetrics.get(cacheConfig);
+        if (null != metrics) {
+            return metrics;
+        }
+
+        final String storeName = cacheConfig.getCacheStoreName();
+        HttpCacheMetrics parent = storeMetrics.get(storeName);
+        if (null == parent) {
+            storeMetrics.putIfAbsent(storeName, new HttpCacheMetrics(null));
+            parent = storeMetrics.get(storeName);
+        }
+        metrics = configMetrics.putIfAbsent(cacheConfig, new HttpCacheMetrics(parent));
+        return null == metrics ? configMetrics.get(cacheConfig) : metrics;
+    }
+
+    /**
+     * Get the time of the first cache lookup of the request.
+     *
+     * @param request
+     * @return <code>System.nanoTime()</code> of the lookup, or of now if the request got no lookup.
+     */
+    private static long getLookupStart(SlingHttpServletRequest request) {
+        final Object lookupStart = request.getAttribute(ATTR_LOOKUP_START);
+        return lookupStart instanceof Long ? (Long) lookupStart : System.nanoTime();
     }
 
     /**
@@ -513,10 +1403,46 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
                         new String[]{"HTTP Cache Handling Rule"}));
         // @formatter:on
 
-        for (final Map.Entry<String, HttpCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
+        for (final Map.Entry<String, TimedCacheHandlingRule> entry : cacheHandlingRules.entrySet()) {
             final Map<String, Object> row = new HashMap<String, Object>();
 
-            row.put("HTTP Cache Handling Rule", entry.getValue().getClass().getName());
+            row.put("HTTP Cache Handling Rule", entry.getValue().getRule().getClass().getName());
+            tabularData.put(new CompositeDataSupport(cacheEntryType, row));
+        }
+
+        return tabularData;
+    }
+
+    @Override
+    public TabularData getHttpCacheRuleTimings() throws OpenDataException {
+        // @formatter:off
+        final CompositeType cacheEntryType = new CompositeType(
+                "HTTP Cache Handling Rule Timing",
+                "HTTP Cache Handling Rule Timing",
+                new String[]{ "Service PID", "Invocations", "Rejections", "Total Time (ms)", "Average Time (us)" },
+                new String[]{ "Service PID", "Invocations", "Rejections", "Total Time (ms)", "Average Time (us)" },
+                new OpenType[]{ SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG });
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(
+                        "HTTP Cache Handling Rule Timings",
+                        "HTTP Cache Handling Rule Timings",
+                        cacheEntryType,
+                        new String[]{ "Service PID" }));
+        // @formatter:on
+
+        for (final TimedCacheHandlingRule timedRule : cacheHandlingRules.values()) {
+            final Map<String, Object> row = new HashMap<String, Object>();
+            final long invocations = timedRule.getInvocationsCount();
+            final long totalTimeNanos = timedRule.getTotalTimeNanos();
+
+            row.put("Service PID", timedRule.getServicePid());
+            row.put("Invocations", invocations);
+            row.put("Rejections", timedRule.getRejectionsCount());
+            row.put("Total Time (ms)", TimeUnit.NANOSECONDS.toMillis(totalTimeNanos));
+            row.put("Average Time (us)", invocations == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(totalTimeNanos /
+                    invocations));
             tabularData.put(new CompositeDataSupport(cacheEntryType, row));
         }
 
@@ -584,4 +1510,149 @@ public class HttpCacheEngineImpl extends AnnotatedStandardMBean implements HttpC
 
         return tabularData;
     }
+
+    @Override
+    public TabularData getHttpCacheConfigMetrics() throws OpenDataException {
+        final Map<String, HttpCacheMetrics> metricsByName = new HashMap<String, HttpCacheMetrics>();
+        for (final Map.Entry<HttpCacheConfig, HttpCacheMetrics> entry : configMetrics.entrySet()) {
+            final Map<String, Object> osgiConfig = cacheConfigConfigs.get(entry.getKey());
+            final String servicePid = null == osgiConfig ? null : (String) osgiConfig.get(Constants.SERVICE_PID);
+            metricsByName.put(null == servicePid ? entry.getKey().toString() : servicePid, entry.getValue());
+        }
+        return getMetricsTable("HTTP Cache Config Metrics", "OSGi Component", metricsByName);
+    }
+
+    @Override
+    public TabularData getHttpCacheStoreMetrics() throws OpenDataException {
+        return getMetricsTable("HTTP Cache Store Metrics", "HTTP Cache Store", storeMetrics);
+    }
+
+    /**
+     * Build the JMX table of the given metrics.
+     *
+     * @param name
+     * @param keyColumn     Column of the names of the metrics.
+     * @param metricsByName
+     * @return
+     * @throws OpenDataException
+     */
+    private static TabularData getMetricsTable(String name, String keyColumn, Map<String, HttpCacheMetrics>
+            metricsByName) throws OpenDataException {
+        final String[] columns = new String[]{ keyColumn, "Hits", "Misses", "Hit Rate", "Puts", "Rule Rejections",
+                "Invalidations", "Bytes Stored", "Bytes Served", "Hit Mean (us)", "Hit P50 (us)", "Hit P99 (us)",
+                "Miss Mean (us)", "Miss P50 (us)", "Miss P99 (us)" };
+        final OpenType[] types = new OpenType[columns.length];
+        Arrays.fill(types, SimpleType.LONG);
+        types[0] = SimpleType.STRING;
+        types[3] = SimpleType.STRING;
+
+        // @formatter:off
+        final CompositeType metricsType = new CompositeType(name, name, columns, columns, types);
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType(
+                        name,
+                        name,
+                        metricsType,
+                        new String[]{ keyColumn }));
+        // @formatter:on
+
+        for (final Map.Entry<String, HttpCacheMetrics> entry : metricsByName.entrySet()) {
+            final HttpCacheMetrics metrics = entry.getValue();
+            final long hits = metrics.getHitsCount();
+            final long requests = hits + metrics.getMissesCount();
+            final Map<String, Object> row = new HashMap<String, Object>();
+
+            row.put(keyColumn, entry.getKey());
+            row.put("Hits", hits);
+            row.put("Misses", metrics.getMissesCount());
+            row.put("Hit Rate", String.format("%.1f%%", requests == 0 ? 0d : hits * 100d / requests));
+            row.put("Puts", metrics.getPutsCount());
+            row.put("Rule Rejections", metrics.getRuleRejectionsCount());
+            row.put("Invalidations", metrics.getInvalidationsCount());
+            row.put("Bytes Stored", metrics.getBytesStored());
+            row.put("Bytes Served", metrics.getBytesServed());
+            row.put("Hit Mean (us)", metrics.getHitLatency().getMean());
+            row.put("Hit P50 (us)", metrics.getHitLatency().getPercentile(50));
+            row.put("Hit P99 (us)", metrics.getHitLatency().getPercentile(99));
+            row.put("Miss Mean (us)", metrics.getMissLatency().getMean());
+            row.put("Miss P50 (us)", metrics.getMissLatency().getPercentile(50));
+            row.put("Miss P99 (us)", metrics.getMissLatency().getPercentile(99));
+            tabularData.put(new CompositeDataSupport(metricsType, row));
+        }
+
+        return tabularData;
+    }
+
+    @Override
+    public long getCoalescedRequestsCount() {
+        return coalescedRequestsCount.get();
+    }
+
+    @Override
+    public long getCoalescingTimeoutsCount() {
+        return coalescingTimeoutsCount.get();
+    }
+
+    @Override
+    public long getAsyncCacheWritesCount() {
+        return asyncCacheWritesCount.get();
+    }
+
+    @Override
+    public long getDroppedCacheWritesCount() {
+        return droppedCacheWritesCount.get();
+    }
+
+    @Override
+    public long getFailedCacheWritesCount() {
+        return failedCacheWritesCount.get();
+    }
+
+    @Override
+    public int getPendingCacheWritesCount() {
+        final ThreadPoolExecutor executor = cacheWriteExecutor;
+        return null == executor ? 0 : executor.getQueue().size();
+    }
+
+    @Override
+    public long getStaleDeliveriesCount() {
+        return staleDeliveriesCount.get();
+    }
+
+    @Override
+    public long getStaleOnErrorDeliveriesCount() {
+        return staleOnErrorDeliveriesCount.get();
+    }
+
+    @Override
+    public long getRefreshesCount() {
+        return refreshesCount.get();
+    }
+
+    @Override
+    public long getFailedRefreshesCount() {
+        return failedRefreshesCount.get();
+    }
+
+    @Override
+    public long getDroppedRefreshesCount() {
+        return droppedRefreshesCount.get();
+    }
+
+    @Override
+    public int getPendingRefreshesCount() {
+        final ThreadPoolExecutor executor = refreshExecutor;
+        return null == executor ? 0 : executor.getQueue().size();
+    }
+
+    @Override
+    public long getNotModifiedResponsesCount() {
+        return notModifiedResponsesCount.get();
+    }
+
+    @Override
+    public long getOversizedResponsesCount() {
+        return oversizedResponsesCount.get();
+    }
 }
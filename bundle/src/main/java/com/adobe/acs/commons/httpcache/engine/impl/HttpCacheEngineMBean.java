@@ -14,10 +14,63 @@ public interface HttpCacheEngineMBean {
     @Description("Registered Http Cache Rules")
     TabularData getRegisteredHttpCacheRules() throws OpenDataException;
 
+    @Description("Invocations, rejections and time spent per Http Cache Rule")
+    TabularData getHttpCacheRuleTimings() throws OpenDataException;
+
     @Description("Registered Http Cache Configs")
     TabularData getRegisteredHttpCacheConfigs() throws OpenDataException;
 
     @Description("Registered Persistence Stores")
     TabularData getRegisteredPersistenceStores() throws OpenDataException;
-}
 
+    @Description("Hits, misses, puts, rejections, invalidations, bytes and latencies per Http Cache Config. Hit "
+            + "latencies run from the cache lookup to the delivery, miss latencies from the lookup to the response "
+            + "cached; percentiles are rounded up to a power of two.")
+    TabularData getHttpCacheConfigMetrics() throws OpenDataException;
+
+    @Description("Hits, misses, puts, rejections, invalidations, bytes and latencies per Persistence Store, summed "
+            + "up over its Http Cache Configs.")
+    TabularData getHttpCacheStoreMetrics() throws OpenDataException;
+
+    @Description("Requests which waited for a concurrent request rendering the same response")
+    long getCoalescedRequestsCount();
+
+    @Description("Requests which gave up waiting on a concurrent request rendering the same response")
+    long getCoalescingTimeoutsCount();
+
+    @Description("Responses handed over to the asynchronous cache writers")
+    long getAsyncCacheWritesCount();
+
+    @Description("Responses not cached as the asynchronous cache write queue was full")
+    long getDroppedCacheWritesCount();
+
+    @Description("Asynchronous cache writes failed in the cache store")
+    long getFailedCacheWritesCount();
+
+    @Description("Responses waiting in the asynchronous cache write queue")
+    int getPendingCacheWritesCount();
+
+    @Description("Stale responses served within the grace period of their cache config")
+    long getStaleDeliveriesCount();
+
+    @Description("Stale responses served as rendering their replacement failed")
+    long getStaleOnErrorDeliveriesCount();
+
+    @Description("Stale responses re-rendered in the background")
+    long getRefreshesCount();
+
+    @Description("Background refreshes of stale responses failed")
+    long getFailedRefreshesCount();
+
+    @Description("Background refreshes of stale responses dropped as the refresh queue was full")
+    long getDroppedRefreshesCount();
+
+    @Description("Stale responses waiting in the refresh queue")
+    int getPendingRefreshesCount();
+
+    @Description("Conditional requests answered from the cache as not modified")
+    long getNotModifiedResponsesCount();
+
+    @Description("Responses not cached as they exceeded the maximum cacheable size")
+    long getOversizedResponsesCount();
+}
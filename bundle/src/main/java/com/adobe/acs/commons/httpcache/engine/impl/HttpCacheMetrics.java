@@ -0,0 +1,142 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.acs.commons.util.impl.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running counters of the HTTP cache for a cache config or a cache store. The metrics of a cache config roll up into
+ * the metrics of its cache store, given as parent.
+ */
+class HttpCacheMetrics {
+    private final HttpCacheMetrics parent;
+
+    private final AtomicLong hitsCount = new AtomicLong(0L);
+    private final AtomicLong missesCount = new AtomicLong(0L);
+    private final AtomicLong putsCount = new AtomicLong(0L);
+    private final AtomicLong ruleRejectionsCount = new AtomicLong(0L);
+    private final AtomicLong invalidationsCount = new AtomicLong(0L);
+    private final AtomicLong bytesStored = new AtomicLong(0L);
+    private final AtomicLong bytesServed = new AtomicLong(0L);
+    /** From the cache lookup to the cached response delivered, in microseconds. */
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    /** From the cache lookup to the rendered response cached, in microseconds. */
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+
+    /**
+     * @param parent Metrics rolled up into. Null if none.
+     */
+    HttpCacheMetrics(HttpCacheMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Record a response delivered from the cache.
+     *
+     * @param nanos Time taken.
+     * @param bytes Bytes of content served.
+     */
+    void recordHit(long nanos, long bytes) {
+        hitsCount.incrementAndGet();
+        hitLatency.record(nanos / 1000L);
+        bytesServed.addAndGet(bytes);
+        if (null != parent) {
+            parent.recordHit(nanos, bytes);
+        }
+    }
+
+    /**
+     * Record a response rendered for caching.
+     */
+    void recordMiss() {
+        missesCount.incrementAndGet();
+        if (null != parent) {
+            parent.recordMiss();
+        }
+    }
+
+    /**
+     * Record a rendered response done with caching, whether cached or not.
+     *
+     * @param nanos Time taken from the cache lookup on.
+     */
+    void recordFill(long nanos) {
+        missLatency.record(nanos / 1000L);
+        if (null != parent) {
+            parent.recordFill(nanos);
+        }
+    }
+
+    /**
+     * Record a response put into the cache store.
+     *
+     * @param bytes Bytes of content stored, or -1 if unknown.
+     */
+    void recordPut(long bytes) {
+        putsCount.incrementAndGet();
+        if (bytes > 0) {
+            bytesStored.addAndGet(bytes);
+        }
+        if (null != parent) {
+            parent.recordPut(bytes);
+        }
+    }
+
+    /**
+     * Record a request or response rejected by a cache handling rule.
+     */
+    void recordRuleRejection() {
+        ruleRejectionsCount.incrementAndGet();
+        if (null != parent) {
+            parent.recordRuleRejection();
+        }
+    }
+
+    /**
+     * Record invalidations in the cache store.
+     *
+     * @param count Number of invalidation calls to the store.
+     */
+    void recordInvalidations(int count) {
+        invalidationsCount.addAndGet(count);
+        if (null != parent) {
+            parent.recordInvalidations(count);
+        }
+    }
+
+    long getHitsCount() {
+        return hitsCount.get();
+    }
+
+    long getMissesCount() {
+        return missesCount.get();
+    }
+
+    long getPutsCount() {
+        return putsCount.get();
+    }
+
+    long getRuleRejectionsCount() {
+        return ruleRejectionsCount.get();
+    }
+
+    long getInvalidationsCount() {
+        return invalidationsCount.get();
+    }
+
+    long getBytesStored() {
+        return bytesStored.get();
+    }
+
+    long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    LatencyHistogram getHitLatency() {
+        return hitLatency;
+    }
+
+    LatencyHistogram getMissLatency() {
+        return missLatency;
+    }
+}
@@ -2,6 +2,7 @@ package com.adobe.acs.commons.httpcache.engine.impl;
 
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
 import org.slf4j.Logger;
@@ -9,11 +10,17 @@ import org.slf4j.LoggerFactory;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
- * Wrapper for <code>SlingHttpServletResponse</code>. Wrapped to get hold of the copy of servlet response stream.
+ * Wrapper for <code>SlingHttpServletResponse</code>. Wrapped to get hold of the copy of servlet response stream, along
+ * with a digest of it computed on the fly.
  */
 public class HttpCacheServletResponseWrapper extends SlingHttpServletResponseWrapper {
     private static final Logger log = LoggerFactory.getLogger(HttpServletResponseWrapper.class);
@@ -22,10 +29,42 @@ public class HttpCacheServletResponseWrapper extends SlingHttpServletResponseWra
     private ServletOutputStream servletOutputStream;
     private final TempSink tempSink;
 
+    /** Digest algorithm of the response content */
+    private static final String DIGEST_ALGORITHM = "MD5";
+    /** Digest of the response content. Null if the algorithm is unavailable. */
+    private final MessageDigest contentDigest;
+    private String contentDigestHex;
+
+    /** Maximum size of the content copied into the temp sink, -1 for no limit. */
+    private final long maxSize;
+    /** True once the content outgrew the maximum size and stopped being copied. */
+    private boolean isOversized;
+
     public HttpCacheServletResponseWrapper(SlingHttpServletResponse wrappedResponse, TempSink tempSink) throws
             IOException {
+        this(wrappedResponse, tempSink, -1L);
+    }
+
+    /**
+     * @param wrappedResponse
+     * @param tempSink
+     * @param maxSize         Maximum size in bytes of the content copied into the temp sink, -1 for no limit.
+     *                        Larger responses are still written to the wrapped response, just not copied any more.
+     * @throws IOException
+     */
+    public HttpCacheServletResponseWrapper(SlingHttpServletResponse wrappedResponse, TempSink tempSink, long
+            maxSize) throws IOException {
         super(wrappedResponse);
         this.tempSink = tempSink;
+        this.maxSize = maxSize;
+
+        MessageDigest messageDigest = null;
+        try {
+            messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Digest algorithm {} unavailable. Responses are cached without entity tag.", DIGEST_ALGORITHM);
+        }
+        this.contentDigest = messageDigest;
     }
 
     @Override
@@ -34,8 +73,8 @@ public class HttpCacheServletResponseWrapper extends SlingHttpServletResponseWra
             throw new IllegalStateException("Cannot invoke getOutputStream() once getWriter() has been called.");
         } else if (this.servletOutputStream == null) {
             try {
-                this.servletOutputStream = new TeeServletOutputStream(super.getOutputStream(), tempSink
-                        .createOutputStream());
+                this.servletOutputStream = new TeeServletOutputStream(super.getOutputStream(), digest(limit(tempSink
+                        .createOutputStream())));
             } catch (HttpCacheDataStreamException e) {
                 log.error("Temp sink is unable to provide an output stream.");
             }
@@ -51,8 +90,8 @@ public class HttpCacheServletResponseWrapper extends SlingHttpServletResponseWra
             throw new IllegalStateException("Cannot invoke getWriter() once getOutputStream() has been called.");
         } else if (this.printWriter == null) {
             try {
-                this.printWriter = new TeePrintWriter(super.getWriter(), new PrintWriter(tempSink.createOutputStream
-                        ()));
+                this.printWriter = new TeePrintWriter(super.getWriter(), new PrintWriter(digest(limit(tempSink
+                        .createOutputStream()))));
             } catch (HttpCacheDataStreamException e) {
                 log.error("Temp sink is unable to provide an output stream.");
             }
@@ -64,4 +103,75 @@ public class HttpCacheServletResponseWrapper extends SlingHttpServletResponseWra
     public TempSink getTempSink() {
         return tempSink;
     }
+
+    /**
+     * Get the hex encoded digest of the response content written so far. To be called once the response is complete.
+     *
+     * @return Digest, or null if unavailable.
+     */
+    public String getContentDigest() {
+        if (null == contentDigestHex && null != contentDigest) {
+            if (null != printWriter) {
+                printWriter.flush();
+            }
+            contentDigestHex = Hex.encodeHexString(contentDigest.digest());
+        }
+        return contentDigestHex;
+    }
+
+    /**
+     * Check if the content outgrew the maximum size, and hence got copied into the temp sink only partially.
+     *
+     * @return
+     */
+    public boolean isOversized() {
+        if (null != printWriter) {
+            printWriter.flush();
+        }
+        return isOversized;
+    }
+
+    /**
+     * Stop copying the content into the given stream once the maximum size is exceeded.
+     *
+     * @param outputStream
+     * @return
+     */
+    private OutputStream limit(final OutputStream outputStream) {
+        if (maxSize < 0) {
+            return outputStream;
+        }
+        return new FilterOutputStream(outputStream) {
+            private long count;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                if (isOversized) {
+                    return;
+                }
+                count += length;
+                if (count > maxSize) {
+                    // Given up early; the copy is useless from here on.
+                    isOversized = true;
+                    return;
+                }
+                out.write(bytes, offset, length);
+            }
+        };
+    }
+
+    /**
+     * Have the content written to the given stream digested.
+     *
+     * @param outputStream
+     * @return
+     */
+    private OutputStream digest(OutputStream outputStream) {
+        return null == contentDigest ? outputStream : new DigestOutputStream(outputStream, contentDigest);
+    }
 }
@@ -0,0 +1,297 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.acs.commons.httpcache.engine.HttpCacheEngine;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.day.cq.contentsync.handler.util.RequestResponseFactory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.engine.SlingRequestProcessor;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms up the HTTP cache by rendering a list of request URIs as anonymous internal requests, so that the cache
+ * stores get filled before the first visitors come in. The URIs are configured, or recorded at deactivation out of
+ * the URIs the engine delivered most often from cache. Requests are rendered by a bounded worker pool.
+ */
+@Component(label = "ACS AEM Commons - HTTP Cache - Warm-up",
+           description = "Renders request URIs as internal requests on activation so that the HTTP cache gets filled.",
+           metatype = true)
+@Properties({
+        @Property(name = "jmx.objectname",
+                  value = "com.adobe.acs.httpcache:type=HTTP Cache Warm-up",
+                  propertyPrivate = true)
+})
+@Service(value = {DynamicMBean.class})
+public class HttpCacheWarmUpImpl extends AnnotatedStandardMBean implements HttpCacheWarmUpMBean {
+    private static final Logger log = LoggerFactory.getLogger(HttpCacheWarmUpImpl.class);
+
+    /** File in the bundle data area holding the hot request URIs recorded at deactivation. */
+    private static final String HOT_REQUEST_URIS_FILE_NAME = "httpcache-hot-request-uris.txt";
+
+    @Property(label = "Request URIs",
+              description = "Request URIs to render on warm-up. Example - /content/site/en.html",
+              cardinality = Integer.MAX_VALUE)
+    private static final String PROP_REQUEST_URIS = "httpcache.warmup.request-uris";
+    private List<String> requestUris;
+
+    @Property(label = "Warm up on activation",
+              description = "Warm up the cache when this service gets activated, such as on startup.",
+              boolValue = HttpCacheWarmUpImpl.DEFAULT_WARM_UP_ON_ACTIVATION)
+    private static final String PROP_WARM_UP_ON_ACTIVATION = "httpcache.warmup.on-activation";
+    private static final boolean DEFAULT_WARM_UP_ON_ACTIVATION = true;
+
+    @Property(label = "Recorded hot request URIs",
+              description = "Maximum number of the request URIs delivered most often from cache to record at "
+                      + "deactivation and to render on the next warm-up. 0 to record none.",
+              intValue = HttpCacheWarmUpImpl.DEFAULT_HOT_REQUEST_URIS_MAX)
+    private static final String PROP_HOT_REQUEST_URIS_MAX = "httpcache.warmup.hot-request-uris.max";
+    private static final int DEFAULT_HOT_REQUEST_URIS_MAX = 0;
+    private int hotRequestUrisMax;
+
+    @Property(label = "Concurrency",
+              description = "Number of warm-up requests rendered at a time.",
+              intValue = HttpCacheWarmUpImpl.DEFAULT_CONCURRENCY)
+    private static final String PROP_CONCURRENCY = "httpcache.warmup.concurrency";
+    private static final int DEFAULT_CONCURRENCY = 2;
+
+    @Reference
+    private HttpCacheEngine httpCacheEngine;
+
+    @Reference
+    private SlingRequestProcessor slingRequestProcessor;
+
+    @Reference
+    private RequestResponseFactory requestResponseFactory;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    /** Worker pool rendering the warm-up requests. */
+    private ThreadPoolExecutor warmUpExecutor;
+
+    private File hotRequestUrisFile;
+
+    private final AtomicInteger pendingWarmUpRequestsCount = new AtomicInteger(0);
+    private final AtomicLong warmUpRequestsCount = new AtomicLong(0L);
+    private final AtomicLong failedWarmUpRequestsCount = new AtomicLong(0L);
+
+    @Activate
+    protected void activate(ComponentContext context, Map<String, Object> configs) {
+        requestUris = new ArrayList<String>();
+        for (String requestUri : PropertiesUtil.toStringArray(configs.get(PROP_REQUEST_URIS), new String[]{})) {
+            if (StringUtils.isNotBlank(requestUri)) {
+                requestUris.add(requestUri.trim());
+            }
+        }
+        hotRequestUrisMax = PropertiesUtil.toInteger(configs.get(PROP_HOT_REQUEST_URIS_MAX),
+                DEFAULT_HOT_REQUEST_URIS_MAX);
+        hotRequestUrisFile = context.getBundleContext().getDataFile(HOT_REQUEST_URIS_FILE_NAME);
+
+        final int concurrency = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_CONCURRENCY),
+                DEFAULT_CONCURRENCY));
+        warmUpExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new
+                LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("acs-commons-httpcache-warmup-"));
+
+        if (PropertiesUtil.toBoolean(configs.get(PROP_WARM_UP_ON_ACTIVATION), DEFAULT_WARM_UP_ON_ACTIVATION)) {
+            warmUp();
+        }
+
+        log.info("HttpCacheWarmUpImpl activated.");
+    }
+
+    @Deactivate
+    protected void deactivate(Map<String, Object> configs) {
+        // Pending warm-up requests are dropped; the responses get cached on their first request.
+        warmUpExecutor.shutdownNow();
+        warmUpExecutor = null;
+
+        if (null != hotRequestUrisFile && hotRequestUrisMax > 0) {
+            final List<String> hotRequestUris = httpCacheEngine.getHotRequestUris(hotRequestUrisMax);
+            try {
+                if (!hotRequestUris.isEmpty()) {
+                    FileUtils.writeLines(hotRequestUrisFile, "UTF-8", hotRequestUris);
+                    log.info("Recorded {} hot request URIs for the next warm-up.", hotRequestUris.size());
+                }
+            } catch (IOException e) {
+                log.error("Unable to record the hot request URIs in " + hotRequestUrisFile.getPath(), e);
+            }
+        }
+
+        log.info("HttpCacheWarmUpImpl deactivated.");
+    }
+
+    /**
+     * Queue the given request URIs for rendering.
+     *
+     * @param uris
+     * @return Number of requests queued.
+     */
+    private int warmUp(Collection<String> uris) {
+        final ThreadPoolExecutor executor = warmUpExecutor;
+        if (null == executor) {
+            return 0;
+        }
+
+        int queuedCount = 0;
+        for (final String requestUri : uris) {
+            try {
+                pendingWarmUpRequestsCount.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            render(requestUri);
+                        } finally {
+                            pendingWarmUpRequestsCount.decrementAndGet();
+                        }
+                    }
+                });
+                queuedCount++;
+            } catch (RejectedExecutionException e) {
+                // Deactivated meanwhile.
+                pendingWarmUpRequestsCount.decrementAndGet();
+                break;
+            }
+        }
+        log.info("Queued {} request URIs for the HTTP cache warm-up.", queuedCount);
+        return queuedCount;
+    }
+
+    /**
+     * Render the request URI as an anonymous internal request, through the HTTP cache filter into the cache store.
+     *
+     * @param requestUri
+     */
+    private void render(String requestUri) {
+        ResourceResolver resourceResolver = null;
+        try {
+            // Null credentials stand for the anonymous user, as cached responses are usually meant for.
+            resourceResolver = resourceResolverFactory.getResourceResolver(null);
+
+            final HttpServletRequest request = requestResponseFactory.createRequest("GET", requestUri);
+            final HttpServletResponse response = requestResponseFactory.createResponse(new NullOutputStream());
+            slingRequestProcessor.processRequest(request, response, resourceResolver);
+
+            warmUpRequestsCount.incrementAndGet();
+            log.debug("Warm-up request rendered - {}", requestUri);
+        } catch (LoginException e) {
+            failedWarmUpRequestsCount.incrementAndGet();
+            log.error("Unable to render the warm-up request for the URI " + requestUri, e);
+        } catch (ServletException e) {
+            failedWarmUpRequestsCount.incrementAndGet();
+            log.error("Unable to render the warm-up request for the URI " + requestUri, e);
+        } catch (IOException e) {
+            failedWarmUpRequestsCount.incrementAndGet();
+            log.error("Unable to render the warm-up request for the URI " + requestUri, e);
+        } catch (RuntimeException e) {
+            failedWarmUpRequestsCount.incrementAndGet();
+            log.error("Unable to render the warm-up request for the URI " + requestUri, e);
+        } finally {
+            if (null != resourceResolver) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    /**
+     * Read the hot request URIs recorded at the last deactivation.
+     *
+     * @return
+     */
+    private List<String> readHotRequestUris() {
+        if (null == hotRequestUrisFile || !hotRequestUrisFile.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            return FileUtils.readLines(hotRequestUrisFile, "UTF-8");
+        } catch (IOException e) {
+            log.error("Unable to read the hot request URIs from " + hotRequestUrisFile.getPath(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    //-------------------------<Mbean specific implementation>
+
+    public HttpCacheWarmUpImpl() throws NotCompliantMBeanException {
+        super(HttpCacheWarmUpMBean.class);
+    }
+
+    @Override
+    public int warmUp() {
+        // Configured URIs first, then the recorded ones not configured already.
+        final Set<String> uris = new LinkedHashSet<String>(requestUris);
+        for (String requestUri : readHotRequestUris()) {
+            if (StringUtils.isNotBlank(requestUri)) {
+                uris.add(requestUri.trim());
+            }
+        }
+        return warmUp(uris);
+    }
+
+    @Override
+    public int warmUpRequestUris(String requestUris) {
+        final Set<String> uris = new LinkedHashSet<String>();
+        for (String requestUri : StringUtils.split(StringUtils.defaultString(requestUris), ',')) {
+            if (StringUtils.isNotBlank(requestUri)) {
+                uris.add(requestUri.trim());
+            }
+        }
+        return warmUp(uris);
+    }
+
+    @Override
+    public String[] getRecordedHotRequestUris() {
+        final List<String> hotRequestUris = readHotRequestUris();
+        return hotRequestUris.toArray(new String[hotRequestUris.size()]);
+    }
+
+    @Override
+    public int getPendingWarmUpRequestsCount() {
+        return pendingWarmUpRequestsCount.get();
+    }
+
+    @Override
+    public long getWarmUpRequestsCount() {
+        return warmUpRequestsCount.get();
+    }
+
+    @Override
+    public long getFailedWarmUpRequestsCount() {
+        return failedWarmUpRequestsCount.get();
+    }
+}
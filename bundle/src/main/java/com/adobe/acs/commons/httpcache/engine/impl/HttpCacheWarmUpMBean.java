@@ -0,0 +1,31 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+import com.adobe.granite.jmx.annotation.Name;
+
+/**
+ * JMX MBean for Http Cache warm-up.
+ */
+@Description("ACS AEM Commons - Http Cache - Warm-up")
+public interface HttpCacheWarmUpMBean {
+
+    @Description("Warm up the cache with the configured request URIs and the hot request URIs recorded at the last "
+            + "deactivation. Returns the number of requests queued.")
+    int warmUp();
+
+    @Description("Warm up the cache with the given comma separated request URIs. Returns the number of requests "
+            + "queued.")
+    int warmUpRequestUris(@Name(value = "Request URIs") String requestUris);
+
+    @Description("Hot request URIs recorded at the last deactivation")
+    String[] getRecordedHotRequestUris();
+
+    @Description("Warm-up requests waiting or being rendered. The cache is warm once this drops to 0.")
+    int getPendingWarmUpRequestsCount();
+
+    @Description("Warm-up requests rendered")
+    long getWarmUpRequestsCount();
+
+    @Description("Warm-up requests failed")
+    long getFailedWarmUpRequestsCount();
+}
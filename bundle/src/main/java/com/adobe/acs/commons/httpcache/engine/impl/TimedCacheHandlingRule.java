@@ -0,0 +1,59 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.acs.commons.httpcache.rule.HttpCacheHandlingRule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache handling rule as part of the precomputed rule chains of the engine, along with the timing counters of its
+ * invocations. One instance per rule service, shared by all the chains the rule is part of.
+ */
+class TimedCacheHandlingRule {
+    private final String servicePid;
+    private final HttpCacheHandlingRule rule;
+
+    private final AtomicLong invocationsCount = new AtomicLong(0L);
+    private final AtomicLong rejectionsCount = new AtomicLong(0L);
+    private final AtomicLong totalTimeNanos = new AtomicLong(0L);
+
+    TimedCacheHandlingRule(String servicePid, HttpCacheHandlingRule rule) {
+        this.servicePid = servicePid;
+        this.rule = rule;
+    }
+
+    String getServicePid() {
+        return servicePid;
+    }
+
+    HttpCacheHandlingRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Record an invocation of the rule.
+     *
+     * @param startNanos <code>System.nanoTime()</code> before the rule got invoked.
+     * @param accepted   Outcome of the rule.
+     * @return The outcome of the rule, for chaining.
+     */
+    boolean record(long startNanos, boolean accepted) {
+        totalTimeNanos.addAndGet(System.nanoTime() - startNanos);
+        invocationsCount.incrementAndGet();
+        if (!accepted) {
+            rejectionsCount.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    long getInvocationsCount() {
+        return invocationsCount.get();
+    }
+
+    long getRejectionsCount() {
+        return rejectionsCount.get();
+    }
+
+    long getTotalTimeNanos() {
+        return totalTimeNanos.get();
+    }
+}
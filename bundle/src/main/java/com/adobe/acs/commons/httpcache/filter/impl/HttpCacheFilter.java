@@ -1,7 +1,9 @@
 package com.adobe.acs.commons.httpcache.filter.impl;
 
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.engine.HttpCacheEngine;
+import com.adobe.acs.commons.httpcache.engine.impl.HttpCacheServletResponseWrapper;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheException;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -28,6 +30,9 @@ import java.io.IOException;
 public class HttpCacheFilter implements Filter {
     private static final Logger log = LoggerFactory.getLogger(HttpCacheFilter.class);
 
+    /** Lowest status of responses whose rendering failed on the server side. */
+    private static final int HTTP_SERVER_ERROR_STATUS = 500;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     private HttpCacheEngine cacheEngine;
 
@@ -40,54 +45,117 @@ public class HttpCacheFilter implements Filter {
 
         final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
         SlingHttpServletResponse slingResponse = (SlingHttpServletResponse) response;
+        HttpCacheServletResponseWrapper responseWrapper = null;
 
         HttpCacheConfig cacheConfig = null;
         boolean isResponseCacheable = false;
 
         try {
-            // Get the first accepting cache config, or null if no accepting cacheConfigs can be found.
-            cacheConfig = cacheEngine.getCacheConfig(slingRequest);
-
-            // Check if the url is cache-able as per configs and rules.
-            // An accepting cacheConfig must exist and all cache rules must be met.
-            if (cacheConfig != null && cacheEngine.isRequestCacheable(slingRequest, cacheConfig)) {
-                // Check if cached response available for this request.
-                if (cacheEngine.isCacheHit(slingRequest, cacheConfig)) {
-                    // Deliver the response from cache.
-                    if (cacheEngine.deliverCacheContent(slingRequest, slingResponse, cacheConfig)) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Delivered cached request [ {} ] in {} ms", slingRequest.getRequestURI(),
-                                    System.currentTimeMillis() - start);
+            try {
+                // Get the first accepting cache config, or null if no accepting cacheConfigs can be found.
+                cacheConfig = cacheEngine.getCacheConfig(slingRequest);
+
+                // Check if the url is cache-able as per configs and rules.
+                // An accepting cacheConfig must exist and all cache rules must be met.
+                if (cacheConfig != null && cacheEngine.isRequestCacheable(slingRequest, cacheConfig)) {
+                    // Check if cached response available for this request.
+                    CacheContent cacheContent = cacheEngine.getCacheContent(slingRequest, cacheConfig);
+                    if (null == cacheContent && !cacheEngine.claimOrAwaitResponse(slingRequest, cacheConfig)) {
+                        // A concurrent request has been rendering this response; it may be cached by now.
+                        cacheContent = cacheEngine.getCacheContent(slingRequest, cacheConfig);
+                    }
+
+                    if (null != cacheContent) {
+                        // Deliver the response from cache.
+                        if (cacheEngine.deliverCacheContent(slingRequest, slingResponse, cacheConfig, cacheContent)) {
+                            if (log.isDebugEnabled()) {
+                                log.debug("Delivered cached request [ {} ] in {} ms", slingRequest.getRequestURI(),
+                                        System.currentTimeMillis() - start);
+                            }
+                            return;
                         }
-                        return;
+                    } else {
+                        // Mark the request as cacheable once processed.
+                        isResponseCacheable = true;
+                        // Wrap the response
+                        responseWrapper = cacheEngine.wrapResponse(slingRequest, slingResponse, cacheConfig);
+                        slingResponse = responseWrapper;
                     }
-                } else {
-                    // Mark the request as cacheable once processed.
-                    isResponseCacheable = true;
-                    // Wrap the response
-                    slingResponse = cacheEngine.wrapResponse(slingRequest, slingResponse, cacheConfig);
                 }
+            } catch (HttpCacheException e) {
+                log.error("HttpCache exception while dealing with request. Passed on the control to filter chain.", e);
+            }
+
+            // Pass on the request to filter chain.
+            try {
+                chain.doFilter(request, slingResponse);
+            } catch (IOException e) {
+                if (isResponseCacheable && deliverStaleCacheContent(slingRequest, (SlingHttpServletResponse)
+                        response, cacheConfig)) {
+                    return;
+                }
+                throw e;
+            } catch (ServletException e) {
+                if (isResponseCacheable && deliverStaleCacheContent(slingRequest, (SlingHttpServletResponse)
+                        response, cacheConfig)) {
+                    return;
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                if (isResponseCacheable && deliverStaleCacheContent(slingRequest, (SlingHttpServletResponse)
+                        response, cacheConfig)) {
+                    return;
+                }
+                throw e;
             }
-        } catch (HttpCacheException e) {
-            log.error("HttpCache exception while dealing with request. Passed on the control to filter chain.", e);
-        }
 
-        // Pass on the request to filter chain.
-        chain.doFilter(request, slingResponse);
+            if (isResponseCacheable && slingResponse.getStatus() >= HTTP_SERVER_ERROR_STATUS &&
+                    deliverStaleCacheContent(slingRequest, (SlingHttpServletResponse) response, cacheConfig)) {
+                return;
+            }
 
-        try {
-            // If the request has the attribute marked, cache the response.
-            if (isResponseCacheable) {
-                cacheEngine.cacheResponse(slingRequest, slingResponse, cacheConfig);
+            try {
+                // If the request has the attribute marked, cache the response.
+                if (isResponseCacheable) {
+                    cacheEngine.cacheResponse(slingRequest, slingResponse, cacheConfig);
+                }
+
+                if (log.isTraceEnabled()) {
+                    log.trace("Delivered un-cached request [ {} ] in {} ms", slingRequest.getRequestURI(),
+                            System.currentTimeMillis() - start);
+                }
+            } catch (HttpCacheException e) {
+                log.error("HttpCache exception while dealing with response. Returned the filter chain response", e);
+            }
+        } finally {
+            // Wake up the requests waiting for this response, if any.
+            cacheEngine.releaseResponse(slingRequest);
+            // Release the captured response, unless it got handed to the cache store.
+            if (null != responseWrapper) {
+                responseWrapper.getTempSink().release();
             }
+        }
+    }
 
-            if (log.isTraceEnabled()) {
-                log.trace("Delivered un-cached request [ {} ] in {} ms", slingRequest.getRequestURI(),
-                        System.currentTimeMillis() - start);
+    /**
+     * Deliver the cached response in place of a failed rendering, if the cache config allows for it.
+     *
+     * @param request
+     * @param response Unwrapped response.
+     * @param cacheConfig
+     * @return True if the cached response got delivered.
+     */
+    private boolean deliverStaleCacheContent(SlingHttpServletRequest request, SlingHttpServletResponse response,
+                                             HttpCacheConfig cacheConfig) {
+        try {
+            if (cacheEngine.deliverStaleCacheContent(request, response, cacheConfig)) {
+                log.warn("Rendering failed; delivered stale cached response for [ {} ]", request.getRequestURI());
+                return true;
             }
         } catch (HttpCacheException e) {
-            log.error("HttpCache exception while dealing with response. Returned the filter chain response", e);
+            log.error("HttpCache exception while delivering stale response. Returned the filter chain response", e);
         }
+        return false;
     }
 
     //---------------<Do nothing methods. Just to satisfy interface contract>
@@ -15,6 +15,12 @@ public final class CacheInvalidationJobConstants {
      */
     public static final String PAYLOAD_KEY_DATA_CHANGE_PATH = "path";
 
+    /**
+     * Paths for which the data is changed, as a string array. Used by batched invalidation jobs in place of
+     * {@link #PAYLOAD_KEY_DATA_CHANGE_PATH}; each cache config gets invalidated once for the whole batch.
+     */
+    public static final String PAYLOAD_KEY_DATA_CHANGE_PATHS = "paths";
+
     private CacheInvalidationJobConstants() {
         throw new Error(CacheInvalidationJobConstants.class.getName() + " is not meant to be instantiated.");
     }
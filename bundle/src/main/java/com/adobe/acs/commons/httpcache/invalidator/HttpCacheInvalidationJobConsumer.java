@@ -2,13 +2,17 @@ package com.adobe.acs.commons.httpcache.invalidator;
 
 import com.adobe.acs.commons.httpcache.engine.HttpCacheEngine;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheException;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.*;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+
 /**
  * ACS AEM Commons - HTTP Cache - Cache invalidation job consumer
  * Consumes job for invalidating the http cache.
@@ -30,6 +34,19 @@ public class HttpCacheInvalidationJobConsumer implements JobConsumer {
     @Override
     public JobResult process(final Job job) {
 
+        // Batched job.
+        final String[] paths = PropertiesUtil.toStringArray(job.getProperty(CacheInvalidationJobConstants
+                .PAYLOAD_KEY_DATA_CHANGE_PATHS));
+        if (ArrayUtils.isNotEmpty(paths)) {
+            try {
+                httpCacheEngine.invalidateCache(Arrays.asList(paths));
+            } catch (HttpCacheException e) {
+                log.error("Unable to invalidate the cache for the batch of {} payload paths.", paths.length, e);
+            }
+            log.trace("Invalidation job for the batch of {} paths processed.", paths.length);
+            return JobResult.OK;
+        }
+
         // Validate the given job.
         String path = (String) job.getProperty(CacheInvalidationJobConstants.PAYLOAD_KEY_DATA_CHANGE_PATH);
         if (StringUtils.isEmpty(path)) {
@@ -3,6 +3,7 @@ package com.adobe.acs.commons.httpcache.invalidator.event;
 import com.adobe.acs.commons.httpcache.invalidator.CacheInvalidationJobConstants;
 import org.apache.felix.scr.annotations.*;
 import org.apache.sling.api.SlingConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.event.jobs.JobManager;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventConstants;
@@ -10,8 +11,12 @@ import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Sample http cache invalidation job creator. Creates invalidation job when there is a change in JCR repository. Cache
@@ -20,6 +25,10 @@ import java.util.Map;
  * to any change in paths (by default) -- /content, /etc and creates an invalidation job. The intention of this
  * invalidation job is that whenever there is any change in the above said paths, the configured cache needs to be
  * invalidated. </p>
+ * <p> Paths are buffered for a debounce window and submitted as one batched job once no further change has come in for
+ * the window, or once the oldest buffered change has waited for the maximum wait. Paths changed repeatedly within the
+ * window are submitted once. They are submitted as changed, as cache configs may match paths below a
+ * <code>jcr:content</code> node which aren't matched by the node itself. A window of 0 creates a job per event. </p>
  */
 // @formatter:off
 @Component(label = "ACS AEM Commons - HTTP Cache - JCR node change invalidator.",
@@ -42,27 +51,128 @@ import java.util.Map;
                   name = EventConstants.EVENT_FILTER),
         @Property(name = "webconsole.configurationFactory.nameHint",
                     value = "JCR paths to watch for changes: {" + EventConstants.EVENT_FILTER + "}",
-                    propertyPrivate = true)
+                    propertyPrivate = true),
+        @Property(name = "scheduler.period",
+                  longValue = 1L,
+                  propertyPrivate = true),
+        @Property(name = "scheduler.concurrent",
+                  boolValue = false,
+                  propertyPrivate = true)
 })
-@Service
+@Service(value = {EventHandler.class, Runnable.class})
 // @formatter:on
-public class JCRNodeChangeEventHandler implements EventHandler {
+public class JCRNodeChangeEventHandler implements EventHandler, Runnable {
     private static final Logger log = LoggerFactory.getLogger(JCRNodeChangeEventHandler.class);
 
+    @Property(label = "Debounce window",
+              description = "Milliseconds without further change after which the buffered paths are submitted as " +
+                      "one invalidation job. Checked every second. 0 creates a job per event. Default to 1000.",
+              longValue = JCRNodeChangeEventHandler.DEFAULT_DEBOUNCE_WINDOW)
+    private static final String PROP_DEBOUNCE_WINDOW = "httpcache.invalidator.debounce.window";
+    private static final long DEFAULT_DEBOUNCE_WINDOW = 1000L;
+    private long debounceWindow;
+
+    @Property(label = "Maximum wait",
+              description = "Milliseconds after which the buffered paths are submitted even if changes keep coming " +
+                      "in. Default to 10000.",
+              longValue = JCRNodeChangeEventHandler.DEFAULT_MAX_WAIT)
+    private static final String PROP_MAX_WAIT = "httpcache.invalidator.debounce.max-wait";
+    private static final long DEFAULT_MAX_WAIT = 10000L;
+    private long maxWait;
+
+    @Property(label = "Maximum paths per job",
+              description = "Buffered paths beyond this number are split into several jobs. Default to 1000.",
+              intValue = JCRNodeChangeEventHandler.DEFAULT_MAX_BATCH_SIZE)
+    private static final String PROP_MAX_BATCH_SIZE = "httpcache.invalidator.batch.max-paths";
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private int maxBatchSize;
+
     @Reference
     private JobManager jobManager;
 
+    /** Paths buffered for the next batch, without duplicates. Guarded by itself. */
+    private final Set<String> pendingPaths = new TreeSet<String>();
+    /** Time of the first and of the latest change buffered. Guarded by pendingPaths. */
+    private long firstChangeTime = 0L;
+    private long lastChangeTime = 0L;
+
+    @Activate
+    protected void activate(Map<String, Object> configs) {
+        debounceWindow = PropertiesUtil.toLong(configs.get(PROP_DEBOUNCE_WINDOW), DEFAULT_DEBOUNCE_WINDOW);
+        maxWait = PropertiesUtil.toLong(configs.get(PROP_MAX_WAIT), DEFAULT_MAX_WAIT);
+        maxBatchSize = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_MAX_BATCH_SIZE),
+                DEFAULT_MAX_BATCH_SIZE));
+        log.info("JCRNodeChangeEventHandler activated. Debounce window: {} ms", debounceWindow);
+    }
+
+    @Deactivate
+    protected void deactivate(Map<String, Object> configs) {
+        // Don't lose the buffered changes.
+        submitPendingPaths(true);
+        log.info("JCRNodeChangeEventHandler deactivated.");
+    }
+
     @Override
     public void handleEvent(final Event event) {
 
         // Get the required information from the event.
         final String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
-        // Create the required payload.
-        final Map<String, Object> payload = new HashMap<String, Object>();
-        payload.put(CacheInvalidationJobConstants.PAYLOAD_KEY_DATA_CHANGE_PATH, path);
-        // Start a job.
-        jobManager.addJob(CacheInvalidationJobConstants.TOPIC_HTTP_CACHE_INVALIDATION_JOB, payload);
+        if (debounceWindow <= 0) {
+            // Create the required payload.
+            final Map<String, Object> payload = new HashMap<String, Object>();
+            payload.put(CacheInvalidationJobConstants.PAYLOAD_KEY_DATA_CHANGE_PATH, path);
+            // Start a job.
+            jobManager.addJob(CacheInvalidationJobConstants.TOPIC_HTTP_CACHE_INVALIDATION_JOB, payload);
+
+            log.debug("New invalidation job created with the payload path. - {}", path);
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        synchronized (pendingPaths) {
+            if (pendingPaths.isEmpty()) {
+                firstChangeTime = now;
+            }
+            lastChangeTime = now;
+            pendingPaths.add(path);
+        }
+    }
+
+    /**
+     * Submits the buffered paths once the debounce window has passed.
+     */
+    @Override
+    public void run() {
+        submitPendingPaths(false);
+    }
+
+    /**
+     * Submit the buffered paths as batched invalidation jobs.
+     *
+     * @param force Submit even if the debounce window has not passed yet.
+     */
+    private void submitPendingPaths(boolean force) {
+        final List<String> paths;
+        synchronized (pendingPaths) {
+            final long now = System.currentTimeMillis();
+            if (pendingPaths.isEmpty() || !force && now - lastChangeTime < debounceWindow && now - firstChangeTime <
+                    maxWait) {
+                return;
+            }
+            paths = new ArrayList<String>(pendingPaths);
+            pendingPaths.clear();
+        }
+
+        for (int from = 0; from < paths.size(); from += maxBatchSize) {
+            final List<String> batch = paths.subList(from, Math.min(from + maxBatchSize, paths.size()));
+            // Create the required payload.
+            final Map<String, Object> payload = new HashMap<String, Object>();
+            payload.put(CacheInvalidationJobConstants.PAYLOAD_KEY_DATA_CHANGE_PATHS, batch.toArray(new
+                    String[batch.size()]));
+            // Start a job.
+            jobManager.addJob(CacheInvalidationJobConstants.TOPIC_HTTP_CACHE_INVALIDATION_JOB, payload);
+        }
 
-        log.debug("New invalidation job created with the payload path. - {}", path);
+        log.debug("New invalidation jobs created for {} changed paths.", paths.size());
     }
 }
@@ -18,6 +18,8 @@ public interface HttpCacheStore {
     String VALUE_DISK_CACHE_STORE_TYPE = "DISK";
     /** Value representing JCR type of cache store for the key {@link #KEY_CACHE_STORE_TYPE} */
     String VALUE_JCR_CACHE_STORE_TYPE = "JCR";
+    /** Value representing the tiered heap over disk type of cache store for the key {@link #KEY_CACHE_STORE_TYPE} */
+    String VALUE_TIERED_CACHE_STORE_TYPE = "TIERED";
 
     /**
      * Put an item into the cache.
@@ -28,6 +30,17 @@ public interface HttpCacheStore {
      */
     void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException;
 
+    /**
+     * Put an item into the cache, recording the cache config it has been cached for. Stores use this to invalidate the
+     * items of a cache config without matching every key in the store against it.
+     *
+     * @param key         Object holding the key attributes.
+     * @param content     Object holding the content which needs to be cached.
+     * @param cacheConfig Cache config the key has been built by.
+     * @throws HttpCacheDataStreamException Failure when reading the input stream.
+     */
+    void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws HttpCacheDataStreamException;
+
     /**
      * Check if there is an entry in cache for the given key.
      *
@@ -71,6 +84,14 @@ public interface HttpCacheStore {
      */
     void invalidate(HttpCacheConfig cacheConfig);
 
+    /**
+     * Invalidate the cached items applicable for the given cache config whose request URI matches the given pattern.
+     *
+     * @param cacheConfig
+     * @param uriPattern  Request URI pattern with <code>*</code> as wildcard.
+     */
+    void invalidate(HttpCacheConfig cacheConfig, String uriPattern);
+
     /**
      * Create a temp sink for stashing response stream.
      * @return
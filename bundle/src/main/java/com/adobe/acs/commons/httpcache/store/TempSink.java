@@ -31,4 +31,11 @@ public interface TempSink {
      * @return Length of sink in bytes or -1 if unknown.
      */
     long length();
+
+    /**
+     * Release the resources held by the sink, such as buffers and temp files, if no input stream has been created out
+     * of it. Once an input stream has been created, they are released when it is closed. Called for every response
+     * captured but not handed to the cache store.
+     */
+    void release();
 }
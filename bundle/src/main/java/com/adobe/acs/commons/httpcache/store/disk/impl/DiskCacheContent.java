@@ -0,0 +1,61 @@
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Cache content served from the disk cache store. The response body is written straight from the mapped segment
+ * region; an input stream is only created when a caller asks for one.
+ * <p> Holds a reference to the segment, keeping the region mapped until the content is closed. </p>
+ */
+class DiskCacheContent extends CacheContent {
+    private final DiskCacheEntry entry;
+    private InputStream dataInputStream;
+    private boolean closed = false;
+
+    /**
+     * Construct from an index entry whose segment has been retained for this content.
+     *
+     * @param entry
+     */
+    DiskCacheContent(DiskCacheEntry entry) {
+        super(entry.getCharEncoding(), entry.getContentType(), entry.getHeaders(), null);
+        this.entry = entry;
+    }
+
+    @Override
+    public InputStream getInputDataStream() {
+        if (null == dataInputStream) {
+            dataInputStream = entry.openStream();
+        }
+        return dataInputStream;
+    }
+
+    @Override
+    public long getLength() {
+        return entry.getLength();
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        final ByteBuffer data = entry.getData();
+        final WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            entry.getSegment().release();
+        }
+    }
+}
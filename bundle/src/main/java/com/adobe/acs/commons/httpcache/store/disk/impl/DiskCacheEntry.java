@@ -0,0 +1,91 @@
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index entry of the disk cache store. Holds the response meta data and the location of the response body
+ * in a segment file.
+ */
+class DiskCacheEntry {
+    /** Response character encoding */
+    private final String charEncoding;
+    /** Response content type */
+    private final String contentType;
+    /** Response headers */
+    private final Map<String, List<String>> headers;
+    /** Segment holding the response body */
+    private final DiskCacheSegment segment;
+    /** Offset of the response body in the segment */
+    private final int offset;
+    /** Length of the response body */
+    private final int length;
+    /** Expiry time in millis or -1 for no expiry */
+    private final long expiresAt;
+
+    DiskCacheEntry(String charEncoding, String contentType, Map<String, List<String>> headers, DiskCacheSegment
+            segment, int offset, int length, long expiresAt) {
+        this.charEncoding = charEncoding;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Create a copy of the entry pointing to a new location. Used while compacting.
+     *
+     * @param segment
+     * @param offset
+     * @return
+     */
+    DiskCacheEntry relocate(DiskCacheSegment segment, int offset) {
+        return new DiskCacheEntry(charEncoding, contentType, headers, segment, offset, length, expiresAt);
+    }
+
+    String getCharEncoding() {
+        return charEncoding;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the read-only headers.
+     *
+     * @return
+     */
+    Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    DiskCacheSegment getSegment() {
+        return segment;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    boolean isExpired(long now) {
+        return expiresAt > 0 && now >= expiresAt;
+    }
+
+    /**
+     * Read-only view on the mapped response body.
+     *
+     * @return
+     */
+    ByteBuffer getData() {
+        return segment.read(offset, length);
+    }
+
+    InputStream openStream() {
+        return new ByteBufferInputStream(getData());
+    }
+}
@@ -0,0 +1,288 @@
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only segment file of the disk cache store. The file is pre-sized to the segment capacity and memory-mapped
+ * once, so that entries are written and read straight from the page cache without passing through the heap.
+ * <p> Space is reserved by the store under its write lock; the reserved region is then filled outside the lock. Space
+ * of invalidated entries is only reclaimed by compacting or by dropping the whole segment. </p>
+ * <p> The mapping is released explicitly rather than left to the garbage collector, once the segment has been dropped
+ * and the last reader holding a reference has released it. Readers hence {@link #retain()} the segment before reading
+ * and {@link #release()} it when done. </p>
+ */
+class DiskCacheSegment {
+    private static final Logger log = LoggerFactory.getLogger(DiskCacheSegment.class);
+
+    /** Size of the chunks used while copying a stream into the mapped region */
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final long id;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    /** Next free offset. Guarded by the store write lock. */
+    private int writePosition = 0;
+    /** Bytes held by the entries of this segment currently referenced from the store index. */
+    private final AtomicLong liveBytes = new AtomicLong(0L);
+    /** Entries currently pointing into this segment. Used for dropping or compacting the segment. */
+    private final ConcurrentMap<CacheKey, DiskCacheEntry> entries = new ConcurrentHashMap<CacheKey,
+            DiskCacheEntry>();
+    /** Set once the segment has been dropped from the store. */
+    private volatile boolean dropped = false;
+    /** References to the mapping: one held by the store until dropped, plus one per reader. */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private DiskCacheSegment(long id, File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int
+            capacity) {
+        this.id = id;
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create and map a new segment file in the given directory.
+     *
+     * @param directory
+     * @param id
+     * @param capacity  Size of the segment file in bytes.
+     * @return
+     * @throws IOException
+     */
+    static DiskCacheSegment create(File directory, long id, int capacity) throws IOException {
+        final File file = new File(directory, String.format("segment-%016d.dat", id));
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // Sparse on most file systems; blocks get allocated as entries are written.
+            randomAccessFile.setLength(capacity);
+            final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    capacity);
+            return new DiskCacheSegment(id, file, randomAccessFile, buffer, capacity);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(randomAccessFile);
+            FileUtils.deleteQuietly(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserve a region of the given length. To be called under the store write lock.
+     *
+     * @param length
+     * @return Offset of the reserved region or -1 if the segment doesn't have enough room left.
+     */
+    int reserve(int length) {
+        if (length > capacity - writePosition) {
+            return -1;
+        }
+        int offset = writePosition;
+        writePosition += length;
+        return offset;
+    }
+
+    /**
+     * Fill a reserved region from a file channel.
+     *
+     * @param offset
+     * @param length
+     * @param source Channel positioned at the start of the data.
+     * @return True if the region has been filled completely.
+     * @throws IOException
+     */
+    boolean write(int offset, int length, FileChannel source) throws IOException {
+        final ByteBuffer target = region(buffer.duplicate(), offset, length);
+        while (target.hasRemaining()) {
+            if (source.read(target) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fill a reserved region from an input stream.
+     *
+     * @param offset
+     * @param length
+     * @param source
+     * @return True if the region has been filled completely.
+     * @throws IOException
+     */
+    boolean write(int offset, int length, InputStream source) throws IOException {
+        final ByteBuffer target = region(buffer.duplicate(), offset, length);
+        final byte[] chunk = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(length, 1))];
+        while (target.hasRemaining()) {
+            int read = source.read(chunk, 0, Math.min(chunk.length, target.remaining()));
+            if (read < 0) {
+                return false;
+            }
+            target.put(chunk, 0, read);
+        }
+        return true;
+    }
+
+    /**
+     * Fill a reserved region from a byte buffer. Used while compacting.
+     *
+     * @param offset
+     * @param source
+     */
+    void write(int offset, ByteBuffer source) {
+        region(buffer.duplicate(), offset, source.remaining()).put(source);
+    }
+
+    /**
+     * Get a read-only view of the given region. The view is only valid while holding a reference to the segment.
+     *
+     * @param offset
+     * @param length
+     * @return
+     */
+    ByteBuffer read(int offset, int length) {
+        return region(buffer.asReadOnlyBuffer(), offset, length);
+    }
+
+    private static ByteBuffer region(ByteBuffer view, int offset, int length) {
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    /**
+     * Bytes left for reservation. To be called under the store write lock.
+     *
+     * @return
+     */
+    int remaining() {
+        return capacity - writePosition;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    ConcurrentMap<CacheKey, DiskCacheEntry> getEntries() {
+        return entries;
+    }
+
+    boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * Track an entry published to the store index.
+     *
+     * @param key
+     * @param entry
+     */
+    void addEntry(CacheKey key, DiskCacheEntry entry) {
+        DiskCacheEntry previous = entries.put(key, entry);
+        liveBytes.addAndGet(entry.getLength() - (null == previous ? 0 : previous.getLength()));
+    }
+
+    /**
+     * Stop tracking an entry removed from the store index. No-op if the key has been overwritten in this segment since.
+     *
+     * @param key
+     * @param entry
+     */
+    void removeEntry(CacheKey key, DiskCacheEntry entry) {
+        if (entries.remove(key, entry)) {
+            liveBytes.addAndGet(-entry.getLength());
+        }
+    }
+
+    /**
+     * Take a reference to the mapping, keeping it mapped until released.
+     *
+     * @return False if the mapping has been released already, in which case the segment must not be read.
+     */
+    boolean retain() {
+        while (true) {
+            final int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give up a reference to the mapping. The mapping is released and the segment file deleted along with the last
+     * reference.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            unmap(buffer);
+            IOUtils.closeQuietly(randomAccessFile);
+            if (!file.delete()) {
+                log.debug("Could not delete the disk cache segment file {}. Will be retried on exit.", file.getPath());
+                file.deleteOnExit();
+            }
+            log.debug("Disk cache segment {} released.", id);
+        }
+    }
+
+    /**
+     * Mark the segment as dropped and give up the store's reference to it. The segment is released once the readers
+     * holding a reference are done with it.
+     */
+    void delete() {
+        if (!dropped) {
+            dropped = true;
+            release();
+        }
+    }
+
+    /**
+     * Release the mapping of the buffer straight away. There is no public API for this, hence the buffer cleaner is
+     * invoked reflectively; if that's not possible, the mapping is released once the buffer is garbage collected.
+     *
+     * @param buffer
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (null != cleaner) {
+                final Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.debug("Unable to unmap the disk cache segment. Left to the garbage collector.", e);
+        }
+    }
+}
@@ -3,62 +3,556 @@ package com.adobe.acs.commons.httpcache.store.disk.impl;
 import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
 import com.adobe.acs.commons.httpcache.engine.CacheContent;
 import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.store.TempSink;
-import org.apache.commons.lang.NotImplementedException;
-import org.apache.felix.scr.annotations.Component;
-import org.apache.felix.scr.annotations.Property;
-import org.apache.felix.scr.annotations.Service;
+import com.adobe.acs.commons.httpcache.store.impl.CacheKeyIndex;
+import com.adobe.acs.commons.httpcache.store.mem.impl.MemTempSinkImpl;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.felix.scr.annotations.*;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentConstants;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ACS AEM Commons - HTTP Cache - Disk based cache store implementation.
+ * <p> Response bodies are appended to memory-mapped segment files while keys and response meta data are kept in an
+ * in-memory index. Cached responses are hence served from the OS page cache instead of the heap. </p>
+ * <p> When the configured maximum size is reached, the oldest segment is dropped along with all its entries. A
+ * periodic maintenance run purges expired entries and compacts sealed segments whose live data has fallen below the
+ * configured threshold. Cache keys are not serializable and hence the store starts empty on every activation. </p>
  */
+@Component(label = "ACS AEM Commons - HTTP Cache - Disk cache store.",
+           description = "Cache data store implementation for disk storage.",
+           metatype = true)
+@Properties({
+        @Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
+                  value = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE,
+                  propertyPrivate = true),
+        @Property(label = "Maintenance interval",
+                  description = "Interval in seconds between purging expired entries and compacting segments.",
+                  name = "scheduler.period",
+                  longValue = 60L),
+        @Property(name = "scheduler.concurrent",
+                  boolValue = false,
+                  propertyPrivate = true),
+        @Property(name = "webconsole.configurationFactory.nameHint",
+                  value = "TTL: {httpcache.cachestore.diskcache.ttl}, " +
+                          "Max size in MB: {httpcache.cachestore.diskcache.maxsize}",
+                  propertyPrivate = true)
+})
+@Service(value = {HttpCacheStore.class, Runnable.class})
+public class DiskHttpCacheStoreImpl implements HttpCacheStore, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DiskHttpCacheStoreImpl.class);
+
+    /** Megabyte to byte */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** Temp sink files older than this are considered abandoned by maintenance. */
+    private static final long TEMP_FILE_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+    @Property(label = "Cache directory",
+              description = "Directory to create the store's own sub-directory holding the segment files in. Defaults "
+                      + "to the bundle data area. Only the sub-directory is emptied on activation.")
+    private static final String PROP_DIRECTORY = "httpcache.cachestore.diskcache.directory";
+    private static final String DEFAULT_DIRECTORY_NAME = "httpcache-disk";
+    /** Prefix of the sub-directory owned by the store, followed by its PID. */
+    private static final String OWNED_DIRECTORY_PREFIX = "acs-httpcache-";
+    /** Sub-directory owned by the store. Nothing outside of it is ever deleted. */
+    private File directory;
+    private File tempDirectory;
+
+    @Property(label = "TTL",
+              description = "TTL for all entries in this cache in seconds. Default to -1 meaning no TTL.",
+              longValue = DiskHttpCacheStoreImpl.DEFAULT_TTL)
+    private static final String PROP_TTL = "httpcache.cachestore.diskcache.ttl";
+    private static final long DEFAULT_TTL = -1L; // Defaults to -1 meaning no TTL.
+    private long ttl;
+
+    @Property(label = "Maximum size of this store in MB",
+              description = "Default to 1024MB. If cache size goes beyond this size, the oldest segment is evicted "
+                      + "from the cache.",
+              longValue = DiskHttpCacheStoreImpl.DEFAULT_MAX_SIZE_IN_MB)
+    private static final String PROP_MAX_SIZE_IN_MB = "httpcache.cachestore.diskcache.maxsize";
+    private static final long DEFAULT_MAX_SIZE_IN_MB = 1024L;
+    private long maxSizeInMb;
+
+    @Property(label = "Segment size in MB",
+              description = "Size of each segment file. Caps the size of a single cached response. Default to 64MB, "
+                      + "maximum 1024MB.",
+              intValue = DiskHttpCacheStoreImpl.DEFAULT_SEGMENT_SIZE_IN_MB)
+    private static final String PROP_SEGMENT_SIZE_IN_MB = "httpcache.cachestore.diskcache.segmentsize";
+    private static final int DEFAULT_SEGMENT_SIZE_IN_MB = 64;
+    private static final int MAX_SEGMENT_SIZE_IN_MB = 1024;
+    private int segmentSize;
+    private int maxSegments;
+
+    @Property(label = "Compaction threshold",
+              description = "Percentage of live data below which a sealed segment gets compacted. Default to 50.",
+              intValue = DiskHttpCacheStoreImpl.DEFAULT_COMPACTION_THRESHOLD)
+    private static final String PROP_COMPACTION_THRESHOLD = "httpcache.cachestore.diskcache.compaction.threshold";
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 50;
+    private int compactionThreshold;
+
+    /** In-memory index of the cached entries */
+    private final ConcurrentMap<CacheKey, DiskCacheEntry> index = new ConcurrentHashMap<CacheKey, DiskCacheEntry>();
+    /** Keys of the cached entries by cache config and URI. Updated together with the index under its monitor. */
+    private final CacheKeyIndex cacheKeyIndex = new CacheKeyIndex();
+
+    /** Guards segment allocation and the segment list. */
+    private final Object writeLock = new Object();
+    /** Segments, oldest first. The last one is the active segment. Guarded by writeLock. */
+    private final LinkedList<DiskCacheSegment> segments = new LinkedList<DiskCacheSegment>();
+    private long nextSegmentId = 0L;
+
+    @Activate
+    protected void activate(ComponentContext context) throws IOException {
+        final Dictionary<?, ?> configs = context.getProperties();
+
+        // Read config and populate values.
+        ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
+        maxSizeInMb = PropertiesUtil.toLong(configs.get(PROP_MAX_SIZE_IN_MB), DEFAULT_MAX_SIZE_IN_MB);
+        int segmentSizeInMb = PropertiesUtil.toInteger(configs.get(PROP_SEGMENT_SIZE_IN_MB),
+                DEFAULT_SEGMENT_SIZE_IN_MB);
+        segmentSizeInMb = Math.max(1, Math.min(segmentSizeInMb, MAX_SEGMENT_SIZE_IN_MB));
+        // Mapped buffers are int-indexed.
+        segmentSize = (int) Math.min(segmentSizeInMb * MEGABYTE, Integer.MAX_VALUE);
+        maxSegments = (int) Math.max(2L, (maxSizeInMb * MEGABYTE) / segmentSize);
+        compactionThreshold = PropertiesUtil.toInteger(configs.get(PROP_COMPACTION_THRESHOLD),
+                DEFAULT_COMPACTION_THRESHOLD);
+
+        final String directoryPath = PropertiesUtil.toString(configs.get(PROP_DIRECTORY), null);
+        final File parentDirectory;
+        if (StringUtils.isNotBlank(directoryPath)) {
+            parentDirectory = new File(directoryPath);
+        } else {
+            parentDirectory = context.getBundleContext().getDataFile(DEFAULT_DIRECTORY_NAME);
+        }
+        // The configured directory may be shared; the store only ever cleans the sub-directory it owns.
+        final String pid = PropertiesUtil.toString(configs.get(Constants.SERVICE_PID), PropertiesUtil.toString(configs
+                .get(ComponentConstants.COMPONENT_NAME), DiskHttpCacheStoreImpl.class.getName()));
+        directory = new File(parentDirectory, OWNED_DIRECTORY_PREFIX + pid.replaceAll("[^A-Za-z0-9._-]", "_"));
+        tempDirectory = new File(directory, "tmp");
+
+        // Index is held in memory, hence left-overs of the previous run cannot be used.
+        synchronized (writeLock) {
+            dropAllSegments();
+            if (directory.exists()) {
+                FileUtils.cleanDirectory(directory);
+            }
+            FileUtils.forceMkdir(tempDirectory);
+            segments.add(DiskCacheSegment.create(directory, nextSegmentId++, segmentSize));
+        }
+
+        log.info("DiskHttpCacheStoreImpl activated / modified. Directory: {}, max segments: {}", directory
+                .getPath(), maxSegments);
+    }
 
-// TODO - Placeholder component. To be implemented.
-@Component
-@Service
-@Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
-          value = HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE,
-          propertyPrivate = true)
-public class DiskHttpCacheStoreImpl implements HttpCacheStore {
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        synchronized (writeLock) {
+            dropAllSegments();
+        }
+        FileUtils.deleteQuietly(directory);
+        log.info("DiskHttpCacheStoreImpl deactivated.");
+    }
+
+    //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        throw new NotImplementedException();
+        this.put(key, content, null);
+    }
+
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws
+            HttpCacheDataStreamException {
+        final TempSink tempSink = content.getTempSink();
+        FileInputStream fileInputStream = null;
+        InputStream inputStream = content.getInputDataStream();
+
+        try {
+            // Disk temp sinks are read straight into the mapped segment. Anything else goes through the stream, which
+            // is only buffered if its length isn't known upfront.
+            final long length;
+            if (tempSink instanceof DiskTempSinkImpl && tempSink.length() >= 0) {
+                length = tempSink.length();
+                fileInputStream = new FileInputStream(((DiskTempSinkImpl) tempSink).getFile());
+            } else if (content.getLength() >= 0) {
+                length = content.getLength();
+            } else {
+                final byte[] bytes = IOUtils.toByteArray(inputStream);
+                length = bytes.length;
+                inputStream = new ByteBufferInputStream(ByteBuffer.wrap(bytes));
+            }
+
+            if (length > segmentSize) {
+                log.debug("Response of {} bytes doesn't fit in a disk cache segment and hence not cached - {}",
+                        length, key);
+                return;
+            }
+
+            final DiskCacheSegment segment;
+            final int offset;
+            synchronized (writeLock) {
+                segment = activeSegment((int) length);
+                offset = segment.reserve((int) length);
+                // Segments are only dropped under the write lock, hence this always succeeds.
+                segment.retain();
+            }
+
+            final boolean written;
+            try {
+                if (null != fileInputStream) {
+                    written = segment.write(offset, (int) length, fileInputStream.getChannel());
+                } else {
+                    written = segment.write(offset, (int) length, inputStream);
+                }
+            } finally {
+                segment.release();
+            }
+            if (!written) {
+                throw new HttpCacheDataStreamException("Response stream ended before the expected length of " +
+                        length + " bytes.");
+            }
+
+            final long expiresAt = ttl > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : -1L;
+            publish(key, cacheConfig, new DiskCacheEntry(content.getCharEncoding(), content.getContentType(),
+                    copyHeaders(content.getHeaders()), segment, offset, (int) length, expiresAt));
+        } catch (IOException e) {
+            throw new HttpCacheDataStreamException("Unable to write the response into the disk cache.", e);
+        } finally {
+            IOUtils.closeQuietly(fileInputStream);
+        }
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        throw new NotImplementedException();
+        return null != lookup(key);
     }
 
     @Override
     public CacheContent getIfPresent(CacheKey key) {
-        throw new NotImplementedException();
+        final DiskCacheEntry entry = lookup(key);
+        if (null == entry || !entry.getSegment().retain()) {
+            // Missing, or its segment got released meanwhile.
+            return null;
+        }
+        return new DiskCacheContent(entry);
     }
 
     @Override
     public long size() {
-        throw new NotImplementedException();
+        return index.size();
     }
 
     @Override
     public void invalidate(CacheKey key) {
-        throw new NotImplementedException();
+        final DiskCacheEntry entry;
+        synchronized (cacheKeyIndex) {
+            entry = index.remove(key);
+            cacheKeyIndex.remove(key);
+        }
+        if (null != entry) {
+            entry.getSegment().removeEntry(key, entry);
+        }
     }
 
     @Override
     public void invalidateAll() {
-        throw new NotImplementedException();
+        synchronized (writeLock) {
+            final List<DiskCacheSegment> dropped = new ArrayList<DiskCacheSegment>(segments);
+            segments.clear();
+            try {
+                segments.add(DiskCacheSegment.create(directory, nextSegmentId++, segmentSize));
+            } catch (IOException e) {
+                log.error("Unable to create a disk cache segment. Cache stays empty until re-activated.", e);
+            }
+            for (DiskCacheSegment segment : dropped) {
+                dropSegment(segment);
+            }
+        }
     }
 
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        throw new NotImplementedException();
+        try {
+            // Only the keys indexed under the cache config are touched.
+            for (CacheKey key : cacheKeyIndex.getKeys(cacheConfig)) {
+                this.invalidate(key);
+            }
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidate(HttpCacheConfig cacheConfig, String uriPattern) {
+        try {
+            for (CacheKey key : cacheKeyIndex.getKeys(cacheConfig, uriPattern)) {
+                this.invalidate(key);
+            }
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
     }
 
     @Override
     public TempSink createTempSink() {
-        throw new NotImplementedException();
+        try {
+            return new DiskTempSinkImpl(tempDirectory);
+        } catch (HttpCacheDataStreamException e) {
+            // Temp directory is gone; fall back to heap.
+            log.warn("Unable to create disk temp sink. Using in-memory sink instead.", e);
+            return new MemTempSinkImpl();
+        }
+    }
+
+    //-------------------------<Maintenance>
+
+    /**
+     * Purges expired entries, compacts sparse segments and removes abandoned temp files.
+     */
+    @Override
+    public void run() {
+        final long now = System.currentTimeMillis();
+
+        // Purge expired entries.
+        if (ttl > 0) {
+            for (Map.Entry<CacheKey, DiskCacheEntry> entry : index.entrySet()) {
+                if (entry.getValue().isExpired(now)) {
+                    expire(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        // Compact sealed segments with little live data left.
+        final List<DiskCacheSegment> sealed;
+        synchronized (writeLock) {
+            sealed = new ArrayList<DiskCacheSegment>(segments);
+        }
+        if (!sealed.isEmpty()) {
+            sealed.remove(sealed.size() - 1);
+        }
+        for (DiskCacheSegment segment : sealed) {
+            if (!segment.isDropped() && segment.getLiveBytes() * 100 < (long) segment.getCapacity() *
+                    compactionThreshold) {
+                compact(segment);
+            }
+        }
+
+        // Remove temp sinks whose responses never made it to the store.
+        final File[] tempFiles = tempDirectory.listFiles();
+        if (null != tempFiles) {
+            for (File tempFile : tempFiles) {
+                if (now - tempFile.lastModified() > TEMP_FILE_MAX_AGE) {
+                    FileUtils.deleteQuietly(tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the live entries of the given segment to the active segment and drop it.
+     *
+     * @param segment
+     */
+    private void compact(DiskCacheSegment segment) {
+        if (!segment.retain()) {
+            // Released meanwhile.
+            return;
+        }
+        try {
+            compactRetained(segment);
+        } finally {
+            segment.release();
+        }
+    }
+
+    /**
+     * Compact a segment the caller holds a reference to.
+     *
+     * @param segment
+     */
+    private void compactRetained(DiskCacheSegment segment) {
+        log.debug("Compacting disk cache segment {} with {} live bytes.", segment.getId(), segment.getLiveBytes());
+
+        for (Map.Entry<CacheKey, DiskCacheEntry> entry : segment.getEntries().entrySet()) {
+            if (segment.isDropped()) {
+                // Evicted while compacting.
+                return;
+            }
+            final DiskCacheEntry current = entry.getValue();
+            final ByteBuffer data = current.getData();
+
+            final DiskCacheSegment target;
+            final int offset;
+            try {
+                synchronized (writeLock) {
+                    target = activeSegment(current.getLength());
+                    offset = target.reserve(current.getLength());
+                    target.retain();
+                }
+            } catch (IOException e) {
+                log.error("Unable to create a disk cache segment. Compaction aborted.", e);
+                return;
+            }
+            try {
+                target.write(offset, data);
+            } finally {
+                target.release();
+            }
+
+            final DiskCacheEntry relocated = current.relocate(target, offset);
+            if (index.replace(entry.getKey(), current, relocated)) {
+                segment.removeEntry(entry.getKey(), current);
+                target.addEntry(entry.getKey(), relocated);
+                if (target.isDropped()) {
+                    expire(entry.getKey(), relocated);
+                }
+            }
+        }
+
+        synchronized (writeLock) {
+            if (segments.remove(segment)) {
+                dropSegment(segment);
+            }
+        }
+    }
+
+    //-------------------------<Internals>
+
+    /**
+     * Get the index entry for the key, removing it when expired.
+     *
+     * @param key
+     * @return Live entry or null.
+     */
+    private DiskCacheEntry lookup(CacheKey key) {
+        final DiskCacheEntry entry = index.get(key);
+        if (null == entry) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            expire(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void expire(CacheKey key, DiskCacheEntry entry) {
+        final boolean removed;
+        synchronized (cacheKeyIndex) {
+            removed = index.remove(key, entry);
+            if (removed) {
+                cacheKeyIndex.remove(key);
+            }
+        }
+        if (removed) {
+            entry.getSegment().removeEntry(key, entry);
+        }
+    }
+
+    /**
+     * Make a written entry visible in the index.
+     *
+     * @param key
+     * @param cacheConfig
+     * @param entry
+     */
+    private void publish(CacheKey key, HttpCacheConfig cacheConfig, DiskCacheEntry entry) {
+        final DiskCacheSegment segment = entry.getSegment();
+        segment.addEntry(key, entry);
+        final DiskCacheEntry previous;
+        synchronized (cacheKeyIndex) {
+            previous = index.put(key, entry);
+            cacheKeyIndex.add(key, cacheConfig);
+        }
+        if (null != previous) {
+            previous.getSegment().removeEntry(key, previous);
+        }
+        if (segment.isDropped()) {
+            // Segment got evicted while the entry was being written.
+            expire(key, entry);
+        }
+    }
+
+    /**
+     * Get the segment to reserve the given length in, rolling over to a new segment and evicting the oldest ones as
+     * needed. To be called under the write lock.
+     *
+     * @param length
+     * @return
+     * @throws IOException When a new segment file cannot be created.
+     */
+    private DiskCacheSegment activeSegment(int length) throws IOException {
+        DiskCacheSegment active = segments.getLast();
+        if (length <= active.remaining()) {
+            return active;
+        }
+
+        active = DiskCacheSegment.create(directory, nextSegmentId++, segmentSize);
+        segments.add(active);
+
+        // Evict the oldest segments beyond the size limit.
+        while (segments.size() > maxSegments) {
+            dropSegment(segments.removeFirst());
+        }
+        return active;
+    }
+
+    /**
+     * Drop the segment and all entries held in it. The segment gets unmapped as soon as no reader holds it anymore.
+     *
+     * @param segment
+     */
+    private void dropSegment(DiskCacheSegment segment) {
+        segment.delete();
+        for (Map.Entry<CacheKey, DiskCacheEntry> entry : segment.getEntries().entrySet()) {
+            expire(entry.getKey(), entry.getValue());
+        }
+        log.debug("Disk cache segment {} dropped.", segment.getId());
+    }
+
+    private void dropAllSegments() {
+        while (!segments.isEmpty()) {
+            dropSegment(segments.removeFirst());
+        }
+        synchronized (cacheKeyIndex) {
+            index.clear();
+            cacheKeyIndex.clear();
+        }
+    }
+
+    /**
+     * Take a deep, read-only copy of the headers, detaching them from the response. Being read-only, the copy is
+     * handed out as is on every cache hit.
+     *
+     * @param headers
+     * @return
+     */
+    private static Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+        final Map<String, List<String>> copy = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
     }
 }
@@ -0,0 +1,97 @@
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * TempSink implementation for disk cache store. Stashes the response stream in a temp file, so that the response is
+ * never buffered in heap. The temp file is deleted once the input stream created out of it is closed, or on release if
+ * the sink is never read.
+ */
+public class DiskTempSinkImpl implements TempSink {
+    private final File file;
+    private OutputStream outputStream;
+    private boolean isInputStreamCreated;
+
+    DiskTempSinkImpl(File directory) throws HttpCacheDataStreamException {
+        try {
+            this.file = File.createTempFile("httpcache-", ".tmp", directory);
+        } catch (IOException e) {
+            throw new HttpCacheDataStreamException("Unable to create temp file for disk cache sink.", e);
+        }
+    }
+
+    @Override
+    public OutputStream createOutputStream() throws HttpCacheDataStreamException {
+        if (null == outputStream) {
+            try {
+                outputStream = new BufferedOutputStream(new FileOutputStream(file));
+            } catch (IOException e) {
+                throw new HttpCacheDataStreamException("Unable to open temp file of disk cache sink.", e);
+            }
+        }
+        return outputStream;
+    }
+
+    @Override
+    public InputStream createInputStream() throws HttpCacheDataStreamException {
+        if (null == outputStream) {
+            FileUtils.deleteQuietly(file);
+            throw new HttpCacheDataStreamException("Nothing available in sink.");
+        }
+        isInputStreamCreated = true;
+        try {
+            outputStream.close();
+            return new FilterInputStream(new FileInputStream(file)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        FileUtils.deleteQuietly(file);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(file);
+            throw new HttpCacheDataStreamException("Nothing available in sink.", e);
+        }
+    }
+
+    @Override
+    public long length() {
+        if (null == outputStream || !file.exists()) {
+            return -1;
+        }
+        return file.length();
+    }
+
+    @Override
+    public void release() {
+        if (!isInputStreamCreated) {
+            isInputStreamCreated = true;
+            IOUtils.closeQuietly(outputStream);
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Temp file backing this sink.
+     *
+     * @return
+     */
+    File getFile() {
+        return file;
+    }
+}
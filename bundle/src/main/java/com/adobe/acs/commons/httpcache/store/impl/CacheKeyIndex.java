@@ -0,0 +1,222 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Secondary index of the keys held by a cache store, by the cache config they were cached for and by their request
+ * URI. Lets the stores invalidate the keys of a cache config, or of an URI pattern within it, without walking every
+ * key in the store and matching it against the config.
+ * <p> Cache stores are expected to add keys on put and remove them on every kind of removal, eviction and expiry
+ * included. Removing keys that aren't indexed is a no-op. Keys added without a cache config are not indexed; they
+ * are matched with {@link HttpCacheConfig#knows(CacheKey)} on lookup as before. </p>
+ * <p> Puts and removals are a few map operations under the index monitor; lookups copy the matching keys out. </p>
+ */
+public class CacheKeyIndex {
+    /** Wildcard of request URI patterns */
+    private static final String WILDCARD = "*";
+
+    /** Keys by cache config and then by request URI. */
+    private final Map<HttpCacheConfig, TreeMap<String, Set<CacheKey>>> keysByConfig = new
+            HashMap<HttpCacheConfig, TreeMap<String, Set<CacheKey>>>();
+    /** Cache configs by key. A key is shared by the configs building equal keys. */
+    private final Map<CacheKey, Set<HttpCacheConfig>> configsByKey = new HashMap<CacheKey, Set<HttpCacheConfig>>();
+    /** Keys added without a cache config. */
+    private final Set<CacheKey> unindexedKeys = new HashSet<CacheKey>();
+
+    /**
+     * Index the key under the given cache config.
+     *
+     * @param key
+     * @param cacheConfig Config the key has been built by. Null if unknown.
+     */
+    public synchronized void add(CacheKey key, HttpCacheConfig cacheConfig) {
+        if (null == cacheConfig) {
+            unindexedKeys.add(key);
+            return;
+        }
+
+        Set<HttpCacheConfig> configs = configsByKey.get(key);
+        if (null == configs) {
+            configs = new HashSet<HttpCacheConfig>(2);
+            configsByKey.put(key, configs);
+        }
+        configs.add(cacheConfig);
+
+        TreeMap<String, Set<CacheKey>> keysByUri = keysByConfig.get(cacheConfig);
+        if (null == keysByUri) {
+            keysByUri = new TreeMap<String, Set<CacheKey>>();
+            keysByConfig.put(cacheConfig, keysByUri);
+        }
+        Set<CacheKey> keys = keysByUri.get(key.getUri());
+        if (null == keys) {
+            keys = new HashSet<CacheKey>(2);
+            keysByUri.put(key.getUri(), keys);
+        }
+        keys.add(key);
+    }
+
+    /**
+     * Remove the key from the index.
+     *
+     * @param key
+     */
+    public synchronized void remove(CacheKey key) {
+        unindexedKeys.remove(key);
+
+        final Set<HttpCacheConfig> configs = configsByKey.remove(key);
+        if (null == configs) {
+            return;
+        }
+        for (HttpCacheConfig cacheConfig : configs) {
+            final TreeMap<String, Set<CacheKey>> keysByUri = keysByConfig.get(cacheConfig);
+            if (null == keysByUri) {
+                continue;
+            }
+            final Set<CacheKey> keys = keysByUri.get(key.getUri());
+            if (null != keys && keys.remove(key) && keys.isEmpty()) {
+                keysByUri.remove(key.getUri());
+                if (keysByUri.isEmpty()) {
+                    keysByConfig.remove(cacheConfig);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the keys known by the given cache config.
+     *
+     * @param cacheConfig
+     * @return Copy of the matching keys.
+     * @throws HttpCacheKeyCreationException
+     */
+    public List<CacheKey> getKeys(HttpCacheConfig cacheConfig) throws HttpCacheKeyCreationException {
+        return getKeys(cacheConfig, null);
+    }
+
+    /**
+     * Get the keys known by the given cache config whose request URI matches the given pattern. Only the URIs sharing
+     * the literal prefix of the pattern are matched.
+     *
+     * @param cacheConfig
+     * @param uriPattern  Request URI pattern with <code>*</code> as wildcard, or null for all the keys of the config.
+     * @return Copy of the matching keys.
+     * @throws HttpCacheKeyCreationException
+     */
+    public List<CacheKey> getKeys(HttpCacheConfig cacheConfig, String uriPattern) throws
+            HttpCacheKeyCreationException {
+
+        final String uriPrefix = null == uriPattern ? null : StringUtils.substringBefore(uriPattern, WILDCARD);
+        final Pattern uriRegex = null == uriPattern ? null : compileWildcardPattern(uriPattern);
+
+        final List<CacheKey> matches = new ArrayList<CacheKey>();
+        final List<CacheKey> candidates;
+        synchronized (this) {
+            final TreeMap<String, Set<CacheKey>> keysByUri = keysByConfig.get(cacheConfig);
+            if (null != keysByUri) {
+                final SortedMap<String, Set<CacheKey>> range = null == uriPrefix ? keysByUri : keysByUri.subMap
+                        (uriPrefix, uriPrefix + Character.MAX_VALUE);
+                for (Map.Entry<String, Set<CacheKey>> entry : range.entrySet()) {
+                    if (null == uriRegex || uriRegex.matcher(entry.getKey()).matches()) {
+                        matches.addAll(entry.getValue());
+                    }
+                }
+            }
+            candidates = unindexedKeys.isEmpty() ? null : new ArrayList<CacheKey>(unindexedKeys);
+        }
+
+        // Keys of unknown origin are matched outside the monitor, as building keys may be costly.
+        if (null != candidates) {
+            for (CacheKey key : candidates) {
+                if ((null == uriRegex || uriRegex.matcher(key.getUri()).matches()) && cacheConfig.knows(key)) {
+                    matches.add(key);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Get all the keys in the index.
+     *
+     * @return Copy of the keys.
+     */
+    public synchronized List<CacheKey> getKeys() {
+        final List<CacheKey> keys = new ArrayList<CacheKey>(configsByKey.size() + unindexedKeys.size());
+        keys.addAll(configsByKey.keySet());
+        keys.addAll(unindexedKeys);
+        return keys;
+    }
+
+    /**
+     * Check if the key is in the index, under a cache config or not.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized boolean contains(CacheKey key) {
+        return configsByKey.containsKey(key) || unindexedKeys.contains(key);
+    }
+
+    /**
+     * Get a cache config the key has been indexed under.
+     *
+     * @param key
+     * @return One of the configs of the key, or null if the key isn't indexed under any.
+     */
+    public synchronized HttpCacheConfig getConfig(CacheKey key) {
+        final Set<HttpCacheConfig> configs = configsByKey.get(key);
+        return null == configs || configs.isEmpty() ? null : configs.iterator().next();
+    }
+
+    /**
+     * Get the number of keys in the index.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return configsByKey.size() + unindexedKeys.size();
+    }
+
+    /**
+     * Compile a request URI pattern with <code>*</code> wildcards into a regular expression.
+     *
+     * @param uriPattern
+     * @return
+     */
+    public static Pattern compileWildcardPattern(String uriPattern) {
+        final StringBuilder regex = new StringBuilder();
+        final String[] literals = StringUtils.splitPreserveAllTokens(uriPattern, WILDCARD);
+        for (int i = 0; i < literals.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (literals[i].length() > 0) {
+                regex.append(Pattern.quote(literals[i]));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Remove all the keys from the index.
+     */
+    public synchronized void clear() {
+        keysByConfig.clear();
+        configsByKey.clear();
+        unindexedKeys.clear();
+    }
+}
@@ -0,0 +1,210 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.store.TempSink;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * TempSink keeping the head of the response in a pooled buffer and spilling to a temp file once the response outgrows
+ * the buffer. Small responses are captured without any allocation; large ones never sit in heap while being captured.
+ * <p> The buffer goes back to the pool, and the temp file gets deleted, once the input stream created out of the sink
+ * is closed, or on release if the sink is never read. </p>
+ */
+public class SpillingTempSink implements TempSink {
+    private final TempSinkBufferPool bufferPool;
+    /** Directory of the temp file, owned by the cache store. Null for the default temp directory. */
+    private final File directory;
+
+    /** Pooled buffer holding the response until spilled. Null before the first write and once released. */
+    private byte[] buffer;
+    private int bufferedLength;
+    /** Temp file once spilled. */
+    private File file;
+    private OutputStream fileOutputStream;
+    private long length;
+
+    private OutputStream outputStream;
+    private boolean isInputStreamCreated;
+    private boolean isReleased;
+
+    /**
+     * @param bufferPool Pool of the buffers holding the head of the response.
+     * @param directory  Directory of the temp file owned by the cache store, or null for the default temp directory.
+     */
+    public SpillingTempSink(TempSinkBufferPool bufferPool, File directory) {
+        this.bufferPool = bufferPool;
+        this.directory = directory;
+    }
+
+    @Override
+    public OutputStream createOutputStream() throws HttpCacheDataStreamException {
+        if (null == outputStream) {
+            outputStream = new SinkOutputStream();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public InputStream createInputStream() throws HttpCacheDataStreamException {
+        if (isInputStreamCreated || isReleased) {
+            // Resources are owned by the first input stream, if any.
+            throw new HttpCacheDataStreamException("Nothing available in sink.");
+        }
+        if (null == outputStream) {
+            releaseResources();
+            throw new HttpCacheDataStreamException("Nothing available in sink.");
+        }
+        isInputStreamCreated = true;
+
+        if (null == file) {
+            if (null == buffer) {
+                // Nothing written.
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return new FilterInputStream(new ByteArrayInputStream(buffer, 0, bufferedLength)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        releaseResources();
+                    }
+                }
+            };
+        }
+
+        try {
+            fileOutputStream.close();
+            return new FilterInputStream(new FileInputStream(file)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        releaseResources();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            releaseResources();
+            throw new HttpCacheDataStreamException("Nothing available in sink.", e);
+        }
+    }
+
+    @Override
+    public long length() {
+        if (null == outputStream) {
+            return -1;
+        }
+        return length;
+    }
+
+    @Override
+    public void release() {
+        if (!isInputStreamCreated && !isReleased) {
+            isReleased = true;
+            releaseResources();
+        }
+    }
+
+    /**
+     * Check if the response outgrew the buffer and got spilled to a temp file.
+     *
+     * @return
+     */
+    public boolean isSpilled() {
+        return null != file;
+    }
+
+    /**
+     * Move the buffered head of the response to a temp file, returning the buffer to the pool.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile("httpcache-", ".tmp", directory);
+        fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+        if (null != buffer) {
+            fileOutputStream.write(buffer, 0, bufferedLength);
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Return the buffer to the pool and delete the temp file, if any.
+     */
+    private void releaseResources() {
+        if (null != buffer) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+        if (null != file) {
+            IOUtils.closeQuietly(fileOutputStream);
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Writes into the buffer until full, then into the temp file.
+     */
+    private class SinkOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (null != buffer && null == file && bufferedLength < buffer.length && !isInputStreamCreated &&
+                    !isReleased) {
+                buffer[bufferedLength++] = (byte) b;
+                length++;
+                return;
+            }
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            if (isInputStreamCreated) {
+                throw new IOException("Sink already read.");
+            }
+            if (isReleased) {
+                throw new IOException("Sink already released.");
+            }
+            if (null == file) {
+                if (null == buffer) {
+                    buffer = bufferPool.acquire();
+                }
+                if (bufferedLength + count <= buffer.length) {
+                    System.arraycopy(bytes, offset, buffer, bufferedLength, count);
+                    bufferedLength += count;
+                    length += count;
+                    return;
+                }
+                spill();
+            }
+            fileOutputStream.write(bytes, offset, count);
+            length += count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != fileOutputStream) {
+                fileOutputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
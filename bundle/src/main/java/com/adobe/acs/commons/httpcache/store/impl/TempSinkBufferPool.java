@@ -0,0 +1,63 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the fixed size buffers holding the head of responses in {@link SpillingTempSink}s. Saves allocating a
+ * buffer per cache miss; buffers not returned, such as the ones of abandoned sinks, are simply garbage collected.
+ */
+public class TempSinkBufferPool {
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger pooledBuffersCount = new AtomicInteger(0);
+
+    /**
+     * @param bufferSize       Size of the buffers in bytes.
+     * @param maxPooledBuffers Maximum number of idle buffers kept.
+     */
+    public TempSinkBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Get the size of the buffers.
+     *
+     * @return
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Take a buffer out of the pool, allocating one if the pool is empty.
+     *
+     * @return
+     */
+    public byte[] acquire() {
+        final byte[] buffer = buffers.poll();
+        if (null == buffer) {
+            return new byte[bufferSize];
+        }
+        pooledBuffersCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Dropped if the pool is full.
+     *
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        if (pooledBuffersCount.incrementAndGet() <= maxPooledBuffers) {
+            buffers.offer(buffer);
+        } else {
+            pooledBuffersCount.decrementAndGet();
+        }
+    }
+}
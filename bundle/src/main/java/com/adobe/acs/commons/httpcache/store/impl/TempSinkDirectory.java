@@ -0,0 +1,68 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentConstants;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Dictionary;
+
+/**
+ * Directory owned by a cache store for the temp files of its sinks. Lives in the bundle data area and is named after
+ * the PID of the store, so that left-overs of a previous run can be deleted without touching anybody else's files.
+ */
+public final class TempSinkDirectory {
+    private static final Logger log = LoggerFactory.getLogger(TempSinkDirectory.class);
+
+    /** Prefix of the directory, followed by the PID of the store. */
+    private static final String DIRECTORY_PREFIX = "acs-httpcache-tmp-";
+
+    private TempSinkDirectory() {
+    }
+
+    /**
+     * Create the temp directory of the given store component, emptied.
+     *
+     * @param context Component context of the cache store.
+     * @return The directory, or null for the default temp directory if it cannot be created.
+     */
+    public static File create(ComponentContext context) {
+        final Dictionary<?, ?> configs = context.getProperties();
+        final String pid = PropertiesUtil.toString(configs.get(Constants.SERVICE_PID), PropertiesUtil.toString(configs
+                .get(ComponentConstants.COMPONENT_NAME), "default"));
+        final File directory = context.getBundleContext().getDataFile(DIRECTORY_PREFIX + pid.replaceAll
+                ("[^A-Za-z0-9._-]", "_"));
+        if (null == directory) {
+            log.warn("No bundle data area available. Temp sinks spill to the default temp directory.");
+            return null;
+        }
+
+        try {
+            if (directory.exists()) {
+                FileUtils.cleanDirectory(directory);
+            }
+            FileUtils.forceMkdir(directory);
+            return directory;
+        } catch (IOException e) {
+            log.warn("Unable to create the temp sink directory {}. Temp sinks spill to the default temp directory.",
+                    directory.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the temp directory of a store, along with any temp file left.
+     *
+     * @param directory Directory created by {@link #create(ComponentContext)}, may be null.
+     */
+    public static void delete(File directory) {
+        if (null != directory) {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.adobe.acs.commons.httpcache.store.jcr.impl;
+
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache content served from the JCR cache store. Its data stream is read from a read session taken for this content
+ * alone, given back to the store once the content is closed.
+ */
+class JCRCacheContent extends CacheContent {
+    private final JCRHttpCacheStoreImpl cacheStore;
+    private final ResourceResolver resourceResolver;
+    private boolean closed = false;
+
+    /**
+     * Construct from an entry node read with the given resolver.
+     *
+     * @param cacheStore       Store the resolver is given back to.
+     * @param resourceResolver Resolver owning the read session of the data stream.
+     * @param charEncoding
+     * @param contentType
+     * @param headers
+     * @param dataInputStream
+     */
+    JCRCacheContent(JCRHttpCacheStoreImpl cacheStore, ResourceResolver resourceResolver, String charEncoding, String
+            contentType, Map<String, List<String>> headers, InputStream dataInputStream) {
+        super(charEncoding, contentType, headers, dataInputStream);
+        this.cacheStore = cacheStore;
+        this.resourceResolver = resourceResolver;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            super.close();
+            cacheStore.releaseReadResourceResolver(resourceResolver);
+        }
+    }
+}
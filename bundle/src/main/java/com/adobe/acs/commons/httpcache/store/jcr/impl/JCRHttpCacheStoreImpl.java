@@ -6,61 +6,712 @@ import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.store.TempSink;
-import org.apache.commons.lang.NotImplementedException;
-import org.apache.felix.scr.annotations.Component;
-import org.apache.felix.scr.annotations.Property;
-import org.apache.felix.scr.annotations.Service;
+import com.adobe.acs.commons.httpcache.store.mem.impl.MemTempSinkImpl;
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.commons.jcr.JcrUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.felix.scr.annotations.*;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.jcr.*;
+import javax.jcr.query.Query;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * ACS AEM Commons - HTTP Cache - JCR based cache store implementation.
+ * <p> Entries are persisted as binaries under a hashed, bucketed node tree (<code>root/ab/cd/abcd...</code>) so that no
+ * parent node grows too many children. The node name is derived from the cache key, hence instances sharing a
+ * repository share warm cache entries, also across restarts. </p>
+ * <p> Writes are collected in a single write session and saved in batches, either when the configured number of
+ * pending changes is reached or on the periodic maintenance run, which also purges expired entries. A failed write is
+ * rolled back by dropping its entry; the rest of the batch is kept. </p>
+ * <p> Invalidations are saved right away, along with the pending writes. If that save fails, the pending writes are
+ * dropped and the invalidation is saved on its own, so that invalidated entries are never served again. </p>
+ * <p> JCR sessions are not thread safe, hence each lookup takes a read session of its own from a pool of idle
+ * sessions, refreshed when taken. Content returned by a lookup holds its session until it is closed. Invalidation and
+ * purge queries run in sessions of their own, outside of the write lock; only the removal of the found entries is
+ * done under it. </p>
  */
+@Component(label = "ACS AEM Commons - HTTP Cache - JCR cache store.",
+           description = "Cache data store implementation for JCR storage.",
+           metatype = true)
+@Properties({
+        @Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
+                  value = HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE,
+                  propertyPrivate = true),
+        @Property(label = "Maintenance interval",
+                  description = "Interval in seconds between saving pending writes and purging expired entries.",
+                  name = "scheduler.period",
+                  longValue = 60L),
+        @Property(name = "scheduler.concurrent",
+                  boolValue = false,
+                  propertyPrivate = true),
+        @Property(name = "webconsole.configurationFactory.nameHint",
+                  value = "Root path: {httpcache.cachestore.jcrcache.rootpath}, " +
+                          "TTL: {httpcache.cachestore.jcrcache.ttl}",
+                  propertyPrivate = true)
+})
+@Service(value = {HttpCacheStore.class, Runnable.class})
+public class JCRHttpCacheStoreImpl implements HttpCacheStore, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(JCRHttpCacheStoreImpl.class);
 
-// TODO - Placeholder component. To be implemented.
+    /** Property names of the entry nodes */
+    static final String PN_CACHE_KEY = "cacheKey";
+    static final String PN_URI = "uri";
+    static final String PN_CHAR_ENCODING = "charEncoding";
+    static final String PN_CONTENT_TYPE = "contentType";
+    static final String PN_HEADERS = "headers";
+    static final String PN_EXPIRES_ON = "expiresOn";
+    static final String PN_DATA = "data";
 
-@Component
-@Service
-@Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
-          value = HttpCacheStore.VALUE_JCR_CACHE_STORE_TYPE,
-          propertyPrivate = true)
-public class JCRHttpCacheStoreImpl implements HttpCacheStore {
+    /** Separator between header name and value in the headers property */
+    private static final char HEADER_SEPARATOR = ':';
+
+    /** Number of hash characters used for each bucket level */
+    private static final int BUCKET_NAME_LENGTH = 2;
+    /** Number of bucket levels above the entry nodes */
+    private static final int BUCKET_DEPTH = 2;
+
+    @Property(label = "Root path",
+              description = "Repository path under which the cache entries are stored.",
+              value = JCRHttpCacheStoreImpl.DEFAULT_ROOT_PATH)
+    private static final String PROP_ROOT_PATH = "httpcache.cachestore.jcrcache.rootpath";
+    private static final String DEFAULT_ROOT_PATH = "/var/acs-commons/httpcache";
+    private String rootPath;
+
+    @Property(label = "TTL",
+              description = "TTL for all entries in this cache in seconds. Default to -1 meaning no TTL.",
+              longValue = JCRHttpCacheStoreImpl.DEFAULT_TTL)
+    private static final String PROP_TTL = "httpcache.cachestore.jcrcache.ttl";
+    private static final long DEFAULT_TTL = -1L; // Defaults to -1 meaning no TTL.
+    private long ttl;
+
+    @Property(label = "Save threshold",
+              description = "Number of pending writes that triggers a save. Pending writes are saved on every "
+                      + "maintenance run as well. Default to 100.",
+              intValue = JCRHttpCacheStoreImpl.DEFAULT_SAVE_THRESHOLD)
+    private static final String PROP_SAVE_THRESHOLD = "httpcache.cachestore.jcrcache.save-threshold";
+    private static final int DEFAULT_SAVE_THRESHOLD = 100;
+    private int saveThreshold;
+
+    @Property(label = "Idle read sessions",
+              description = "Number of idle sessions kept for lookups. Each lookup takes a session of its own, "
+                      + "opening one if none is idle. Default to 10.",
+              intValue = JCRHttpCacheStoreImpl.DEFAULT_MAX_IDLE_READ_SESSIONS)
+    private static final String PROP_MAX_IDLE_READ_SESSIONS = "httpcache.cachestore.jcrcache.read-sessions";
+    private static final int DEFAULT_MAX_IDLE_READ_SESSIONS = 10;
+    private int maxIdleReadSessions;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    /** Resolver owning the write session. Guarded by writeLock. */
+    private ResourceResolver writeResourceResolver;
+    private final Object writeLock = new Object();
+    /** Number of unsaved changes in the write session. Guarded by writeLock. */
+    private int pendingChanges = 0;
+
+    /** Resolvers owning the idle read sessions, most recently used first. Guarded by readSessionLock. */
+    private final Deque<ResourceResolver> idleReadResourceResolvers = new ArrayDeque<ResourceResolver>();
+    /** Guarded by readSessionLock. */
+    private boolean isActive = false;
+    private final Object readSessionLock = new Object();
+
+    /** Number of entries as of the last maintenance run, adjusted by writes of this instance since. */
+    private final AtomicLong size = new AtomicLong(0L);
+
+    @Activate
+    protected void activate(Map<String, Object> configs) throws LoginException {
+        // Read config and populate values.
+        rootPath = StringUtils.removeEnd(PropertiesUtil.toString(configs.get(PROP_ROOT_PATH), DEFAULT_ROOT_PATH),
+                "/");
+        ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
+        saveThreshold = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_SAVE_THRESHOLD),
+                DEFAULT_SAVE_THRESHOLD));
+        maxIdleReadSessions = Math.max(0, PropertiesUtil.toInteger(configs.get(PROP_MAX_IDLE_READ_SESSIONS),
+                DEFAULT_MAX_IDLE_READ_SESSIONS));
+
+        synchronized (writeLock) {
+            writeResourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+            pendingChanges = 0;
+        }
+        synchronized (readSessionLock) {
+            isActive = true;
+        }
+
+        log.info("JCRHttpCacheStoreImpl activated / modified. Root path: {}", rootPath);
+    }
+
+    @Deactivate
+    protected void deactivate(Map<String, Object> configs) {
+        synchronized (writeLock) {
+            save();
+            if (writeResourceResolver != null) {
+                writeResourceResolver.close();
+                writeResourceResolver = null;
+            }
+        }
+        final List<ResourceResolver> idle;
+        synchronized (readSessionLock) {
+            isActive = false;
+            idle = new ArrayList<ResourceResolver>(idleReadResourceResolvers);
+            idleReadResourceResolvers.clear();
+        }
+        // Sessions still held by returned content are closed along with it.
+        for (ResourceResolver resourceResolver : idle) {
+            resourceResolver.close();
+        }
+        log.info("JCRHttpCacheStoreImpl deactivated.");
+    }
+
+    //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        throw new NotImplementedException();
+        this.put(key, content, null);
+    }
+
+    /**
+     * Entries are not indexed by cache config, as the index would not survive a restart while the entries do. See
+     * {@link #invalidate(HttpCacheConfig)}.
+     */
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws
+            HttpCacheDataStreamException {
+        final String path = getEntryPath(key);
+        synchronized (writeLock) {
+            try {
+                final Session session = getWriteSession();
+                final boolean isNew = !session.nodeExists(path);
+                final Node entry = JcrUtil.createPath(path, JcrConstants.NT_UNSTRUCTURED, JcrConstants
+                        .NT_UNSTRUCTURED, session, false);
+
+                entry.setProperty(PN_CACHE_KEY, key.toString());
+                entry.setProperty(PN_URI, key.getUri());
+                entry.setProperty(PN_CHAR_ENCODING, content.getCharEncoding());
+                entry.setProperty(PN_CONTENT_TYPE, content.getContentType());
+                entry.setProperty(PN_HEADERS, flattenHeaders(content.getHeaders()));
+                if (ttl > 0) {
+                    final Calendar expiresOn = Calendar.getInstance();
+                    expiresOn.add(Calendar.SECOND, (int) ttl);
+                    entry.setProperty(PN_EXPIRES_ON, expiresOn);
+                }
+
+                // Binary is streamed into the repository right away, the node itself is saved with the batch.
+                final Binary binary = session.getValueFactory().createBinary(content.getInputDataStream());
+                try {
+                    entry.setProperty(PN_DATA, binary);
+                } finally {
+                    binary.dispose();
+                }
+
+                if (isNew) {
+                    size.incrementAndGet();
+                }
+                changed();
+            } catch (RepositoryException e) {
+                rollback(path);
+                throw new HttpCacheDataStreamException("Unable to write the response into the JCR cache.", e);
+            }
+        }
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        throw new NotImplementedException();
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = takeReadResourceResolver();
+            return null != getEntryNode(resourceResolver.adaptTo(Session.class), key);
+        } catch (RepositoryException e) {
+            log.error("Unable to look up the JCR cache.", e);
+        } finally {
+            if (resourceResolver != null) {
+                releaseReadResourceResolver(resourceResolver);
+            }
+        }
+        return false;
     }
 
+    /**
+     * The data stream of the returned content is read from a read session of its own, given back to the pool once the
+     * content is closed.
+     */
     @Override
     public CacheContent getIfPresent(CacheKey key) {
-        throw new NotImplementedException();
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = takeReadResourceResolver();
+            final Node entry = getEntryNode(resourceResolver.adaptTo(Session.class), key);
+            if (null == entry) {
+                return null;
+            }
+
+            final CacheContent content = new JCRCacheContent(this, resourceResolver,
+                    getString(entry, PN_CHAR_ENCODING),
+                    getString(entry, PN_CONTENT_TYPE),
+                    parseHeaders(entry),
+                    entry.getProperty(PN_DATA).getBinary().getStream());
+            // Released by the content from now on.
+            resourceResolver = null;
+            return content;
+        } catch (RepositoryException e) {
+            log.error("Unable to read from the JCR cache.", e);
+        } finally {
+            if (resourceResolver != null) {
+                releaseReadResourceResolver(resourceResolver);
+            }
+        }
+        return null;
     }
 
+    /**
+     * Number of entries as of the last maintenance run, adjusted by the writes of this instance since.
+     *
+     * @return
+     */
     @Override
     public long size() {
-        throw new NotImplementedException();
+        return size.get();
     }
 
+    /**
+     * Saved right away, see {@link #removeEntries(List)}.
+     *
+     * @param key
+     */
     @Override
     public void invalidate(CacheKey key) {
-        throw new NotImplementedException();
+        removeEntries(Collections.singletonList(getEntryPath(key)));
     }
 
     @Override
     public void invalidateAll() {
-        throw new NotImplementedException();
+        synchronized (writeLock) {
+            try {
+                final Session session = getWriteSession();
+                // Catch up with the buckets created by other instances, keeping the pending changes.
+                session.refresh(true);
+                final List<String> bucketPaths = new ArrayList<String>();
+                if (session.nodeExists(rootPath)) {
+                    final NodeIterator buckets = session.getNode(rootPath).getNodes();
+                    while (buckets.hasNext()) {
+                        bucketPaths.add(buckets.nextNode().getPath());
+                    }
+                }
+                removeEntries(bucketPaths);
+                size.set(0L);
+            } catch (RepositoryException e) {
+                log.error("Unable to invalidate the JCR cache.", e);
+            }
+        }
     }
 
+    /**
+     * Cache keys cannot be rebuilt from the repository, hence entries are matched against the request URI patterns of
+     * the cache config. Entries of other configs sharing the URI space get invalidated as well.
+     *
+     * @param cacheConfig
+     */
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        throw new NotImplementedException();
+        try {
+            removeEntries(findEntryPaths(cacheConfig, null));
+        } catch (LoginException e) {
+            log.error("Unable to invalidate the JCR cache for the cache config.", e);
+        } catch (RepositoryException e) {
+            log.error("Unable to invalidate the JCR cache for the cache config.", e);
+        }
+    }
+
+    /**
+     * Entries are looked up by their stored URI and then matched against the request URI patterns of the cache config,
+     * as in {@link #invalidate(HttpCacheConfig)}.
+     *
+     * @param cacheConfig
+     * @param uriPattern
+     */
+    @Override
+    public void invalidate(HttpCacheConfig cacheConfig, String uriPattern) {
+        try {
+            removeEntries(findEntryPaths(cacheConfig, uriPattern));
+        } catch (LoginException e) {
+            log.error("Unable to invalidate the JCR cache for the URI pattern {}", uriPattern, e);
+        } catch (RepositoryException e) {
+            log.error("Unable to invalidate the JCR cache for the URI pattern {}", uriPattern, e);
+        }
     }
 
     @Override
     public TempSink createTempSink() {
-        throw new NotImplementedException();
+        return new MemTempSinkImpl();
+    }
+
+    //-------------------------<Maintenance>
+
+    /**
+     * Saves pending writes, purges expired entries, recounts the entries and refreshes the read session, picking up
+     * the changes of other instances sharing the repository.
+     */
+    @Override
+    public void run() {
+        synchronized (writeLock) {
+            save();
+        }
+
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+            long count = 0L;
+            final List<String> expiredPaths = new ArrayList<String>();
+            final NodeIterator entries = findEntries(resourceResolver.adaptTo(Session.class));
+            while (entries.hasNext()) {
+                final Node entry = entries.nextNode();
+                if (isExpired(entry)) {
+                    expiredPaths.add(entry.getPath());
+                } else {
+                    count++;
+                }
+            }
+            removeEntries(expiredPaths);
+            size.set(count);
+        } catch (LoginException e) {
+            log.error("Unable to purge the JCR cache.", e);
+        } catch (RepositoryException e) {
+            log.error("Unable to purge the JCR cache.", e);
+        } finally {
+            if (resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    //-------------------------<Internals>
+
+    /**
+     * Path of the entry node for the given key. Built from the SHA-1 of the key, prefixed with bucket levels.
+     *
+     * @param key
+     * @return
+     */
+    String getEntryPath(CacheKey key) {
+        final String hash = DigestUtils.shaHex(key.toString());
+        final StringBuilder path = new StringBuilder(rootPath);
+        for (int level = 0; level < BUCKET_DEPTH; level++) {
+            path.append('/').append(hash, level * BUCKET_NAME_LENGTH, (level + 1) * BUCKET_NAME_LENGTH);
+        }
+        return path.append('/').append(hash).toString();
+    }
+
+    /**
+     * Get the entry node for the given key if it is present and live.
+     *
+     * @param session
+     * @param key
+     * @return
+     * @throws RepositoryException
+     */
+    private Node getEntryNode(Session session, CacheKey key) throws RepositoryException {
+        final String path = getEntryPath(key);
+        if (!session.nodeExists(path)) {
+            return null;
+        }
+        final Node entry = session.getNode(path);
+        // Guard against hash collisions.
+        if (!StringUtils.equals(key.toString(), getString(entry, PN_CACHE_KEY)) || isExpired(entry)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Find the paths of the entries matching the request URI patterns of the cache config, optionally narrowed down to
+     * the given URI pattern. Queried in a session of its own, without holding the write lock.
+     *
+     * @param cacheConfig
+     * @param uriPattern  Request URI pattern with <code>*</code> as wildcard, or null for all entries.
+     * @return
+     * @throws LoginException
+     * @throws RepositoryException
+     */
+    private List<String> findEntryPaths(HttpCacheConfig cacheConfig, String uriPattern) throws LoginException,
+            RepositoryException {
+        // Pending entries are not visible to other sessions.
+        synchronized (writeLock) {
+            save();
+        }
+
+        final List<String> paths = new ArrayList<String>();
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+            final Session session = resourceResolver.adaptTo(Session.class);
+            final NodeIterator entries = null == uriPattern ? findEntries(session) : findEntries(session, uriPattern);
+            while (entries.hasNext()) {
+                final Node entry = entries.nextNode();
+                final String uri = getString(entry, PN_URI);
+                if (uri != null && matches(cacheConfig.getRequestUriPatterns(), uri) && !matches(cacheConfig
+                        .getBlacklistedRequestUriPatterns(), uri)) {
+                    paths.add(entry.getPath());
+                }
+            }
+        } finally {
+            if (resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Remove the entries at the given paths and save right away, along with the pending writes. If the save fails,
+     * the pending writes are dropped and the removal is saved on its own. Entries removed meanwhile are skipped.
+     *
+     * @param paths
+     */
+    private void removeEntries(List<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            try {
+                removeAndSave(paths);
+            } catch (RepositoryException e) {
+                log.warn("Unable to save the removal of JCR cache entries. Retrying without {} pending writes.",
+                        pendingChanges, e);
+                discard();
+                try {
+                    removeAndSave(paths);
+                } catch (RepositoryException retryException) {
+                    log.error("Unable to remove the JCR cache entries.", retryException);
+                    discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * To be called under the write lock.
+     *
+     * @param paths
+     * @throws RepositoryException
+     */
+    private void removeAndSave(List<String> paths) throws RepositoryException {
+        final Session session = getWriteSession();
+        // Catch up with the entries found by the query, keeping the pending changes.
+        session.refresh(true);
+        int removedCount = 0;
+        for (String path : paths) {
+            if (session.nodeExists(path)) {
+                session.getNode(path).remove();
+                removedCount++;
+            }
+        }
+        if (removedCount == 0) {
+            return;
+        }
+
+        session.save();
+        log.debug("Saved {} JCR cache removals along with {} pending changes.", removedCount, pendingChanges);
+        pendingChanges = 0;
+        size.addAndGet(-removedCount);
+    }
+
+    private NodeIterator findEntries(Session session) throws RepositoryException {
+        final String statement = "SELECT * FROM [" + JcrConstants.NT_UNSTRUCTURED + "] AS e WHERE ISDESCENDANTNODE(e,"
+                + " '" + rootPath + "') AND e.[" + PN_CACHE_KEY + "] IS NOT NULL";
+        return session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2).execute().getNodes();
+    }
+
+    /**
+     * Find the entries whose URI matches the given pattern.
+     *
+     * @param session
+     * @param uriPattern Request URI pattern with <code>*</code> as wildcard.
+     * @return
+     * @throws RepositoryException
+     */
+    private NodeIterator findEntries(Session session, String uriPattern) throws RepositoryException {
+        // Escape the LIKE wildcards and the quotes of the URI, then turn the URI wildcards into LIKE wildcards.
+        final String like = uriPattern.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_").replace
+                ("'", "''").replace('*', '%');
+        final String statement = "SELECT * FROM [" + JcrConstants.NT_UNSTRUCTURED + "] AS e WHERE ISDESCENDANTNODE(e,"
+                + " '" + rootPath + "') AND e.[" + PN_URI + "] LIKE '" + like + "'";
+        return session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2).execute().getNodes();
+    }
+
+    private static boolean isExpired(Node entry) throws RepositoryException {
+        return entry.hasProperty(PN_EXPIRES_ON) && entry.getProperty(PN_EXPIRES_ON).getDate().before(Calendar
+                .getInstance());
+    }
+
+    private static String getString(Node node, String propertyName) throws RepositoryException {
+        return node.hasProperty(propertyName) ? node.getProperty(propertyName).getString() : null;
+    }
+
+    private static boolean matches(List<Pattern> patterns, String data) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(data).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] flattenHeaders(Map<String, List<String>> headers) {
+        final List<String> flattened = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (String value : entry.getValue()) {
+                flattened.add(entry.getKey() + HEADER_SEPARATOR + value);
+            }
+        }
+        return flattened.toArray(new String[flattened.size()]);
+    }
+
+    private static Map<String, List<String>> parseHeaders(Node entry) throws RepositoryException {
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        if (!entry.hasProperty(PN_HEADERS)) {
+            return headers;
+        }
+        for (Value value : entry.getProperty(PN_HEADERS).getValues()) {
+            final String header = value.getString();
+            final int separator = header.indexOf(HEADER_SEPARATOR);
+            if (separator < 1) {
+                continue;
+            }
+            final String name = header.substring(0, separator);
+            if (!headers.containsKey(name)) {
+                headers.put(name, new ArrayList<String>());
+            }
+            headers.get(name).add(header.substring(separator + 1));
+        }
+        return headers;
+    }
+
+    /**
+     * Take a read session for a single lookup, idle or newly opened. Refreshed, making saved changes visible.
+     *
+     * @return Resolver owning the session, to be given back by {@link #releaseReadResourceResolver(ResourceResolver)}.
+     * @throws RepositoryException
+     */
+    private ResourceResolver takeReadResourceResolver() throws RepositoryException {
+        final ResourceResolver idle;
+        synchronized (readSessionLock) {
+            if (!isActive) {
+                throw new RepositoryException("JCR cache store is not active.");
+            }
+            idle = idleReadResourceResolvers.pollFirst();
+        }
+
+        if (idle != null) {
+            idle.refresh();
+            return idle;
+        }
+        try {
+            return resourceResolverFactory.getAdministrativeResourceResolver(null);
+        } catch (LoginException e) {
+            throw new RepositoryException("Unable to open a JCR cache read session.", e);
+        }
+    }
+
+    /**
+     * Give back a read session taken by {@link #takeReadResourceResolver()}. Closed if there are enough idle sessions
+     * already, or if the store has been deactivated.
+     *
+     * @param resourceResolver
+     */
+    void releaseReadResourceResolver(ResourceResolver resourceResolver) {
+        synchronized (readSessionLock) {
+            if (isActive && idleReadResourceResolvers.size() < maxIdleReadSessions) {
+                idleReadResourceResolvers.offerFirst(resourceResolver);
+                return;
+            }
+        }
+        resourceResolver.close();
+    }
+
+    /**
+     * To be called under the write lock.
+     *
+     * @return
+     * @throws RepositoryException
+     */
+    private Session getWriteSession() throws RepositoryException {
+        if (writeResourceResolver == null) {
+            throw new RepositoryException("JCR cache store is not active.");
+        }
+        return writeResourceResolver.adaptTo(Session.class);
+    }
+
+    /**
+     * Record a pending change and save the batch once the threshold is reached. To be called under the write lock.
+     */
+    private void changed() {
+        if (++pendingChanges >= saveThreshold) {
+            save();
+        }
+    }
+
+    /**
+     * Save pending changes. A failed batch is dropped; as invalidations are saved right away, it only holds writes and
+     * only costs cache misses. To be called under the write lock.
+     */
+    private void save() {
+        if (pendingChanges == 0 || writeResourceResolver == null) {
+            return;
+        }
+        try {
+            getWriteSession().save();
+            log.debug("Saved {} pending JCR cache changes.", pendingChanges);
+        } catch (RepositoryException e) {
+            log.warn("Unable to save JCR cache changes. Dropping {} pending changes.", pendingChanges, e);
+            discard();
+        }
+        pendingChanges = 0;
+    }
+
+    /**
+     * Roll back a failed write, keeping the other pending changes. The entry is removed rather than restored, which
+     * only costs a cache miss. To be called under the write lock.
+     *
+     * @param path Path of the entry.
+     */
+    private void rollback(String path) {
+        try {
+            final Session session = getWriteSession();
+            if (session.nodeExists(path)) {
+                final Node entry = session.getNode(path);
+                if (!entry.isNew()) {
+                    size.decrementAndGet();
+                }
+                entry.remove();
+                changed();
+            }
+        } catch (RepositoryException e) {
+            log.error("Unable to roll back the JCR cache entry {}. Dropping {} pending changes.", path,
+                    pendingChanges, e);
+            discard();
+        }
+    }
+
+    /**
+     * Discard pending changes. To be called under the write lock.
+     */
+    private void discard() {
+        pendingChanges = 0;
+        try {
+            if (writeResourceResolver != null) {
+                getWriteSession().refresh(false);
+            }
+        } catch (RepositoryException e) {
+            log.error("Unable to discard pending JCR cache changes.", e);
+        }
     }
 }
@@ -0,0 +1,144 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replays the request URIs of an access log through simulated caches, one per admission policy, and compares their
+ * hit ratios. Lets the admission policy be sized against recorded traffic before switching it on. <p> The simulated
+ * caches hold a fixed number of entries and evict the least recently used one, as the Guava cache of the store does
+ * within its segments. </p>
+ */
+class AdmissionPolicyReplay {
+    /** Request URIs replayed. */
+    private long requestsCount;
+    /** Hits of the cache without admission policy. */
+    private long unfilteredHitsCount;
+    /** Hits of the cache with the admission policy. */
+    private long filteredHitsCount;
+
+    private final LruSimulation unfiltered;
+    private final LruSimulation filtered;
+
+    /**
+     * @param capacity        Number of entries of the simulated caches.
+     * @param admissionPolicy Admission policy to simulate, fresh.
+     */
+    AdmissionPolicyReplay(int capacity, MemCacheAdmissionPolicy admissionPolicy) {
+        this.unfiltered = new LruSimulation(capacity, null);
+        this.filtered = new LruSimulation(capacity, admissionPolicy);
+    }
+
+    /**
+     * Replay the given access log. Lines in common or combined log format are reduced to the URI of the request line;
+     * other non-blank lines are taken as URIs.
+     *
+     * @param accessLog
+     * @throws IOException
+     */
+    void replay(File accessLog) throws IOException {
+        final InputStream inputStream = new FileInputStream(accessLog);
+        try {
+            final LineIterator lines = IOUtils.lineIterator(inputStream, "UTF-8");
+            while (lines.hasNext()) {
+                final String uri = getUri(lines.nextLine());
+                if (StringUtils.isNotBlank(uri)) {
+                    replay(uri);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Replay a single request.
+     *
+     * @param uri
+     */
+    void replay(String uri) {
+        requestsCount++;
+        if (unfiltered.request(uri)) {
+            unfilteredHitsCount++;
+        }
+        if (filtered.request(uri)) {
+            filteredHitsCount++;
+        }
+    }
+
+    long getRequestsCount() {
+        return requestsCount;
+    }
+
+    long getUnfilteredHitsCount() {
+        return unfilteredHitsCount;
+    }
+
+    long getFilteredHitsCount() {
+        return filteredHitsCount;
+    }
+
+    /**
+     * Get the request URI out of an access log line.
+     *
+     * @param line
+     * @return
+     */
+    static String getUri(String line) {
+        // Request line of common log format: "GET /content/page.html HTTP/1.1"
+        final String requestLine = StringUtils.substringBetween(line, "\"");
+        if (null == requestLine) {
+            return StringUtils.trim(line);
+        }
+        final String[] tokens = StringUtils.split(requestLine, ' ');
+        return tokens.length > 1 ? tokens[1] : null;
+    }
+
+    /**
+     * Least recently used cache of URIs, with an optional admission policy.
+     */
+    private static class LruSimulation {
+        private final int capacity;
+        private final MemCacheAdmissionPolicy admissionPolicy;
+        private final LinkedHashMap<String, Boolean> entries;
+
+        LruSimulation(int capacity, MemCacheAdmissionPolicy admissionPolicy) {
+            this.capacity = Math.max(capacity, 1);
+            this.admissionPolicy = admissionPolicy;
+            this.entries = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+        }
+
+        /**
+         * Request the URI, caching it on a miss.
+         *
+         * @param uri
+         * @return True on a hit.
+         */
+        boolean request(String uri) {
+            if (null != admissionPolicy) {
+                admissionPolicy.recordAccess(uri);
+            }
+            if (null != entries.get(uri)) {
+                return true;
+            }
+
+            if (entries.size() >= capacity) {
+                if (null != admissionPolicy && !admissionPolicy.admit(uri)) {
+                    return false;
+                }
+                final Map.Entry<String, Boolean> eldest = entries.entrySet().iterator().next();
+                entries.remove(eldest.getKey());
+            }
+            entries.put(uri, Boolean.TRUE);
+            return false;
+        }
+    }
+}
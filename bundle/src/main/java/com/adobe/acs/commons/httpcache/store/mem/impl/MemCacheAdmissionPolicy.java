@@ -0,0 +1,21 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+/**
+ * Policy deciding which responses make it into the in-memory cache store once it is full.
+ */
+interface MemCacheAdmissionPolicy {
+    /**
+     * Record a request for the given key, whether a hit or a miss.
+     *
+     * @param key
+     */
+    void recordAccess(Object key);
+
+    /**
+     * Check if the response for the given key is worth displacing cached responses.
+     *
+     * @param key
+     * @return True to admit the response.
+     */
+    boolean admit(Object key);
+}
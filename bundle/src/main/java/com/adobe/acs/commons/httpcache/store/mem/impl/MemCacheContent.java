@@ -0,0 +1,90 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Cache content served from the in-memory cache store. The cached byte array is written to the response as is; an
+ * input stream over it is only created when a caller asks for one. Gzipped byte arrays are decompressed on the fly
+ * for clients not accepting gzip.
+ */
+public class MemCacheContent extends CacheContent {
+    private static final Logger log = LoggerFactory.getLogger(MemCacheContent.class);
+
+    private final byte[] bytes;
+    private final boolean compressed;
+    private final long creationTime;
+    private final long invalidationTime;
+    private InputStream dataInputStream;
+
+    public MemCacheContent(MemCachePersistenceObject value) {
+        super(value.getCharEncoding(), value.getContentType(), value.getHeaders(), null);
+        this.bytes = value.getBytes();
+        this.compressed = value.isCompressed();
+        this.creationTime = value.getCreationTime();
+        this.invalidationTime = value.getInvalidationTime();
+    }
+
+    @Override
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    @Override
+    public long getInvalidationTime() {
+        return invalidationTime;
+    }
+
+    @Override
+    public InputStream getInputDataStream() {
+        if (null == dataInputStream) {
+            dataInputStream = new ByteArrayInputStream(bytes);
+            if (compressed) {
+                try {
+                    dataInputStream = new GZIPInputStream(dataInputStream);
+                } catch (IOException e) {
+                    log.error("Unable to decompress the cached byte array.", e);
+                }
+            }
+        }
+        return dataInputStream;
+    }
+
+    @Override
+    public long getLength() {
+        // Gzipped byte arrays are decompressed on the fly.
+        return compressed ? -1L : bytes.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (compressed) {
+            IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(bytes)), outputStream);
+        } else {
+            outputStream.write(bytes);
+        }
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return compressed ? GZIP_CONTENT_ENCODING : null;
+    }
+
+    @Override
+    public void writeEncodedTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; the bytes are owned by the cache.
+    }
+}
@@ -33,4 +33,15 @@ public interface MemCacheMBean {
 
     @Description("Keys in cache")
     TabularData getCacheKeys() throws OpenDataException;
+
+    @Description("Admission policy applied once the cache is full")
+    String getAdmissionPolicy();
+
+    @Description("Number of responses not cached by the admission policy")
+    long getRejectedAdmissionsCount();
+
+    @Description("Replay the request URIs of an access log file through simulated caches of the given number of "
+            + "entries, without and with the TINYLFU admission policy, and compare their hit rates.")
+    TabularData replayAccessLog(@Name(value = "Access Log Path") String accessLogPath,
+                                @Name(value = "Capacity") int capacity) throws IOException, OpenDataException;
 }
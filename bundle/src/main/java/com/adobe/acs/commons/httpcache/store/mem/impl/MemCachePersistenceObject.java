@@ -5,28 +5,44 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Value for cache item in mem store.
+ * Value for cache item in mem store. Also held by the heap tier of the tiered cache store.
  */
-class MemCachePersistenceObject {
+public class MemCachePersistenceObject {
+    /** Header carrying the content coding of a response */
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
     /** Response character encoding */
     private String charEncoding;
     /** Response content type */
     private String contentType;
     /** Response headers */
     Multimap<String, String> headers;
-    /** Byte array to hold the data from the stream */
+    /** Read-only view of the headers handed out on cache hits */
+    private Map<String, List<String>> headersView;
+    /** Byte array to hold the data from the stream, gzipped if compressed */
     private byte[] bytes;
+    /** True if the bytes are gzipped */
+    private boolean compressed;
+    /** Time the value got built for caching */
+    private long creationTime;
+    /** Time the value got invalidated while kept to be served stale. -1 if not invalidated */
+    private volatile long invalidationTime = -1L;
 
     /**
      * Create <code>MemCachePersistenceObject</code>. Use <code>buildForCaching</code> method to initialize parameters.
      */
-    MemCachePersistenceObject() {
+    public MemCachePersistenceObject() {
     }
 
     /**
@@ -41,6 +57,41 @@ class MemCachePersistenceObject {
      */
     public MemCachePersistenceObject buildForCaching(String charEncoding, String contentType, Map<String,
             List<String>> headers, InputStream dataInputStream) throws HttpCacheDataStreamException {
+        return buildForCaching(charEncoding, contentType, headers, dataInputStream, false);
+    }
+
+    /**
+     * Construct a Mem cache value suitable for caching, optionally gzipping the data. The data is kept as is if the
+     * response already has a content encoding or if gzipping doesn't make it smaller.
+     *
+     * @param charEncoding
+     * @param contentType
+     * @param headers
+     * @param dataInputStream
+     * @param compress        True to gzip the data.
+     * @throws HttpCacheDataStreamException
+     */
+    public MemCachePersistenceObject buildForCaching(String charEncoding, String contentType, Map<String,
+            List<String>> headers, InputStream dataInputStream, boolean compress) throws
+            HttpCacheDataStreamException {
+        return buildForCaching(charEncoding, contentType, headers, dataInputStream, -1L, compress);
+    }
+
+    /**
+     * Construct a Mem cache value suitable for caching, optionally gzipping the data. Knowing the length of the data
+     * lets it be read straight into a byte array of the right size, instead of being buffered and copied.
+     *
+     * @param charEncoding
+     * @param contentType
+     * @param headers
+     * @param dataInputStream
+     * @param length          Length of the data in bytes, or -1 if unknown.
+     * @param compress        True to gzip the data.
+     * @throws HttpCacheDataStreamException
+     */
+    public MemCachePersistenceObject buildForCaching(String charEncoding, String contentType, Map<String,
+            List<String>> headers, InputStream dataInputStream, long length, boolean compress) throws
+            HttpCacheDataStreamException {
 
         // Taken copy of arguments before caching them to avoid chances of memory leak.
         // Take copy of originals
@@ -55,12 +106,33 @@ class MemCachePersistenceObject {
             }
         }
 
+        // Convert com.google.common.collect.AbstractMapBasedMultimap$WrappedSet to List<String> value to avoid cast
+        // exception. Done once here rather than on every cache hit.
+        Map<String, List<String>> map = new HashMap<String, List<String>>();
+        for (Map.Entry<String, Collection<String>> entry : Multimaps.asMap(this.headers).entrySet()) {
+            map.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+        }
+        this.headersView = Collections.unmodifiableMap(map);
+
         // Read input stream and place it in a byte array.
         try {
-            this.bytes = IOUtils.toByteArray(dataInputStream);
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                this.bytes = new byte[(int) length];
+                IOUtils.readFully(dataInputStream, this.bytes);
+            } else {
+                this.bytes = IOUtils.toByteArray(dataInputStream);
+            }
         } catch (IOException e) {
             throw new HttpCacheDataStreamException("Unable to get byte array out of stream", e);
         }
+        if (compress && !hasContentEncoding(headers)) {
+            final byte[] gzippedBytes = gzip(this.bytes);
+            if (gzippedBytes.length < this.bytes.length) {
+                this.bytes = gzippedBytes;
+                this.compressed = true;
+            }
+        }
+        this.creationTime = System.currentTimeMillis();
         return this;
     }
 
@@ -86,26 +158,101 @@ class MemCachePersistenceObject {
     /**
      * Get the header in multimap format.
      *
-     * @return Returned in <code>Map<String, List<String>></code> format.
+     * @return Returned in read-only <code>Map<String, List<String>></code> format.
      */
     public Map<String, List<String>> getHeaders() {
-        Map<String, List<String>> map = new HashMap<String, List<String>>();
+        return headersView;
+    }
 
-        // Convert com.google.common.collect.AbstractMapBasedMultimap$WrappedSet to List<String> value to avoid cast
-        // exception
-        for (Map.Entry<String, Collection<String>> entry : Multimaps.asMap(headers).entrySet()) {
-            map.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+    /**
+     * Get the data byte array, gzipped if the value is compressed.
+     *
+     * @return
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Check if the data byte array is gzipped.
+     *
+     * @return
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Get an input stream of the data, decompressed if need be.
+     *
+     * @return
+     * @throws IOException
+     */
+    public InputStream getDataInputStream() throws IOException {
+        final InputStream dataInputStream = new ByteArrayInputStream(bytes);
+        return compressed ? new GZIPInputStream(dataInputStream) : dataInputStream;
+    }
+
+    /**
+     * Check if the response headers carry a content encoding.
+     *
+     * @param headers
+     * @return
+     */
+    private static boolean hasContentEncoding(Map<String, List<String>> headers) {
+        for (String headerName : headers.keySet()) {
+            if (StringUtils.equalsIgnoreCase(CONTENT_ENCODING_HEADER, headerName)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        return map;
+    /**
+     * Gzip the given bytes.
+     *
+     * @param data
+     * @return
+     * @throws HttpCacheDataStreamException
+     */
+    private static byte[] gzip(byte[] data) throws HttpCacheDataStreamException {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(data.length / 4 + 32);
+        try {
+            final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+            gzipOutputStream.write(data);
+            gzipOutputStream.close();
+        } catch (IOException e) {
+            throw new HttpCacheDataStreamException("Unable to gzip the byte array", e);
+        }
+        return byteArrayOutputStream.toByteArray();
     }
 
     /**
-     * Get the data byte array
+     * Get the time the value got built for caching.
      *
      * @return
      */
-    public byte[] getBytes() {
-        return bytes;
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Get the time the value got invalidated.
+     *
+     * @return Time in milliseconds, or -1 if not invalidated.
+     */
+    public long getInvalidationTime() {
+        return invalidationTime;
+    }
+
+    /**
+     * Mark the value invalidated, keeping the first invalidation time.
+     *
+     * @param time
+     */
+    public void markInvalidated(long time) {
+        if (invalidationTime < 0) {
+            invalidationTime = time;
+        }
     }
 }
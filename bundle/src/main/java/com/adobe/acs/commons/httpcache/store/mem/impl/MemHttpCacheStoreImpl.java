@@ -7,6 +7,10 @@ import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
 import com.adobe.acs.commons.httpcache.keys.CacheKey;
 import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
 import com.adobe.acs.commons.httpcache.store.TempSink;
+import com.adobe.acs.commons.httpcache.store.impl.CacheKeyIndex;
+import com.adobe.acs.commons.httpcache.store.impl.SpillingTempSink;
+import com.adobe.acs.commons.httpcache.store.impl.TempSinkBufferPool;
+import com.adobe.acs.commons.httpcache.store.impl.TempSinkDirectory;
 import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
 import com.google.common.cache.*;
 import org.apache.commons.io.FileUtils;
@@ -14,18 +18,21 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.*;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.DynamicMBean;
 import javax.management.NotCompliantMBeanException;
 import javax.management.openmbean.*;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * In-memory cache store implementation. Uses Google Guava Cache.
@@ -67,14 +74,101 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
     private static final long DEFAULT_MAX_SIZE_IN_MB = 10L; // Defaults to 10MB.
     private long maxSizeInMb;
 
+    @Property(label = "Gzip cached responses",
+              description = "Keep cached responses gzipped, so that the maximum size holds more of them. Delivered as "
+                      + "is to clients accepting gzip, decompressed for the others. Responses which already have a "
+                      + "content encoding or don't get smaller are kept as is.",
+              boolValue = MemHttpCacheStoreImpl.DEFAULT_COMPRESSION_ENABLED)
+    private static final String PROP_COMPRESSION_ENABLED = "httpcache.cachestore.memcache.gzip";
+    private static final boolean DEFAULT_COMPRESSION_ENABLED = false;
+    private boolean compressionEnabled;
+
+    @Property(label = "Temp sink buffer size in KB",
+              description = "Size of the pooled heap buffers capturing responses while rendered. Larger responses are "
+                      + "spilled to a temp file instead of growing in heap, and read back once into the cache.",
+              intValue = MemHttpCacheStoreImpl.DEFAULT_TEMP_SINK_BUFFER_SIZE_IN_KB)
+    private static final String PROP_TEMP_SINK_BUFFER_SIZE_IN_KB = "httpcache.cachestore.memcache.tempsink.buffer-size";
+    private static final int DEFAULT_TEMP_SINK_BUFFER_SIZE_IN_KB = 64;
+
+    /** Idle temp sink buffers kept in the pool. */
+    private static final int MAX_POOLED_TEMP_SINK_BUFFERS = 32;
+
+    /** Buffers of the temp sinks. */
+    private volatile TempSinkBufferPool tempSinkBufferPool;
+    /** Directory of the temp files of the sinks, owned by the store. */
+    private volatile File tempDirectory;
+
+    /** No admission policy: every response gets cached. */
+    private static final String ADMISSION_POLICY_ALL = "ALL";
+    /** Frequency based admission policy. */
+    private static final String ADMISSION_POLICY_TINYLFU = "TINYLFU";
+
+    // @formatter:off
+    @Property(label = "Admission policy",
+              description = "Policy deciding which responses get cached once the maximum size is reached. ALL caches "
+                      + "every response, evicting the least used ones. TINYLFU caches only responses requested often "
+                      + "enough, so that responses requested once don't displace popular ones.",
+              options = {
+                      @PropertyOption(name = MemHttpCacheStoreImpl.ADMISSION_POLICY_ALL,
+                                      value = MemHttpCacheStoreImpl.ADMISSION_POLICY_ALL),
+                      @PropertyOption(name = MemHttpCacheStoreImpl.ADMISSION_POLICY_TINYLFU,
+                                      value = MemHttpCacheStoreImpl.ADMISSION_POLICY_TINYLFU)
+              },
+              value = MemHttpCacheStoreImpl.ADMISSION_POLICY_ALL)
+    // @formatter:on
+    private static final String PROP_ADMISSION_POLICY = "httpcache.cachestore.memcache.admission";
+    private String admissionPolicyName;
+
+    @Property(label = "Admission sample size",
+              description = "Number of requests after which the request frequencies of the TINYLFU admission policy "
+                      + "are halved, so that they follow changes of popularity. About ten times the number of "
+                      + "entries the store holds.",
+              intValue = MemHttpCacheStoreImpl.DEFAULT_ADMISSION_SAMPLE_SIZE)
+    private static final String PROP_ADMISSION_SAMPLE_SIZE = "httpcache.cachestore.memcache.admission.sample-size";
+    private static final int DEFAULT_ADMISSION_SAMPLE_SIZE = 100000;
+    private int admissionSampleSize;
+
+    @Property(label = "Admission minimum frequency",
+              description = "Number of requests within the sample a response needs to be cached by the TINYLFU "
+                      + "admission policy once the maximum size is reached.",
+              intValue = MemHttpCacheStoreImpl.DEFAULT_ADMISSION_MIN_FREQUENCY)
+    private static final String PROP_ADMISSION_MIN_FREQUENCY = "httpcache.cachestore.memcache.admission.min-frequency";
+    private static final int DEFAULT_ADMISSION_MIN_FREQUENCY = 2;
+    private int admissionMinFrequency;
+
+    /** Admission policy applied once the maximum size is reached. Null to admit every response. */
+    private volatile MemCacheAdmissionPolicy admissionPolicy;
+
+    /** Weight of the entries in the cache, tracked to know when admission applies and for the cache size. */
+    private final AtomicLong cacheWeight = new AtomicLong(0L);
+    /** Responses not admitted. */
+    private final AtomicLong rejectedAdmissionsCount = new AtomicLong(0L);
+
     /** Cache - Uses Google Guava's cache */
     private Cache<CacheKey, MemCachePersistenceObject> cache;
 
+    /** Keys of the cache by cache config and URI */
+    private final CacheKeyIndex cacheKeyIndex = new CacheKeyIndex();
+
     @Activate
-    protected void activate(Map<String, Object> configs) {
+    protected void activate(ComponentContext context) {
+        final Dictionary<?, ?> configs = context.getProperties();
+
         // Read config and populate values.
         ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
         maxSizeInMb = PropertiesUtil.toLong(configs.get(PROP_MAX_SIZE_IN_MB), DEFAULT_MAX_SIZE_IN_MB);
+        compressionEnabled = PropertiesUtil.toBoolean(configs.get(PROP_COMPRESSION_ENABLED),
+                DEFAULT_COMPRESSION_ENABLED);
+        admissionPolicyName = PropertiesUtil.toString(configs.get(PROP_ADMISSION_POLICY), ADMISSION_POLICY_ALL);
+        admissionSampleSize = PropertiesUtil.toInteger(configs.get(PROP_ADMISSION_SAMPLE_SIZE),
+                DEFAULT_ADMISSION_SAMPLE_SIZE);
+        admissionMinFrequency = PropertiesUtil.toInteger(configs.get(PROP_ADMISSION_MIN_FREQUENCY),
+                DEFAULT_ADMISSION_MIN_FREQUENCY);
+        admissionPolicy = createAdmissionPolicy();
+        final int tempSinkBufferSizeInKb = Math.max(1, PropertiesUtil.toInteger(configs.get
+                (PROP_TEMP_SINK_BUFFER_SIZE_IN_KB), DEFAULT_TEMP_SINK_BUFFER_SIZE_IN_KB));
+        tempSinkBufferPool = new TempSinkBufferPool(tempSinkBufferSizeInKb * 1024, MAX_POOLED_TEMP_SINK_BUFFERS);
+        tempDirectory = TempSinkDirectory.create(context);
 
         // Initializing the cache.
         // If cache is present, invalidate all and reinitailize the cache.
@@ -83,10 +177,14 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
             cache.invalidateAll();
             log.info("Mem cache already present. Invalidating the cache and re-initializing it.");
         }
+        cacheKeyIndex.clear();
+        cacheWeight.set(0L);
+        rejectedAdmissionsCount.set(0L);
         if (ttl != DEFAULT_TTL) {
             // If ttl is present, attach it to guava cache configuration.
-            cache = CacheBuilder.newBuilder().maximumWeight(maxSizeInMb * MEGABYTE).expireAfterWrite(ttl, TimeUnit
-                    .SECONDS).removalListener(new MemCacheEntryRemovalListener()).recordStats().build();
+            cache = CacheBuilder.newBuilder().maximumWeight(maxSizeInMb * MEGABYTE).weigher(new MemCacheEntryWeigher
+                    ()).expireAfterWrite(ttl, TimeUnit.SECONDS).removalListener(new MemCacheEntryRemovalListener())
+                    .recordStats().build();
         } else {
             // If ttl is absent, go only with the maximum weight condition.
             cache = CacheBuilder.newBuilder().maximumWeight(maxSizeInMb * MEGABYTE).weigher(new MemCacheEntryWeigher
@@ -96,20 +194,41 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
         log.info("MemHttpCacheStoreImpl activated / modified.");
     }
 
+    /**
+     * Create the configured admission policy.
+     *
+     * @return Null if every response is to be admitted.
+     */
+    private MemCacheAdmissionPolicy createAdmissionPolicy() {
+        if (ADMISSION_POLICY_TINYLFU.equalsIgnoreCase(admissionPolicyName)) {
+            return new TinyLfuAdmissionPolicy(admissionSampleSize, admissionMinFrequency);
+        }
+        return null;
+    }
+
     @Deactivate
-    protected void deactivate(Map<String, Object> configs) {
+    protected void deactivate(ComponentContext context) {
         cache.invalidateAll();
+        TempSinkDirectory.delete(tempDirectory);
         log.info("MemHttpCacheStoreImpl deactivated.");
     }
 
     /**
-     * Removal listener for cache entry items.
+     * Removal listener for cache entry items. Keeps the key index in line with evictions and expiries.
      */
-    private static class MemCacheEntryRemovalListener implements RemovalListener<CacheKey, MemCachePersistenceObject> {
-        private static final Logger log = LoggerFactory.getLogger(MemCacheEntryRemovalListener.class);
+    private class MemCacheEntryRemovalListener implements RemovalListener<CacheKey, MemCachePersistenceObject> {
 
         @Override
         public void onRemoval(RemovalNotification<CacheKey, MemCachePersistenceObject> removalNotification) {
+            if (null != removalNotification.getValue()) {
+                cacheWeight.addAndGet(-removalNotification.getValue().getBytes().length);
+            }
+            synchronized (cacheKeyIndex) {
+                // The key stays in the cache when its value got replaced or it got put again since.
+                if (!cache.asMap().containsKey(removalNotification.getKey())) {
+                    cacheKeyIndex.remove(removalNotification.getKey());
+                }
+            }
             log.debug("Mem cache entry for uri {} removed due to {}", removalNotification.getKey().toString(),
                     removalNotification.getCause().name());
         }
@@ -122,7 +241,7 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
 
         @Override
         public int weigh(CacheKey memCacheKey, MemCachePersistenceObject memCachePersistenceObject) {
-            // Size of the byte array.
+            // Size of the byte array, as held in memory.
             return memCachePersistenceObject.getBytes().length;
         }
     }
@@ -130,27 +249,49 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
     //-------------------------<CacheStore interface specific implementation>
     @Override
     public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
-        cache.put(key, new MemCachePersistenceObject().buildForCaching(content.getCharEncoding(), content
-                .getContentType(), content.getHeaders(), content.getInputDataStream()));
+        this.put(key, content, null);
+    }
 
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws
+            HttpCacheDataStreamException {
+        final MemCachePersistenceObject value = new MemCachePersistenceObject().buildForCaching(content
+                .getCharEncoding(), content.getContentType(), content.getHeaders(), content.getInputDataStream(),
+                null == content.getTempSink() ? -1L : content.getTempSink().length(), compressionEnabled);
+
+        // Once full, responses not requested often enough are not worth displacing cached ones.
+        final MemCacheAdmissionPolicy policy = admissionPolicy;
+        if (null != policy && cacheWeight.get() + value.getBytes().length > maxSizeInMb * MEGABYTE
+                && !cache.asMap().containsKey(key) && !policy.admit(key)) {
+            rejectedAdmissionsCount.incrementAndGet();
+            log.debug("Mem cache entry for uri {} not admitted", key);
+            return;
+        }
+
+        // Cache and key index are updated together, so that the removal of a previous value cannot unindex this one.
+        synchronized (cacheKeyIndex) {
+            cache.put(key, value);
+            cacheKeyIndex.add(key, cacheConfig);
+        }
+        cacheWeight.addAndGet(value.getBytes().length);
     }
 
     @Override
     public boolean contains(CacheKey key) {
-        if (null == this.getIfPresent(key)) {
-            return false;
-        }
-        return true;
+        return null != cache.getIfPresent(key);
     }
 
     @Override
     public CacheContent getIfPresent(CacheKey key) {
+        final MemCacheAdmissionPolicy policy = admissionPolicy;
+        if (null != policy) {
+            policy.recordAccess(key);
+        }
         MemCachePersistenceObject value = cache.getIfPresent(key);
         if (null == value) {
             return null;
         }
-        return new CacheContent(value.getCharEncoding(), value.getContentType(), value.getHeaders(), new
-                ByteArrayInputStream(value.getBytes()));
+        return new MemCacheContent(value);
     }
 
     @Override
@@ -170,24 +311,55 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
 
     @Override
     public void invalidate(HttpCacheConfig cacheConfig) {
-        ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-        for (CacheKey key : cacheAsMap.keySet()) {
-            // Match the cache key with cache config.
-            try {
-                if (cacheConfig.knows(key)) {
-                    // If matches, invalidate that particular key.
-                    cache.invalidate(key);
+        try {
+            // Only the keys indexed under the cache config are touched.
+            invalidate(cacheKeyIndex.getKeys(cacheConfig), cacheConfig);
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidate(HttpCacheConfig cacheConfig, String uriPattern) {
+        try {
+            invalidate(cacheKeyIndex.getKeys(cacheConfig, uriPattern), cacheConfig);
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidate the given keys of the cache config. Entries of configs with a grace period are only marked
+     * invalidated, so that they keep being served stale while getting refreshed; they are dropped by the TTL and size
+     * limits of this store like any other entry.
+     *
+     * @param keys
+     * @param cacheConfig
+     */
+    private void invalidate(List<CacheKey> keys, HttpCacheConfig cacheConfig) {
+        if (cacheConfig.getGracePeriod() > 0) {
+            final long now = System.currentTimeMillis();
+            for (CacheKey key : keys) {
+                final MemCachePersistenceObject value = cache.getIfPresent(key);
+                if (null != value) {
+                    value.markInvalidated(now);
                 }
-            } catch (HttpCacheKeyCreationException e) {
-                log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
-                this.invalidateAll();
             }
+            return;
+        }
+
+        for (CacheKey key : keys) {
+            cache.invalidate(key);
+            // Covers keys evicted while being put, which the removal listener cannot unindex.
+            cacheKeyIndex.remove(key);
         }
     }
 
     @Override
     public TempSink createTempSink() {
-        return new MemTempSinkImpl();
+        return new SpillingTempSink(tempSinkBufferPool, tempDirectory);
     }
 
     //-------------------------<Mbean specific implementation>
@@ -208,15 +380,8 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
 
     @Override
     public String getCacheSize() {
-        // Iterate through the cache entries and compute the total size of byte array.
-        long size = 0L;
-        ConcurrentMap<CacheKey, MemCachePersistenceObject> cacheAsMap = cache.asMap();
-        for (final CacheKey key : cacheAsMap.keySet()) {
-            size += cacheAsMap.get(key).getBytes().length;
-        }
-
-        // Convert bytes to human-friendly format
-        return FileUtils.byteCountToDisplaySize(size);
+        // Size of the byte arrays as tracked on put and removal, without walking the cache entries.
+        return FileUtils.byteCountToDisplaySize(cacheWeight.get());
     }
 
     @Override
@@ -239,7 +404,7 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
             MemCachePersistenceObject persistenceObject = cache.getIfPresent(cacheKey);
             if(persistenceObject != null) {
                 return IOUtils.toString(
-                        new ByteArrayInputStream(persistenceObject.getBytes()),
+                        persistenceObject.getDataInputStream(),
                         persistenceObject.getCharEncoding());
             }
         }
@@ -247,6 +412,52 @@ public class MemHttpCacheStoreImpl extends AnnotatedStandardMBean implements Htt
         return "Invalid cache key parameter.";
     }
 
+    @Override
+    public String getAdmissionPolicy() {
+        return null == admissionPolicy ? ADMISSION_POLICY_ALL : ADMISSION_POLICY_TINYLFU;
+    }
+
+    @Override
+    public long getRejectedAdmissionsCount() {
+        return rejectedAdmissionsCount.get();
+    }
+
+    @Override
+    public TabularData replayAccessLog(String accessLogPath, int capacity) throws IOException, OpenDataException {
+        final AdmissionPolicyReplay replay = new AdmissionPolicyReplay(capacity, new TinyLfuAdmissionPolicy
+                (admissionSampleSize, admissionMinFrequency));
+        replay.replay(new File(accessLogPath));
+
+        final CompositeType replayType = new CompositeType(
+                "Admission Policy Replay",
+                "Admission Policy Replay",
+                new String[]{"Policy", "Requests", "Hits", "Hit Rate"},
+                new String[]{"Policy", "Requests", "Hits", "Hit Rate"},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.STRING});
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("Admission Policy Replay", "Admission Policy Replay", replayType,
+                        new String[]{"Policy"}));
+
+        final long requestsCount = replay.getRequestsCount();
+        final Map<String, Object> row = new HashMap<String, Object>();
+
+        row.put("Policy", ADMISSION_POLICY_ALL);
+        row.put("Requests", requestsCount);
+        row.put("Hits", replay.getUnfilteredHitsCount());
+        row.put("Hit Rate", String.format("%.1f%%", requestsCount == 0 ? 0d : replay.getUnfilteredHitsCount()
+                * 100d / requestsCount));
+        tabularData.put(new CompositeDataSupport(replayType, row));
+
+        row.put("Policy", ADMISSION_POLICY_TINYLFU);
+        row.put("Hits", replay.getFilteredHitsCount());
+        row.put("Hit Rate", String.format("%.1f%%", requestsCount == 0 ? 0d : replay.getFilteredHitsCount()
+                * 100d / requestsCount));
+        tabularData.put(new CompositeDataSupport(replayType, row));
+
+        return tabularData;
+    }
+
     @Override
     public TabularData getCacheStats() throws OpenDataException {
         // Exposing all google guava stats.
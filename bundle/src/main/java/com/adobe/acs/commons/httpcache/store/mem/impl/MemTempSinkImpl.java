@@ -45,4 +45,9 @@ public class MemTempSinkImpl implements TempSink {
         }
         return sink.length;
     }
+
+    @Override
+    public void release() {
+        // Nothing but heap held.
+    }
 }
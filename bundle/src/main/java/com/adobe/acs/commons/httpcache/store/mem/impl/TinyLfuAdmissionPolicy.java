@@ -0,0 +1,167 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TinyLFU style admission policy. Request frequencies are estimated by a count-min sketch of 4 bit counters, halved
+ * every sample size of requests so that the estimates follow changes of popularity. Responses are admitted into a
+ * full store only if requested at least the minimum frequency of times within the sample. One-hit wonders, such as the
+ * long tail of a crawler sweep, hence don't displace popular responses.
+ * <p> The counters are packed sixteen to a long and updated lock free with compare-and-set, as accesses are recorded
+ * on every cache hit. Increments racing with the halving may get lost; this only lowers the estimates slightly. </p>
+ * <p> Plain TinyLFU compares the candidate with the eviction victim; the Guava cache doesn't expose its victim, hence
+ * the fixed minimum frequency. </p>
+ */
+class TinyLfuAdmissionPolicy implements MemCacheAdmissionPolicy {
+    /** Rows of the sketch, each with its own hash. */
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x97cb3127, 0xb9b6c4d1, 0x85ebca6b, 0xc2b2ae35};
+    /** Saturation value of the 4 bit counters. */
+    private static final int MAX_COUNT = 15;
+    /** Bits per counter, and counters per long. */
+    private static final int COUNTER_BITS = 4;
+    private static final int COUNTERS_PER_LONG = Long.SIZE / COUNTER_BITS;
+    /** Mask of the lower three bits of every counter, used to halve all the counters of a long at once. */
+    private static final long HALVING_MASK = 0x7777777777777777L;
+
+    /** Counters of all the rows, row after row. */
+    private final AtomicLongArray table;
+    private final int width;
+    private final int mask;
+    private final int sampleSize;
+    private final int minFrequency;
+    /** Requests recorded since the last halving. */
+    private final AtomicInteger additions = new AtomicInteger(0);
+
+    /**
+     * @param sampleSize   Number of requests after which the frequencies are halved.
+     * @param minFrequency Minimum estimated frequency of admitted responses.
+     */
+    TinyLfuAdmissionPolicy(int sampleSize, int minFrequency) {
+        this.sampleSize = Math.max(sampleSize, 64);
+        this.minFrequency = Math.min(minFrequency, MAX_COUNT);
+
+        // A quarter of the sample as counters per row keeps collisions low for skewed request distributions.
+        int width = Integer.highestOneBit(this.sampleSize / 4);
+        width = Math.max(width, COUNTERS_PER_LONG);
+        this.width = width;
+        this.mask = width - 1;
+        this.table = new AtomicLongArray(DEPTH * width / COUNTERS_PER_LONG);
+    }
+
+    @Override
+    public void recordAccess(Object key) {
+        final int hash = spread(key.hashCode());
+        // Conservative update: only the lowest counters get incremented.
+        final int frequency = frequency(hash);
+        if (frequency < MAX_COUNT) {
+            for (int i = 0; i < DEPTH; i++) {
+                increment(counter(hash, i), frequency);
+            }
+        }
+
+        final int count = additions.incrementAndGet();
+        if (count >= sampleSize && additions.compareAndSet(count, count / 2)) {
+            // Only the thread winning the update halves the counters.
+            reset();
+        }
+    }
+
+    @Override
+    public boolean admit(Object key) {
+        return frequency(key) >= minFrequency;
+    }
+
+    /**
+     * Estimated frequency of the given key within the current sample, capped at 15.
+     *
+     * @param key
+     * @return
+     */
+    int frequency(Object key) {
+        return frequency(spread(key.hashCode()));
+    }
+
+    /**
+     * Estimated frequency of the given hash: the lowest of its counters.
+     *
+     * @param hash
+     * @return
+     */
+    private int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, get(counter(hash, i)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Increment the counter if it still holds the given frequency.
+     *
+     * @param counter
+     * @param frequency
+     */
+    private void increment(int counter, int frequency) {
+        final int index = counter / COUNTERS_PER_LONG;
+        final int shift = (counter % COUNTERS_PER_LONG) * COUNTER_BITS;
+        while (true) {
+            final long current = table.get(index);
+            if (((current >>> shift) & MAX_COUNT) != frequency) {
+                // Incremented by a concurrent update already, or halved.
+                return;
+            }
+            if (table.compareAndSet(index, current, current + (1L << shift))) {
+                return;
+            }
+        }
+    }
+
+    private int get(int counter) {
+        return (int) ((table.get(counter / COUNTERS_PER_LONG) >>> ((counter % COUNTERS_PER_LONG) * COUNTER_BITS))
+                & MAX_COUNT);
+    }
+
+    /**
+     * Halve all counters, ageing the frequencies.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            while (true) {
+                final long current = table.get(i);
+                if (table.compareAndSet(i, current, (current >>> 1) & HALVING_MASK)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Position of the counter of the given hash in the given row.
+     *
+     * @param hash
+     * @param row
+     * @return
+     */
+    private int counter(int hash, int row) {
+        final int h = hash * SEEDS[row];
+        return row * width + ((h ^ (h >>> 16)) & mask);
+    }
+
+    /**
+     * Spread the bits of weak hash codes.
+     *
+     * @param hashCode
+     * @return
+     */
+    private static int spread(int hashCode) {
+        int h = hashCode;
+        h ^= h >>> 17;
+        h *= 0xed5ad4bb;
+        h ^= h >>> 11;
+        h *= 0xac4c1b51;
+        h ^= h >>> 15;
+        return h;
+    }
+}
@@ -0,0 +1,37 @@
+package com.adobe.acs.commons.httpcache.store.tiered.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * JMX MBean for TIERED cache store.
+ */
+@Description("ACS AEM Commons - Http Cache - Tiered Cache")
+public interface TieredCacheMBean {
+
+    @Description("Clear entire cache, both tiers")
+    void clearCache();
+
+    @Description("Number of entries in the cache, both tiers")
+    long getCacheEntriesCount();
+
+    @Description("Number of entries in the heap tier")
+    long getHeapEntriesCount();
+
+    @Description("Size of the heap tier")
+    String getHeapSize();
+
+    @Description("Heap tier TTL in Seconds. -1 value represent no TTL.")
+    long getTtl();
+
+    @Description("Hits served from the heap tier")
+    long getHeapHitCount();
+
+    @Description("Disk tier hits moved to the heap tier")
+    long getPromotionsCount();
+
+    @Description("Entries evicted from the heap tier and moved to the disk tier")
+    long getDemotionsCount();
+
+    @Description("Entries evicted from the heap tier but failed or dropped on their way to the disk tier")
+    long getFailedDemotionsCount();
+}
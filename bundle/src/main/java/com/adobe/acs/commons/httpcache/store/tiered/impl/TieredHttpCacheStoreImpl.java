@@ -0,0 +1,519 @@
+package com.adobe.acs.commons.httpcache.store.tiered.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import com.adobe.acs.commons.httpcache.engine.impl.NamedThreadFactory;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheKeyCreationException;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
+import com.adobe.acs.commons.httpcache.store.TempSink;
+import com.adobe.acs.commons.httpcache.store.impl.CacheKeyIndex;
+import com.adobe.acs.commons.httpcache.store.impl.SpillingTempSink;
+import com.adobe.acs.commons.httpcache.store.impl.TempSinkBufferPool;
+import com.adobe.acs.commons.httpcache.store.impl.TempSinkDirectory;
+import com.adobe.acs.commons.httpcache.store.mem.impl.MemCacheContent;
+import com.adobe.acs.commons.httpcache.store.mem.impl.MemCachePersistenceObject;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.apache.commons.io.FileUtils;
+import org.apache.felix.scr.annotations.*;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.io.File;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tiered cache store implementation. A size bound heap tier, held like the in-memory cache store, in front of the disk
+ * cache store.
+ * <p> Entries are put into the heap tier. Entries evicted from the heap tier for its size are moved to the disk tier
+ * instead of being dropped, and disk tier hits are moved back to the heap tier. An entry lives in a single tier at a
+ * time. Entries expiring from the heap tier, invalidated or dropped by the disk cache store are gone. </p>
+ * <p> Moves between the tiers are done by a single background thread fed by a bounded queue, never on request threads.
+ * Disk tier hits are served straight from the disk tier while being moved; moves not fitting in the queue are dropped,
+ * leaving the entry in the disk tier or, for demotions, dropping it from the store. </p>
+ * <p> Entries waiting for their demotion are kept as pending demotions and served from there until written to the disk
+ * tier. Putting or invalidating the key drops the pending demotion, and a disk tier copy written meanwhile is removed
+ * once the write is over, so that the disk tier never holds an older response than the heap tier. </p>
+ * <p> The disk tier is the disk cache store service, shared with the cache configs using it directly; only the keys
+ * cached through this store are touched on invalidation. </p>
+ */
+@Component(label = "ACS AEM Commons - HTTP Cache - Tiered cache store.",
+           description = "Cache data store implementation keeping hot entries in memory and the others on disk.",
+           metatype = true)
+@Properties({
+        @Property(name = HttpCacheStore.KEY_CACHE_STORE_TYPE,
+                  value = HttpCacheStore.VALUE_TIERED_CACHE_STORE_TYPE,
+                  propertyPrivate = true),
+        @Property(name = "jmx.objectname",
+                  value = "com.adobe.acs.httpcache:type=Tiered HTTP Cache Store",
+                  propertyPrivate = true),
+        @Property(name = "webconsole.configurationFactory.nameHint",
+                  value = "TTL: {httpcache.cachestore.tiered.ttl}, " +
+                          "Max heap size in MB: {httpcache.cachestore.tiered.maxsize}",
+                  propertyPrivate = true)
+})
+@Service(value = {DynamicMBean.class, HttpCacheStore.class})
+public class TieredHttpCacheStoreImpl extends AnnotatedStandardMBean implements HttpCacheStore, TieredCacheMBean {
+    private static final Logger log = LoggerFactory.getLogger(TieredHttpCacheStoreImpl.class);
+
+    /** Megabyte to byte */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    @Property(label = "Heap tier TTL",
+              description = "TTL for the entries in the heap tier in seconds. Entries moved back from the disk tier "
+                      + "start over. The TTL of the disk tier is the one of the disk cache store. Default to -1 "
+                      + "meaning no TTL.",
+              longValue = TieredHttpCacheStoreImpl.DEFAULT_TTL)
+    private static final String PROP_TTL = "httpcache.cachestore.tiered.ttl";
+    private static final long DEFAULT_TTL = -1L; // Defaults to -1 meaning no TTL.
+    private long ttl;
+
+    @Property(label = "Maximum size of the heap tier in MB",
+              description = "Default to 10MB. If the heap tier goes beyond this size, least used entries are moved "
+                      + "to the disk tier.",
+              longValue = TieredHttpCacheStoreImpl.DEFAULT_MAX_SIZE_IN_MB)
+    private static final String PROP_MAX_SIZE_IN_MB = "httpcache.cachestore.tiered.maxsize";
+    private static final long DEFAULT_MAX_SIZE_IN_MB = 10L; // Defaults to 10MB.
+
+    @Property(label = "Tier move queue size",
+              description = "Maximum number of moves between the tiers waiting for the background thread. Default to "
+                      + "1000.",
+              intValue = TieredHttpCacheStoreImpl.DEFAULT_MOVE_QUEUE_SIZE)
+    private static final String PROP_MOVE_QUEUE_SIZE = "httpcache.cachestore.tiered.move.queue-size";
+    private static final int DEFAULT_MOVE_QUEUE_SIZE = 1000;
+
+    /** Buffers of the temp sinks, spilling responses beyond 64KB to temp files. */
+    private final TempSinkBufferPool tempSinkBufferPool = new TempSinkBufferPool(64 * 1024, 32);
+    /** Directory of the temp files of the sinks, owned by the store. */
+    private volatile File tempDirectory;
+
+    /** Disk tier */
+    @Reference(target = "(" + HttpCacheStore.KEY_CACHE_STORE_TYPE + "=" + HttpCacheStore.VALUE_DISK_CACHE_STORE_TYPE
+            + ")")
+    private HttpCacheStore diskCacheStore;
+
+    /** Heap tier - Uses Google Guava's cache */
+    private Cache<CacheKey, MemCachePersistenceObject> heapCache;
+
+    /** Keys of both tiers by cache config and URI. Guards moves between the tiers. */
+    private final CacheKeyIndex cacheKeyIndex = new CacheKeyIndex();
+
+    /** Moves entries between the tiers off the request threads. */
+    private ThreadPoolExecutor moveExecutor;
+    /** Keys queued for promotion, so that repeated disk tier hits queue a single move. */
+    private final Set<CacheKey> pendingPromotions = Collections.newSetFromMap(new ConcurrentHashMap<CacheKey,
+            Boolean>());
+    /**
+     * Entries evicted from the heap tier and not written to the disk tier yet. Changed under the index lock only, read
+     * without it.
+     */
+    private final ConcurrentHashMap<CacheKey, MemCachePersistenceObject> pendingDemotions = new
+            ConcurrentHashMap<CacheKey, MemCachePersistenceObject>();
+
+    /** Weight of the heap tier in bytes, kept up to date on put and removal. */
+    private final AtomicLong heapWeight = new AtomicLong(0L);
+
+    private final AtomicLong heapHitCount = new AtomicLong(0L);
+    private final AtomicLong promotionsCount = new AtomicLong(0L);
+    private final AtomicLong demotionsCount = new AtomicLong(0L);
+    private final AtomicLong failedDemotionsCount = new AtomicLong(0L);
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        final Dictionary<?, ?> configs = context.getProperties();
+
+        // Read config and populate values.
+        ttl = PropertiesUtil.toLong(configs.get(PROP_TTL), DEFAULT_TTL);
+        final long maxSizeInMb = PropertiesUtil.toLong(configs.get(PROP_MAX_SIZE_IN_MB), DEFAULT_MAX_SIZE_IN_MB);
+        final int moveQueueSize = Math.max(1, PropertiesUtil.toInteger(configs.get(PROP_MOVE_QUEUE_SIZE),
+                DEFAULT_MOVE_QUEUE_SIZE));
+
+        moveExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>
+                (moveQueueSize), new NamedThreadFactory("acs-commons-httpcache-tiered-mover-"));
+        heapWeight.set(0L);
+        tempDirectory = TempSinkDirectory.create(context);
+
+        if (ttl != DEFAULT_TTL) {
+            // If ttl is present, attach it to guava cache configuration.
+            heapCache = CacheBuilder.newBuilder().maximumWeight(maxSizeInMb * MEGABYTE).weigher(new HeapEntryWeigher
+                    ()).expireAfterWrite(ttl, TimeUnit.SECONDS).removalListener(new HeapEntryRemovalListener())
+                    .build();
+        } else {
+            heapCache = CacheBuilder.newBuilder().maximumWeight(maxSizeInMb * MEGABYTE).weigher(new HeapEntryWeigher
+                    ()).removalListener(new HeapEntryRemovalListener()).build();
+        }
+
+        log.info("TieredHttpCacheStoreImpl activated / modified.");
+    }
+
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        // Pending moves are dropped along with the entries.
+        moveExecutor.shutdownNow();
+        invalidateAll();
+        TempSinkDirectory.delete(tempDirectory);
+        log.info("TieredHttpCacheStoreImpl deactivated.");
+    }
+
+    /**
+     * Removal listener of the heap tier. Entries evicted for size are queued for the disk tier, expired entries leave
+     * the store.
+     */
+    private class HeapEntryRemovalListener implements RemovalListener<CacheKey, MemCachePersistenceObject> {
+
+        @Override
+        public void onRemoval(RemovalNotification<CacheKey, MemCachePersistenceObject> removalNotification) {
+            heapWeight.addAndGet(-removalNotification.getValue().getBytes().length);
+
+            if (RemovalCause.SIZE == removalNotification.getCause()) {
+                scheduleDemotion(removalNotification.getKey(), removalNotification.getValue());
+            } else if (RemovalCause.EXPIRED == removalNotification.getCause()) {
+                removeFromIndexUnlessInHeap(removalNotification.getKey());
+            }
+        }
+    }
+
+    /**
+     * Weigher for the heap tier entries.
+     */
+    private static class HeapEntryWeigher implements Weigher<CacheKey, MemCachePersistenceObject> {
+
+        @Override
+        public int weigh(CacheKey key, MemCachePersistenceObject value) {
+            return value.getBytes().length;
+        }
+    }
+
+    //-------------------------<CacheStore interface specific implementation>
+    @Override
+    public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
+        this.put(key, content, null);
+    }
+
+    @Override
+    public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws
+            HttpCacheDataStreamException {
+        final MemCachePersistenceObject value = new MemCachePersistenceObject().buildForCaching(content
+                .getCharEncoding(), content.getContentType(), content.getHeaders(), content.getInputDataStream(),
+                null == content.getTempSink() ? -1L : content.getTempSink().length(), false);
+        synchronized (cacheKeyIndex) {
+            // Before the heap put, which demotes the value right away if it does not fit in the heap tier.
+            pendingDemotions.remove(key);
+            heapCache.put(key, value);
+            heapWeight.addAndGet(value.getBytes().length);
+            cacheKeyIndex.add(key, cacheConfig);
+        }
+        // Drop the previous response from the disk tier, if any. One being demoted is dropped by the demotion.
+        diskCacheStore.invalidate(key);
+    }
+
+    @Override
+    public boolean contains(CacheKey key) {
+        return null != heapCache.getIfPresent(key) || pendingDemotions.containsKey(key) || diskCacheStore.contains
+                (key);
+    }
+
+    @Override
+    public CacheContent getIfPresent(CacheKey key) {
+        final MemCachePersistenceObject value = heapCache.getIfPresent(key);
+        if (null != value) {
+            heapHitCount.incrementAndGet();
+            return new MemCacheContent(value);
+        }
+
+        // Out of the heap tier, not written to the disk tier yet.
+        final MemCachePersistenceObject pendingValue = pendingDemotions.get(key);
+        if (null != pendingValue) {
+            return new MemCacheContent(pendingValue);
+        }
+
+        final CacheContent diskContent = diskCacheStore.getIfPresent(key);
+        if (null == diskContent) {
+            // Evicted or expired by the disk cache store.
+            removeFromIndexUnlessInHeap(key);
+            return null;
+        }
+
+        // Served from the disk tier; moved to the heap tier in the background.
+        schedulePromotion(key);
+        return diskContent;
+    }
+
+    @Override
+    public long size() {
+        return cacheKeyIndex.size();
+    }
+
+    @Override
+    public void invalidate(CacheKey key) {
+        synchronized (cacheKeyIndex) {
+            heapCache.invalidate(key);
+            cacheKeyIndex.remove(key);
+            pendingDemotions.remove(key);
+        }
+        diskCacheStore.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        // Only the keys of this store; the disk cache store is shared.
+        invalidate(cacheKeyIndex.getKeys());
+        heapCache.invalidateAll();
+        moveExecutor.getQueue().clear();
+        pendingPromotions.clear();
+        synchronized (cacheKeyIndex) {
+            pendingDemotions.clear();
+        }
+    }
+
+    @Override
+    public void invalidate(HttpCacheConfig cacheConfig) {
+        try {
+            invalidate(cacheKeyIndex.getKeys(cacheConfig));
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidate(HttpCacheConfig cacheConfig, String uriPattern) {
+        try {
+            invalidate(cacheKeyIndex.getKeys(cacheConfig, uriPattern));
+        } catch (HttpCacheKeyCreationException e) {
+            log.error("Could not invalidate HTTP cache. Falling back to full cache invalidation.", e);
+            this.invalidateAll();
+        }
+    }
+
+    private void invalidate(List<CacheKey> keys) {
+        for (CacheKey key : keys) {
+            this.invalidate(key);
+        }
+    }
+
+    @Override
+    public TempSink createTempSink() {
+        return new SpillingTempSink(tempSinkBufferPool, tempDirectory);
+    }
+
+    //-------------------------<Moves between the tiers>
+
+    /**
+     * Queue the move of an entry evicted from the heap tier to the disk tier, keeping it as pending demotion meanwhile.
+     * The entry is dropped if the queue is full.
+     *
+     * @param key
+     * @param value
+     */
+    private void scheduleDemotion(final CacheKey key, final MemCachePersistenceObject value) {
+        synchronized (cacheKeyIndex) {
+            pendingDemotions.put(key, value);
+        }
+        try {
+            moveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    demote(key, value);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failedDemotionsCount.incrementAndGet();
+            log.debug("Tier move queue is full. Heap tier entry dropped instead of moved to the disk tier - {}", key);
+            synchronized (cacheKeyIndex) {
+                pendingDemotions.remove(key, value);
+            }
+            removeFromIndexUnlessInHeap(key);
+        }
+    }
+
+    /**
+     * Write an entry evicted from the heap tier to the disk tier, unless it has been put again into the heap tier or
+     * invalidated since its eviction. The pending demotion is dropped once written; if it has been dropped while being
+     * written, the disk tier copy is stale and removed.
+     *
+     * @param key
+     * @param value
+     */
+    private void demote(CacheKey key, MemCachePersistenceObject value) {
+        final HttpCacheConfig cacheConfig;
+        synchronized (cacheKeyIndex) {
+            if (value != pendingDemotions.get(key)) {
+                // Put again or invalidated since its eviction.
+                return;
+            }
+            if (heapCache.asMap().containsKey(key) || !cacheKeyIndex.contains(key)) {
+                pendingDemotions.remove(key, value);
+                return;
+            }
+            cacheConfig = cacheKeyIndex.getConfig(key);
+        }
+
+        // Length is known unless the value is gzipped, letting the disk tier copy it without buffering.
+        final CacheContent content = new MemCacheContent(value);
+        try {
+            diskCacheStore.put(key, content, cacheConfig);
+            demotionsCount.incrementAndGet();
+        } catch (HttpCacheDataStreamException e) {
+            failedDemotionsCount.incrementAndGet();
+            log.error("Unable to move the heap tier entry to the disk tier - " + key, e);
+        } finally {
+            content.close();
+        }
+
+        synchronized (cacheKeyIndex) {
+            if (pendingDemotions.remove(key, value)) {
+                return;
+            }
+        }
+        // Put again or invalidated while being written.
+        diskCacheStore.invalidate(key);
+    }
+
+    /**
+     * Queue the move of a disk tier hit to the heap tier, unless queued already. The entry stays in the disk tier if
+     * the queue is full.
+     *
+     * @param key
+     */
+    private void schedulePromotion(final CacheKey key) {
+        if (!pendingPromotions.add(key)) {
+            return;
+        }
+        try {
+            moveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        promote(key);
+                    } finally {
+                        pendingPromotions.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPromotions.remove(key);
+            log.debug("Tier move queue is full. Disk tier entry left in the disk tier - {}", key);
+        }
+    }
+
+    /**
+     * Move a disk tier entry to the heap tier, unless it has been put again or invalidated meanwhile.
+     *
+     * @param key
+     */
+    private void promote(CacheKey key) {
+        final CacheContent diskContent = diskCacheStore.getIfPresent(key);
+        if (null == diskContent) {
+            removeFromIndexUnlessInHeap(key);
+            return;
+        }
+
+        final MemCachePersistenceObject promoted;
+        try {
+            promoted = new MemCachePersistenceObject().buildForCaching(diskContent.getCharEncoding(), diskContent
+                    .getContentType(), diskContent.getHeaders(), diskContent.getInputDataStream(), diskContent
+                    .getLength(), false);
+        } catch (HttpCacheDataStreamException e) {
+            log.error("Unable to promote the disk tier entry to the heap tier - " + key, e);
+            return;
+        } finally {
+            diskContent.close();
+        }
+
+        synchronized (cacheKeyIndex) {
+            // Invalidated meanwhile otherwise.
+            if (cacheKeyIndex.contains(key) && heapCache.asMap().putIfAbsent(key, promoted) == null) {
+                heapWeight.addAndGet(promoted.getBytes().length);
+                promotionsCount.incrementAndGet();
+            }
+        }
+        diskCacheStore.invalidate(key);
+    }
+
+    /**
+     * Remove the key from the index once the entry is gone from the disk tier, unless the heap tier holds it or it is
+     * being demoted.
+     *
+     * @param key
+     */
+    private void removeFromIndexUnlessInHeap(CacheKey key) {
+        synchronized (cacheKeyIndex) {
+            if (!heapCache.asMap().containsKey(key) && !pendingDemotions.containsKey(key)) {
+                cacheKeyIndex.remove(key);
+            }
+        }
+    }
+
+    //-------------------------<Mbean specific implementation>
+
+    public TieredHttpCacheStoreImpl() throws NotCompliantMBeanException {
+        super(TieredCacheMBean.class);
+    }
+
+    @Override
+    public void clearCache() {
+        this.invalidateAll();
+    }
+
+    @Override
+    public long getCacheEntriesCount() {
+        return this.size();
+    }
+
+    @Override
+    public long getHeapEntriesCount() {
+        return heapCache.size();
+    }
+
+    @Override
+    public String getHeapSize() {
+        // Convert bytes to human-friendly format
+        return FileUtils.byteCountToDisplaySize(heapWeight.get());
+    }
+
+    @Override
+    public long getTtl() {
+        return this.ttl;
+    }
+
+    @Override
+    public long getHeapHitCount() {
+        return heapHitCount.get();
+    }
+
+    @Override
+    public long getPromotionsCount() {
+        return promotionsCount.get();
+    }
+
+    @Override
+    public long getDemotionsCount() {
+        return demotionsCount.get();
+    }
+
+    @Override
+    public long getFailedDemotionsCount() {
+        return failedDemotionsCount.get();
+    }
+}
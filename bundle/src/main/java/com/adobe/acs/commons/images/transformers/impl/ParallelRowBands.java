@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.images.transformers.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs per row image kernels over bands of rows in parallel. Images too small to be worth splitting are processed on
+ * the calling thread, which always processes a band itself.
+ * <p>
+ * The threads are shared by all the images being transformed and owned by this component; while it isn't active,
+ * images are processed on the calling thread. Bands not fitting in the queue of the threads are processed on the
+ * calling thread as well, so that concurrent transformations never use more threads than configured in total.
+ */
+@Component(
+        label = "ACS AEM Commons - Image Transformers - Parallel Row Bands",
+        description = "Threads processing bands of rows of the images transformed.",
+        immediate = true,
+        metatype = true)
+public final class ParallelRowBands {
+    private static final Logger log = LoggerFactory.getLogger(ParallelRowBands.class);
+
+    /**
+     * Kernel processing a band of rows. Bands never overlap, so kernels may write their rows without synchronization.
+     */
+    public interface Kernel {
+        /**
+         * Process the rows of the band.
+         *
+         * @param fromRow first row of the band, inclusive
+         * @param toRow   last row of the band, exclusive
+         */
+        void process(int fromRow, int toRow);
+    }
+
+    /** Minimum number of rows per band. */
+    private static final int MIN_ROWS_PER_BAND = 64;
+
+    private static final int DEFAULT_THREADS = 0;
+
+    @Property(label = "Threads",
+            description = "Number of threads processing bands of rows, shared by all images. Each image is split "
+                    + "into at most one band per thread, plus the band of the calling thread. 0 for the number of "
+                    + "processors, -1 to process images on the calling thread only.",
+            intValue = DEFAULT_THREADS)
+    public static final String PROP_THREADS = "threads";
+
+    /** Executor of the active component. Null to process images on the calling thread. */
+    private static volatile ThreadPoolExecutor executor;
+
+    private ThreadPoolExecutor ownExecutor;
+
+    @Activate
+    protected void activate(final Map<String, Object> config) {
+        int threads = PropertiesUtil.toInteger(config.get(PROP_THREADS), DEFAULT_THREADS);
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        if (threads > 0) {
+            ownExecutor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "acs-commons-image-transformer-"
+                                    + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // Idle threads go away, so that nothing lingers once images stop being transformed.
+            ownExecutor.allowCoreThreadTimeOut(true);
+        }
+        executor = ownExecutor;
+
+        log.info("Processing image row bands with {} threads.", Math.max(0, threads));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (executor == ownExecutor) {
+            executor = null;
+        }
+        if (ownExecutor != null) {
+            // Bands queued already still get processed, so that no transformation waits forever.
+            ownExecutor.shutdown();
+            ownExecutor = null;
+        }
+    }
+
+    /**
+     * Process all the rows of an image with the given kernel, returning once all the bands are processed.
+     *
+     * @param height number of rows
+     * @param kernel kernel to apply
+     */
+    public static void process(final int height, final Kernel kernel) {
+        final ThreadPoolExecutor currentExecutor = executor;
+        final int threads = currentExecutor == null ? 0 : currentExecutor.getMaximumPoolSize();
+        final int bands = Math.min(threads + 1, height / MIN_ROWS_PER_BAND);
+        if (bands <= 1) {
+            kernel.process(0, height);
+            return;
+        }
+
+        final int rowsPerBand = (height + bands - 1) / bands;
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(bands - 1);
+        for (int band = 1; band < bands; band++) {
+            final int fromRow = band * rowsPerBand;
+            final int toRow = Math.min(height, fromRow + rowsPerBand);
+            if (fromRow >= toRow) {
+                break;
+            }
+            try {
+                futures.add(currentExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        kernel.process(fromRow, toRow);
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // All threads busy with other images, or shut down.
+                kernel.process(fromRow, toRow);
+            }
+        }
+
+        // First band on the calling thread.
+        kernel.process(0, Math.min(height, rowsPerBand));
+
+        for (final Future<Void> future : futures) {
+            await(future);
+        }
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while transforming image.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to transform image.", cause);
+        }
+    }
+}
@@ -20,8 +20,8 @@
 
 package com.adobe.acs.commons.images.transformers.impl;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -68,6 +68,10 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
     private static final int MIN_COLOR_VALUE = 0;
     private static final int MAX_COLOR_VALUE = 255;
 
+    private static final int OPAQUE = 0xFF000000;
+    private static final int RED_OFFSET = 16;
+    private static final int GREEN_OFFSET = 8;
+
     @Override
     public final Layer transform(final Layer layer, final ValueMap properties) {
 
@@ -95,45 +99,46 @@ public class RGBShiftImageTransformerImpl implements ImageTransformer {
         return result;
     }
 
-    private BufferedImage shift(final BufferedImage original, final int redShift, final int greenShift,
+    BufferedImage shift(final BufferedImage original, final int redShift, final int greenShift,
             final int blueShift) {
-        BufferedImage updated = new BufferedImage(original.getWidth(), original.getHeight(),
-                BufferedImage.TYPE_INT_ARGB);
-
-        for (int x = 0; x < original.getWidth(); x++) {
-            for (int y = 0; y < original.getHeight(); y++) {
-                Color pixel = new Color(original.getRGB(x, y));
-
-                int red = pixel.getRed() + redShift;
-                if (red > MAX_COLOR_VALUE) {
-                    red = MAX_COLOR_VALUE;
-                } else if (red < MIN_COLOR_VALUE) {
-                    red = MIN_COLOR_VALUE;
-                }
+        final int width = original.getWidth();
+        final int height = original.getHeight();
+        final BufferedImage updated = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 
-                int green = pixel.getGreen() + greenShift;
-                if (green > MAX_COLOR_VALUE) {
-                    green = MAX_COLOR_VALUE;
-                } else if (green < MIN_COLOR_VALUE) {
-                    green = MIN_COLOR_VALUE;
-                }
+        // A fresh INT_ARGB image is backed by a single int array, one pixel per element, row by row.
+        final int[] updatedPixels = ((DataBufferInt) updated.getRaster().getDataBuffer()).getData();
 
-                int blue = pixel.getBlue() + blueShift;
-                if (blue > MAX_COLOR_VALUE) {
-                    blue = MAX_COLOR_VALUE;
-                } else if (blue < MIN_COLOR_VALUE) {
-                    blue = MIN_COLOR_VALUE;
-                }
+        ParallelRowBands.process(height, new ParallelRowBands.Kernel() {
+            @Override
+            public void process(int fromRow, int toRow) {
+                // Read the band in a single call, converted to default RGB whatever the type of the original.
+                original.getRGB(0, fromRow, width, toRow - fromRow, updatedPixels, fromRow * width, width);
+
+                for (int i = fromRow * width; i < toRow * width; i++) {
+                    final int pixel = updatedPixels[i];
 
-                Color shifted = new Color(red, green, blue);
-                updated.setRGB(x, y, shifted.getRGB());
+                    final int red = clamp(((pixel >> RED_OFFSET) & MAX_COLOR_VALUE) + redShift);
+                    final int green = clamp(((pixel >> GREEN_OFFSET) & MAX_COLOR_VALUE) + greenShift);
+                    final int blue = clamp((pixel & MAX_COLOR_VALUE) + blueShift);
 
+                    // Shifted pixels are opaque.
+                    updatedPixels[i] = OPAQUE | (red << RED_OFFSET) | (green << GREEN_OFFSET) | blue;
+                }
             }
-        }
+        });
 
         return updated;
     }
 
+    private static int clamp(int color) {
+        if (color > MAX_COLOR_VALUE) {
+            return MAX_COLOR_VALUE;
+        } else if (color < MIN_COLOR_VALUE) {
+            return MIN_COLOR_VALUE;
+        }
+        return color;
+    }
+
     private float normalizeRGB(float rgbValue) {
         if (rgbValue > MAX_SHIFT_VALUE) {
             rgbValue = MAX_SHIFT_VALUE;
@@ -23,6 +23,8 @@ import java.awt.CompositeContext;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 
+import com.adobe.acs.commons.images.transformers.impl.ParallelRowBands;
+
 /**
  * Applies a multiply blend to the models.
  * 
@@ -38,6 +40,10 @@ public class MultiplyCompositeContext implements CompositeContext {
     private static final int ALPHA_MASK = 24;
     private static final int BLEND_SHIFT = 8;
 
+    private static final int RED_SHIFT = ColorMask.RED.getMask();
+    private static final int GREEN_SHIFT = ColorMask.GREEN.getMask();
+    private static final int BLUE_SHIFT = ColorMask.BLUE.getMask();
+
     private final float alpha;
 
     public MultiplyCompositeContext(float alpha) {
@@ -45,49 +51,62 @@ public class MultiplyCompositeContext implements CompositeContext {
     }
 
     @Override
-    public void compose(Raster src, Raster destIn, WritableRaster dstOut) {
-
-        int width = Math.min(src.getWidth(), destIn.getWidth());
-        int height = Math.min(src.getHeight(), destIn.getHeight());
-
-        int[] srcPixels = new int[width];
-        int[] destPixels = new int[width];
-
-        // Get a row of pixels.
-        for (int y = 0; y < height; y++) {
-            src.getDataElements(0, y, width, 1, srcPixels);
-            destIn.getDataElements(0, y, width, 1, destPixels);
-
-            // Each pixel in the row
-            for (int x = 0; x < width; x++) {
-
-                // pixels are stored as INT_ARGB
-                int srcPixel = srcPixels[x];
-                int destPixel = destPixels[x];
-                int result = 0;
-                int tmp = 0;
-
-                for (ColorMask mask : ColorMask.values()) {
-
-                    int srcColor = (srcPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
-                    int destColor = (destPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
-                    tmp = blendColor(srcColor, destColor);
-
-                    tmp = processColorOpacity(tmp, destColor);
-                    result = result | (tmp << mask.getMask());
+    public void compose(final Raster src, final Raster destIn, final WritableRaster dstOut) {
+
+        final int width = Math.min(src.getWidth(), destIn.getWidth());
+        final int height = Math.min(src.getHeight(), destIn.getHeight());
+
+        ParallelRowBands.process(height, new ParallelRowBands.Kernel() {
+            @Override
+            public void process(int fromRow, int toRow) {
+                final int[] srcPixels = new int[width];
+                final int[] destPixels = new int[width];
+
+                // Get a row of pixels.
+                for (int y = fromRow; y < toRow; y++) {
+                    src.getDataElements(0, y, width, 1, srcPixels);
+                    destIn.getDataElements(0, y, width, 1, destPixels);
+
+                    // Each pixel in the row
+                    for (int x = 0; x < width; x++) {
+                        destPixels[x] = blendPixel(srcPixels[x], destPixels[x]);
+                    }
+                    dstOut.setDataElements(0, y, width, 1, destPixels);
                 }
+            }
+        });
+
+    }
 
-                int srcAlpha = (srcPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
-                int destAlpha = (destPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
+    /**
+     * Blend a pixel. Channels are unrolled rather than iterated over {@link ColorMask#values()}, which copies the
+     * values for every call.
+     *
+     * @param srcPixel  pixel as INT_ARGB
+     * @param destPixel pixel as INT_ARGB
+     * @return blended pixel as INT_ARGB
+     */
+    private int blendPixel(int srcPixel, int destPixel) {
+        return blendChannel(srcPixel, destPixel, RED_SHIFT)
+                | blendChannel(srcPixel, destPixel, GREEN_SHIFT)
+                | blendChannel(srcPixel, destPixel, BLUE_SHIFT)
+                | blendAlphaChannel(srcPixel, destPixel);
+    }
 
-                tmp = blendAlpha(srcAlpha, destAlpha);
-                tmp = processAlphaOpacity(tmp, destAlpha);
-                result = result | (tmp << ALPHA_MASK);
-                destPixels[x] = result;
-            }
-            dstOut.setDataElements(0, y, width, 1, destPixels);
-        }
+    private int blendChannel(int srcPixel, int destPixel, int shift) {
+        int srcColor = (srcPixel >> shift) & ColorMask.MAX_DEPTH;
+        int destColor = (destPixel >> shift) & ColorMask.MAX_DEPTH;
+        int tmp = blendColor(srcColor, destColor);
+        tmp = processColorOpacity(tmp, destColor);
+        return tmp << shift;
+    }
 
+    private int blendAlphaChannel(int srcPixel, int destPixel) {
+        int srcAlpha = (srcPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
+        int destAlpha = (destPixel >> ALPHA_MASK) & ColorMask.MAX_DEPTH;
+        int tmp = blendAlpha(srcAlpha, destAlpha);
+        tmp = processAlphaOpacity(tmp, destAlpha);
+        return tmp << ALPHA_MASK;
     }
 
     private int blendColor(int src, int dest) {
@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.util.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in power of two buckets, in whatever unit they are recorded in. Percentiles are
+ * reported as the upper bound of their bucket, hence at most twice the actual latency, at the cost of a few atomic
+ * increments per recording.
+ */
+public final class LatencyHistogram {
+    /** Bucket <code>b</code> holds the latencies of <code>2^(b-1)</code> to <code>2^b - 1</code>. */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong total = new AtomicLong(0L);
+
+    /**
+     * Records a latency.
+     *
+     * @param latency the latency; negative latencies are recorded as 0
+     */
+    public void record(final long latency) {
+        final long value = Math.max(latency, 0L);
+        counts.incrementAndGet(Math.min(Long.SIZE - Long.numberOfLeadingZeros(value), BUCKETS - 1));
+        total.addAndGet(value);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the mean latency; 0 if nothing got recorded
+     */
+    public long getMean() {
+        final long count = getCount();
+        return count == 0 ? 0L : total.get() / count;
+    }
+
+    /**
+     * Gets the latency the given percentage of the recorded latencies is below of.
+     *
+     * @param percentile percentage, for instance 99
+     * @return the upper bound of the bucket of the percentile; 0 if nothing got recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0L;
+        }
+
+        final long rank = (long) Math.ceil(count * percentile / 100d);
+        long cumulative = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return (1L << i) - 1;
+            }
+        }
+        return (1L << (BUCKETS - 1)) - 1;
+    }
+}
@@ -29,6 +29,8 @@ import aQute.bnd.annotation.ProviderType;
 
 import javax.jcr.RepositoryException;
 
+import java.util.Map;
+
 @ProviderType
 public interface BulkWorkflowEngine {
     String SLING_RESOURCE_TYPE = "acs-commons/components/utilities/bulk-workflow-manager";
@@ -45,6 +47,20 @@ public interface BulkWorkflowEngine {
 
     boolean DEFAULT_PURGE_WORKFLOW = false;
 
+    int DEFAULT_WORKER_COUNT = 4;
+
+    String EXECUTION_MODE_WORKFLOW = "workflow";
+
+    String EXECUTION_MODE_SYNTHETIC = "synthetic";
+
+    String DEFAULT_EXECUTION_MODE = EXECUTION_MODE_WORKFLOW;
+
+    String ENUMERATION_UP_FRONT = "up-front";
+
+    String ENUMERATION_STREAMING = "streaming";
+
+    String DEFAULT_ENUMERATION = ENUMERATION_UP_FRONT;
+
     String NN_BATCHES = "batches";
 
     String KEY_QUERY = "query";
@@ -61,6 +77,20 @@ public interface BulkWorkflowEngine {
 
     String KEY_BATCH_TIMEOUT = "batchTimeout";
 
+    String KEY_EXECUTION_MODE = "executionMode";
+
+    String KEY_WORKER_COUNT = "workerCount";
+
+    String KEY_FAILURE_COUNT = "failureCount";
+
+    String KEY_ENUMERATION = "enumeration";
+
+    String KEY_CURSOR_PATH = "cursorPath";
+
+    String KEY_ENUMERATED_COUNT = "enumeratedCount";
+
+    String KEY_TELEMETRY = "telemetry";
+
     String KEY_INITIALIZED = "initialized";
 
     String KEY_PURGE_WORKFLOW = "purgeWorkflow";
@@ -79,6 +109,8 @@ public interface BulkWorkflowEngine {
 
     String KEY_CURRENT_BATCH = "currentBatch";
 
+    String KEY_ACTIVE_ITEMS = "activeItems";
+
     String KEY_NEXT_BATCH = "nextBatch";
 
     String KEY_PATH = "path";
@@ -105,6 +137,8 @@ public interface BulkWorkflowEngine {
 
     String STATE_STOPPED_ERROR = "stopped-error";
 
+    String STATE_FAILED = "failed";
+
 
     /**
      * Initialize the Bulk Workflow Manager jcr:content node and build out the batch structure.
@@ -156,4 +190,13 @@ public interface BulkWorkflowEngine {
      */
     Resource getCurrentBatch(Resource resource);
 
+    /**
+     * Get the live throughput, latency and progress measurements of a bulk workflow process, since it was last
+     * started or resumed.
+     *
+     * @param resource jcr:content configuration resource
+     * @return the measurements by name, null if the process is not running
+     */
+    Map<String, Object> getTelemetry(Resource resource);
+
 }
\ No newline at end of file
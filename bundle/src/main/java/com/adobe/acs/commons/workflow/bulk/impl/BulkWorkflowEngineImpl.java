@@ -22,11 +22,17 @@ package com.adobe.acs.commons.workflow.bulk.impl;
 
 
 import com.adobe.acs.commons.workflow.bulk.BulkWorkflowEngine;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
 import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.commons.jcr.JcrUtil;
 import com.day.cq.workflow.WorkflowException;
 import com.day.cq.workflow.WorkflowService;
 import com.day.cq.workflow.WorkflowSession;
+import com.day.cq.workflow.event.WorkflowEvent;
+import com.day.cq.workflow.exec.HistoryItem;
+import com.day.cq.workflow.exec.WorkItem;
 import com.day.cq.workflow.exec.Workflow;
 import com.day.cq.workflow.model.WorkflowModel;
 
@@ -41,6 +47,9 @@ import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.commons.scheduler.Scheduler;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,30 +60,93 @@ import javax.jcr.Session;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component(
         label = "ACS AEM Commons - Bulk Workflow Engine",
         metatype = true,
         immediate = true
 )
-@Service
-public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
+@Properties({
+        @Property(
+                label = "Event Topics",
+                value = { WorkflowEvent.EVENT_TOPIC },
+                name = EventConstants.EVENT_TOPIC,
+                propertyPrivate = true
+        ),
+        @Property(
+                label = "Event Filters",
+                value = "(|(" + WorkflowEvent.EVENT_TYPE + "=" + WorkflowEvent.WORKFLOW_COMPLETED_EVENT + ")"
+                        + "(" + WorkflowEvent.EVENT_TYPE + "=" + WorkflowEvent.WORKFLOW_ABORTED_EVENT + "))",
+                name = EventConstants.EVENT_FILTER,
+                propertyPrivate = true
+        ),
+        @Property(
+                name = "jmx.objectname",
+                value = "com.adobe.acs.commons:type=Bulk Workflow Manager",
+                propertyPrivate = true
+        )
+})
+@Service(value = { BulkWorkflowEngine.class, EventHandler.class, DynamicMBean.class })
+public class BulkWorkflowEngineImpl extends AnnotatedStandardMBean implements BulkWorkflowEngine, EventHandler,
+        BulkWorkflowEngineMBean {
     private static final Logger log = LoggerFactory.getLogger(BulkWorkflowEngineImpl.class);
 
     private static final String BULK_WORKFLOW_MANAGER_PAGE_FOLDER_PATH = "/etc/acs-commons/bulk-workflow-manager";
 
     private static final int SAVE_THRESHOLD = 1000;
 
+    private static final long MS_IN_SECOND = 1000L;
+
+    /** Batch item state of a workflow which completed; the state of the workflow itself. */
+    static final String ITEM_STATE_COMPLETED = "COMPLETED";
+
+    /** Batch item state of a workflow which got aborted; the state of the workflow itself. */
+    static final String ITEM_STATE_ABORTED = "ABORTED";
+
+    /** Batch item state of a workflow terminated for running beyond the timeout. */
+    static final String ITEM_STATE_FORCE_TERMINATED = "FORCE TERMINATED";
+
+    /** Batch item state of a payload the Synthetic Workflow completed on. */
+    static final String ITEM_STATE_COMPLETE = "COMPLETE";
+
+    /** Batch item state of a payload the Synthetic Workflow failed on. */
+    static final String ITEM_STATE_FAILED = "FAILED";
+
+    /** Max number of completions of untracked workflows remembered, see {@link #trackWorkflow}. */
+    private static final int MAX_RECENTLY_FINISHED_WORKFLOWS = 1000;
+
+    /** One in how many finished workflows have their history read for the workflow step latencies. */
+    private static final int STEP_LATENCY_SAMPLE_RATE = 10;
+
     private static final boolean DEFAULT_AUTO_RESUME = true;
     private boolean autoResume = DEFAULT_AUTO_RESUME;
     @Property(label = "Auto-Resume",
@@ -84,9 +156,29 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
             boolValue = DEFAULT_AUTO_RESUME)
     public static final String PROP_AUTO_RESUME = "auto-resume";
 
+    private static final int DEFAULT_MAX_SYNTHETIC_WORKERS = 16;
+    private int maxSyntheticWorkers = DEFAULT_MAX_SYNTHETIC_WORKERS;
+    @Property(label = "Max Synthetic Workers",
+            description = "Upper bound of the number of worker threads a bulk workflow executed in synthetic mode "
+                    + "may request. [ Default: 16 ]",
+            intValue = DEFAULT_MAX_SYNTHETIC_WORKERS)
+    public static final String PROP_MAX_SYNTHETIC_WORKERS = "synthetic.max-workers";
+
+    private static final int DEFAULT_SYNTHETIC_SAVE_THRESHOLD = 100;
+    private int syntheticSaveThreshold = DEFAULT_SYNTHETIC_SAVE_THRESHOLD;
+    @Property(label = "Synthetic Save Threshold",
+            description = "Number of payloads each synthetic mode worker processes between saves. If a save "
+                    + "fails, the payloads of the group are processed and saved again one by one, so that only the "
+                    + "payloads which cannot be saved fail. [ Default: 100 ]",
+            intValue = DEFAULT_SYNTHETIC_SAVE_THRESHOLD)
+    public static final String PROP_SYNTHETIC_SAVE_THRESHOLD = "synthetic.save-threshold";
+
     @Reference
     private WorkflowService workflowService;
 
+    @Reference
+    private SyntheticWorkflowRunner syntheticWorkflowRunner;
+
     @Reference
     private Scheduler scheduler;
 
@@ -95,6 +187,44 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
 
     private ConcurrentHashMap<String, String> jobs = null;
 
+    private ConcurrentHashMap<String, SyntheticBatchProcessor> syntheticProcessors = null;
+
+    /** jcr:content configuration resource paths of the bulk workflows being processed in synthetic mode. */
+    private final Set<String> syntheticRuns = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Runs the synthetic mode batch loops, which last for the whole bulk workflow, off the scheduler threads. */
+    private ExecutorService syntheticExecutor = null;
+
+    /** Windows of in-flight workflows by jcr:content configuration resource path. */
+    private final ConcurrentHashMap<String, WorkflowWindow> windows = new ConcurrentHashMap<String, WorkflowWindow>();
+
+    /** Windows of in-flight workflows by workflow id. */
+    private final ConcurrentHashMap<String, WorkflowWindow> windowsByWorkflowId =
+            new ConcurrentHashMap<String, WorkflowWindow>();
+
+    /** Final states of recently finished workflows not tracked by any window, by workflow id. */
+    private final Map<String, String> recentlyFinishedWorkflows = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > MAX_RECENTLY_FINISHED_WORKFLOWS;
+        }
+    };
+
+    private ExecutorService windowExecutor = null;
+
+    /** Query cursors of the streaming bulk workflows by jcr:content configuration resource path. */
+    private final ConcurrentHashMap<String, PayloadCursor> cursors = new ConcurrentHashMap<String, PayloadCursor>();
+
+    /** Telemetry of the running bulk workflows by jcr:content configuration resource path. */
+    private final ConcurrentHashMap<String, BulkWorkflowTelemetry> telemetries =
+            new ConcurrentHashMap<String, BulkWorkflowTelemetry>();
+
+    private final AtomicInteger finishedWorkflowCount = new AtomicInteger(0);
+
+    public BulkWorkflowEngineImpl() throws NotCompliantMBeanException {
+        super(BulkWorkflowEngineMBean.class);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -111,6 +241,21 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
         return currentBatchResource;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Map<String, Object> getTelemetry(final Resource resource) {
+        final BulkWorkflowTelemetry telemetry = telemetries.get(resource.getPath());
+        if (telemetry == null) {
+            return null;
+        }
+
+        final Map<String, Object> map = telemetry.toMap();
+        map.put("steps", telemetry.getStepLatencies());
+        return map;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -129,6 +274,11 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
         properties.putAll(params);
         properties.put(KEY_JOB_NAME, resource.getPath());
 
+        if (isStreaming(properties)) {
+            this.initializeStreaming(resource);
+            return;
+        }
+
         // Query for all candidate resources
 
         final ResourceResolver resourceResolver = resource.getResourceResolver();
@@ -232,12 +382,22 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
 
         final String jobName = properties.get(KEY_JOB_NAME, String.class);
         final String workflowModel = properties.get(KEY_WORKFLOW_MODEL, String.class);
+        final boolean synthetic = EXECUTION_MODE_SYNTHETIC.equals(
+                properties.get(KEY_EXECUTION_MODE, DEFAULT_EXECUTION_MODE));
         final String resourcePath = resource.getPath();
         long interval = properties.get(KEY_INTERVAL, DEFAULT_INTERVAL);
 
-        final Runnable job = new Runnable() {
+        final int capacity;
+        if (synthetic) {
+            capacity = Math.max(1, Math.min(maxSyntheticWorkers,
+                    properties.get(KEY_WORKER_COUNT, DEFAULT_WORKER_COUNT)));
+        } else {
+            capacity = properties.get(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        }
+        telemetries.put(resourcePath, new BulkWorkflowTelemetry(capacity, properties.get(KEY_TOTAL, 0L),
+                properties.get(KEY_COMPLETE_COUNT, 0L)));
 
-            private Map<String, String> activeWorkflows = new LinkedHashMap<String, String>();
+        final Runnable job = new Runnable() {
 
             public void run() {
                 ResourceResolver adminResourceResolver = null;
@@ -245,39 +405,19 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
 
                 try {
                     adminResourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
-                    activeWorkflows = getActiveWorkflows(adminResourceResolver, activeWorkflows);
                     contentResource = adminResourceResolver.getResource(resourcePath);
 
                     if (contentResource == null) {
                         log.warn("Bulk workflow process resource [ {} ] could not be found. Removing periodic job.",
                                 resourcePath);
                         scheduler.removeJob(jobName);
-                    } else if (activeWorkflows.isEmpty()) {
-                        // Either the beginning or the end of a batch process
-                        activeWorkflows = process(contentResource, workflowModel);
+                    } else if (synthetic) {
+                        // Batches are processed on a synthetic runner thread; this only makes sure one is running
+                        runSynthetic(resourcePath, workflowModel);
                     } else {
-                        log.debug("Workflows for batch [ {} ] are still active.",
-                                contentResource.adaptTo(ValueMap.class).get(KEY_CURRENT_BATCH, "Missing batch"));
-
-                        final ValueMap properties = contentResource.adaptTo(ValueMap.class);
-                        final int batchTimeout = properties.get(KEY_BATCH_TIMEOUT, 0);
-
-                        final Resource currentBatch = getCurrentBatch(contentResource);
-                        final ModifiableValueMap currentBatchProperties =
-                                currentBatch.adaptTo(ModifiableValueMap.class);
-
-                        final int batchTimeoutCount = currentBatchProperties.get(KEY_BATCH_TIMEOUT_COUNT, 0);
-
-                        if (batchTimeoutCount >= batchTimeout) {
-                            terminateActiveWorkflows(adminResourceResolver,
-                                    contentResource,
-                                    activeWorkflows);
-                            // Next batch will be pulled on next iteration
-                        } else {
-                            // Still withing batch processing range; continue.
-                            currentBatchProperties.put(KEY_BATCH_TIMEOUT_COUNT, batchTimeoutCount + 1);
-                            adminResourceResolver.commit();
-                        }
+                        // Workflows are refilled as their completion events come in; this is only a safety net
+                        // which also enforces the timeout and purges finished workflows
+                        processWindow(adminResourceResolver, contentResource, workflowModel);
                     }
                 } catch (Exception e) {
                     log.error("Error processing periodic execution: {}", e);
@@ -361,6 +501,15 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
             scheduler.removeJob(jobName);
             jobs.remove(resource.getPath());
 
+            this.closeWindow(resource.getPath());
+            this.closeCursor(resource.getPath());
+            telemetries.remove(resource.getPath());
+
+            final SyntheticBatchProcessor syntheticProcessor = syntheticProcessors.get(resource.getPath());
+            if (syntheticProcessor != null) {
+                syntheticProcessor.stop();
+            }
+
             log.info("Bulk Workflow Manager stopped for [ {} ]", jobName);
 
             properties.put(KEY_STATE, state);
@@ -407,6 +556,10 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
 
         if (StringUtils.isNotBlank(jobName)) {
             scheduler.removeJob(jobName);
+            jobs.remove(resource.getPath());
+            this.closeWindow(resource.getPath());
+            this.closeCursor(resource.getPath());
+            telemetries.remove(resource.getPath());
 
             log.info("Bulk Workflow Manager completed for [ {} ]", jobName);
 
@@ -421,78 +574,545 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
     }
 
     /**
-     * Processes the bulk process workflow batch; starts WF's as necessary for each batch item.
+     * Periodic processing of a bulk workflow executed as AEM workflows. Opens the sliding window of in-flight
+     * workflows on the first run, then terminates the workflows which exceeded the timeout, purges finished
+     * workflow instances and refills the window.
      *
-     * @param resource the jcr:content configuration resource
+     * @param resourceResolver the resource resolver
+     * @param resource         the jcr:content configuration resource
+     * @param workflowModel    the workflow model to start for each payload
+     * @throws WorkflowException
      * @throws PersistenceException
+     * @throws RepositoryException
      */
-    private Map<String, String> process(final Resource resource, String workflowModel) throws
-            WorkflowException, PersistenceException, RepositoryException {
+    private void processWindow(final ResourceResolver resourceResolver, final Resource resource,
+                               final String workflowModel) throws WorkflowException, PersistenceException,
+            RepositoryException {
 
-        // This method can be invoked by the very first processing of a batch node, or when the batch is complete
+        final String resourcePath = resource.getPath();
+        WorkflowWindow window = windows.get(resourcePath);
+
+        if (window == null) {
+            window = this.openWindow(resourceResolver, resource, workflowModel);
+        } else {
+            final ValueMap properties = resource.adaptTo(ValueMap.class);
+            final long interval = properties.get(KEY_INTERVAL, DEFAULT_INTERVAL) * MS_IN_SECOND;
+            final long timeout = properties.get(KEY_BATCH_TIMEOUT, DEFAULT_BATCH_TIMEOUT) * interval;
+            final long now = System.currentTimeMillis();
+
+            synchronized (window) {
+                this.terminateTimedOutWorkflows(resourceResolver, resource, window, now - timeout);
 
-        if (log.isDebugEnabled()) {
-            log.debug("Processing batch [ {} ] with workflow model [ {} ]", this.getCurrentBatch(resource).getPath(),
-                    workflowModel);
+                if (properties.get(KEY_PURGE_WORKFLOW, DEFAULT_PURGE_WORKFLOW)) {
+                    // Leave the workflow engine an interval to be done with the instances
+                    this.purge(resourceResolver, window.removePurgeable(now - interval));
+                }
+            }
         }
 
-        final Session session = resource.getResourceResolver().adaptTo(Session.class);
-        final WorkflowSession workflowSession = workflowService.getWorkflowSession(session);
-        final WorkflowModel model = workflowSession.getModel(workflowModel);
+        this.refillWindow(resourceResolver, window);
+    }
+
+    /**
+     * Opens the sliding window of a bulk workflow, picking up the workflows left in flight when it was stopped.
+     *
+     * @param resourceResolver the resource resolver
+     * @param resource         the jcr:content configuration resource
+     * @param workflowModel    the workflow model to start for each payload
+     * @return the window
+     * @throws RepositoryException
+     */
+    private WorkflowWindow openWindow(final ResourceResolver resourceResolver, final Resource resource,
+                                      final String workflowModel) throws RepositoryException {
 
-        final Map<String, String> workflowMap = new LinkedHashMap<String, String>();
+        final ValueMap properties = resource.adaptTo(ValueMap.class);
+        final WorkflowWindow window = new WorkflowWindow(resource.getPath(), workflowModel,
+                properties.get(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE));
 
+        // Items in flight when stopped, along with the items of the current batch started by the batch-by-batch
+        // processing of previous versions
+        final Set<String> itemPaths = new LinkedHashSet<String>(
+                Arrays.asList(properties.get(KEY_ACTIVE_ITEMS, new String[0])));
         final Resource currentBatch = this.getCurrentBatch(resource);
-        final ModifiableValueMap currentProperties = currentBatch.adaptTo(ModifiableValueMap.class);
+        if (currentBatch != null) {
+            for (final Resource child : currentBatch.getChildren()) {
+                itemPaths.add(child.getPath());
+            }
+        }
 
-        Resource batchToProcess;
-        if (currentProperties.get(KEY_STARTED_AT, Date.class) == null) {
-            currentProperties.put(KEY_STARTED_AT, Calendar.getInstance());
-            batchToProcess = currentBatch;
-            log.debug("Virgin batch [ {} ]; preparing to initiate WF.", currentBatch.getPath());
-        } else {
-            batchToProcess = this.advance(resource);
-            log.debug("Completed batch [ {} ]; preparing to advance and initiate WF on next batch [ {} ].",
-                    currentBatch.getPath(), batchToProcess);
+        final WorkflowSession workflowSession =
+                workflowService.getWorkflowSession(resourceResolver.adaptTo(Session.class));
+
+        synchronized (window) {
+            for (final String itemPath : itemPaths) {
+                final Resource item = resourceResolver.getResource(itemPath);
+                if (item == null) {
+                    continue;
+                }
+
+                final ValueMap itemProperties = item.adaptTo(ValueMap.class);
+                final String workflowId = itemProperties.get(KEY_WORKFLOW_ID, String.class);
+                final String state = itemProperties.get(KEY_STATE, "");
+
+                if (StringUtils.isBlank(workflowId) || !isActiveState(state)) {
+                    continue;
+                }
+
+                try {
+                    final Workflow workflow = workflowSession.getWorkflow(workflowId);
+
+                    window.add(itemPath, workflowId);
+                    this.trackWorkflow(window, workflowId);
+                    if (!workflow.isActive()) {
+                        this.finishWorkflow(workflowId, workflow.getState());
+                    }
+                } catch (WorkflowException e) {
+                    log.error("Could not get workflow with id [ {} ]. {}", workflowId, e);
+                }
+            }
+        }
+
+        windows.put(resource.getPath(), window);
+        log.debug("Opened workflow window for [ {} ] with [ {} ] workflows in flight", resource.getPath(),
+                window.getWorkflowIds().size());
+
+        return window;
+    }
+
+    /**
+     * Closes the sliding window of a bulk workflow. Workflows in flight carry on, but are no longer tracked.
+     *
+     * @param resourcePath the jcr:content configuration resource path
+     */
+    private void closeWindow(final String resourcePath) {
+        final WorkflowWindow window = windows.remove(resourcePath);
+        if (window != null) {
+            synchronized (window) {
+                for (final String workflowId : window.getWorkflowIds()) {
+                    windowsByWorkflowId.remove(workflowId);
+                }
+            }
         }
+    }
+
+    /**
+     * Records the finished workflows of the window on their batch items, then starts workflows on the next payloads
+     * until the window is full. Completes the bulk workflow once all payloads are processed.
+     *
+     * @param resourceResolver the resource resolver
+     * @param window           the window
+     * @throws WorkflowException
+     * @throws PersistenceException
+     * @throws RepositoryException
+     */
+    private void refillWindow(final ResourceResolver resourceResolver, final WorkflowWindow window)
+            throws WorkflowException, PersistenceException, RepositoryException {
+
+        synchronized (window) {
+            window.clearRefillRequest();
 
-        if (batchToProcess != null) {
-            for (final Resource child : batchToProcess.getChildren()) {
-                final ModifiableValueMap properties = child.adaptTo(ModifiableValueMap.class);
+            final Resource resource = resourceResolver.getResource(window.getResourcePath());
+            if (resource == null || windows.get(window.getResourcePath()) != window) {
+                // Stopped in the meantime
+                return;
+            }
+
+            final ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
+            final boolean purgeWorkflow = properties.get(KEY_PURGE_WORKFLOW, DEFAULT_PURGE_WORKFLOW);
+            final boolean streaming = isStreaming(properties);
+            final BulkWorkflowTelemetry telemetry = telemetries.get(window.getResourcePath());
+            if (telemetry == null) {
+                // Stopped in the meantime
+                return;
+            }
+
+            final WorkflowSession workflowSession =
+                    workflowService.getWorkflowSession(resourceResolver.adaptTo(Session.class));
+
+            // Record the finished workflows
+
+            final List<WorkflowWindow.ActiveWorkflow> finishedWorkflows = window.drainFinished();
+            // Slots freed by the finished workflows are refilled below
+            final long now = System.currentTimeMillis();
+            for (final WorkflowWindow.ActiveWorkflow workflow : finishedWorkflows) {
+                telemetry.recordPayload(workflow.getFinishedAt() - workflow.getStartedAt(),
+                        ITEM_STATE_ABORTED.equals(workflow.getState()));
+                telemetry.recordRefill(now - workflow.getFinishedAt());
+                if (finishedWorkflowCount.incrementAndGet() % STEP_LATENCY_SAMPLE_RATE == 0) {
+                    this.recordStepLatencies(workflowSession, workflow.getWorkflowId(), telemetry);
+                }
 
-                final String state = properties.get(KEY_STATE, "");
-                final String payloadPath = properties.get(KEY_PATH, String.class);
+                final Resource item = resourceResolver.getResource(workflow.getItemPath());
+                if (item != null && streaming && ITEM_STATE_COMPLETED.equals(workflow.getState())) {
+                    this.retire(resource, item);
+                } else if (item != null) {
+                    final ModifiableValueMap itemProperties = item.adaptTo(ModifiableValueMap.class);
+                    itemProperties.put(KEY_STATE, workflow.getState());
+                    itemProperties.put(KEY_COMPLETED_AT, Calendar.getInstance());
+                }
+                if (purgeWorkflow) {
+                    window.addPurgeable(workflow);
+                }
+            }
 
-                if (StringUtils.isBlank(state)
-                        && StringUtils.isNotBlank(payloadPath)) {
+            if (!finishedWorkflows.isEmpty()) {
+                properties.put(KEY_COMPLETE_COUNT, properties.get(KEY_COMPLETE_COUNT, 0) + finishedWorkflows.size());
+            }
 
-                    // Don't try to restart already processed batch items
+            // Start workflows on the next payloads
+
+            final WorkflowModel model = workflowSession.getModel(window.getWorkflowModel());
+
+            boolean exhausted = false;
+            Resource batch = this.getCurrentBatch(resource);
+
+            while (batch != null && window.getCapacity() > 0) {
+                final ModifiableValueMap batchProperties = batch.adaptTo(ModifiableValueMap.class);
+                if (STATE_COMPLETE.equals(batchProperties.get(KEY_STATE, String.class))) {
+                    // Last batch, already advanced past
+                    exhausted = true;
+                    break;
+                } else if (batchProperties.get(KEY_STARTED_AT, Date.class) == null) {
+                    batchProperties.put(KEY_STARTED_AT, Calendar.getInstance());
+                }
+
+                int started = 0;
+                boolean batchExhausted = true;
+
+                for (final Resource child : batch.getChildren()) {
+                    final ModifiableValueMap itemProperties = child.adaptTo(ModifiableValueMap.class);
+                    final String payloadPath = itemProperties.get(KEY_PATH, String.class);
+
+                    if (StringUtils.isNotBlank(itemProperties.get(KEY_STATE, String.class))
+                            || StringUtils.isBlank(payloadPath)) {
+                        // Don't try to restart already processed batch items
+                        continue;
+                    } else if (window.getCapacity() <= 0) {
+                        batchExhausted = false;
+                        break;
+                    }
 
                     final Workflow workflow = workflowSession.startWorkflow(model,
                             workflowSession.newWorkflowData("JCR_PATH", payloadPath));
-                    properties.put(KEY_WORKFLOW_ID, workflow.getId());
-                    properties.put(KEY_STATE, workflow.getState());
+                    itemProperties.put(KEY_WORKFLOW_ID, workflow.getId());
+                    itemProperties.put(KEY_STATE, workflow.getState());
+                    itemProperties.put(KEY_STARTED_AT, Calendar.getInstance());
 
-                    workflowMap.put(child.getPath(), workflow.getId());
+                    window.add(child.getPath(), workflow.getId());
+                    this.trackWorkflow(window, workflow.getId());
+                    started++;
                 }
+
+                log.debug("Started [ {} ] workflows from batch [ {} ]", started, batch.getPath());
+
+                if (!batchExhausted) {
+                    break;
+                }
+
+                batch = this.advance(resource);
+                exhausted = batch == null;
             }
+
+            properties.put(KEY_ACTIVE_ITEMS, window.getItemPaths());
+            resourceResolver.commit();
+
+            telemetry.updateProgress(properties.get(KEY_TOTAL, 0L), properties.get(KEY_COMPLETE_COUNT, 0L));
+
+            if (exhausted || batch == null) {
+                if (window.isEmpty()) {
+                    this.complete(resource);
+                }
+            } else if (!window.isEmpty() && window.getCapacity() > 0) {
+                // Workflows finished while refilling
+                this.requestRefill(window);
+            }
+        }
+    }
+
+    /**
+     * Registers an in-flight workflow of a window for its completion event. Picks up the completion if it happened
+     * before the registration.
+     *
+     * @param window     the window
+     * @param workflowId the workflow id
+     */
+    private void trackWorkflow(final WorkflowWindow window, final String workflowId) {
+        final String state;
+        synchronized (recentlyFinishedWorkflows) {
+            windowsByWorkflowId.put(workflowId, window);
+            state = recentlyFinishedWorkflows.remove(workflowId);
+        }
+
+        if (state != null) {
+            this.finishWorkflow(workflowId, state);
+        }
+    }
+
+    /**
+     * Moves a finished workflow off its window. Remembers the workflows not tracked (yet), as their completion event
+     * may come in before they are registered.
+     *
+     * @param workflowId the workflow id
+     * @param state      the final workflow state
+     * @return the window of the workflow, null if not tracked
+     */
+    private WorkflowWindow finishWorkflow(final String workflowId, final String state) {
+        final WorkflowWindow window;
+        synchronized (recentlyFinishedWorkflows) {
+            window = windowsByWorkflowId.remove(workflowId);
+            if (window == null) {
+                recentlyFinishedWorkflows.put(workflowId, state);
+            }
+        }
+
+        if (window != null) {
+            window.finish(workflowId, state);
+        }
+        return window;
+    }
+
+    /**
+     * Refills the window asynchronously, unless a refill is already pending.
+     *
+     * @param window the window
+     */
+    private void requestRefill(final WorkflowWindow window) {
+        if (!window.requestRefill()) {
+            return;
+        }
+
+        windowExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResourceResolver adminResourceResolver = null;
+
+                try {
+                    adminResourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+                    refillWindow(adminResourceResolver, window);
+                } catch (Exception e) {
+                    // The periodic job retries
+                    log.error("Could not refill the workflow window of [ {} ]. {}", window.getResourcePath(), e);
+                } finally {
+                    if (adminResourceResolver != null) {
+                        adminResourceResolver.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Collects the completion events of the workflows in flight, and refills their window.
+     *
+     * @param event the workflow event
+     */
+    @Override
+    public final void handleEvent(final Event event) {
+        if (windows.isEmpty()) {
+            return;
+        }
+
+        final String workflowId = (String) event.getProperty(WorkflowEvent.WORKFLOW_INSTANCE_ID);
+        if (workflowId == null) {
+            return;
+        }
+
+        final String state;
+        if (WorkflowEvent.WORKFLOW_ABORTED_EVENT.equals(event.getProperty(WorkflowEvent.EVENT_TYPE))) {
+            state = ITEM_STATE_ABORTED;
         } else {
-            log.error("Cant find the current batch to process.");
+            state = ITEM_STATE_COMPLETED;
         }
 
-        resource.getResourceResolver().commit();
+        final WorkflowWindow window = this.finishWorkflow(workflowId, state);
+        if (window != null) {
+            this.requestRefill(window);
+        }
+    }
+
+    /**
+     * Starts processing the bulk workflow in synthetic mode on a synthetic runner thread, unless it is being processed
+     * already. Returns right away, so that the periodic job calling it does not hold a scheduler thread.
+     *
+     * @param resourcePath  the jcr:content configuration resource path
+     * @param workflowModel the workflow model whose process steps are executed
+     */
+    private void runSynthetic(final String resourcePath, final String workflowModel) {
+        if (!syntheticRuns.add(resourcePath)) {
+            return;
+        }
+
+        try {
+            syntheticExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ResourceResolver adminResourceResolver = null;
+
+                    try {
+                        adminResourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+                        final Resource contentResource = adminResourceResolver.getResource(resourcePath);
 
-        log.debug("Bulk workflow batch tracking map: {}", workflowMap);
-        return workflowMap;
+                        if (contentResource != null) {
+                            // Runs batch after batch until complete or stopped
+                            processSynthetic(adminResourceResolver, contentResource, workflowModel);
+                        }
+                    } catch (Exception e) {
+                        log.error("Error processing bulk workflow [ {} ] in synthetic mode", resourcePath, e);
+                        stopOnError(adminResourceResolver, resourcePath);
+                    } finally {
+                        syntheticRuns.remove(resourcePath);
+
+                        if (adminResourceResolver != null) {
+                            adminResourceResolver.close();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Deactivating
+            syntheticRuns.remove(resourcePath);
+            log.warn("Could not start processing bulk workflow [ {} ] in synthetic mode", resourcePath);
+        }
+    }
+
+    /**
+     * Stops the bulk workflow after its synthetic mode processing failed, discarding its unsaved changes.
+     *
+     * @param resourceResolver the resource resolver the processing used, may be null
+     * @param resourcePath     the jcr:content configuration resource path
+     */
+    private void stopOnError(final ResourceResolver resourceResolver, final String resourcePath) {
+        final String jobName = jobs.get(resourcePath);
+
+        try {
+            if (resourceResolver == null) {
+                throw new IllegalStateException("No resource resolver");
+            }
+
+            resourceResolver.revert();
+            resourceResolver.refresh();
+            final Resource resource = resourceResolver.getResource(resourcePath);
+            if (resource == null) {
+                throw new IllegalStateException("Could not find bulk workflow resource");
+            }
+
+            stop(resource, STATE_STOPPED_ERROR);
+        } catch (Exception e) {
+            if (jobName != null) {
+                scheduler.removeJob(jobName);
+                jobs.remove(resourcePath);
+            }
+            log.error("Removed scheduled job [ {} ] due to errors and could not stop normally.", jobName, e);
+        }
+    }
+
+    /**
+     * Processes the bulk workflow batches in-process through Synthetic Workflow, batch after batch, until all batches
+     * are complete or the bulk workflow is stopped. Runs on a synthetic runner thread, see {@link #runSynthetic}.
+     * <p/>
+     * The items of each batch are spread over the worker pool; items already processed are skipped so a stopped
+     * batch picks up where it left off when resumed.
+     *
+     * @param resourceResolver the resource resolver
+     * @param resource         the jcr:content configuration resource
+     * @param workflowModel    the workflow model whose process steps are executed
+     * @throws WorkflowException
+     * @throws PersistenceException
+     * @throws RepositoryException
+     * @throws InterruptedException
+     */
+    private void processSynthetic(final ResourceResolver resourceResolver, Resource resource,
+                                  final String workflowModel) throws WorkflowException, PersistenceException,
+            RepositoryException, InterruptedException {
+
+        final String resourcePath = resource.getPath();
+        final BulkWorkflowTelemetry telemetry = telemetries.get(resourcePath);
+        if (telemetry == null) {
+            // Stopped in the meantime
+            return;
+        }
+
+        final int workerCount = Math.max(1, Math.min(maxSyntheticWorkers,
+                resource.adaptTo(ValueMap.class).get(KEY_WORKER_COUNT, DEFAULT_WORKER_COUNT)));
+
+        final SyntheticWorkflowModel syntheticWorkflowModel =
+                syntheticWorkflowRunner.getSyntheticWorkflowModel(resourceResolver, workflowModel, true);
+        final SyntheticBatchProcessor processor = new SyntheticBatchProcessor(resourceResolverFactory,
+                syntheticWorkflowRunner, syntheticWorkflowModel, workerCount, syntheticSaveThreshold, telemetry);
+
+        syntheticProcessors.put(resourcePath, processor);
+        log.info("Processing bulk workflow [ {} ] in synthetic mode with [ {} ] workers", resourcePath, workerCount);
+
+        try {
+            Resource batch = this.getCurrentBatch(resource);
+
+            while (batch != null && jobs.containsKey(resourcePath)) {
+                final ModifiableValueMap batchProperties = batch.adaptTo(ModifiableValueMap.class);
+                if (batchProperties.get(KEY_STARTED_AT, Date.class) == null) {
+                    batchProperties.put(KEY_STARTED_AT, Calendar.getInstance());
+                    resourceResolver.commit();
+                }
+
+                final List<String> itemPaths = new ArrayList<String>();
+                for (final Resource child : batch.getChildren()) {
+                    if (StringUtils.isBlank(child.adaptTo(ValueMap.class).get(KEY_STATE, String.class))) {
+                        itemPaths.add(child.getPath());
+                    }
+                }
+
+                log.debug("Processing batch [ {} ] with [ {} ] synthetic workflow items", batch.getPath(),
+                        itemPaths.size());
+
+                final int failures = processor.process(itemPaths);
+
+                if (processor.isStopped()) {
+                    // Unprocessed items are left to be picked up on resume
+                    break;
+                }
+
+                // Pick up the batch item states saved by the workers
+                resourceResolver.refresh();
+                resource = resourceResolver.getResource(resourcePath);
+
+                final ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
+                if (failures > 0) {
+                    properties.put(KEY_FAILURE_COUNT, properties.get(KEY_FAILURE_COUNT, 0) + failures);
+                }
+                batch = resourceResolver.getResource(batch.getPath());
+                properties.put(KEY_COMPLETE_COUNT,
+                        properties.get(KEY_COMPLETE_COUNT, 0) + this.getSize(batch.getChildren()));
+
+                if (isStreaming(properties)) {
+                    for (final Resource child : batch.getChildren()) {
+                        final String state = child.adaptTo(ValueMap.class).get(KEY_STATE, String.class);
+                        if (ITEM_STATE_COMPLETE.equals(state)) {
+                            this.retire(resource, child);
+                        }
+                    }
+                }
+
+                batch = this.advance(resource);
+                if (batch == null) {
+                    this.complete(resource);
+                } else {
+                    resourceResolver.commit();
+                }
+
+                telemetry.updateProgress(properties.get(KEY_TOTAL, 0L), properties.get(KEY_COMPLETE_COUNT, 0L));
+            }
+        } finally {
+            syntheticProcessors.remove(resourcePath);
+            processor.shutdown();
+        }
     }
 
     /**
      * Advance to the next batch and update all properties on the current and next batch nodes accordingly.
      * <p/>
-     * This method assumes the current batch has been verified as complete.
+     * This method assumes all items of the current batch have been processed or started.
      *
      * @param resource the bulk workflow manager content resource
-     * @return the next batch resource to process
+     * @return the next batch resource to process, null if the current batch is the last one
      * @throws PersistenceException
      * @throws RepositoryException
      */
@@ -500,29 +1120,31 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
         // Page Resource
         final ResourceResolver resourceResolver = resource.getResourceResolver();
         final ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
-        final boolean autoCleanupWorkflow = properties.get(KEY_PURGE_WORKFLOW, true);
 
         // Current Batch
         final Resource currentBatch = this.getCurrentBatch(resource);
         final ModifiableValueMap currentProperties = currentBatch.adaptTo(ModifiableValueMap.class);
 
-        if (autoCleanupWorkflow) {
-            this.purge(currentBatch);
-        }
-
+        currentProperties.put(KEY_STATE, STATE_COMPLETE);
         currentProperties.put(KEY_COMPLETED_AT, Calendar.getInstance());
 
         // Next Batch
-        final String nextBatchPath = currentProperties.get(KEY_NEXT_BATCH, STATE_COMPLETE);
-
-        if (StringUtils.equalsIgnoreCase(nextBatchPath, STATE_COMPLETE)) {
+        final Resource nextBatch;
 
-            // Last batch
+        if (isStreaming(properties)) {
+            nextBatch = this.createBatch(resource);
+        } else {
+            final String nextBatchPath = currentProperties.get(KEY_NEXT_BATCH, STATE_COMPLETE);
+            if (StringUtils.equalsIgnoreCase(nextBatchPath, STATE_COMPLETE)) {
+                nextBatch = null;
+            } else {
+                nextBatch = resourceResolver.getResource(nextBatchPath);
+            }
+        }
 
-            this.complete(resource);
+        if (nextBatch == null) {
 
-            properties.put(KEY_COMPLETE_COUNT,
-                    properties.get(KEY_COMPLETE_COUNT, 0) + this.getSize(currentBatch.getChildren()));
+            // Last batch
 
             return null;
 
@@ -530,164 +1152,395 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
 
             // Not the last batch
 
-            final Resource nextBatch = resourceResolver.getResource(nextBatchPath);
             final ModifiableValueMap nextProperties = nextBatch.adaptTo(ModifiableValueMap.class);
 
-            currentProperties.put(KEY_STATE, STATE_COMPLETE);
-            currentProperties.put(KEY_COMPLETED_AT, Calendar.getInstance());
-
             nextProperties.put(KEY_STATE, STATE_RUNNING);
             nextProperties.put(KEY_STARTED_AT, Calendar.getInstance());
 
             properties.put(KEY_CURRENT_BATCH, nextBatch.getPath());
-            properties.put(KEY_COMPLETE_COUNT,
-                    properties.get(KEY_COMPLETE_COUNT, 0) + this.getSize(currentBatch.getChildren()));
+
+            if (isStreaming(properties)) {
+                this.removeIfRetired(resource, currentBatch);
+            }
 
             return nextBatch;
         }
     }
 
     /**
-     * Deletes the Workflow instances for each item in the batch.
+     * Initializes a bulk workflow which enumerates its payloads lazily. Only the first batch is created; the next
+     * batches are created off the query cursor as processing advances, so neither the time to initialize nor the
+     * number of nodes written depends on the number of payloads.
      *
-     * @param batchResource the batch resource
-     * @return the number of workflow instances purged
+     * @param resource the jcr:content configuration resource
+     * @throws PersistenceException
      * @throws RepositoryException
      */
-    private int purge(Resource batchResource) throws RepositoryException {
-        final ResourceResolver resourceResolver = batchResource.getResourceResolver();
-        final List<String> payloadPaths = new ArrayList<String>();
+    private void initializeStreaming(final Resource resource) throws PersistenceException, RepositoryException {
+        final ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
 
-        for (final Resource child : batchResource.getChildren()) {
-            final ModifiableValueMap properties = child.adaptTo(ModifiableValueMap.class);
-            final String workflowId = properties.get(KEY_WORKFLOW_ID, "Missing WorkflowId");
-            final String path = properties.get(KEY_PATH, "Missing Path");
+        // Until the query results are exhausted, the total is the provided estimate
+        properties.put(KEY_TOTAL, properties.get(KEY_ESTIMATED_TOTAL, DEFAULT_ESTIMATED_TOTAL));
 
-            final Resource resource = resourceResolver.getResource(workflowId);
-            if (resource != null) {
-                final Node node = resource.adaptTo(Node.class);
-                node.remove();
-                payloadPaths.add(path);
-            } else {
-                log.warn("Could not find workflowId at [ {} ] to purge.", workflowId);
-            }
+        final Resource batch = this.createBatch(resource);
+
+        if (batch != null) {
+            properties.put(KEY_CURRENT_BATCH, batch.getPath());
+            properties.put(KEY_INITIALIZED, true);
+            properties.put(KEY_STATE, STATE_NOT_STARTED);
+
+            resource.getResourceResolver().commit();
+
+            log.info("Completed streaming initialization of Bulk Workflow Manager");
+        } else {
+            this.closeCursor(resource.getPath());
+            throw new IllegalArgumentException("Query returned zero results.");
+        }
+    }
+
+    /**
+     * Creates the next batch of a streaming bulk workflow off its query cursor, and checkpoints the cursor along with
+     * the batch.
+     *
+     * @param resource the jcr:content configuration resource
+     * @return the batch resource, null if the query results are exhausted
+     * @throws RepositoryException
+     */
+    private Resource createBatch(final Resource resource) throws RepositoryException {
+        final ResourceResolver resourceResolver = resource.getResourceResolver();
+        final Session session = resourceResolver.adaptTo(Session.class);
+        final ModifiableValueMap properties = resource.adaptTo(ModifiableValueMap.class);
+
+        final PayloadCursor cursor = this.getCursor(resource);
+        final int batchSize = properties.get(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        final long enumerated = properties.get(KEY_ENUMERATED_COUNT, 0L);
+
+        // All batches but the last one are full
+        final String batchPath = resource.getChild(NN_BATCHES).getPath() + "/" + (enumerated / batchSize + 1);
+
+        Node batchNode = null;
+        String payloadPath;
+        int count = 0;
+        while (count < batchSize && (payloadPath = cursor.next()) != null) {
+            count++;
+
+            final Node batchItemNode = JcrUtil.createPath(batchPath + "/" + (enumerated + count), SLING_FOLDER,
+                    JcrConstants.NT_UNSTRUCTURED, session, false);
+            JcrUtil.setProperty(batchItemNode, KEY_PATH, payloadPath);
+            batchNode = batchItemNode.getParent();
         }
 
-        if (payloadPaths.size() > 0) {
-            resourceResolver.adaptTo(Session.class).save();
-            log.info("Purged {} workflow instances for payloads: {}",
-                    payloadPaths.size(),
-                    Arrays.toString(payloadPaths.toArray(new String[payloadPaths.size()])));
+        if (cursor.getLastPath() != null) {
+            properties.put(KEY_CURSOR_PATH, cursor.getLastPath());
+        }
+        properties.put(KEY_ENUMERATED_COUNT, enumerated + count);
+
+        if (count < batchSize) {
+            // The total is now known
+            properties.put(KEY_TOTAL, enumerated + count);
+            this.closeCursor(resource.getPath());
+            log.info("Enumerated all [ {} ] payloads of [ {} ]", enumerated + count, resource.getPath());
         }
 
-        return payloadPaths.size();
+        log.debug("Created batch [ {} ] with [ {} ] items", batchPath, count);
+        return batchNode == null ? null : resourceResolver.getResource(batchNode.getPath());
     }
 
     /**
-     * Retrieves the active workflows for the batch.
+     * Gets the query cursor of a streaming bulk workflow, opening it at the checkpoint if not open yet.
      *
-     * @param resourceResolver the resource resolver
-     * @param workflowMap      the map tracking what batch items are under WF
-     * @return the updated map of which batch items and their workflow state
+     * @param resource the jcr:content configuration resource
+     * @return the cursor
      * @throws RepositoryException
-     * @throws PersistenceException
      */
-    private Map<String, String> getActiveWorkflows(ResourceResolver resourceResolver,
-                                                   final Map<String, String> workflowMap)
-            throws RepositoryException, PersistenceException {
+    private PayloadCursor getCursor(final Resource resource) throws RepositoryException {
+        PayloadCursor cursor = cursors.get(resource.getPath());
 
-        final Map<String, String> activeWorkflowMap = new LinkedHashMap<String, String>();
-        final WorkflowSession workflowSession =
-                workflowService.getWorkflowSession(resourceResolver.adaptTo(Session.class));
+        if (cursor == null) {
+            final ValueMap properties = resource.adaptTo(ValueMap.class);
+            final String lastPath = properties.get(KEY_CURSOR_PATH, "");
 
-        boolean dirty = false;
-        for (final Map.Entry<String, String> entry : workflowMap.entrySet()) {
-            final String workflowId = entry.getValue();
-
-            final Workflow workflow;
             try {
-                workflow = workflowSession.getWorkflow(workflowId);
-                if (workflow.isActive()) {
-                    activeWorkflowMap.put(entry.getKey(), workflow.getId());
-                }
+                cursor = new PayloadCursor(resourceResolverFactory, properties.get(KEY_QUERY, ""),
+                        properties.get(KEY_RELATIVE_PATH, ""), lastPath);
+            } catch (LoginException e) {
+                throw new RepositoryException("Could not open the payload cursor of " + resource.getPath(), e);
+            }
 
-                final Resource resource = resourceResolver.getResource(entry.getKey());
-                final ModifiableValueMap mvm = resource.adaptTo(ModifiableValueMap.class);
+            cursors.put(resource.getPath(), cursor);
+            log.debug("Opened payload cursor for [ {} ] after [ {} ]", resource.getPath(), lastPath);
+        }
 
-                if (!StringUtils.equals(mvm.get(KEY_STATE, String.class), workflow.getState())) {
-                    mvm.put(KEY_STATE, workflow.getState());
-                    dirty = true;
-                }
-            } catch (WorkflowException e) {
-                log.error("Could not get workflow with id [ {} ]. {}", workflowId, e);
-            }
+        return cursor;
+    }
+
+    /**
+     * Closes the query cursor of a streaming bulk workflow, if open.
+     *
+     * @param resourcePath the jcr:content configuration resource path
+     */
+    private void closeCursor(final String resourcePath) {
+        final PayloadCursor cursor = cursors.remove(resourcePath);
+        if (cursor != null) {
+            cursor.close();
         }
+    }
 
-        if (dirty) {
-            resourceResolver.commit();
+    /**
+     * Removes a successfully processed batch item of a streaming bulk workflow, along with its batch once empty and
+     * no longer current. Failed items are left in place.
+     *
+     * @param resource the jcr:content configuration resource
+     * @param item     the batch item
+     * @throws RepositoryException
+     */
+    private void retire(final Resource resource, final Resource item) throws RepositoryException {
+        final Resource batch = item.getParent();
+        item.adaptTo(Node.class).remove();
+        this.removeIfRetired(resource, batch);
+    }
+
+    /**
+     * Removes a batch of a streaming bulk workflow if all its items are retired and it is no longer current.
+     *
+     * @param resource the jcr:content configuration resource
+     * @param batch    the batch
+     * @throws RepositoryException
+     */
+    private void removeIfRetired(final Resource resource, final Resource batch) throws RepositoryException {
+        final String currentBatch = resource.adaptTo(ValueMap.class).get(KEY_CURRENT_BATCH, "");
+        final Node batchNode = batch.adaptTo(Node.class);
+
+        if (!StringUtils.equals(currentBatch, batch.getPath()) && !batchNode.hasNodes()) {
+            batchNode.remove();
         }
+    }
 
-        return activeWorkflowMap;
+    /**
+     * @param properties the jcr:content configuration resource properties
+     * @return true if the bulk workflow enumerates its payloads lazily
+     */
+    private static boolean isStreaming(final ValueMap properties) {
+        return ENUMERATION_STREAMING.equals(properties.get(KEY_ENUMERATION, DEFAULT_ENUMERATION));
     }
 
+    /**
+     * Deletes the Workflow instances.
+     *
+     * @param resourceResolver the resource resolver
+     * @param workflowIds      the ids of the workflows to purge
+     * @return the number of workflow instances purged
+     * @throws RepositoryException
+     */
+    private int purge(final ResourceResolver resourceResolver, final List<String> workflowIds)
+            throws RepositoryException {
+        final List<String> purgedWorkflowIds = new ArrayList<String>();
+
+        for (final String workflowId : workflowIds) {
+            final Resource resource = resourceResolver.getResource(workflowId);
+            if (resource != null) {
+                final Node node = resource.adaptTo(Node.class);
+                node.remove();
+                purgedWorkflowIds.add(workflowId);
+            } else {
+                log.warn("Could not find workflowId at [ {} ] to purge.", workflowId);
+            }
+        }
+
+        if (purgedWorkflowIds.size() > 0) {
+            resourceResolver.adaptTo(Session.class).save();
+            log.info("Purged {} workflow instances: {}",
+                    purgedWorkflowIds.size(),
+                    Arrays.toString(purgedWorkflowIds.toArray(new String[purgedWorkflowIds.size()])));
+        }
+
+        return purgedWorkflowIds.size();
+    }
 
     /**
-     * Terminate active workflows.
+     * Terminates the workflows of the window in flight since before the given time.
      *
-     * @param resourceResolver
-     * @param contentResource
-     * @param workflowMap
+     * @param resourceResolver the resource resolver
+     * @param contentResource  the jcr:content configuration resource
+     * @param window           the window
+     * @param startedBefore    time in ms
      * @return number of terminated workflows
      * @throws RepositoryException
      * @throws PersistenceException
      */
-    private int terminateActiveWorkflows(ResourceResolver resourceResolver,
-                                         final Resource contentResource,
-                                         final Map<String, String> workflowMap)
+    private int terminateTimedOutWorkflows(final ResourceResolver resourceResolver,
+                                           final Resource contentResource,
+                                           final WorkflowWindow window,
+                                           final long startedBefore)
             throws RepositoryException, PersistenceException {
 
+        final List<WorkflowWindow.ActiveWorkflow> timedOutWorkflows = window.removeTimedOut(startedBefore);
+        if (timedOutWorkflows.isEmpty()) {
+            return 0;
+        }
+
         final WorkflowSession workflowSession =
                 workflowService.getWorkflowSession(resourceResolver.adaptTo(Session.class));
 
-        boolean dirty = false;
+        final BulkWorkflowTelemetry telemetry = telemetries.get(window.getResourcePath());
+        final long now = System.currentTimeMillis();
+
         int count = 0;
-        for (final Map.Entry<String, String> entry : workflowMap.entrySet()) {
-            final String workflowId = entry.getValue();
+        for (final WorkflowWindow.ActiveWorkflow timedOutWorkflow : timedOutWorkflows) {
+            final String workflowId = timedOutWorkflow.getWorkflowId();
+            if (telemetry != null) {
+                telemetry.recordPayload(now - timedOutWorkflow.getStartedAt(), true);
+            }
+
+            // Terminating fires an aborted event which is to be ignored
+            windowsByWorkflowId.remove(workflowId);
 
-            final Workflow workflow;
+            String state = ITEM_STATE_FORCE_TERMINATED;
             try {
-                workflow = workflowSession.getWorkflow(workflowId);
+                final Workflow workflow = workflowSession.getWorkflow(workflowId);
                 if (workflow.isActive()) {
-
                     workflowSession.terminateWorkflow(workflow);
-
                     count++;
 
                     log.info("Terminated workflow [ {} ]", workflowId);
+                } else {
+                    // Finished, but the event got lost
+                    state = workflow.getState();
+                }
+            } catch (WorkflowException e) {
+                log.error("Could not terminate workflow with id [ {} ]. {}", workflowId, e);
+            }
+
+            final Resource resource = resourceResolver.getResource(timedOutWorkflow.getItemPath());
+            if (resource != null) {
+                resource.adaptTo(ModifiableValueMap.class).put(KEY_STATE, state);
+            }
+        }
 
-                    final Resource resource = resourceResolver.getResource(entry.getKey());
-                    final ModifiableValueMap mvm = resource.adaptTo(ModifiableValueMap.class);
+        final ModifiableValueMap properties = contentResource.adaptTo(ModifiableValueMap.class);
+        properties.put(KEY_FORCE_TERMINATED_COUNT,
+                properties.get(KEY_FORCE_TERMINATED_COUNT, 0) + count);
+        properties.put(KEY_COMPLETE_COUNT,
+                properties.get(KEY_COMPLETE_COUNT, 0) + timedOutWorkflows.size());
+        properties.put(KEY_ACTIVE_ITEMS, window.getItemPaths());
+        resourceResolver.commit();
 
-                    mvm.put(KEY_STATE, STATE_FORCE_TERMINATED.toUpperCase());
+        return count;
+    }
 
-                    dirty = true;
+    /**
+     * Records the durations of the steps of a finished workflow from its history.
+     *
+     * @param workflowSession the workflow session
+     * @param workflowId      the workflow id
+     * @param telemetry       the telemetry to record the durations on
+     */
+    private void recordStepLatencies(final WorkflowSession workflowSession, final String workflowId,
+                                     final BulkWorkflowTelemetry telemetry) {
+        try {
+            final Workflow workflow = workflowSession.getWorkflow(workflowId);
+
+            for (final HistoryItem historyItem : workflowSession.getHistory(workflow)) {
+                final WorkItem workItem = historyItem.getWorkItem();
+                if (workItem == null || workItem.getNode() == null
+                        || workItem.getTimeStarted() == null || workItem.getTimeEnded() == null) {
+                    continue;
                 }
 
-            } catch (WorkflowException e) {
-                log.error("Could not get workflow with id [ {} ]. {}", workflowId, e);
+                final String step = StringUtils.defaultIfEmpty(workItem.getNode().getTitle(),
+                        workItem.getNode().getId());
+                telemetry.recordStep(step, workItem.getTimeEnded().getTime() - workItem.getTimeStarted().getTime());
             }
+        } catch (WorkflowException e) {
+            log.debug("Could not read the history of workflow [ {} ]. {}", workflowId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final TabularData getBulkWorkflows() throws OpenDataException {
+        final CompositeType bulkWorkflowType = new CompositeType(
+                "bulkWorkflow",
+                "Bulk Workflow",
+                new String[]{ "jobName", "since", "processed", "failed", "failureRate", "instantRate", "smoothedRate",
+                        "executingTime", "waitingTime", "utilization", "meanRefillDelay", "meanLatency",
+                        "p50Latency", "p90Latency", "p99Latency", "projectedCompletion" },
+                new String[]{ "Job Name", "Since", "Processed", "Failed", "Failure Rate", "Instant Rate",
+                        "Smoothed Rate", "Executing Time", "Waiting Time", "Utilization", "Mean Refill Delay",
+                        "Mean Latency", "50th Percentile Latency", "90th Percentile Latency",
+                        "99th Percentile Latency", "Projected Completion" },
+                new OpenType[]{ SimpleType.STRING, SimpleType.DATE, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG, SimpleType.DATE }
+        );
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("bulkWorkflows",
+                        "Bulk Workflows",
+                        bulkWorkflowType,
+                        new String[]{ "jobName" })
+        );
+
+        for (final Map.Entry<String, BulkWorkflowTelemetry> entry : telemetries.entrySet()) {
+            final Map<String, Object> data = entry.getValue().toMap();
+            data.put("jobName", entry.getKey());
+
+            tabularData.put(new CompositeDataSupport(bulkWorkflowType, data));
         }
 
-        if (dirty) {
-            final ModifiableValueMap properties = contentResource.adaptTo(ModifiableValueMap.class);
-            properties.put(KEY_FORCE_TERMINATED_COUNT,
-                    properties.get(KEY_FORCE_TERMINATED_COUNT, 0) + count);
-            resourceResolver.commit();
+        return tabularData;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final TabularData getWorkflowStepLatencies() throws OpenDataException {
+        final CompositeType stepType = new CompositeType(
+                "workflowStep",
+                "Workflow Step",
+                new String[]{ "jobName", "step", "count", "meanLatency", "p50Latency", "p90Latency", "p99Latency" },
+                new String[]{ "Job Name", "Step", "Count", "Mean Latency", "50th Percentile Latency",
+                        "90th Percentile Latency", "99th Percentile Latency" },
+                new OpenType[]{ SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG, SimpleType.LONG, SimpleType.LONG }
+        );
+
+        final TabularDataSupport tabularData = new TabularDataSupport(
+                new TabularType("workflowSteps",
+                        "Workflow Steps",
+                        stepType,
+                        new String[]{ "jobName", "step" })
+        );
+
+        for (final Map.Entry<String, BulkWorkflowTelemetry> entry : telemetries.entrySet()) {
+            for (final Map.Entry<String, Map<String, Object>> step : entry.getValue().getStepLatencies().entrySet()) {
+                final Map<String, Object> data = new HashMap<String, Object>(step.getValue());
+                data.put("jobName", entry.getKey());
+                data.put("step", step.getKey());
+
+                tabularData.put(new CompositeDataSupport(stepType, data));
+            }
         }
 
-        return count;
+        return tabularData;
     }
 
+    /**
+     * Checks if a batch item state is the state of a workflow which may still be running.
+     *
+     * @param state the batch item state
+     * @return true if the workflow may still be running
+     */
+    private static boolean isActiveState(final String state) {
+        return !(StringUtils.isBlank(state)
+                || ITEM_STATE_COMPLETED.equals(state)
+                || ITEM_STATE_ABORTED.equals(state)
+                || ITEM_STATE_FORCE_TERMINATED.equals(state));
+    }
 
     /**
      * Gets the size of an iterable; Used for getting number of items under a batch.
@@ -710,9 +1563,35 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
     @Activate
     protected final void activate(final Map<String, String> config) {
         this.jobs = new ConcurrentHashMap<String, String>();
+        this.syntheticProcessors = new ConcurrentHashMap<String, SyntheticBatchProcessor>();
+        this.syntheticExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Bulk Workflow Synthetic Runner "
+                        + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.windowExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Bulk Workflow Window Refill");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
         this.autoResume = PropertiesUtil.toBoolean(config.get(PROP_AUTO_RESUME), DEFAULT_AUTO_RESUME);
 
+        this.maxSyntheticWorkers = PropertiesUtil.toInteger(config.get(PROP_MAX_SYNTHETIC_WORKERS),
+                DEFAULT_MAX_SYNTHETIC_WORKERS);
+
+        this.syntheticSaveThreshold = Math.max(1, PropertiesUtil.toInteger(config.get(PROP_SYNTHETIC_SAVE_THRESHOLD),
+                DEFAULT_SYNTHETIC_SAVE_THRESHOLD));
+
         if (this.autoResume) {
             log.info("Looking for any Bulk Workflow Manager pages to resume processing under: {}", BULK_WORKFLOW_MANAGER_PAGE_FOLDER_PATH);
 
@@ -773,6 +1652,16 @@ public class BulkWorkflowEngineImpl implements BulkWorkflowEngine {
             if (resourceResolver != null) {
                 resourceResolver.close();
             }
+
+            for (final String path : windows.keySet()) {
+                this.closeWindow(path);
+            }
+            for (final String path : cursors.keySet()) {
+                this.closeCursor(path);
+            }
+            this.windowExecutor.shutdown();
+            // The synthetic processors have been stopped; the runners finish with the items in progress
+            this.syntheticExecutor.shutdown();
         }
     }
 }
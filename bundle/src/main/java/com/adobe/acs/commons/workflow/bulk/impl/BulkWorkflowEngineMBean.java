@@ -0,0 +1,37 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+@Description("ACS AEM Commons - Bulk Workflow Manager")
+public interface BulkWorkflowEngineMBean {
+    @Description("Throughput, latency and projected completion of each running bulk workflow. "
+            + "Rates in payloads per second, times in ms.")
+    TabularData getBulkWorkflows() throws OpenDataException;
+
+    @Description("Latency of the workflow steps of each running bulk workflow, sampled from the "
+            + "workflow histories. Times in ms.")
+    TabularData getWorkflowStepLatencies() throws OpenDataException;
+}
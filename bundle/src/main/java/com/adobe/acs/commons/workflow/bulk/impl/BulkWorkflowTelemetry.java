@@ -0,0 +1,254 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import com.adobe.acs.commons.util.impl.LatencyHistogram;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live measurements of a bulk workflow run, since it was last started or resumed in this JVM.
+ * <p/>
+ * Throughput is sampled every 5 seconds at most: the instant rate is the rate of the last sample, the smoothed rate
+ * an exponentially weighted moving average of the samples over a minute. The time spent executing is the sum of the
+ * payload latencies; the time spent waiting is the remainder of the capacity (window size or worker count) times
+ * the elapsed time, that is the time payload slots sat idle waiting to be refilled. Latencies are in ms.
+ * <p/>
+ * Workflow step latencies are read off the workflow history, so only bulk workflows executed as AEM workflows have
+ * them; Synthetic Workflow runs the steps of a payload in a single call and keeps no history.
+ */
+class BulkWorkflowTelemetry {
+    private static final long SAMPLE_INTERVAL = 5000L;
+
+    private static final double SMOOTHING_PERIOD = 60000d;
+
+    private static final double[] PERCENTILES = { 50d, 90d, 99d };
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private final int capacity;
+
+    private final AtomicLong completedCount = new AtomicLong(0L);
+
+    private final AtomicLong failedCount = new AtomicLong(0L);
+
+    private final AtomicLong executingTime = new AtomicLong(0L);
+
+    private final AtomicLong refillDelay = new AtomicLong(0L);
+
+    private final AtomicLong refillCount = new AtomicLong(0L);
+
+    private final LatencyHistogram payloadLatencies = new LatencyHistogram();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> stepLatencies =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private volatile long total;
+
+    private volatile long complete;
+
+    /* Rate sampling; guarded by this */
+
+    private long lastSampledAt = startedAt;
+
+    private long lastSampledCount = 0L;
+
+    private double instantRate = 0d;
+
+    private double smoothedRate = -1d;
+
+    /**
+     * Create a new Bulk Workflow Telemetry.
+     *
+     * @param capacity max number of payloads processed at once
+     * @param total    total number of payloads
+     * @param complete number of payloads processed before the run was started
+     */
+    BulkWorkflowTelemetry(final int capacity, final long total, final long complete) {
+        this.capacity = Math.max(1, capacity);
+        this.total = total;
+        this.complete = complete;
+    }
+
+    /**
+     * Records a processed payload.
+     *
+     * @param latency time the payload was processing for, in ms
+     * @param failed  true if the processing failed
+     */
+    void recordPayload(final long latency, final boolean failed) {
+        payloadLatencies.record(latency);
+        executingTime.addAndGet(Math.max(latency, 0L));
+        completedCount.incrementAndGet();
+        if (failed) {
+            failedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the execution of a workflow step.
+     *
+     * @param step    the step title
+     * @param latency the step duration, in ms
+     */
+    void recordStep(final String step, final long latency) {
+        LatencyHistogram latencies = stepLatencies.get(step);
+        if (latencies == null) {
+            stepLatencies.putIfAbsent(step, new LatencyHistogram());
+            latencies = stepLatencies.get(step);
+        }
+        latencies.record(latency);
+    }
+
+    /**
+     * Records the delay between a payload finishing and its slot being refilled.
+     *
+     * @param delay in ms
+     */
+    void recordRefill(final long delay) {
+        refillDelay.addAndGet(Math.max(delay, 0L));
+        refillCount.incrementAndGet();
+    }
+
+    /**
+     * Updates the progress the completion time is projected from.
+     *
+     * @param totalCount    total number of payloads
+     * @param completeCount number of payloads processed
+     */
+    void updateProgress(final long totalCount, final long completeCount) {
+        this.total = totalCount;
+        this.complete = completeCount;
+    }
+
+    /**
+     * Takes a rate sample if the last one is older than the sample interval.
+     */
+    private synchronized void sample() {
+        final long now = System.currentTimeMillis();
+        final long elapsed = now - lastSampledAt;
+        if (elapsed < SAMPLE_INTERVAL) {
+            return;
+        }
+
+        final long count = completedCount.get();
+        instantRate = (count - lastSampledCount) * 1000d / elapsed;
+        if (smoothedRate < 0) {
+            smoothedRate = instantRate;
+        } else {
+            final double alpha = 1d - Math.exp(-elapsed / SMOOTHING_PERIOD);
+            smoothedRate += alpha * (instantRate - smoothedRate);
+        }
+
+        lastSampledAt = now;
+        lastSampledCount = count;
+    }
+
+    /**
+     * @return payloads per second over the last sample
+     */
+    synchronized double getInstantRate() {
+        sample();
+        return instantRate;
+    }
+
+    /**
+     * @return payloads per second, smoothed over a minute
+     */
+    synchronized double getSmoothedRate() {
+        sample();
+        return Math.max(smoothedRate, 0d);
+    }
+
+    /**
+     * @return the projected completion time, null if nothing got processed yet
+     */
+    Date getProjectedCompletion() {
+        final double rate = getSmoothedRate();
+        final long remaining = Math.max(total - complete, 0L);
+        if (remaining == 0L) {
+            return new Date();
+        } else if (rate <= 0d) {
+            return null;
+        }
+        return new Date(System.currentTimeMillis() + (long) (remaining * 1000d / rate));
+    }
+
+    /**
+     * Gets the telemetry as a map, for reporting.
+     *
+     * @return the measurements by name
+     */
+    Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+        final long elapsed = Math.max(System.currentTimeMillis() - startedAt, 1L);
+        final long completed = completedCount.get();
+        final long executing = executingTime.get();
+
+        map.put("since", new Date(startedAt));
+        map.put("processed", completed);
+        map.put("failed", failedCount.get());
+        map.put("failureRate", completed == 0 ? 0d : failedCount.get() / (double) completed);
+        map.put("instantRate", getInstantRate());
+        map.put("smoothedRate", getSmoothedRate());
+        map.put("executingTime", executing);
+        map.put("waitingTime", Math.max(capacity * elapsed - executing, 0L));
+        map.put("utilization", Math.min(executing / (double) (capacity * elapsed), 1d));
+        map.put("meanRefillDelay", refillCount.get() == 0 ? 0L : refillDelay.get() / refillCount.get());
+        map.put("meanLatency", payloadLatencies.getMean());
+        for (final double percentile : PERCENTILES) {
+            map.put("p" + (int) percentile + "Latency", payloadLatencies.getPercentile(percentile));
+        }
+        map.put("projectedCompletion", getProjectedCompletion());
+
+        return map;
+    }
+
+    /**
+     * Gets the latencies of the workflow steps, for reporting.
+     *
+     * @return the latency measurements by name, by step title
+     */
+    SortedMap<String, Map<String, Object>> getStepLatencies() {
+        final SortedMap<String, Map<String, Object>> steps = new TreeMap<String, Map<String, Object>>();
+
+        for (final Map.Entry<String, LatencyHistogram> entry : stepLatencies.entrySet()) {
+            final LatencyHistogram latencies = entry.getValue();
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+            map.put("count", latencies.getCount());
+            map.put("meanLatency", latencies.getMean());
+            for (final double percentile : PERCENTILES) {
+                map.put("p" + (int) percentile + "Latency", latencies.getPercentile(percentile));
+            }
+            steps.put(entry.getKey(), map);
+        }
+
+        return steps;
+    }
+}
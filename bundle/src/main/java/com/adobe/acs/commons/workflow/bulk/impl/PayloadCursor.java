@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import java.util.LinkedList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lazily enumerates the payloads of a bulk workflow query by traversing the tree below its search path.
+ * <p/>
+ * Queries can only be resumed cheaply if their results come in an order the index serves, which Oak indexes do not
+ * provide for paths. Hence the cursor supports queries of the form
+ * <code>SELECT * FROM [node type] WHERE ISDESCENDANTNODE([path])</code> only, and enumerates their results by
+ * traversing the tree in document order. The path of the last result consumed is what gets checkpointed; a cursor
+ * opened at a checkpoint walks down to it directly, so re-opening only depends on the number of siblings along the
+ * way, and results added or removed before the checkpoint do not shift the enumeration. The tree is read with the
+ * cursor's own resource resolver, which lives as long as the cursor.
+ */
+class PayloadCursor {
+    private static final Logger log = LoggerFactory.getLogger(PayloadCursor.class);
+
+    /** Node type, optional selector, optional selector and search path. */
+    private static final Pattern TRAVERSABLE_QUERY = Pattern.compile("\\s*SELECT\\s+\\*\\s+FROM\\s+(\\[[^\\]]+\\]|"
+            + "[^\\s\\[\\]]+)(?:\\s+(?:AS\\s+)?(\\[[^\\]]+\\]|\\w+))?\\s+WHERE\\s+ISDESCENDANTNODE\\s*\\(\\s*"
+            + "(?:(\\[[^\\]]+\\]|\\w+)\\s*,\\s*)?(\\[[^\\]]+\\]|'(?:[^']|'')*')\\s*\\)\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final ResourceResolver resourceResolver;
+
+    private final String nodeType;
+
+    private final String relPath;
+
+    /** Children left to visit, from the search path down to the children of the last node visited. */
+    private final LinkedList<NodeIterator> stack = new LinkedList<NodeIterator>();
+
+    private String lastPath;
+
+    /**
+     * Open a new Payload Cursor.
+     *
+     * @param resourceResolverFactory the factory to get the cursor's resource resolver from
+     * @param query                   the JCR-SQL2 query, of the form documented above
+     * @param relPath                 path relative to the query results of the payloads; blank for the results
+     * @param lastPath                path of the last query result consumed; blank to start from the first result
+     * @throws LoginException
+     * @throws RepositoryException
+     * @throws IllegalArgumentException if the query cannot be traversed
+     */
+    PayloadCursor(final ResourceResolverFactory resourceResolverFactory, final String query, final String relPath,
+                  final String lastPath) throws LoginException, RepositoryException {
+        final Matcher matcher = TRAVERSABLE_QUERY.matcher(query);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Streaming enumeration only supports queries of the form "
+                    + "SELECT * FROM [node type] WHERE ISDESCENDANTNODE([path])");
+        }
+        this.nodeType = unquote(matcher.group(1));
+        this.relPath = relPath;
+        this.lastPath = lastPath;
+
+        this.resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+
+        try {
+            final Session session = resourceResolver.adaptTo(Session.class);
+            final String searchPath = StringUtils.removeEnd(unquote(matcher.group(4)), "/");
+            if (session.nodeExists(StringUtils.defaultIfEmpty(searchPath, "/"))) {
+                this.open(session.getNode(StringUtils.defaultIfEmpty(searchPath, "/")), lastPath);
+            }
+        } catch (RepositoryException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the path of the next payload.
+     *
+     * @return the payload path, null if the query results are exhausted
+     * @throws RepositoryException
+     */
+    String next() throws RepositoryException {
+        while (!stack.isEmpty()) {
+            final NodeIterator children = stack.getLast();
+            if (!children.hasNext()) {
+                stack.removeLast();
+                continue;
+            }
+
+            Node payloadNode = children.nextNode();
+            // Descendants come next, as in document order
+            stack.addLast(payloadNode.getNodes());
+
+            if (!payloadNode.isNodeType(nodeType)) {
+                continue;
+            }
+
+            lastPath = payloadNode.getPath();
+
+            if (StringUtils.isNotBlank(relPath)) {
+                if (payloadNode.hasNode(relPath)) {
+                    payloadNode = payloadNode.getNode(relPath);
+                } else {
+                    log.warn("Could not find node at [ {} ]", payloadNode.getPath() + "/" + relPath);
+                    continue;
+                }
+            }
+
+            return payloadNode.getPath();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the path of the last query result consumed, null if none has been consumed yet
+     */
+    String getLastPath() {
+        return StringUtils.defaultIfEmpty(lastPath, null);
+    }
+
+    void close() {
+        if (resourceResolver.isLive()) {
+            resourceResolver.close();
+        }
+    }
+
+    /**
+     * Positions the traversal right after the given path, that is at its first child. If the path has been removed
+     * meanwhile, the traversal starts over with the children of its closest ancestor left, as the siblings it came
+     * after cannot be told apart anymore.
+     *
+     * @param searchNode the node below which the results are searched
+     * @param lastPath   path of the last query result consumed; blank to start from the first result
+     * @throws RepositoryException
+     */
+    private void open(final Node searchNode, final String lastPath) throws RepositoryException {
+        final String searchPath = StringUtils.removeEnd(searchNode.getPath(), "/");
+        if (StringUtils.isBlank(lastPath) || !lastPath.startsWith(searchPath + "/")) {
+            stack.addLast(searchNode.getNodes());
+            return;
+        }
+
+        Node node = searchNode;
+        for (final String name : StringUtils.split(lastPath.substring(searchPath.length()), '/')) {
+            final NodeIterator children = node.getNodes();
+            Node child = null;
+            while (child == null && children.hasNext()) {
+                final Node candidate = children.nextNode();
+                if (name.equals(candidate.getName())) {
+                    child = candidate;
+                }
+            }
+
+            if (child == null) {
+                log.warn("Payload cursor checkpoint [ {} ] has been removed. Resuming with the children of [ {} ], "
+                        + "which may enumerate some payloads again.", lastPath, node.getPath());
+                stack.addLast(node.getNodes());
+                return;
+            }
+
+            stack.addLast(children);
+            node = child;
+        }
+
+        stack.addLast(node.getNodes());
+    }
+
+    private static String unquote(final String name) {
+        if (name.startsWith("[")) {
+            return name.substring(1, name.length() - 1);
+        } else if (name.startsWith("'")) {
+            return name.substring(1, name.length() - 1).replace("''", "'");
+        }
+        return name;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import com.adobe.acs.commons.workflow.bulk.BulkWorkflowEngine;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
+import com.day.cq.workflow.WorkflowException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the items of bulk workflow batches in-process through Synthetic Workflow on a pool of worker threads.
+ * <p/>
+ * Workers take the batch items off a shared queue. Each worker has its own resource resolver, and saves the
+ * payload changes along with the batch item states every save threshold items rather than after each Workflow
+ * Process. Changes of a payload failing part way through its Workflow Processes are saved with its group. If a group
+ * cannot be saved, its changes are discarded and its items are processed and saved again one by one.
+ */
+class SyntheticBatchProcessor {
+    private static final Logger log = LoggerFactory.getLogger(SyntheticBatchProcessor.class);
+
+    private static final AtomicInteger PROCESSOR_COUNT = new AtomicInteger(0);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final SyntheticWorkflowRunner syntheticWorkflowRunner;
+
+    private final SyntheticWorkflowModel syntheticWorkflowModel;
+
+    private final int workerCount;
+
+    private final int saveThreshold;
+
+    private final BulkWorkflowTelemetry telemetry;
+
+    private final ExecutorService executor;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Create a new Synthetic Batch Processor.
+     *
+     * @param resourceResolverFactory the factory the workers get their resource resolvers from
+     * @param syntheticWorkflowRunner the Synthetic Workflow Runner
+     * @param syntheticWorkflowModel  the Synthetic Workflow Model to execute against each payload
+     * @param workerCount             number of worker threads
+     * @param saveThreshold           number of items a worker processes between saves
+     * @param telemetry               the telemetry the payload executions are recorded on
+     */
+    SyntheticBatchProcessor(final ResourceResolverFactory resourceResolverFactory,
+                            final SyntheticWorkflowRunner syntheticWorkflowRunner,
+                            final SyntheticWorkflowModel syntheticWorkflowModel,
+                            final int workerCount,
+                            final int saveThreshold,
+                            final BulkWorkflowTelemetry telemetry) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.syntheticWorkflowRunner = syntheticWorkflowRunner;
+        this.syntheticWorkflowModel = syntheticWorkflowModel;
+        this.workerCount = workerCount;
+        this.saveThreshold = saveThreshold;
+        this.telemetry = telemetry;
+
+        final String threadPrefix = "Bulk Workflow Synthetic Worker " + PROCESSOR_COUNT.incrementAndGet() + "-";
+        this.executor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, threadPrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Processes the batch items; blocks until all are processed or the processor is stopped.
+     *
+     * @param itemPaths the paths of the batch items to process
+     * @return the number of items which failed
+     * @throws WorkflowException
+     * @throws InterruptedException
+     */
+    int process(final List<String> itemPaths) throws WorkflowException, InterruptedException {
+        final Queue<String> queue = new ConcurrentLinkedQueue<String>(itemPaths);
+
+        final List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>(workerCount);
+        for (int i = 0; i < Math.min(workerCount, itemPaths.size()); i++) {
+            workers.add(new Worker(queue));
+        }
+
+        int failures = 0;
+        for (final Future<Integer> future : executor.invokeAll(workers)) {
+            try {
+                failures += future.get();
+            } catch (ExecutionException e) {
+                throw new WorkflowException("Synthetic workflow worker failed", e.getCause());
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Stops the processing; workers complete and save the items they are processing.
+     */
+    void stop() {
+        this.stopped = true;
+    }
+
+    boolean isStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * Stops the processing and releases the worker threads.
+     */
+    void shutdown() {
+        this.stop();
+        this.executor.shutdown();
+    }
+
+    /**
+     * Processes batch items off the shared queue with its own resource resolver.
+     */
+    private final class Worker implements Callable<Integer> {
+        private final Queue<String> queue;
+
+        /** States of the items processed since the last save, by item path. */
+        private final Map<String, String> unsavedItemStates = new LinkedHashMap<String, String>();
+
+        private Worker(final Queue<String> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public Integer call() throws LoginException {
+            ResourceResolver resourceResolver = null;
+            int failures = 0;
+
+            try {
+                resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+
+                String itemPath;
+                while (!stopped && (itemPath = queue.poll()) != null) {
+                    final String state = processItem(resourceResolver, itemPath, true);
+                    if (state != null) {
+                        unsavedItemStates.put(itemPath, state);
+                    }
+
+                    if (unsavedItemStates.size() >= saveThreshold) {
+                        failures += save(resourceResolver);
+                    }
+                }
+
+                failures += save(resourceResolver);
+            } finally {
+                if (resourceResolver != null) {
+                    resourceResolver.close();
+                }
+            }
+
+            return failures;
+        }
+
+        /**
+         * Executes the Synthetic Workflow against the payload of the batch item and sets the item state, unsaved.
+         *
+         * @param resourceResolver the worker's resource resolver
+         * @param itemPath         the path of the batch item
+         * @param recordTelemetry  false when processing the item again, so that each payload is recorded once
+         * @return the state of the item, null if the item could not be found
+         */
+        private String processItem(final ResourceResolver resourceResolver, final String itemPath,
+                                   final boolean recordTelemetry) {
+            final Resource item = resourceResolver.getResource(itemPath);
+            if (item == null) {
+                log.warn("Could not find batch item at [ {} ]", itemPath);
+                return null;
+            }
+
+            final ModifiableValueMap properties = item.adaptTo(ModifiableValueMap.class);
+            final String payloadPath = properties.get(BulkWorkflowEngine.KEY_PATH, String.class);
+
+            String state = BulkWorkflowEngineImpl.ITEM_STATE_COMPLETE;
+            if (StringUtils.isBlank(payloadPath)) {
+                log.warn("Batch item [ {} ] has no payload path", itemPath);
+                state = BulkWorkflowEngineImpl.ITEM_STATE_FAILED;
+            } else {
+                final long startedAt = System.currentTimeMillis();
+                try {
+                    syntheticWorkflowRunner.execute(resourceResolver, payloadPath, syntheticWorkflowModel,
+                            false, false);
+                } catch (WorkflowException e) {
+                    log.error("Synthetic workflow execution of payload [ {} ] failed.", payloadPath, e);
+                    state = BulkWorkflowEngineImpl.ITEM_STATE_FAILED;
+                } catch (RuntimeException e) {
+                    log.error("Synthetic workflow execution of payload [ {} ] failed.", payloadPath, e);
+                    state = BulkWorkflowEngineImpl.ITEM_STATE_FAILED;
+                }
+                if (recordTelemetry) {
+                    telemetry.recordPayload(System.currentTimeMillis() - startedAt,
+                            BulkWorkflowEngineImpl.ITEM_STATE_FAILED.equals(state));
+                }
+            }
+
+            properties.put(BulkWorkflowEngine.KEY_STATE, state);
+            return state;
+        }
+
+        /**
+         * Saves the changes of the unsaved items. If the save fails the changes are discarded, and the items are
+         * processed and saved again one by one; only the items whose changes cannot be saved are marked as failed.
+         *
+         * @param resourceResolver the worker's resource resolver
+         * @return the number of saved items which failed
+         */
+        private int save(final ResourceResolver resourceResolver) {
+            if (unsavedItemStates.isEmpty()) {
+                return 0;
+            }
+
+            int failures = 0;
+            try {
+                resourceResolver.commit();
+
+                for (final String state : unsavedItemStates.values()) {
+                    if (BulkWorkflowEngineImpl.ITEM_STATE_FAILED.equals(state)) {
+                        failures++;
+                    }
+                }
+            } catch (PersistenceException e) {
+                log.warn("Could not save the synthetic workflow changes of batch items {}, retrying them one by one",
+                        unsavedItemStates.keySet(), e);
+                resourceResolver.revert();
+                resourceResolver.refresh();
+
+                for (final String itemPath : unsavedItemStates.keySet()) {
+                    if (!retry(resourceResolver, itemPath)) {
+                        failures++;
+                    }
+                }
+            }
+
+            unsavedItemStates.clear();
+            return failures;
+        }
+
+        /**
+         * Processes and saves a batch item on its own, marking it as failed if its changes cannot be saved.
+         *
+         * @param resourceResolver the worker's resource resolver, without unsaved changes
+         * @param itemPath         the path of the batch item
+         * @return true if the item completed and has been saved
+         */
+        private boolean retry(final ResourceResolver resourceResolver, final String itemPath) {
+            final String state = processItem(resourceResolver, itemPath, false);
+            if (state == null) {
+                return true;
+            }
+
+            try {
+                resourceResolver.commit();
+                return !BulkWorkflowEngineImpl.ITEM_STATE_FAILED.equals(state);
+            } catch (PersistenceException e) {
+                log.error("Could not save the synthetic workflow changes of batch item [ {} ]", itemPath, e);
+                resourceResolver.revert();
+                resourceResolver.refresh();
+            }
+
+            final Resource item = resourceResolver.getResource(itemPath);
+            if (item != null) {
+                item.adaptTo(ModifiableValueMap.class).put(BulkWorkflowEngine.KEY_STATE,
+                        BulkWorkflowEngineImpl.ITEM_STATE_FAILED);
+                try {
+                    resourceResolver.commit();
+                } catch (PersistenceException e) {
+                    // Left without state, so picked up again on resume
+                    log.error("Could not mark batch item [ {} ] as failed", itemPath, e);
+                    resourceResolver.revert();
+                }
+            }
+            return false;
+        }
+    }
+}
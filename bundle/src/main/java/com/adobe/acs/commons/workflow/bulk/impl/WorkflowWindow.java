@@ -0,0 +1,253 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory state of the sliding window of workflows a bulk workflow keeps in flight.
+ * <p/>
+ * Workflows are added to the window as they are started and finished off it as their completion events come in;
+ * the window is then refilled up to its size with the next payloads. Finishing is thread safe so it can be done from
+ * the event handler; all other operations are expected to be done under the window monitor.
+ */
+class WorkflowWindow {
+    private final String resourcePath;
+
+    private final String workflowModel;
+
+    private final int size;
+
+    /** In-flight workflows by workflow id. */
+    private final Map<String, ActiveWorkflow> active = new LinkedHashMap<String, ActiveWorkflow>();
+
+    /** Workflows finished but not yet recorded on their batch item. */
+    private final Queue<ActiveWorkflow> finished = new ConcurrentLinkedQueue<ActiveWorkflow>();
+
+    /** Recorded workflows whose instances are to be purged. */
+    private final List<ActiveWorkflow> purgeable = new ArrayList<ActiveWorkflow>();
+
+    private final AtomicBoolean refillPending = new AtomicBoolean(false);
+
+    /**
+     * Create a new Workflow Window.
+     *
+     * @param resourcePath  the path of the jcr:content configuration resource
+     * @param workflowModel the workflow model to start for each payload
+     * @param size          max number of workflows in flight
+     */
+    WorkflowWindow(final String resourcePath, final String workflowModel, final int size) {
+        this.resourcePath = resourcePath;
+        this.workflowModel = workflowModel;
+        this.size = Math.max(1, size);
+    }
+
+    String getResourcePath() {
+        return resourcePath;
+    }
+
+    String getWorkflowModel() {
+        return workflowModel;
+    }
+
+    /**
+     * @return the number of workflows which can be started right now
+     */
+    int getCapacity() {
+        return size - active.size();
+    }
+
+    boolean isEmpty() {
+        return active.isEmpty() && finished.isEmpty();
+    }
+
+    /**
+     * Adds a started workflow to the window.
+     *
+     * @param itemPath   the batch item path
+     * @param workflowId the workflow id
+     */
+    void add(final String itemPath, final String workflowId) {
+        active.put(workflowId, new ActiveWorkflow(itemPath, workflowId));
+    }
+
+    /**
+     * Moves an in-flight workflow off the window. Thread safe.
+     *
+     * @param workflowId the workflow id
+     * @param state      the final workflow state
+     */
+    void finish(final String workflowId, final String state) {
+        finished.add(new ActiveWorkflow(null, workflowId).finish(state, System.currentTimeMillis()));
+    }
+
+    /**
+     * Removes the workflows finished since the last call from the window.
+     *
+     * @return the finished workflows, with their batch item path, final state and time they were finished at
+     */
+    List<ActiveWorkflow> drainFinished() {
+        final List<ActiveWorkflow> workflows = new ArrayList<ActiveWorkflow>();
+
+        ActiveWorkflow finishedWorkflow;
+        while ((finishedWorkflow = finished.poll()) != null) {
+            final ActiveWorkflow workflow = active.remove(finishedWorkflow.getWorkflowId());
+            if (workflow != null) {
+                workflows.add(workflow.finish(finishedWorkflow.getState(), finishedWorkflow.getFinishedAt()));
+            }
+        }
+
+        return workflows;
+    }
+
+    /**
+     * Removes the workflows in flight since before the given time from the window.
+     *
+     * @param startedBefore time in ms
+     * @return the timed out workflows
+     */
+    List<ActiveWorkflow> removeTimedOut(final long startedBefore) {
+        final List<ActiveWorkflow> workflows = new ArrayList<ActiveWorkflow>();
+
+        final Iterator<ActiveWorkflow> iterator = active.values().iterator();
+        while (iterator.hasNext()) {
+            final ActiveWorkflow workflow = iterator.next();
+            if (workflow.getStartedAt() < startedBefore) {
+                iterator.remove();
+                workflows.add(workflow);
+            }
+        }
+
+        return workflows;
+    }
+
+    /**
+     * @return the ids of the in-flight workflows
+     */
+    List<String> getWorkflowIds() {
+        return new ArrayList<String>(active.keySet());
+    }
+
+    /**
+     * @return the batch item paths of the in-flight workflows
+     */
+    String[] getItemPaths() {
+        final List<String> itemPaths = new ArrayList<String>(active.size());
+        for (final ActiveWorkflow workflow : active.values()) {
+            itemPaths.add(workflow.getItemPath());
+        }
+        return itemPaths.toArray(new String[itemPaths.size()]);
+    }
+
+    void addPurgeable(final ActiveWorkflow workflow) {
+        purgeable.add(workflow);
+    }
+
+    /**
+     * Removes the workflows finished before the given time from the purge list.
+     *
+     * @param finishedBefore time in ms
+     * @return the ids of the workflows to purge
+     */
+    List<String> removePurgeable(final long finishedBefore) {
+        final List<String> workflowIds = new ArrayList<String>();
+
+        final Iterator<ActiveWorkflow> iterator = purgeable.iterator();
+        while (iterator.hasNext()) {
+            final ActiveWorkflow workflow = iterator.next();
+            if (workflow.getFinishedAt() < finishedBefore) {
+                iterator.remove();
+                workflowIds.add(workflow.getWorkflowId());
+            }
+        }
+
+        return workflowIds;
+    }
+
+    /**
+     * Flags a refill as pending. Thread safe.
+     *
+     * @return true if no refill was pending yet
+     */
+    boolean requestRefill() {
+        return refillPending.compareAndSet(false, true);
+    }
+
+    /**
+     * Clears the pending refill flag, as the refill is about to run. Thread safe.
+     */
+    void clearRefillRequest() {
+        refillPending.set(false);
+    }
+
+    /**
+     * A workflow tracked by the window.
+     */
+    static final class ActiveWorkflow {
+        private final String itemPath;
+
+        private final String workflowId;
+
+        private final long startedAt = System.currentTimeMillis();
+
+        private long finishedAt;
+
+        private String state;
+
+        private ActiveWorkflow(final String itemPath, final String workflowId) {
+            this.itemPath = itemPath;
+            this.workflowId = workflowId;
+        }
+
+        private ActiveWorkflow finish(final String finalState, final long finishTime) {
+            this.state = finalState;
+            this.finishedAt = finishTime;
+            return this;
+        }
+
+        String getItemPath() {
+            return itemPath;
+        }
+
+        String getWorkflowId() {
+            return workflowId;
+        }
+
+        long getStartedAt() {
+            return startedAt;
+        }
+
+        long getFinishedAt() {
+            return finishedAt;
+        }
+
+        String getState() {
+            return state;
+        }
+    }
+}
@@ -89,6 +89,16 @@ public class StartServlet extends SlingAllMethodsServlet {
             map.put(BulkWorkflowEngine.KEY_ESTIMATED_TOTAL,
                     params.optLong(BulkWorkflowEngine.KEY_ESTIMATED_TOTAL, BulkWorkflowEngine.DEFAULT_ESTIMATED_TOTAL));
 
+            map.put(BulkWorkflowEngine.KEY_EXECUTION_MODE,
+                    params.optString(BulkWorkflowEngine.KEY_EXECUTION_MODE,
+                            BulkWorkflowEngine.DEFAULT_EXECUTION_MODE));
+
+            map.put(BulkWorkflowEngine.KEY_WORKER_COUNT,
+                    params.optInt(BulkWorkflowEngine.KEY_WORKER_COUNT, BulkWorkflowEngine.DEFAULT_WORKER_COUNT));
+
+            map.put(BulkWorkflowEngine.KEY_ENUMERATION,
+                    params.optString(BulkWorkflowEngine.KEY_ENUMERATION, BulkWorkflowEngine.DEFAULT_ENUMERATION));
+
             map.put(BulkWorkflowEngine.KEY_PURGE_WORKFLOW,
                     params.optBoolean(BulkWorkflowEngine.KEY_PURGE_WORKFLOW,
                             BulkWorkflowEngine.DEFAULT_PURGE_WORKFLOW));
@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
 
 /**
  * ACS AEM Commons - Bulk Workflow Manager - Status Servlet
@@ -98,6 +99,15 @@ public class StatusServlet extends SlingAllMethodsServlet {
             json.put(BulkWorkflowEngine.KEY_BATCH_TIMEOUT,
                     properties.get(BulkWorkflowEngine.KEY_BATCH_TIMEOUT, BulkWorkflowEngine.DEFAULT_BATCH_TIMEOUT));
 
+            json.put(BulkWorkflowEngine.KEY_EXECUTION_MODE,
+                    properties.get(BulkWorkflowEngine.KEY_EXECUTION_MODE, BulkWorkflowEngine.DEFAULT_EXECUTION_MODE));
+
+            json.put(BulkWorkflowEngine.KEY_WORKER_COUNT,
+                    properties.get(BulkWorkflowEngine.KEY_WORKER_COUNT, BulkWorkflowEngine.DEFAULT_WORKER_COUNT));
+
+            json.put(BulkWorkflowEngine.KEY_ENUMERATION,
+                    properties.get(BulkWorkflowEngine.KEY_ENUMERATION, BulkWorkflowEngine.DEFAULT_ENUMERATION));
+
             // Counts
             json.put(BulkWorkflowEngine.KEY_TOTAL, total);
             json.put(BulkWorkflowEngine.KEY_COMPLETE_COUNT, complete);
@@ -107,6 +117,12 @@ public class StatusServlet extends SlingAllMethodsServlet {
             json.put(BulkWorkflowEngine.KEY_FORCE_TERMINATED_COUNT,
                     properties.get(BulkWorkflowEngine.KEY_FORCE_TERMINATED_COUNT, 0));
 
+            json.put(BulkWorkflowEngine.KEY_ENUMERATED_COUNT,
+                    properties.get(BulkWorkflowEngine.KEY_ENUMERATED_COUNT, total));
+
+            json.put(BulkWorkflowEngine.KEY_FAILURE_COUNT,
+                    properties.get(BulkWorkflowEngine.KEY_FAILURE_COUNT, 0));
+
             // Times
             json.put(BulkWorkflowEngine.KEY_STARTED_AT,
                     properties.get(BulkWorkflowEngine.KEY_STARTED_AT, Date.class));
@@ -117,6 +133,12 @@ public class StatusServlet extends SlingAllMethodsServlet {
             json.put(BulkWorkflowEngine.KEY_COMPLETED_AT,
                     properties.get(BulkWorkflowEngine.KEY_COMPLETED_AT, Date.class));
 
+            // Telemetry
+            final Map<String, Object> telemetry = bulkWorkflowEngine.getTelemetry(request.getResource());
+            if (telemetry != null) {
+                json.put(BulkWorkflowEngine.KEY_TELEMETRY, this.toJSON(telemetry));
+            }
+
             final Resource currentBatch = bulkWorkflowEngine.getCurrentBatch(request.getResource());
 
             if (currentBatch != null) {
@@ -144,4 +166,26 @@ public class StatusServlet extends SlingAllMethodsServlet {
 
         }
     }
+
+    /**
+     * Converts a map, and the maps it contains, to JSON.
+     *
+     * @param map the map
+     * @return the JSON object
+     * @throws JSONException
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject toJSON(final Map<String, ?> map) throws JSONException {
+        final JSONObject json = new JSONObject();
+
+        for (final Map.Entry<String, ?> entry : map.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                json.put(entry.getKey(), this.toJSON((Map<String, ?>) entry.getValue()));
+            } else {
+                json.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return json;
+    }
 }
@@ -20,4 +20,4 @@
 /**
  * Bulk Workflow Management.
  */
-@aQute.bnd.annotation.Version("1.0.1") package com.adobe.acs.commons.workflow.bulk;
\ No newline at end of file
+@aQute.bnd.annotation.Version("1.1.0") package com.adobe.acs.commons.workflow.bulk;
\ No newline at end of file
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.removal.impl;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.resource.ValueMap;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Removal criteria of workflow instances.
+ * <p/>
+ * Payload patterns are matched as compiled rather than re-compiled from their source for each instance, and the
+ * criteria are immutable so a matcher can be shared by the removal threads.
+ */
+class WorkflowInstanceMatcher {
+    static final String NT_CQ_WORKFLOW = "cq:Workflow";
+
+    static final String PN_MODEL_ID = "modelId";
+
+    static final String PN_STARTED_AT = "startedAt";
+
+    static final String PN_STATUS = "status";
+
+    static final String PAYLOAD_PATH = "data/payload/path";
+
+    private final Set<String> modelIds;
+
+    private final Set<String> statuses;
+
+    private final List<Pattern> payloads;
+
+    private final Calendar olderThan;
+
+    /**
+     * Create a new Workflow Instance Matcher.
+     *
+     * @param modelIds  WF Models to remove; all if empty
+     * @param statuses  WF Statuses to remove; all if empty
+     * @param payloads  WF Payload patterns to remove; all if empty
+     * @param olderThan only remove WF's started after this time; all if null
+     */
+    WorkflowInstanceMatcher(final Collection<String> modelIds,
+                            final Collection<String> statuses,
+                            final Collection<Pattern> payloads,
+                            final Calendar olderThan) {
+        this.modelIds = modelIds == null ? new HashSet<String>() : new HashSet<String>(modelIds);
+        this.statuses = statuses == null ? new HashSet<String>() : new HashSet<String>(statuses);
+        this.payloads = payloads == null ? new ArrayList<Pattern>() : new ArrayList<Pattern>(payloads);
+        this.olderThan = olderThan == null ? null : (Calendar) olderThan.clone();
+    }
+
+    /**
+     * Checks a workflow instance against the criteria.
+     *
+     * @param properties the workflow instance properties
+     * @return true if the workflow instance is to be removed
+     */
+    boolean matches(final ValueMap properties) {
+        final String status = properties.get(PN_STATUS, String.class);
+        final String model = properties.get(PN_MODEL_ID, String.class);
+
+        if (CollectionUtils.isNotEmpty(statuses) && !statuses.contains(status)) {
+            return false;
+        } else if (CollectionUtils.isNotEmpty(modelIds) && !modelIds.contains(model)) {
+            return false;
+        }
+
+        if (olderThan != null) {
+            final Calendar startTime = properties.get(PN_STARTED_AT, Calendar.class);
+            if (startTime != null && startTime.before(olderThan)) {
+                return false;
+            }
+        }
+
+        if (CollectionUtils.isNotEmpty(payloads)) {
+            // Instances without payload path are not held to the payload patterns
+            final String payload = properties.get(PAYLOAD_PATH, String.class);
+
+            if (StringUtils.isNotEmpty(payload)) {
+                for (final Pattern pattern : payloads) {
+                    if (pattern.matcher(payload).matches()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the JCR-SQL2 query of the candidate workflow instances below a path, restricted by status, model and
+     * start time so it can be served by an index on those properties. Payload patterns can't be expressed in the
+     * query; candidates are to be checked against {@link #matches(ValueMap)}.
+     * <p/>
+     * Unlike {@link #matches(ValueMap)}, the start time restriction excludes instances without a start time.
+     *
+     * @param path the path to query below
+     * @return the JCR-SQL2 query
+     */
+    String getQuery(final String path) {
+        final StringBuilder query = new StringBuilder();
+
+        query.append("SELECT * FROM [").append(NT_CQ_WORKFLOW).append("] AS w WHERE ISDESCENDANTNODE(w, '")
+                .append(escape(path)).append("')");
+
+        appendIn(query, PN_STATUS, statuses);
+        appendIn(query, PN_MODEL_ID, modelIds);
+
+        if (olderThan != null) {
+            query.append(" AND w.[").append(PN_STARTED_AT).append("] >= CAST('")
+                    .append(ISO8601.format(olderThan)).append("' AS DATE)");
+        }
+
+        return query.toString();
+    }
+
+    private static void appendIn(final StringBuilder query, final String property, final Collection<String> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+
+        query.append(" AND (");
+        boolean first = true;
+        for (final String value : values) {
+            if (!first) {
+                query.append(" OR ");
+            }
+            query.append("w.[").append(property).append("] = '").append(escape(value)).append("'");
+            first = false;
+        }
+        query.append(")");
+    }
+
+    private static String escape(final String value) {
+        return StringUtils.replace(value, "'", "''");
+    }
+}
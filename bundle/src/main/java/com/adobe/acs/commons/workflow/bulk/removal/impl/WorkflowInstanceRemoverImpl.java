@@ -24,22 +24,27 @@ import com.adobe.acs.commons.workflow.bulk.removal.WorkflowInstanceRemover;
 import com.adobe.acs.commons.workflow.bulk.removal.impl.exceptions.WorkflowRemovalException;
 import com.adobe.acs.commons.workflow.bulk.removal.impl.exceptions.WorkflowRemovalForceQuitException;
 import com.adobe.acs.commons.workflow.bulk.removal.impl.exceptions.WorkflowRemovalMaxDurationExceededException;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Service;
-import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -48,33 +53,38 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 /**
  * ACS AEM Commons - Workflow Instance Remover
  */
-@Component
+@Component(
+        label = "ACS AEM Commons - Workflow Instance Remover",
+        metatype = true
+)
 @Service
 public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemover {
     private static final Logger log = LoggerFactory.getLogger(WorkflowInstanceRemoverImpl.class);
 
     private static final String WORKFLOW_FOLDER_FORMAT = "YYYY-MM-dd";
 
-    private static final String PN_MODEL_ID = "modelId";
-
-    private static final String PN_STARTED_AT = "startedAt";
-
-    private static final String PN_STATUS = "status";
-
-    private static final String PAYLOAD_PATH = "data/payload/path";
-
     private static final String NT_SLING_FOLDER = "sling:Folder";
 
-    private static final String NT_CQ_WORKFLOW = "cq:Workflow";
-
     private static final Pattern NN_SERVER_FOLDER_PATTERN = Pattern.compile("server\\d+");
 
     private static final Pattern NN_DATE_FOLDER_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}.*");
@@ -82,6 +92,46 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
     private static final int BATCH_SIZE = 1000;
 
     private static final int MAX_SAVE_RETRIES = 5;
+
+    /** Marks the end of the query candidates handed to a removal thread. */
+    private static final String END_OF_CANDIDATES = "";
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "Workflow Instance Remover " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    public static final String MODE_TRAVERSAL = "traversal";
+
+    public static final String MODE_QUERY = "query";
+
+    private static final String DEFAULT_MODE = MODE_TRAVERSAL;
+    private String mode = DEFAULT_MODE;
+    @Property(label = "Mode",
+            description = "How workflow instances to remove are found. Traversal checks every workflow instance, "
+                    + "folder by folder. Query looks up the candidates by status, model and start time, served by "
+                    + "the /oak:index/acsCommonsWorkflowInstances index; workflow instances without start time are "
+                    + "left when an 'older than' time is set. [ Default: traversal ]",
+            options = {
+                    @PropertyOption(name = MODE_TRAVERSAL, value = "Traversal"),
+                    @PropertyOption(name = MODE_QUERY, value = "Query")
+            },
+            value = DEFAULT_MODE)
+    public static final String PROP_MODE = "mode";
+
+    private static final int DEFAULT_THREAD_COUNT = 4;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    @Property(label = "Threads",
+            description = "Number of threads removing workflow instances in parallel, each with its own session. "
+                    + "A date folder is only ever processed by one thread. [ Default: 4 ]",
+            intValue = DEFAULT_THREAD_COUNT)
+    public static final String PROP_THREAD_COUNT = "thread-count";
     
     private final AtomicReference<WorkflowRemovalStatus> status
             = new AtomicReference<WorkflowRemovalStatus>();
@@ -143,10 +193,10 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
 
         final long start = System.currentTimeMillis();
         long end = -1;
-        
-        int count = 0;
-        int checkedCount = 0;
-        int workflowRemovedCount = 0;
+
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(modelIds, statuses, payloads, olderThan);
+        final AtomicInteger checkedCount = new AtomicInteger(0);
+        final AtomicInteger removedCount = new AtomicInteger(0);
 
         if (maxDurationInMins > 0) {
             // Max duration has been requested (greater than 0)
@@ -157,126 +207,30 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
             // Compute the end time
             end = start + maxDurationInMs;
         }
-        
+
         try {
             this.start(resourceResolver);
 
-            final List<Resource> containerFolders = this.getWorkflowInstanceFolders(resourceResolver);
-
-            for (Resource containerFolder : containerFolders) {
+            final List<String> folderPaths = new ArrayList<String>();
+            for (final Resource containerFolder : this.getWorkflowInstanceFolders(resourceResolver)) {
                 log.debug("Checking [ {} ] for workflow instances to remove", containerFolder.getPath());
 
-                final Collection<Resource> sortedFolders = this.getSortedAndFilteredFolders(containerFolder);
-
-                for (final Resource folder : sortedFolders) {
-
-                    int remaining = 0;
-
-                    for (final Resource instance : folder.getChildren()) {
-
-                        if (this.forceQuit.get()) {
-                            throw new WorkflowRemovalForceQuitException();
-                        }  else if (end > 0 && System.currentTimeMillis() >= end) {
-                            throw new WorkflowRemovalMaxDurationExceededException();
-                        }
-
-                        final ValueMap properties = instance.getValueMap();
-
-                        if (!StringUtils.equals(NT_CQ_WORKFLOW,
-                                properties.get(JcrConstants.JCR_PRIMARYTYPE, String.class))) {
-
-                            // Only process cq:Workflow's
-                            remaining++;
-                            continue;
-                        }
-
-                        checkedCount++;
-
-                        final String status = properties.get(PN_STATUS, String.class);
-                        final String model = properties.get(PN_MODEL_ID, String.class);
-                        final Calendar startTime = properties.get(PN_STARTED_AT, Calendar.class);
-                        final String payload = properties.get(PAYLOAD_PATH, String.class);
-
-                        if (CollectionUtils.isNotEmpty(statuses) && !statuses.contains(status)) {
-                            log.trace("Workflow instance [ {} ] has non-matching status of [ {} ]", instance.getPath(), status);
-                            remaining++;
-                            continue;
-                        } else if (CollectionUtils.isNotEmpty(modelIds) && !modelIds.contains(model)) {
-                            log.trace("Workflow instance [ {} ] has non-matching model of [ {} ]", instance.getPath(), model);
-                            remaining++;
-                            continue;
-                        } else if (olderThan != null && startTime != null && startTime.before(olderThan)) {
-                            log.trace("Workflow instance [ {} ] has non-matching start time of [ {} ]", instance.getPath(),
-                                    startTime);
-                            remaining++;
-                            continue;
-                        } else {
-
-                            if (CollectionUtils.isNotEmpty(payloads)) {
-                                // Only evaluate payload patterns if they are provided
-
-                                boolean match = false;
-
-                                if (StringUtils.isNotEmpty(payload)) {
-                                    for (final Pattern pattern : payloads) {
-                                        if (payload.matches(pattern.pattern())) {
-                                            // payload matches a pattern
-                                            match = true;
-                                            break;
-                                        }
-                                    }
-
-                                    if (!match) {
-                                        // Not a match; skip to next workflow instance
-                                        log.trace("Workflow instance [ {} ] has non-matching payload path [ {} ]",
-                                                instance.getPath(), payload);
-                                        remaining++;
-                                        continue;
-                                    }
-                                }
-                            }
-
-                            // Only remove matching
-
-                            try {
-                                instance.adaptTo(Node.class).remove();
-                                log.debug("Removed workflow instance at [ {} ]", instance.getPath());
-
-                                workflowRemovedCount++;
-                                count++;
-                            } catch (RepositoryException e) {
-                                log.error("Could not remove workflow instance at [ {} ]. Continuing...",
-                                        instance.getPath(), e);
-                            }
-
-                            if (count % batchSize == 0) {
-                                this.batchComplete(resourceResolver, checkedCount, workflowRemovedCount);
-
-                                log.info("Removed a running total of [ {} ] workflow instances", count);
-                            }
-                        }
-                    }
-
-                    if (remaining == 0
-                            && NN_DATE_FOLDER_PATTERN.matcher(folder.getName()).matches()
-                            && !StringUtils.startsWith(folder.getName(), new SimpleDateFormat(WORKFLOW_FOLDER_FORMAT).format(new Date()))) {
-                        // Dont remove folders w items and dont remove any of "today's" folders
-                        // MUST match the YYYY-MM-DD(.*) pattern; do not try to remove root folders
-                        try {
-                            folder.adaptTo(Node.class).remove();
-                            log.debug("Removed empty workflow folder node [ {} ]", folder.getPath());
-                            // Incrementing only count to trigger batch save and not total since is not a WF
-                            count++;
-                        } catch (RepositoryException e) {
-                            log.error("Could not remove workflow folder at [ {} ]", folder.getPath(), e);
-                        }
-                    }
+                for (final Resource folder : this.getSortedAndFilteredFolders(containerFolder)) {
+                    folderPaths.add(folder.getPath());
                 }
+            }
 
-                // Save final batch if needed, and update tracking nodes
-                this.complete(resourceResolver, checkedCount, workflowRemovedCount);
+            if (MODE_QUERY.equals(this.mode)) {
+                this.removeByQuery(resourceResolver, matcher, folderPaths, batchSize, end, checkedCount,
+                        removedCount);
+            } else {
+                this.removeByTraversal(resourceResolver, matcher, folderPaths, batchSize, end, checkedCount,
+                        removedCount);
             }
 
+            // Save final batch if needed, and update tracking nodes
+            this.complete(resourceResolver, checkedCount.get(), removedCount.get());
+
         } catch (PersistenceException e) {
             this.forceQuit.set(false);
             log.error("Error persisting changes with Workflow Removal", e);
@@ -301,9 +255,11 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
         }  catch (WorkflowRemovalMaxDurationExceededException e) {
             // Uncommon instance of using Exception to control flow; Exceeding max duration extreme condition.
             log.warn("Workflow removal exceeded max duration of [ {} ] minutes. Final removal commit initiating...", maxDurationInMins);
-            this.complete(resourceResolver, checkedCount, count);
+            this.complete(resourceResolver, checkedCount.get(), removedCount.get());
         }
 
+        final int count = removedCount.get();
+
         if (log.isInfoEnabled()) {
             log.info("Workflow Removal Process Finished! "
                     + "Removed a total of [ {} ] workflow instances in [ {} ] ms",
@@ -314,6 +270,326 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
         return count;
     }
 
+    /**
+     * Removes the matching workflow instances folder by folder, the folders being spread over the removal threads.
+     * Folders left empty are removed along.
+     */
+    private void removeByTraversal(final ResourceResolver resourceResolver,
+                                   final WorkflowInstanceMatcher matcher,
+                                   final List<String> folderPaths,
+                                   final int batchSize,
+                                   final long end,
+                                   final AtomicInteger checkedCount,
+                                   final AtomicInteger removedCount)
+            throws PersistenceException, WorkflowRemovalException, InterruptedException,
+            WorkflowRemovalForceQuitException, WorkflowRemovalMaxDurationExceededException {
+
+        final Queue<String> queue = new ConcurrentLinkedQueue<String>(folderPaths);
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+
+        final List<RemovalTask> tasks = new ArrayList<RemovalTask>();
+        for (final WorkflowRemovalWorker worker : this.createWorkers(resourceResolver, matcher,
+                Math.min(threadCount, Math.max(1, folderPaths.size())), batchSize, checkedCount, removedCount)) {
+
+            tasks.add(new RemovalTask(worker, aborted) {
+                @Override
+                protected void remove() throws Exception {
+                    String folderPath;
+                    while (proceed(end, aborted) && (folderPath = queue.poll()) != null) {
+                        final Resource folder = worker.getResourceResolver().getResource(folderPath);
+                        if (folder == null) {
+                            continue;
+                        }
+
+                        int remaining = 0;
+
+                        for (final Resource instance : folder.getChildren()) {
+                            if (!proceed(end, aborted)) {
+                                return;
+                            } else if (!worker.remove(instance)) {
+                                remaining++;
+                            }
+                        }
+
+                        if (remaining == 0 && isRemovableFolder(folder)) {
+                            worker.removeFolder(folder);
+                        }
+                    }
+                }
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), THREAD_FACTORY);
+        try {
+            this.rethrow(this.await(executor.invokeAll(tasks)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Removes the matching workflow instances found by an index-backed query on status, model and start time. The
+     * candidates are spread over the removal threads by folder, so no two threads remove from the same folder, and
+     * checked against all criteria before removal. Folders left empty are removed at the end.
+     */
+    private void removeByQuery(final ResourceResolver resourceResolver,
+                               final WorkflowInstanceMatcher matcher,
+                               final List<String> folderPaths,
+                               final int batchSize,
+                               final long end,
+                               final AtomicInteger checkedCount,
+                               final AtomicInteger removedCount)
+            throws PersistenceException, WorkflowRemovalException, InterruptedException,
+            WorkflowRemovalForceQuitException, WorkflowRemovalMaxDurationExceededException {
+
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+
+        final List<BlockingQueue<String>> queues = new ArrayList<BlockingQueue<String>>();
+        final List<RemovalTask> tasks = new ArrayList<RemovalTask>();
+        for (final WorkflowRemovalWorker worker : this.createWorkers(resourceResolver, matcher, threadCount,
+                batchSize, checkedCount, removedCount)) {
+
+            final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(Math.max(1, batchSize));
+            queues.add(queue);
+
+            tasks.add(new RemovalTask(worker, aborted) {
+                @Override
+                protected void remove() throws Exception {
+                    while (proceed(end, aborted)) {
+                        final String path = queue.poll(1, TimeUnit.SECONDS);
+                        if (END_OF_CANDIDATES.equals(path)) {
+                            return;
+                        } else if (path != null) {
+                            worker.remove(path);
+                        }
+                    }
+                }
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), THREAD_FACTORY);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final RemovalTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            Exception enqueueFailure = null;
+            try {
+                this.enqueueCandidates(resourceResolver, matcher, queues, end, aborted);
+            } catch (RepositoryException e) {
+                log.error("Could not query workflow instances to remove", e);
+                enqueueFailure = new WorkflowRemovalException("Could not query workflow instances to remove: "
+                        + e.getMessage());
+            } catch (InterruptedException e) {
+                enqueueFailure = e;
+            } catch (WorkflowRemovalForceQuitException e) {
+                enqueueFailure = e;
+            } catch (WorkflowRemovalMaxDurationExceededException e) {
+                enqueueFailure = e;
+            }
+
+            if (enqueueFailure != null && !(enqueueFailure instanceof WorkflowRemovalMaxDurationExceededException)
+                    && !(enqueueFailure instanceof WorkflowRemovalForceQuitException)) {
+                // Removal threads notice force quitting and exceeding the max duration by themselves
+                aborted.set(true);
+            }
+
+            final Throwable failure = this.await(futures);
+            this.rethrow(failure != null ? failure : enqueueFailure);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Remove the folders left empty
+
+        resourceResolver.refresh();
+
+        int count = 0;
+        for (final String folderPath : folderPaths) {
+            proceed(end, aborted);
+
+            final Resource folder = resourceResolver.getResource(folderPath);
+            if (folder != null && !folder.listChildren().hasNext() && isRemovableFolder(folder)) {
+                try {
+                    folder.adaptTo(Node.class).remove();
+                    log.debug("Removed empty workflow folder node [ {} ]", folder.getPath());
+
+                    if (++count % batchSize == 0) {
+                        this.save(resourceResolver);
+                    }
+                } catch (RepositoryException e) {
+                    log.error("Could not remove workflow folder at [ {} ]", folder.getPath(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queries the candidate workflow instances and hands them to the removal threads, by folder. Ends with handing
+     * each removal thread the end of candidates marker.
+     */
+    private void enqueueCandidates(final ResourceResolver resourceResolver,
+                                   final WorkflowInstanceMatcher matcher,
+                                   final List<BlockingQueue<String>> queues,
+                                   final long end,
+                                   final AtomicBoolean aborted)
+            throws RepositoryException, InterruptedException, WorkflowRemovalForceQuitException,
+            WorkflowRemovalMaxDurationExceededException {
+
+        final QueryManager queryManager = resourceResolver.adaptTo(Session.class).getWorkspace().getQueryManager();
+        final String query = matcher.getQuery(WORKFLOW_INSTANCES_PATH);
+        log.debug("Querying workflow instances to remove with [ {} ]", query);
+
+        final NodeIterator nodes = queryManager.createQuery(query, Query.JCR_SQL2).execute().getNodes();
+        while (nodes.hasNext()) {
+            if (!proceed(end, aborted)) {
+                return;
+            }
+
+            final String path = nodes.nextNode().getPath();
+            final String folderPath = StringUtils.substringBeforeLast(path, "/");
+
+            final int index = (folderPath.hashCode() & Integer.MAX_VALUE) % queues.size();
+            if (!this.enqueue(queues.get(index), path, aborted)) {
+                return;
+            }
+        }
+
+        for (final BlockingQueue<String> queue : queues) {
+            this.enqueue(queue, END_OF_CANDIDATES, aborted);
+        }
+    }
+
+    /**
+     * Creates the removal workers, each with its own resource resolver.
+     */
+    private List<WorkflowRemovalWorker> createWorkers(final ResourceResolver resourceResolver,
+                                                      final WorkflowInstanceMatcher matcher,
+                                                      final int count,
+                                                      final int batchSize,
+                                                      final AtomicInteger checkedCount,
+                                                      final AtomicInteger removedCount)
+            throws WorkflowRemovalException {
+
+        final Runnable onSave = new Runnable() {
+            @Override
+            public void run() {
+                batchComplete(checkedCount.get(), removedCount.get());
+                log.info("Removed a running total of [ {} ] workflow instances", removedCount.get());
+            }
+        };
+
+        final List<WorkflowRemovalWorker> workers = new ArrayList<WorkflowRemovalWorker>();
+        try {
+            for (int i = 0; i < Math.max(1, count); i++) {
+                workers.add(new WorkflowRemovalWorker(resourceResolver.clone(null), matcher, batchSize,
+                        MAX_SAVE_RETRIES, checkedCount, removedCount, onSave));
+            }
+        } catch (LoginException e) {
+            for (final WorkflowRemovalWorker worker : workers) {
+                worker.close();
+            }
+            log.error("Could not get a resource resolver for the Workflow Removal threads", e);
+            throw new WorkflowRemovalException("Could not get a resource resolver for the Workflow Removal threads: "
+                    + e.getMessage());
+        }
+
+        return workers;
+    }
+
+    /**
+     * Waits for the removal tasks to finish.
+     *
+     * @return the failure of the first failed task, null if none failed; failures other than exceeding the max
+     * duration take precedence
+     */
+    private Throwable await(final List<Future<Void>> futures) throws InterruptedException {
+        Throwable failure = null;
+
+        for (final Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null || failure instanceof WorkflowRemovalMaxDurationExceededException) {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        return failure;
+    }
+
+    /**
+     * Re-throws the failure of a removal task.
+     *
+     * @param failure the failure; nothing is thrown if null
+     */
+    private void rethrow(final Throwable failure)
+            throws PersistenceException, WorkflowRemovalException, InterruptedException,
+            WorkflowRemovalForceQuitException, WorkflowRemovalMaxDurationExceededException {
+
+        if (failure == null) {
+            return;
+        } else if (failure instanceof PersistenceException) {
+            throw (PersistenceException) failure;
+        } else if (failure instanceof WorkflowRemovalException) {
+            throw (WorkflowRemovalException) failure;
+        } else if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure instanceof WorkflowRemovalForceQuitException) {
+            throw (WorkflowRemovalForceQuitException) failure;
+        } else if (failure instanceof WorkflowRemovalMaxDurationExceededException) {
+            throw (WorkflowRemovalMaxDurationExceededException) failure;
+        } else {
+            log.error("Unexpected error in a Workflow Removal thread", failure);
+            throw new WorkflowRemovalException("Unexpected error in a Workflow Removal thread: "
+                    + failure.getMessage());
+        }
+    }
+
+    /**
+     * Hands a candidate to a removal thread.
+     *
+     * @return false if the removal was aborted in the meantime
+     */
+    private boolean enqueue(final BlockingQueue<String> queue, final String path, final AtomicBoolean aborted)
+            throws InterruptedException {
+        while (!aborted.get()) {
+            if (queue.offer(path, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the removal is to go on.
+     *
+     * @return false if the removal was aborted due to a failure on another thread
+     * @throws WorkflowRemovalForceQuitException if the removal was force quit
+     * @throws WorkflowRemovalMaxDurationExceededException if the max duration was exceeded
+     */
+    private boolean proceed(final long end, final AtomicBoolean aborted)
+            throws WorkflowRemovalForceQuitException, WorkflowRemovalMaxDurationExceededException {
+        if (this.forceQuit.get()) {
+            throw new WorkflowRemovalForceQuitException();
+        } else if (end > 0 && System.currentTimeMillis() >= end) {
+            throw new WorkflowRemovalMaxDurationExceededException();
+        }
+        return !aborted.get();
+    }
+
+    /**
+     * Dont remove folders w items and dont remove any of "today's" folders.
+     * MUST match the YYYY-MM-DD(.*) pattern; do not try to remove root folders.
+     */
+    private boolean isRemovableFolder(final Resource folder) {
+        return NN_DATE_FOLDER_PATTERN.matcher(folder.getName()).matches()
+                && !StringUtils.startsWith(folder.getName(),
+                new SimpleDateFormat(WORKFLOW_FOLDER_FORMAT).format(new Date()));
+    }
+
     private Collection<Resource> getSortedAndFilteredFolders(Resource folderResource) {
         final Collection<Resource> sortedCollection = new TreeSet(new WorkflowInstanceFolderComparator());
         final Iterator<Resource> folders = folderResource.listChildren();
@@ -382,11 +658,7 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
         }
     }
 
-    private void batchComplete(final ResourceResolver resourceResolver, final int checked, final int count) throws
-            PersistenceException, InterruptedException {
-
-        this.save(resourceResolver);
-        
+    private synchronized void batchComplete(final int checked, final int count) {
         WorkflowRemovalStatus status = this.status.get();
         
         status.setChecked(checked);
@@ -461,8 +733,59 @@ public final class WorkflowInstanceRemoverImpl implements WorkflowInstanceRemove
 
 
     @Activate
+    protected void activate(Map<String, Object> config) {
+        this.reset(config);
+
+        this.mode = PropertiesUtil.toString(config.get(PROP_MODE), DEFAULT_MODE);
+        this.threadCount = Math.max(1, PropertiesUtil.toInteger(config.get(PROP_THREAD_COUNT),
+                DEFAULT_THREAD_COUNT));
+
+        log.info("Workflow instance removal in [ {} ] mode with [ {} ] threads", this.mode, this.threadCount);
+    }
+
     @Deactivate
     protected void reset(Map<String, Object> config) {
         this.forceQuit.set(false);
     }
+
+    /**
+     * Removal run on a removal thread with its worker. Saves the pending removals when done or when exceeding the
+     * max duration, and discards them on failure, aborting the other removal threads.
+     */
+    private abstract static class RemovalTask implements Callable<Void> {
+        private final WorkflowRemovalWorker worker;
+
+        private final AtomicBoolean aborted;
+
+        RemovalTask(final WorkflowRemovalWorker worker, final AtomicBoolean aborted) {
+            this.worker = worker;
+            this.aborted = aborted;
+        }
+
+        protected abstract void remove() throws Exception;
+
+        @Override
+        public final Void call() throws Exception {
+            try {
+                this.remove();
+
+                if (aborted.get()) {
+                    worker.revert();
+                } else {
+                    worker.save();
+                }
+            } catch (WorkflowRemovalMaxDurationExceededException e) {
+                worker.save();
+                throw e;
+            } catch (Exception e) {
+                aborted.set(true);
+                worker.revert();
+                throw e;
+            } finally {
+                worker.close();
+            }
+
+            return null;
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.removal.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Removes workflow instances with its own resource resolver, so removals can run on several threads at once.
+ * <p/>
+ * Removals are saved every batch size workflow instances. When a save fails, typically on a conflict with a
+ * concurrent change, the changes are discarded and the removals still applicable are re-applied on the refreshed
+ * session before saving again; instances removed concurrently are skipped.
+ */
+class WorkflowRemovalWorker {
+    private static final Logger log = LoggerFactory.getLogger(WorkflowRemovalWorker.class);
+
+    private static final long RETRY_DELAY = 1000L;
+
+    private final ResourceResolver resourceResolver;
+
+    private final WorkflowInstanceMatcher matcher;
+
+    private final int batchSize;
+
+    private final int maxRetries;
+
+    private final AtomicInteger checkedCount;
+
+    private final AtomicInteger removedCount;
+
+    private final Runnable onSave;
+
+    /** Removed, not yet saved, workflow instances. */
+    private final List<String> pendingInstancePaths = new ArrayList<String>();
+
+    /** Removed, not yet saved, empty folders. */
+    private final List<String> pendingFolderPaths = new ArrayList<String>();
+
+    /**
+     * Create a new Workflow Removal Worker.
+     *
+     * @param resourceResolver the worker's own resource resolver; closed with the worker
+     * @param matcher          the removal criteria
+     * @param batchSize        number of workflow instances to remove per save
+     * @param maxRetries       number of times a failed save is retried
+     * @param checkedCount     running total of checked workflow instances, shared by the workers
+     * @param removedCount     running total of removed workflow instances, shared by the workers
+     * @param onSave           called after each save
+     */
+    WorkflowRemovalWorker(final ResourceResolver resourceResolver,
+                          final WorkflowInstanceMatcher matcher,
+                          final int batchSize,
+                          final int maxRetries,
+                          final AtomicInteger checkedCount,
+                          final AtomicInteger removedCount,
+                          final Runnable onSave) {
+        this.resourceResolver = resourceResolver;
+        this.matcher = matcher;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = maxRetries;
+        this.checkedCount = checkedCount;
+        this.removedCount = removedCount;
+        this.onSave = onSave;
+    }
+
+    ResourceResolver getResourceResolver() {
+        return resourceResolver;
+    }
+
+    /**
+     * Removes the workflow instance at a path if it matches the criteria.
+     *
+     * @param path the workflow instance path
+     * @return true if removed
+     * @throws PersistenceException
+     * @throws InterruptedException
+     */
+    boolean remove(final String path) throws PersistenceException, InterruptedException {
+        final Resource instance = resourceResolver.getResource(path);
+        return instance != null && this.remove(instance);
+    }
+
+    /**
+     * Removes a workflow instance if it matches the criteria.
+     *
+     * @param instance the workflow instance, read with the worker's resource resolver
+     * @return true if removed
+     * @throws PersistenceException
+     * @throws InterruptedException
+     */
+    boolean remove(final Resource instance) throws PersistenceException, InterruptedException {
+        final ValueMap properties = instance.getValueMap();
+
+        if (!StringUtils.equals(WorkflowInstanceMatcher.NT_CQ_WORKFLOW,
+                properties.get(JcrConstants.JCR_PRIMARYTYPE, String.class))) {
+            // Only process cq:Workflow's
+            return false;
+        }
+
+        checkedCount.incrementAndGet();
+
+        if (!matcher.matches(properties)) {
+            log.trace("Workflow instance [ {} ] does not match the removal criteria", instance.getPath());
+            return false;
+        }
+
+        try {
+            instance.adaptTo(Node.class).remove();
+            pendingInstancePaths.add(instance.getPath());
+            log.debug("Removed workflow instance at [ {} ]", instance.getPath());
+        } catch (RepositoryException e) {
+            log.error("Could not remove workflow instance at [ {} ]. Continuing...", instance.getPath(), e);
+            return false;
+        }
+
+        if (pendingInstancePaths.size() >= batchSize) {
+            this.save();
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes an empty workflow instance folder.
+     *
+     * @param folder the folder, read with the worker's resource resolver
+     */
+    void removeFolder(final Resource folder) {
+        try {
+            folder.adaptTo(Node.class).remove();
+            pendingFolderPaths.add(folder.getPath());
+            log.debug("Removed empty workflow folder node [ {} ]", folder.getPath());
+        } catch (RepositoryException e) {
+            log.error("Could not remove workflow folder at [ {} ]", folder.getPath(), e);
+        }
+    }
+
+    /**
+     * Saves the pending removals, retrying on failure.
+     *
+     * @throws PersistenceException if the save still fails after the retries; the pending removals are discarded
+     * @throws InterruptedException
+     */
+    void save() throws PersistenceException, InterruptedException {
+        int retries = 0;
+
+        while (true) {
+            try {
+                if (resourceResolver.hasChanges()) {
+                    final long start = System.currentTimeMillis();
+                    resourceResolver.commit();
+                    log.debug("Saving batch workflow instance removal in [ {} ] ms",
+                            System.currentTimeMillis() - start);
+                }
+                break;
+            } catch (PersistenceException ex) {
+                resourceResolver.revert();
+                resourceResolver.refresh();
+
+                if (++retries > maxRetries) {
+                    this.clear();
+                    throw ex;
+                }
+
+                log.warn("Could not persist Workflow Removal changes, trying again in {} ms", RETRY_DELAY * retries);
+                Thread.sleep(RETRY_DELAY * retries);
+
+                this.reapply(pendingInstancePaths, false);
+                this.reapply(pendingFolderPaths, true);
+            }
+        }
+
+        removedCount.addAndGet(pendingInstancePaths.size());
+        this.clear();
+        onSave.run();
+    }
+
+    /**
+     * Discards the pending removals.
+     */
+    void revert() {
+        resourceResolver.revert();
+        this.clear();
+    }
+
+    void close() {
+        if (resourceResolver.isLive()) {
+            resourceResolver.close();
+        }
+    }
+
+    /**
+     * Re-applies discarded removals on the refreshed session. Removals no longer applicable are dropped, that is
+     * workflow instances which no longer match the criteria and folders which are no longer empty.
+     *
+     * @param paths   the paths of the discarded removals
+     * @param folders true if the paths are folders, only to be removed while empty
+     */
+    private void reapply(final List<String> paths, final boolean folders) {
+        final Iterator<String> iterator = paths.iterator();
+
+        while (iterator.hasNext()) {
+            final Resource resource = resourceResolver.getResource(iterator.next());
+
+            if (resource == null || (folders && resource.listChildren().hasNext())) {
+                // Removed, or added to, concurrently
+                iterator.remove();
+                continue;
+            }
+
+            if (!folders && !matcher.matches(resource.getValueMap())) {
+                // Changed concurrently, e.g. a running workflow instance which was resumed
+                log.debug("Workflow instance [ {} ] no longer matches the removal criteria", resource.getPath());
+                iterator.remove();
+                continue;
+            }
+
+            try {
+                resource.adaptTo(Node.class).remove();
+            } catch (RepositoryException e) {
+                log.error("Could not remove [ {} ] again. Continuing...", resource.getPath(), e);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void clear() {
+        pendingInstancePaths.clear();
+        pendingFolderPaths.clear();
+    }
+}
@@ -0,0 +1,48 @@
+package com.adobe.acs.commons.httpcache.config.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCacheConfigImplTest {
+    private HttpCacheConfigImpl config;
+
+    @Before
+    public void setUp() throws Exception {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("httpcache.config.requesturi.patterns", new String[]{"/content/mysite/(.*)"});
+        properties.put("httpcache.config.invalidation.mappings", new String[]{
+                "/content/mysite/(.*)/jcr:content(.*)=/content/mysite/$1.*&/content/mysite/$1/*",
+                "/etc/designs/mysite/(.*)=/content/mysite.*"});
+
+        config = new HttpCacheConfigImpl();
+        config.activate(properties);
+    }
+
+    @Test
+    public void testGetInvalidationUriPatterns_MultipleUriPatterns() throws Exception {
+        assertEquals(Arrays.asList("/content/mysite/en/page.*", "/content/mysite/en/page/*"),
+                config.getInvalidationUriPatterns("/content/mysite/en/page/jcr:content/par"));
+    }
+
+    @Test
+    public void testGetInvalidationUriPatterns_SingleUriPattern() throws Exception {
+        assertEquals(Arrays.asList("/content/mysite.*"),
+                config.getInvalidationUriPatterns("/etc/designs/mysite/static.css"));
+    }
+
+    @Test
+    public void testGetInvalidationUriPatterns_NoMapping() throws Exception {
+        assertEquals(Collections.<String>emptyList(), config.getInvalidationUriPatterns("/content/othersite/en"));
+        assertFalse(config.canInvalidate("/content/othersite/en"));
+        assertTrue(config.canInvalidate("/etc/designs/mysite/static.css"));
+    }
+}
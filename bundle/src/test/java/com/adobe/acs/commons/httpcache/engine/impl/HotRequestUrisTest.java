@@ -0,0 +1,78 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HotRequestUrisTest {
+    private static final long HALF_LIFE = 1000L;
+
+    @Test
+    public void testGetTop() throws Exception {
+        final HotRequestUris hotRequestUris = new HotRequestUris(10, HALF_LIFE);
+        final long now = System.currentTimeMillis();
+        record(hotRequestUris, "/content/b.html", 2, now);
+        record(hotRequestUris, "/content/c.html", 3, now);
+        record(hotRequestUris, "/content/a.html", 2, now);
+
+        assertEquals(Arrays.asList("/content/c.html", "/content/a.html", "/content/b.html"),
+                hotRequestUris.getTop(10));
+        assertEquals(Arrays.asList("/content/c.html"), hotRequestUris.getTop(1));
+        assertEquals(Collections.<String>emptyList(), hotRequestUris.getTop(0));
+    }
+
+    @Test
+    public void testRecord_CrawlDoesNotFillUp() throws Exception {
+        final HotRequestUris hotRequestUris = new HotRequestUris(10, HALF_LIFE);
+        final long now = System.currentTimeMillis();
+        record(hotRequestUris, "/content/popular.html", 5, now);
+        for (int i = 0; i < 20; i++) {
+            hotRequestUris.record("/content/crawled/" + i + ".html", now);
+        }
+
+        // Crawled URIs delivered once made room for the later ones.
+        record(hotRequestUris, "/content/hot.html", 2, now);
+
+        assertTrue(hotRequestUris.size() <= 10);
+        assertEquals(Arrays.asList("/content/popular.html", "/content/hot.html"), hotRequestUris.getTop(2));
+    }
+
+    @Test
+    public void testRecord_FullOfRepeatedUris() throws Exception {
+        final HotRequestUris hotRequestUris = new HotRequestUris(2, HALF_LIFE);
+        final long now = System.currentTimeMillis();
+        record(hotRequestUris, "/content/a.html", 4, now);
+        record(hotRequestUris, "/content/b.html", 3, now);
+
+        // Halved for c, left out as still full; b is down to 1, and dropped to make room for d.
+        record(hotRequestUris, "/content/c.html", 1, now);
+        record(hotRequestUris, "/content/d.html", 1, now);
+
+        assertEquals(Arrays.asList("/content/a.html", "/content/d.html"), hotRequestUris.getTop(10));
+    }
+
+    @Test
+    public void testRecord_Decays() throws Exception {
+        final HotRequestUris hotRequestUris = new HotRequestUris(10, HALF_LIFE);
+        final long now = System.currentTimeMillis();
+        record(hotRequestUris, "/content/stale.html", 8, now);
+        record(hotRequestUris, "/content/once.html", 1, now);
+
+        // Three half-lives later, stale is down to 1; once dropped out.
+        hotRequestUris.record("/content/fresh.html", now + HALF_LIFE);
+        hotRequestUris.record("/content/fresh.html", now + 2 * HALF_LIFE);
+        record(hotRequestUris, "/content/fresh.html", 2, now + 3 * HALF_LIFE);
+
+        assertEquals(Arrays.asList("/content/fresh.html", "/content/stale.html"), hotRequestUris.getTop(10));
+    }
+
+    private static void record(HotRequestUris hotRequestUris, String uri, int times, long now) {
+        for (int i = 0; i < times; i++) {
+            hotRequestUris.record(uri, now);
+        }
+    }
+}
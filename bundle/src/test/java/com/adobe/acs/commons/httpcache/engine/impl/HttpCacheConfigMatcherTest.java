@@ -0,0 +1,155 @@
+package com.adobe.acs.commons.httpcache.engine.impl;
+
+import com.adobe.acs.commons.httpcache.config.AuthenticationStatusConfigConstants;
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.config.impl.HttpCacheConfigImpl;
+import com.adobe.acs.commons.httpcache.util.UserUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpCacheConfigMatcherTest {
+    private static final String[] URIS = {
+            "/content/mysite/en/page.html",
+            "/content/mysite/de/b.html",
+            "/content/mysite/de/ab.html",
+            "/content/othersite/en.html",
+            "/content/DAM/asset.jpg",
+            "/content/dam/xx/asset.jpg",
+            "/etc/designs/mysite/static.css",
+            "/etc/clientlibs/mysite.js",
+            "/content",
+            "/",
+            ""};
+
+    private List<HttpCacheConfig> cacheConfigs;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheConfigs = new ArrayList<HttpCacheConfig>();
+        // Leading anchor
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.ANONYMOUS_REQUEST,
+                "^/content/mysite/(.*)\\.html"));
+        // Top level alternation, no literal prefix
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.BOTH_ANONYMOUS_AUTHENTICATED_REQUESTS,
+                "/content/mysite/en/.*|/content/othersite/.*"));
+        // Leading escape, no literal prefix
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.AUTHENTICATED_REQUEST,
+                "\\/etc/designs/.*"));
+        // Optional last literal character
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.BOTH_ANONYMOUS_AUTHENTICATED_REQUESTS,
+                "/content/mysite/de/a?b.*"));
+        // Embedded flag, no literal prefix
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.ANONYMOUS_REQUEST,
+                "(?i)/CONTENT/dam/.*"));
+        // Several patterns
+        cacheConfigs.add(config(AuthenticationStatusConfigConstants.BOTH_ANONYMOUS_AUTHENTICATED_REQUESTS,
+                "/content/dam/x+/.*", "/etc/clientlibs/.*"));
+    }
+
+    @Test
+    public void testGetLiteralPrefix() throws Exception {
+        assertEquals("/content/mysite/", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile(
+                "^/content/mysite/(.*)\\.html")));
+        assertEquals("/content/a", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/a\\.html")));
+        assertEquals("/content/a", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/ab?c")));
+        assertEquals("/content/", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/a{2}")));
+        assertEquals("/content/x", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/x+/.*")));
+        assertEquals("/content", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content(/.*)?")));
+
+        // No literal prefix can be determined
+        assertEquals("", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("\\/etc/designs/.*")));
+        assertEquals("", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("\\A/content/.*")));
+        assertEquals("", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/a|/etc/b")));
+        assertEquals("", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("(?i)/content/.*")));
+        assertEquals("", HttpCacheConfigMatcher.getLiteralPrefix(Pattern.compile("/content/.*",
+                Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testGetCandidates_NoLiteralPrefix() throws Exception {
+        final HttpCacheConfigMatcher matcher = new HttpCacheConfigMatcher(cacheConfigs);
+
+        // Configs without literal prefix are candidates for any URI, as per their authentication requirement.
+        assertEquals(Arrays.asList(cacheConfigs.get(1), cacheConfigs.get(4)), matcher.getCandidates("/", true));
+        assertEquals(Arrays.asList(cacheConfigs.get(1), cacheConfigs.get(2)), matcher.getCandidates("/", false));
+    }
+
+    @Test
+    public void testGetCandidates_AuthenticationRequirement() throws Exception {
+        final HttpCacheConfigMatcher matcher = new HttpCacheConfigMatcher(cacheConfigs);
+
+        assertEquals(Arrays.asList(cacheConfigs.get(0), cacheConfigs.get(1), cacheConfigs.get(3),
+                cacheConfigs.get(4)), matcher.getCandidates("/content/mysite/de/b.html", true));
+        assertEquals(Arrays.asList(cacheConfigs.get(1), cacheConfigs.get(2), cacheConfigs.get(3)),
+                matcher.getCandidates("/content/mysite/de/b.html", false));
+    }
+
+    @Test
+    public void testGetCandidates_Empty() throws Exception {
+        final HttpCacheConfigMatcher matcher = new HttpCacheConfigMatcher(Collections.<HttpCacheConfig>emptyList());
+
+        assertTrue(matcher.getCandidates("/content/mysite/en/page.html", true).isEmpty());
+    }
+
+    @Test
+    public void testGetCandidates_AgreesWithAccepts() throws Exception {
+        final HttpCacheConfigMatcher matcher = new HttpCacheConfigMatcher(cacheConfigs);
+
+        for (final String uri : URIS) {
+            for (final boolean isAnonymous : new boolean[]{true, false}) {
+                final SlingHttpServletRequest request = request(uri, isAnonymous);
+                final List<HttpCacheConfig> candidates = matcher.getCandidates(uri, isAnonymous);
+
+                for (final HttpCacheConfig cacheConfig : cacheConfigs) {
+                    if (cacheConfig.accepts(request)) {
+                        assertTrue("Config accepting " + uri + " left out", candidates.contains(cacheConfig));
+                    }
+                }
+
+                // Candidates keep the cache config order.
+                final List<HttpCacheConfig> ordered = new ArrayList<HttpCacheConfig>(cacheConfigs);
+                ordered.retainAll(candidates);
+                assertEquals(ordered, candidates);
+            }
+        }
+    }
+
+    private static HttpCacheConfig config(final String authenticationRequirement, final String... uriPatterns)
+            throws Exception {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("httpcache.config.requesturi.patterns", uriPatterns);
+        properties.put("httpcache.config.request.authentication", authenticationRequirement);
+
+        final HttpCacheConfigImpl cacheConfig = new HttpCacheConfigImpl();
+        final Method activate = HttpCacheConfigImpl.class.getDeclaredMethod("activate", Map.class);
+        activate.setAccessible(true);
+        activate.invoke(cacheConfig, properties);
+        return cacheConfig;
+    }
+
+    private static SlingHttpServletRequest request(final String uri, final boolean isAnonymous) {
+        final ResourceResolver resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.getUserID()).thenReturn(isAnonymous ? UserUtils.USER_ID_ANONYMOUS : "admin");
+
+        final SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn(uri);
+        when(request.getResourceResolver()).thenReturn(resourceResolver);
+        return request;
+    }
+}
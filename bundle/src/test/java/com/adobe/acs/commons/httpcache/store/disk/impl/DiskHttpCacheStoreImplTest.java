@@ -0,0 +1,225 @@
+package com.adobe.acs.commons.httpcache.store.disk.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.service.component.ComponentContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DiskHttpCacheStoreImplTest {
+    /** Larger than half of the 1MB segments, so each one gets a segment of its own. */
+    private static final int LARGE = 600 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DiskHttpCacheStoreImpl store;
+
+    @After
+    public void tearDown() throws Exception {
+        if (null != store) {
+            store.deactivate(null);
+        }
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+
+        assertTrue(store.contains(key));
+        assertEquals(1L, store.size());
+        final CacheContent cacheContent = store.getIfPresent(key);
+        assertEquals("UTF-8", cacheContent.getCharEncoding());
+        assertEquals("text/html", cacheContent.getContentType());
+        assertEquals(Arrays.asList("max-age=60"), cacheContent.getHeaders().get("Cache-Control"));
+        assertEquals(4L, cacheContent.getLength());
+        assertEquals("page", read(cacheContent));
+    }
+
+    @Test
+    public void testPut_Replaces() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+        store.put(key, content("newer"));
+
+        assertEquals(1L, store.size());
+        assertEquals("newer", read(store.getIfPresent(key)));
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+
+        final CacheContent cacheContent = store.getIfPresent(key);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            cacheContent.writeTo(outputStream);
+        } finally {
+            cacheContent.close();
+        }
+        assertEquals("page", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPut_LargerThanSegment() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/huge.html");
+        store.put(key, content(StringUtils.repeat("a", 2 * 1024 * 1024)));
+
+        assertFalse(store.contains(key));
+        assertEquals(0L, store.size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        activate(1L);
+        final CacheKey key = key("/content/page.html");
+        final CacheKey purged = key("/content/purged.html");
+        store.put(key, content("page"));
+        store.put(purged, content("purged"));
+        assertEquals("page", read(store.getIfPresent(key)));
+
+        Thread.sleep(1100L);
+
+        // Expired on lookup
+        assertNull(store.getIfPresent(key));
+        assertEquals(1L, store.size());
+        // Purged by maintenance
+        store.run();
+        assertEquals(0L, store.size());
+        assertFalse(store.contains(purged));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        final CacheKey other = key("/content/other.html");
+        store.put(key, content("page"));
+        store.put(other, content("other"));
+
+        store.invalidate(key);
+
+        assertFalse(store.contains(key));
+        assertNull(store.getIfPresent(key));
+        assertEquals("other", read(store.getIfPresent(other)));
+        assertEquals(1L, store.size());
+    }
+
+    @Test
+    public void testInvalidateByCacheConfig() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        final CacheKey other = key("/content/other.html");
+        final HttpCacheConfig cacheConfig = mock(HttpCacheConfig.class);
+        final HttpCacheConfig otherCacheConfig = mock(HttpCacheConfig.class);
+        store.put(key, content("page"), cacheConfig);
+        store.put(other, content("other"), otherCacheConfig);
+
+        store.invalidate(cacheConfig);
+
+        assertFalse(store.contains(key));
+        assertTrue(store.contains(other));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        activate(-1L);
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+
+        store.invalidateAll();
+
+        assertFalse(store.contains(key));
+        assertEquals(0L, store.size());
+        store.put(key, content("page"));
+        assertEquals("page", read(store.getIfPresent(key)));
+    }
+
+    @Test
+    public void testOldestSegmentEvicted() throws Exception {
+        activate(-1L);
+        final CacheKey first = key("/content/first.html");
+        final CacheKey second = key("/content/second.html");
+        final CacheKey third = key("/content/third.html");
+        store.put(first, content(StringUtils.repeat("a", LARGE)));
+        store.put(second, content(StringUtils.repeat("b", LARGE)));
+        store.put(third, content(StringUtils.repeat("c", LARGE)));
+
+        assertFalse(store.contains(first));
+        assertEquals(StringUtils.repeat("b", LARGE), read(store.getIfPresent(second)));
+        assertEquals(StringUtils.repeat("c", LARGE), read(store.getIfPresent(third)));
+        assertEquals(2L, store.size());
+    }
+
+    /**
+     * Activate a store of two 1MB segments in a temporary folder.
+     *
+     * @param ttl TTL in seconds, or -1 for none.
+     */
+    private void activate(long ttl) throws Exception {
+        final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("httpcache.cachestore.diskcache.directory", temporaryFolder.getRoot().getPath());
+        properties.put("httpcache.cachestore.diskcache.ttl", ttl);
+        properties.put("httpcache.cachestore.diskcache.maxsize", 2L);
+        properties.put("httpcache.cachestore.diskcache.segmentsize", 1);
+        final ComponentContext context = mock(ComponentContext.class);
+        when(context.getProperties()).thenReturn(properties);
+
+        store = new DiskHttpCacheStoreImpl();
+        store.activate(context);
+    }
+
+    private static CacheKey key(String uri) {
+        final CacheKey key = mock(CacheKey.class);
+        when(key.getUri()).thenReturn(uri);
+        return key;
+    }
+
+    private static CacheContent content(String data) {
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("Cache-Control", Collections.singletonList("max-age=60"));
+        return new CacheContent("UTF-8", "text/html", headers, new ByteArrayInputStream(data.getBytes()));
+    }
+
+    /**
+     * Read the data of the given content and close it, releasing its segment.
+     */
+    private static String read(CacheContent cacheContent) throws IOException {
+        if (null == cacheContent) {
+            return null;
+        }
+        try {
+            return IOUtils.toString(cacheContent.getInputDataStream(), "UTF-8");
+        } finally {
+            cacheContent.close();
+        }
+    }
+}
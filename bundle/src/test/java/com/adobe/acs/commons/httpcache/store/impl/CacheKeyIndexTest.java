@@ -0,0 +1,140 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheKeyIndexTest {
+    private CacheKeyIndex index;
+    private HttpCacheConfig config;
+    private HttpCacheConfig otherConfig;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new CacheKeyIndex();
+        config = mock(HttpCacheConfig.class);
+        otherConfig = mock(HttpCacheConfig.class);
+    }
+
+    @Test
+    public void testGetKeys_ByConfig() throws Exception {
+        final CacheKey page = key("/content/mysite/en/page.html");
+        final CacheKey other = key("/content/othersite/en.html");
+        index.add(page, config);
+        index.add(other, otherConfig);
+
+        assertEquals(Arrays.asList(page), index.getKeys(config));
+        assertEquals(Arrays.asList(other), index.getKeys(otherConfig));
+        assertTrue(index.getKeys(mock(HttpCacheConfig.class)).isEmpty());
+    }
+
+    @Test
+    public void testGetKeys_ByPrefix() throws Exception {
+        final CacheKey page = key("/content/mysite/en/page.html");
+        final CacheKey child = key("/content/mysite/en/page/child.html");
+        final CacheKey sibling = key("/content/mysite/en/pages.html");
+        final CacheKey other = key("/content/mysite/de/page.html");
+        for (CacheKey key : Arrays.asList(page, child, sibling, other)) {
+            index.add(key, config);
+        }
+
+        assertEquals(new HashSet<CacheKey>(Arrays.asList(page, child, sibling)),
+                new HashSet<CacheKey>(index.getKeys(config, "/content/mysite/en/page*")));
+        assertEquals(Arrays.asList(child), index.getKeys(config, "/content/mysite/en/page/*"));
+        // Without wildcard, only the URI itself
+        assertEquals(Arrays.asList(page), index.getKeys(config, "/content/mysite/en/page.html"));
+    }
+
+    @Test
+    public void testGetKeys_ByWildcards() throws Exception {
+        final CacheKey html = key("/content/mysite/en/page.html");
+        final CacheKey json = key("/content/mysite/en/page.model.json");
+        final CacheKey de = key("/content/mysite/de/page.html");
+        for (CacheKey key : Arrays.asList(html, json, de)) {
+            index.add(key, config);
+        }
+
+        // Wildcards past the literal prefix
+        assertEquals(new HashSet<CacheKey>(Arrays.asList(html, de)),
+                new HashSet<CacheKey>(index.getKeys(config, "/content/mysite/*/page.html")));
+        // Leading wildcard, no literal prefix
+        assertEquals(Arrays.asList(json), index.getKeys(config, "*.json"));
+        // Regex characters are literals
+        assertTrue(index.getKeys(config, "/content/mysite/en/page?html").isEmpty());
+    }
+
+    @Test
+    public void testGetKeys_Unindexed() throws Exception {
+        final CacheKey known = key("/content/mysite/en/page.html");
+        final CacheKey unknown = key("/content/mysite/en/other.html");
+        when(config.knows(known)).thenReturn(true);
+        index.add(known, null);
+        index.add(unknown, null);
+
+        assertEquals(Arrays.asList(known), index.getKeys(config));
+        assertEquals(Arrays.asList(known), index.getKeys(config, "/content/mysite/*"));
+        assertTrue(index.getKeys(config, "/content/othersite/*").isEmpty());
+        assertNull(index.getConfig(known));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final CacheKey shared = key("/content/mysite/en/page.html");
+        final CacheKey unindexed = key("/content/mysite/en/other.html");
+        index.add(shared, config);
+        index.add(shared, otherConfig);
+        index.add(unindexed, null);
+        assertEquals(2, index.size());
+        assertTrue(index.contains(shared));
+
+        index.remove(shared);
+        index.remove(unindexed);
+        // No-op for keys not indexed
+        index.remove(key("/content/mysite/en/missing.html"));
+
+        assertEquals(0, index.size());
+        assertFalse(index.contains(shared));
+        assertTrue(index.getKeys(config).isEmpty());
+        assertTrue(index.getKeys(otherConfig, "/content/*").isEmpty());
+    }
+
+    @Test
+    public void testGetConfig() throws Exception {
+        final CacheKey key = key("/content/mysite/en/page.html");
+        index.add(key, config);
+
+        assertSame(config, index.getConfig(key));
+        final List<CacheKey> keys = index.getKeys();
+        assertEquals(Arrays.asList(key), keys);
+
+        index.clear();
+        assertNull(index.getConfig(key));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testCompileWildcardPattern() throws Exception {
+        assertTrue(CacheKeyIndex.compileWildcardPattern("/content/*.html").matcher("/content/a/b.html").matches());
+        assertTrue(CacheKeyIndex.compileWildcardPattern("*").matcher("/anything").matches());
+        assertFalse(CacheKeyIndex.compileWildcardPattern("/content/a.html").matcher("/content/aXhtml").matches());
+    }
+
+    private static CacheKey key(final String uri) {
+        final CacheKey key = mock(CacheKey.class);
+        when(key.getUri()).thenReturn(uri);
+        return key;
+    }
+}
@@ -0,0 +1,158 @@
+package com.adobe.acs.commons.httpcache.store.impl;
+
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillingTempSinkTest {
+    private static final int BUFFER_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TempSinkBufferPool bufferPool;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        bufferPool = new TempSinkBufferPool(BUFFER_SIZE, 4);
+        directory = temporaryFolder.newFolder();
+    }
+
+    @Test
+    public void testBufferedContentReleasedOnInputStreamClose() throws Exception {
+        final byte[] pooled = bufferPool.acquire();
+        bufferPool.release(pooled);
+
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(10));
+        outputStream.close();
+
+        assertFalse(sink.isSpilled());
+        assertEquals(10, sink.length());
+        // The buffer is in use until the content is read.
+        assertNotSame(pooled, bufferPool.acquire());
+
+        final InputStream inputStream = sink.createInputStream();
+        assertArrayEquals(bytes(10), IOUtils.toByteArray(inputStream));
+        inputStream.close();
+
+        assertSame(pooled, bufferPool.acquire());
+    }
+
+    @Test
+    public void testSpilledContentReleasedOnInputStreamClose() throws Exception {
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(10));
+        outputStream.write(bytes(10));
+        outputStream.close();
+
+        assertTrue(sink.isSpilled());
+        assertEquals(20, sink.length());
+        assertEquals(1, directory.listFiles().length);
+
+        final InputStream inputStream = sink.createInputStream();
+        final byte[] content = IOUtils.toByteArray(inputStream);
+        assertEquals(20, content.length);
+        inputStream.close();
+
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testReleaseUnreadSink() throws Exception {
+        final byte[] pooled = bufferPool.acquire();
+        bufferPool.release(pooled);
+
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(10));
+        sink.release();
+
+        assertSame(pooled, bufferPool.acquire());
+
+        try {
+            outputStream.write(bytes(1));
+            fail("Released sink must not be written to.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            sink.createInputStream();
+            fail("Released sink must not be read.");
+        } catch (HttpCacheDataStreamException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testReleaseUnreadSpilledSink() throws Exception {
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(BUFFER_SIZE + 1));
+
+        assertEquals(1, directory.listFiles().length);
+        sink.release();
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testReleaseAfterReadIsNoOp() throws Exception {
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(BUFFER_SIZE + 1));
+
+        final InputStream inputStream = sink.createInputStream();
+        // The input stream owns the temp file now, e.g. handed to an asynchronous cache write.
+        sink.release();
+        assertEquals(1, directory.listFiles().length);
+        assertEquals(BUFFER_SIZE + 1, IOUtils.toByteArray(inputStream).length);
+
+        inputStream.close();
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSecondInputStreamFails() throws Exception {
+        final SpillingTempSink sink = new SpillingTempSink(bufferPool, directory);
+        final OutputStream outputStream = sink.createOutputStream();
+        outputStream.write(bytes(10));
+
+        final InputStream inputStream = sink.createInputStream();
+        try {
+            sink.createInputStream();
+            fail("Sink must be read once only.");
+        } catch (HttpCacheDataStreamException e) {
+            // Expected.
+        }
+        // The first input stream is not affected.
+        assertArrayEquals(bytes(10), IOUtils.toByteArray(inputStream));
+        inputStream.close();
+    }
+
+    private byte[] bytes(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,215 @@
+package com.adobe.acs.commons.httpcache.store.jcr.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import junitx.util.PrivateAccessor;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.apache.sling.testing.mock.sling.MockSling;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JCRHttpCacheStoreImplTest {
+    private JCRHttpCacheStoreImpl store;
+
+    @Before
+    public void setUp() throws Exception {
+        final ResourceResolverFactory resourceResolverFactory = MockSling.newResourceResolverFactory
+                (ResourceResolverType.JCR_OAK, MockOsgi.newBundleContext());
+
+        store = new JCRHttpCacheStoreImpl();
+        PrivateAccessor.setField(store, "resourceResolverFactory", resourceResolverFactory);
+        store.activate(new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.deactivate(new HashMap<String, Object>());
+    }
+
+    @Test
+    public void testPutIsSavedInBatches() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+
+        // Pending until the save threshold or the maintenance run.
+        assertFalse(store.contains(key));
+
+        store.run();
+
+        assertTrue(store.contains(key));
+        assertEquals(1L, store.size());
+        final CacheContent cacheContent = store.getIfPresent(key);
+        assertNotNull(cacheContent);
+        assertEquals("UTF-8", cacheContent.getCharEncoding());
+        assertEquals("text/html", cacheContent.getContentType());
+        assertEquals(Arrays.asList("max-age=60"), cacheContent.getHeaders().get("Cache-Control"));
+        assertEquals("page", read(cacheContent));
+    }
+
+    @Test
+    public void testInvalidateIsSavedRightAway() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+        store.run();
+
+        store.invalidate(key);
+
+        assertFalse(store.contains(key));
+        assertNull(store.getIfPresent(key));
+        assertEquals(0L, store.size());
+    }
+
+    @Test
+    public void testFailedPutOnlyRollsBackItself() throws Exception {
+        final CacheKey invalidated = key("/content/invalidated.html");
+        final CacheKey pending = key("/content/pending.html");
+        final CacheKey failed = key("/content/failed.html");
+        store.put(invalidated, content("invalidated"));
+        store.run();
+
+        store.invalidate(invalidated);
+        store.put(pending, content("pending"));
+        try {
+            store.put(failed, new CacheContent("UTF-8", "text/html", new HashMap<String, List<String>>(), new
+                    FailingInputStream()));
+            fail("Unreadable content must not be cached.");
+        } catch (HttpCacheDataStreamException e) {
+            // Expected.
+        }
+        store.run();
+
+        assertNull(store.getIfPresent(invalidated));
+        assertNull(store.getIfPresent(failed));
+        assertEquals("pending", read(store.getIfPresent(pending)));
+    }
+
+    @Test
+    public void testInvalidateByCacheConfig() throws Exception {
+        final CacheKey page = key("/content/site/page.html");
+        final CacheKey blacklisted = key("/content/site/private.html");
+        final CacheKey other = key("/content/other/page.html");
+        store.put(page, content("page"));
+        store.put(blacklisted, content("private"));
+        store.put(other, content("other"));
+        store.run();
+
+        final HttpCacheConfig cacheConfig = mock(HttpCacheConfig.class);
+        when(cacheConfig.getRequestUriPatterns()).thenReturn(Arrays.asList(Pattern.compile("/content/site/.*")));
+        when(cacheConfig.getBlacklistedRequestUriPatterns()).thenReturn(Arrays.asList(Pattern.compile(
+                ".*/private\\.html")));
+        store.invalidate(cacheConfig);
+
+        assertFalse(store.contains(page));
+        assertTrue(store.contains(blacklisted));
+        assertTrue(store.contains(other));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+        store.run();
+
+        store.invalidateAll();
+
+        assertFalse(store.contains(key));
+        assertEquals(0L, store.size());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final List<CacheKey> keys = new ArrayList<CacheKey>();
+        for (int i = 0; i < 10; i++) {
+            keys.add(key("/content/page" + i + ".html"));
+            store.put(keys.get(i), content("page" + i));
+        }
+        store.run();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> lookups = new ArrayList<Future<Boolean>>();
+            for (int thread = 0; thread < 8; thread++) {
+                lookups.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int lookup = 0; lookup < 100; lookup++) {
+                            final int i = lookup % keys.size();
+                            if (!("page" + i).equals(read(store.getIfPresent(keys.get(i))))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> lookup : lookups) {
+                assertTrue(lookup.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CacheKey key(String uri) {
+        final CacheKey key = mock(CacheKey.class);
+        when(key.getUri()).thenReturn(uri);
+        return key;
+    }
+
+    private static CacheContent content(String data) {
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("Cache-Control", Collections.singletonList("max-age=60"));
+        return new CacheContent("UTF-8", "text/html", headers, new ByteArrayInputStream(data.getBytes()));
+    }
+
+    /**
+     * Read the data of the given content and close it, giving back its read session.
+     */
+    private static String read(CacheContent cacheContent) throws IOException {
+        if (null == cacheContent) {
+            return null;
+        }
+        try {
+            return IOUtils.toString(cacheContent.getInputDataStream(), "UTF-8");
+        } finally {
+            cacheContent.close();
+        }
+    }
+
+    private static class FailingInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Broken stream.");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionPolicyReplayTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGetUri() throws Exception {
+        assertEquals("/content/page.html", AdmissionPolicyReplay.getUri("127.0.0.1 - - [10/Oct/2016:13:55:36 "
+                + "-0700] \"GET /content/page.html HTTP/1.1\" 200 2326 \"-\" \"Mozilla/5.0\""));
+        assertEquals("/content/page.html", AdmissionPolicyReplay.getUri("  /content/page.html "));
+        assertNull(AdmissionPolicyReplay.getUri("127.0.0.1 - - [10/Oct/2016:13:55:36 -0700] \"-\" 400 0"));
+    }
+
+    @Test
+    public void testReplay_AccessLog() throws Exception {
+        final File accessLog = temporaryFolder.newFile("access.log");
+        FileUtils.writeLines(accessLog, "UTF-8", Arrays.asList(
+                "127.0.0.1 - - [10/Oct/2016:13:55:36 -0700] \"GET /content/a.html HTTP/1.1\" 200 2326",
+                "127.0.0.1 - - [10/Oct/2016:13:55:37 -0700] \"GET /content/b.html HTTP/1.1\" 200 2326",
+                "",
+                "/content/a.html",
+                "/content/b.html",
+                "/content/a.html"));
+
+        final AdmissionPolicyReplay replay = new AdmissionPolicyReplay(1, new TinyLfuAdmissionPolicy(1000, 2));
+        replay.replay(accessLog);
+
+        assertEquals(5L, replay.getRequestsCount());
+        // A single entry: every request displaces the previous URI.
+        assertEquals(0L, replay.getUnfilteredHitsCount());
+        // b is not admitted on its first request, leaving a cached for its second one.
+        assertEquals(1L, replay.getFilteredHitsCount());
+    }
+
+    /**
+     * Popular pages requested along a crawler sweeping the long tail, each URI of the sweep requested once. Without
+     * admission policy, the sweep keeps pushing popular pages out of the cache.
+     */
+    @Test
+    public void testReplay_TinyLfuBeatsPlainAdmissionOnSkewedTrace() throws Exception {
+        final AdmissionPolicyReplay replay = new AdmissionPolicyReplay(100, new TinyLfuAdmissionPolicy(10000, 2));
+
+        // Zipf distributed popularity of 1000 pages
+        final double[] cumulativeWeights = new double[1000];
+        double totalWeight = 0;
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            totalWeight += 1.0 / (i + 1);
+            cumulativeWeights[i] = totalWeight;
+        }
+        final Random random = new Random(42L);
+        int crawled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (i % 3 == 0) {
+                replay.replay("/content/crawled/" + crawled++ + ".html");
+            } else {
+                int page = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * totalWeight);
+                page = page < 0 ? -page - 1 : page;
+                replay.replay("/content/popular/" + page + ".html");
+            }
+        }
+
+        final double unfilteredHitRatio = (double) replay.getUnfilteredHitsCount() / replay.getRequestsCount();
+        final double filteredHitRatio = (double) replay.getFilteredHitsCount() / replay.getRequestsCount();
+        assertTrue("TinyLFU hit ratio " + filteredHitRatio + " is not above " + unfilteredHitRatio,
+                filteredHitRatio > unfilteredHitRatio + 0.03);
+    }
+}
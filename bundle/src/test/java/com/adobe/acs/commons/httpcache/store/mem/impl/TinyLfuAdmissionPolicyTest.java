@@ -0,0 +1,80 @@
+package com.adobe.acs.commons.httpcache.store.mem.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuAdmissionPolicyTest {
+
+    @Test
+    public void testFrequency_Increment() throws Exception {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1000, 2);
+        assertEquals(0, policy.frequency("/content/page.html"));
+
+        record(policy, "/content/page.html", 3);
+
+        assertEquals(3, policy.frequency("/content/page.html"));
+        assertEquals(0, policy.frequency("/content/other.html"));
+    }
+
+    @Test
+    public void testFrequency_Saturates() throws Exception {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1000, 2);
+
+        record(policy, "/content/page.html", 20);
+
+        assertEquals(15, policy.frequency("/content/page.html"));
+    }
+
+    @Test
+    public void testFrequency_HalvedEverySample() throws Exception {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(4096, 2);
+        record(policy, "/content/page.html", 10);
+        // Saturated early on, but every access counts towards the sample.
+        record(policy, "/content/other.html", 4085);
+        assertEquals(10, policy.frequency("/content/page.html"));
+        assertEquals(15, policy.frequency("/content/other.html"));
+
+        record(policy, "/content/other.html", 1);
+
+        assertEquals(5, policy.frequency("/content/page.html"));
+        assertEquals(7, policy.frequency("/content/other.html"));
+
+        // Half of the sample counts towards the next halving.
+        record(policy, "/content/other.html", 2047);
+        assertEquals(5, policy.frequency("/content/page.html"));
+        record(policy, "/content/other.html", 1);
+        assertEquals(2, policy.frequency("/content/page.html"));
+    }
+
+    @Test
+    public void testAdmit() throws Exception {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1000, 2);
+        assertFalse(policy.admit("/content/page.html"));
+
+        record(policy, "/content/page.html", 1);
+        assertFalse(policy.admit("/content/page.html"));
+
+        record(policy, "/content/page.html", 1);
+        assertTrue(policy.admit("/content/page.html"));
+        assertFalse(policy.admit("/content/other.html"));
+    }
+
+    @Test
+    public void testAdmit_MinFrequencyBeyondCounters() throws Exception {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(1000, 100);
+
+        record(policy, "/content/page.html", 15);
+
+        // Capped at what the counters can hold.
+        assertTrue(policy.admit("/content/page.html"));
+    }
+
+    private static void record(TinyLfuAdmissionPolicy policy, String uri, int times) {
+        for (int i = 0; i < times; i++) {
+            policy.recordAccess(uri);
+        }
+    }
+}
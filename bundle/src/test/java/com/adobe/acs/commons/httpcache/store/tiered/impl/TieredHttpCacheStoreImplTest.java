@@ -0,0 +1,303 @@
+package com.adobe.acs.commons.httpcache.store.tiered.impl;
+
+import com.adobe.acs.commons.httpcache.config.HttpCacheConfig;
+import com.adobe.acs.commons.httpcache.engine.CacheContent;
+import com.adobe.acs.commons.httpcache.exception.HttpCacheDataStreamException;
+import com.adobe.acs.commons.httpcache.keys.CacheKey;
+import com.adobe.acs.commons.httpcache.store.HttpCacheStore;
+import com.adobe.acs.commons.httpcache.store.TempSink;
+import junitx.util.PrivateAccessor;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TieredHttpCacheStoreImplTest {
+    /** Larger than any segment of the 1MB heap tier, so demoted as soon as put. */
+    private static final String LARGE = StringUtils.repeat("a", 300 * 1024);
+
+    private TieredHttpCacheStoreImpl store;
+    private BlockingDiskCacheStore diskCacheStore;
+
+    @Before
+    public void setUp() throws Exception {
+        final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("httpcache.cachestore.tiered.maxsize", 1L);
+        final ComponentContext context = mock(ComponentContext.class);
+        when(context.getProperties()).thenReturn(properties);
+        when(context.getBundleContext()).thenReturn(mock(BundleContext.class));
+
+        diskCacheStore = new BlockingDiskCacheStore();
+        store = new TieredHttpCacheStoreImpl();
+        PrivateAccessor.setField(store, "diskCacheStore", diskCacheStore);
+        store.activate(context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        diskCacheStore.release();
+        store.deactivate(null);
+    }
+
+    @Test
+    public void testPutAndGet_HeapTier() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        store.put(key, content("page"));
+
+        assertEquals("page", read(store.getIfPresent(key)));
+        assertEquals(1L, store.getHeapHitCount());
+        assertEquals(1L, store.size());
+        assertFalse(diskCacheStore.contains(key));
+    }
+
+    @Test
+    public void testDemotion() throws Exception {
+        final CacheKey key = key("/content/large.html");
+        store.put(key, content(LARGE));
+        awaitMoves();
+
+        assertEquals(1L, store.getDemotionsCount());
+        assertEquals(0L, store.getHeapEntriesCount());
+        assertTrue(diskCacheStore.contains(key));
+        assertEquals(LARGE, read(store.getIfPresent(key)));
+        assertEquals(1L, store.size());
+    }
+
+    @Test
+    public void testGetIfPresent_WhileDemoted() throws Exception {
+        final CacheKey key = key("/content/large.html");
+        diskCacheStore.block();
+        store.put(key, content(LARGE));
+        diskCacheStore.awaitWrite();
+
+        // Neither in the heap tier nor in the disk tier yet.
+        assertTrue(store.contains(key));
+        assertEquals(LARGE, read(store.getIfPresent(key)));
+
+        diskCacheStore.release();
+        awaitMoves();
+
+        // Still indexed and demoted.
+        assertEquals(1L, store.size());
+        assertTrue(diskCacheStore.contains(key));
+        assertEquals(LARGE, read(store.getIfPresent(key)));
+    }
+
+    @Test
+    public void testPut_WhileDemoted() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        diskCacheStore.block();
+        store.put(key, content(LARGE));
+        diskCacheStore.awaitWrite();
+
+        store.put(key, content("newer"));
+        diskCacheStore.release();
+        awaitMoves();
+
+        // The older response written meanwhile is gone from the disk tier.
+        assertFalse(diskCacheStore.contains(key));
+        assertEquals("newer", read(store.getIfPresent(key)));
+        assertEquals(1L, store.size());
+    }
+
+    @Test
+    public void testPutLarge_WhileDemoted() throws Exception {
+        final CacheKey key = key("/content/page.html");
+        final String newer = StringUtils.repeat("b", LARGE.length());
+        diskCacheStore.block();
+        store.put(key, content(LARGE));
+        diskCacheStore.awaitWrite();
+
+        store.put(key, content(newer));
+        assertEquals(newer, read(store.getIfPresent(key)));
+        diskCacheStore.release();
+        awaitMoves();
+
+        assertEquals(newer, read(diskCacheStore.getIfPresent(key)));
+        assertEquals(newer, read(store.getIfPresent(key)));
+    }
+
+    @Test
+    public void testInvalidate_WhileDemoted() throws Exception {
+        final CacheKey key = key("/content/large.html");
+        diskCacheStore.block();
+        store.put(key, content(LARGE));
+        diskCacheStore.awaitWrite();
+
+        store.invalidate(key);
+        assertNull(store.getIfPresent(key));
+        diskCacheStore.release();
+        awaitMoves();
+
+        assertFalse(diskCacheStore.contains(key));
+        assertNull(store.getIfPresent(key));
+        assertEquals(0L, store.size());
+    }
+
+    @Test
+    public void testGetIfPresent_DroppedByDiskTier() throws Exception {
+        final CacheKey key = key("/content/large.html");
+        store.put(key, content(LARGE));
+        awaitMoves();
+
+        diskCacheStore.invalidate(key);
+
+        assertNull(store.getIfPresent(key));
+        assertEquals(0L, store.size());
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        final CacheKey page = key("/content/page.html");
+        final CacheKey large = key("/content/large.html");
+        store.put(page, content("page"));
+        store.put(large, content(LARGE));
+        awaitMoves();
+
+        store.invalidateAll();
+
+        assertNull(store.getIfPresent(page));
+        assertNull(store.getIfPresent(large));
+        assertFalse(diskCacheStore.contains(large));
+        assertEquals(0L, store.size());
+    }
+
+    /**
+     * Wait for the moves queued so far, run one at a time by the mover thread.
+     */
+    private void awaitMoves() throws Exception {
+        final ThreadPoolExecutor moveExecutor = (ThreadPoolExecutor) PrivateAccessor.getField(store, "moveExecutor");
+        moveExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static CacheKey key(String uri) {
+        final CacheKey key = mock(CacheKey.class);
+        when(key.getUri()).thenReturn(uri);
+        return key;
+    }
+
+    private static CacheContent content(String data) {
+        return new CacheContent("UTF-8", "text/html", new HashMap<String, List<String>>(), new ByteArrayInputStream
+                (data.getBytes()));
+    }
+
+    private static String read(CacheContent cacheContent) throws IOException {
+        if (null == cacheContent) {
+            return null;
+        }
+        try {
+            return IOUtils.toString(cacheContent.getInputDataStream(), "UTF-8");
+        } finally {
+            cacheContent.close();
+        }
+    }
+
+    /**
+     * Disk tier keeping the data in memory, whose writes can be held back to look into a demotion underway.
+     */
+    private static class BlockingDiskCacheStore implements HttpCacheStore {
+        private final Map<CacheKey, byte[]> entries = new ConcurrentHashMap<CacheKey, byte[]>();
+        private volatile CountDownLatch writing = new CountDownLatch(0);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+
+        void block() {
+            writing = new CountDownLatch(1);
+            released = new CountDownLatch(1);
+        }
+
+        void awaitWrite() throws InterruptedException {
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public void put(CacheKey key, CacheContent content) throws HttpCacheDataStreamException {
+            put(key, content, null);
+        }
+
+        @Override
+        public void put(CacheKey key, CacheContent content, HttpCacheConfig cacheConfig) throws
+                HttpCacheDataStreamException {
+            try {
+                final byte[] data = IOUtils.toByteArray(content.getInputDataStream());
+                writing.countDown();
+                released.await();
+                entries.put(key, data);
+            } catch (IOException e) {
+                throw new HttpCacheDataStreamException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean contains(CacheKey key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public CacheContent getIfPresent(CacheKey key) {
+            final byte[] data = entries.get(key);
+            return null == data ? null : new CacheContent("UTF-8", "text/html", new HashMap<String,
+                    List<String>>(), new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public long size() {
+            return entries.size();
+        }
+
+        @Override
+        public void invalidate(CacheKey key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void invalidateAll() {
+            entries.clear();
+        }
+
+        @Override
+        public void invalidate(HttpCacheConfig cacheConfig) {
+            entries.clear();
+        }
+
+        @Override
+        public void invalidate(HttpCacheConfig cacheConfig, String uriPattern) {
+            entries.clear();
+        }
+
+        @Override
+        public TempSink createTempSink() {
+            return null;
+        }
+    }
+}
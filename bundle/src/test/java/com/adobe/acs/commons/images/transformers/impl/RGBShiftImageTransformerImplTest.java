@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.transformers.impl;
+
+import static junit.framework.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RGBShiftImageTransformerImplTest {
+
+    private static final int RED_SHIFT = 64;
+
+    private static final int GREEN_SHIFT = -32;
+
+    private static final int BLUE_SHIFT = 255;
+
+    private static final int WIDTH = 320;
+
+    // Tall enough to be split into several bands.
+    private static final int HEIGHT = 480;
+
+    BufferedImage original;
+
+    RGBShiftImageTransformerImpl transformer = new RGBShiftImageTransformerImpl();
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(42L);
+        original = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                original.setRGB(x, y, random.nextInt());
+            }
+        }
+    }
+
+    @Test
+    public void testShift() throws Exception {
+        assertShifted(transformer.shift(original, RED_SHIFT, GREEN_SHIFT, BLUE_SHIFT));
+    }
+
+    @Test
+    public void testShiftInParallel() throws Exception {
+        ParallelRowBands parallelRowBands = new ParallelRowBands();
+        parallelRowBands.activate(Collections.<String, Object>singletonMap(ParallelRowBands.PROP_THREADS, 3));
+        try {
+            assertShifted(transformer.shift(original, RED_SHIFT, GREEN_SHIFT, BLUE_SHIFT));
+        } finally {
+            parallelRowBands.deactivate();
+        }
+    }
+
+    @Test
+    public void testShiftOtherImageType() throws Exception {
+        BufferedImage rgb = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        rgb.setData(original.getData());
+
+        BufferedImage shifted = transformer.shift(rgb, RED_SHIFT, GREEN_SHIFT, BLUE_SHIFT);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("Pixel " + x + "," + y, expected(rgb.getRGB(x, y)), shifted.getRGB(x, y));
+            }
+        }
+    }
+
+    private void assertShifted(BufferedImage shifted) {
+        assertEquals(WIDTH, shifted.getWidth());
+        assertEquals(HEIGHT, shifted.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("Pixel " + x + "," + y, expected(original.getRGB(x, y)), shifted.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Shift of a single pixel, channel by channel, clamped. Shifted pixels are opaque.
+     */
+    private int expected(int pixel) {
+        int red = clamp(((pixel >> 16) & 0xFF) + RED_SHIFT);
+        int green = clamp(((pixel >> 8) & 0xFF) + GREEN_SHIFT);
+        int blue = clamp((pixel & 0xFF) + BLUE_SHIFT);
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private int clamp(int color) {
+        return Math.max(0, Math.min(255, color));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2013 - 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.images.transformers.impl.composites.contexts;
+
+import static junit.framework.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiplyCompositeContextTest {
+
+    private static final float ALPHA = 0.75f;
+
+    private static final int WIDTH = 320;
+
+    // Tall enough to be split into several bands.
+    private static final int HEIGHT = 480;
+
+    BufferedImage src;
+
+    BufferedImage dest;
+
+    MultiplyCompositeContext ctx = new MultiplyCompositeContext(ALPHA);
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(42L);
+        src = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        dest = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                src.setRGB(x, y, random.nextInt());
+                dest.setRGB(x, y, random.nextInt());
+            }
+        }
+    }
+
+    @Test
+    public void testCompose() throws Exception {
+        BufferedImage out = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        ctx.compose(src.getRaster(), dest.getRaster(), out.getRaster());
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("Pixel " + x + "," + y, expected(src.getRGB(x, y), dest.getRGB(x, y)), out.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testComposeInPlace() throws Exception {
+        BufferedImage original = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        original.setData(dest.getData());
+
+        ctx.compose(src.getRaster(), dest.getRaster(), dest.getRaster());
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("Pixel " + x + "," + y, expected(src.getRGB(x, y), original.getRGB(x, y)),
+                        dest.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Multiply blend of a single pixel, channel by channel.
+     */
+    private int expected(int srcPixel, int destPixel) {
+        int result = 0;
+        for (ColorMask mask : ColorMask.values()) {
+            int srcColor = (srcPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
+            int destColor = (destPixel >> mask.getMask()) & ColorMask.MAX_DEPTH;
+            int tmp = (srcColor * destColor) >> 8;
+            tmp = (destColor + (int) ((tmp - destColor) * ALPHA)) & ColorMask.MAX_DEPTH;
+            result = result | (tmp << mask.getMask());
+        }
+
+        int srcAlpha = (srcPixel >> 24) & ColorMask.MAX_DEPTH;
+        int destAlpha = (destPixel >> 24) & ColorMask.MAX_DEPTH;
+        int tmp = Math.min(ColorMask.MAX_DEPTH, srcAlpha + destAlpha - (srcAlpha * destAlpha) / ColorMask.MAX_DEPTH);
+        tmp = (destAlpha - (int) ((tmp - destAlpha) * ALPHA)) & ColorMask.MAX_DEPTH;
+        return result | (tmp << 24);
+    }
+}
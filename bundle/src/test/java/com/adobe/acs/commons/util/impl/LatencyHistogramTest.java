@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.adobe.acs.commons.util.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testRecord() throws Exception {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        assertEquals(0L, latencies.getPercentile(50d));
+
+        for (int i = 0; i < 90; i++) {
+            latencies.record(10L);
+        }
+        for (int i = 0; i < 10; i++) {
+            latencies.record(1000L);
+        }
+
+        assertEquals(100L, latencies.getCount());
+        assertEquals(109L, latencies.getMean());
+        // Upper bounds of the 8-15 and 512-1023 buckets
+        assertEquals(15L, latencies.getPercentile(50d));
+        assertEquals(15L, latencies.getPercentile(90d));
+        assertEquals(1023L, latencies.getPercentile(99d));
+    }
+
+    @Test
+    public void testNegativeLatency() throws Exception {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        latencies.record(-5L);
+
+        assertEquals(1L, latencies.getCount());
+        assertEquals(0L, latencies.getMean());
+        assertEquals(0L, latencies.getPercentile(99d));
+    }
+}
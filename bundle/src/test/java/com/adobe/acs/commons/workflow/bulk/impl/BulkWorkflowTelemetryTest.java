@@ -0,0 +1,40 @@
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkWorkflowTelemetryTest {
+
+    @Test
+    public void testToMap() throws Exception {
+        final BulkWorkflowTelemetry telemetry = new BulkWorkflowTelemetry(2, 100L, 10L);
+        telemetry.recordPayload(100L, false);
+        telemetry.recordPayload(300L, true);
+        telemetry.recordStep("Step", 50L);
+
+        final Map<String, Object> map = telemetry.toMap();
+        assertEquals(2L, map.get("processed"));
+        assertEquals(1L, map.get("failed"));
+        assertEquals(0.5d, (Double) map.get("failureRate"), 0d);
+        assertEquals(400L, map.get("executingTime"));
+        assertTrue((Double) map.get("utilization") <= 1d);
+
+        assertEquals(1L, telemetry.getStepLatencies().get("Step").get("count"));
+    }
+
+    @Test
+    public void testGetProjectedCompletion() throws Exception {
+        final BulkWorkflowTelemetry telemetry = new BulkWorkflowTelemetry(2, 100L, 10L);
+        // No rate sampled yet
+        assertNull(telemetry.getProjectedCompletion());
+
+        telemetry.updateProgress(100L, 100L);
+        assertNotNull(telemetry.getProjectedCompletion());
+    }
+}
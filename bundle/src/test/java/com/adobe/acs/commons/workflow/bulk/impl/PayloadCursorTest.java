@@ -0,0 +1,142 @@
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.apache.sling.testing.mock.sling.MockSling;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class PayloadCursorTest {
+    private static final String QUERY = "SELECT * FROM [mix:title] AS s WHERE ISDESCENDANTNODE(s, '/content/dam')";
+
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private ResourceResolver resourceResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        resourceResolverFactory = MockSling.newResourceResolverFactory(ResourceResolverType.JCR_OAK,
+                MockOsgi.newBundleContext());
+        resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+
+        final Session session = resourceResolver.adaptTo(Session.class);
+        final Node content = session.getRootNode().addNode("content", "nt:unstructured");
+        final Node dam = content.addNode("dam", "nt:unstructured");
+        final Node a = dam.addNode("a", "nt:unstructured");
+        addPayload(a, "1");
+        final Node two = addPayload(a, "2");
+        two.addNode("jcr:content", "nt:unstructured");
+        addPayload(two, "nested");
+        final Node b = dam.addNode("b", "nt:unstructured");
+        b.addNode("not-a-payload", "nt:unstructured");
+        addPayload(b, "3");
+        addPayload(content, "outside");
+        session.save();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resourceResolver.close();
+    }
+
+    @Test
+    public void testNext_DocumentOrder() throws Exception {
+        assertEquals(Arrays.asList("/content/dam/a/1", "/content/dam/a/2", "/content/dam/a/2/nested",
+                "/content/dam/b/3"), enumerate(QUERY, "", null));
+    }
+
+    @Test
+    public void testNext_QueryForms() throws Exception {
+        assertEquals(Arrays.asList("/content/dam/a/1", "/content/dam/a/2", "/content/dam/a/2/nested",
+                "/content/dam/b/3"), enumerate("select * from [mix:title] where isdescendantnode([/content/dam])",
+                "", null));
+    }
+
+    @Test
+    public void testNext_AfterLastPath() throws Exception {
+        // Descendants of the last path come first
+        assertEquals(Arrays.asList("/content/dam/a/2/nested", "/content/dam/b/3"),
+                enumerate(QUERY, "", "/content/dam/a/2"));
+        assertEquals(Arrays.asList("/content/dam/b/3"), enumerate(QUERY, "", "/content/dam/a/2/nested"));
+        assertEquals(new ArrayList<String>(), enumerate(QUERY, "", "/content/dam/b/3"));
+    }
+
+    @Test
+    public void testNext_LastPathRemoved() throws Exception {
+        final Session session = resourceResolver.adaptTo(Session.class);
+        session.getNode("/content/dam/a/2").remove();
+        session.save();
+
+        // Resumes with the children of the closest ancestor left
+        assertEquals(Arrays.asList("/content/dam/a/1", "/content/dam/b/3"),
+                enumerate(QUERY, "", "/content/dam/a/2/nested"));
+    }
+
+    @Test
+    public void testNext_RelativePath() throws Exception {
+        assertEquals(Arrays.asList("/content/dam/a/2/jcr:content"), enumerate(QUERY, "jcr:content", null));
+    }
+
+    @Test
+    public void testNext_MissingSearchPath() throws Exception {
+        assertEquals(new ArrayList<String>(), enumerate(
+                "SELECT * FROM [mix:title] WHERE ISDESCENDANTNODE([/content/missing])", "", null));
+    }
+
+    @Test
+    public void testGetLastPath() throws Exception {
+        final PayloadCursor cursor = new PayloadCursor(resourceResolverFactory, QUERY, "", null);
+        try {
+            assertNull(cursor.getLastPath());
+            cursor.next();
+            assertEquals("/content/dam/a/1", cursor.getLastPath());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUnsupportedQuery() throws Exception {
+        try {
+            new PayloadCursor(resourceResolverFactory, "SELECT * FROM [mix:title] AS s WHERE "
+                    + "ISDESCENDANTNODE(s, '/content/dam') AND s.[jcr:title] = 'a'", "", null);
+            fail("Queries with other constraints cannot be traversed.");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private List<String> enumerate(final String query, final String relPath, final String lastPath)
+            throws Exception {
+        final PayloadCursor cursor = new PayloadCursor(resourceResolverFactory, query, relPath, lastPath);
+        try {
+            final List<String> paths = new ArrayList<String>();
+            String path;
+            while ((path = cursor.next()) != null) {
+                paths.add(path);
+            }
+            return paths;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Node addPayload(final Node parent, final String name) throws Exception {
+        final Node payload = parent.addNode(name, "nt:unstructured");
+        payload.addMixin("mix:title");
+        return payload;
+    }
+}
@@ -0,0 +1,117 @@
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import com.adobe.acs.commons.workflow.bulk.BulkWorkflowEngine;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowModel;
+import com.adobe.acs.commons.workflow.synthetic.SyntheticWorkflowRunner;
+import com.day.cq.workflow.WorkflowException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SyntheticBatchProcessorTest {
+    private ResourceResolver resourceResolver;
+    private SyntheticWorkflowRunner syntheticWorkflowRunner;
+    private BulkWorkflowTelemetry telemetry;
+    private SyntheticBatchProcessor processor;
+
+    private final Map<String, ModifiableValueMap> items = new HashMap<String, ModifiableValueMap>();
+
+    @Before
+    public void setUp() throws Exception {
+        resourceResolver = mock(ResourceResolver.class);
+        final ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getAdministrativeResourceResolver(null)).thenReturn(resourceResolver);
+        syntheticWorkflowRunner = mock(SyntheticWorkflowRunner.class);
+        telemetry = new BulkWorkflowTelemetry(1, 2L, 0L);
+
+        addItem("/batch/item-1", "/content/dam/1");
+        addItem("/batch/item-2", "/content/dam/2");
+
+        processor = new SyntheticBatchProcessor(resourceResolverFactory, syntheticWorkflowRunner,
+                mock(SyntheticWorkflowModel.class), 1, 10, telemetry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        processor.shutdown();
+    }
+
+    @Test
+    public void testProcess() throws Exception {
+        doThrow(new WorkflowException("Failed")).when(syntheticWorkflowRunner).execute(any(ResourceResolver.class),
+                eq("/content/dam/2"), any(SyntheticWorkflowModel.class), anyBoolean(), anyBoolean());
+
+        assertEquals(1, processor.process(Arrays.asList("/batch/item-1", "/batch/item-2")));
+
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_COMPLETE, getState("/batch/item-1"));
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_FAILED, getState("/batch/item-2"));
+        assertEquals(2L, telemetry.toMap().get("processed"));
+        assertEquals(1L, telemetry.toMap().get("failed"));
+        verify(resourceResolver, times(1)).commit();
+    }
+
+    @Test
+    public void testProcess_RetriedAfterFailedSave() throws Exception {
+        doThrow(new PersistenceException("Conflict")).doNothing().when(resourceResolver).commit();
+
+        assertEquals(0, processor.process(Arrays.asList("/batch/item-1", "/batch/item-2")));
+
+        // Processed again one by one, but recorded once.
+        verify(syntheticWorkflowRunner, times(4)).execute(any(ResourceResolver.class), anyString(),
+                any(SyntheticWorkflowModel.class), anyBoolean(), anyBoolean());
+        verify(resourceResolver, times(3)).commit();
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_COMPLETE, getState("/batch/item-1"));
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_COMPLETE, getState("/batch/item-2"));
+        assertEquals(2L, telemetry.toMap().get("processed"));
+        assertEquals(0L, telemetry.toMap().get("failed"));
+    }
+
+    @Test
+    public void testProcess_FailedRetry() throws Exception {
+        doThrow(new PersistenceException("Conflict")).doThrow(new PersistenceException("Conflict")).doNothing()
+                .when(resourceResolver).commit();
+
+        // The first item cannot be saved on its own either, and is marked as failed.
+        assertEquals(1, processor.process(Arrays.asList("/batch/item-1", "/batch/item-2")));
+
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_FAILED, getState("/batch/item-1"));
+        assertEquals(BulkWorkflowEngineImpl.ITEM_STATE_COMPLETE, getState("/batch/item-2"));
+        assertEquals(2L, telemetry.toMap().get("processed"));
+    }
+
+    private void addItem(final String itemPath, final String payloadPath) {
+        final ModifiableValueMap properties = new ModifiableValueMapDecorator(new HashMap<String, Object>());
+        properties.put(BulkWorkflowEngine.KEY_PATH, payloadPath);
+        items.put(itemPath, properties);
+
+        final Resource item = mock(Resource.class);
+        when(item.adaptTo(ModifiableValueMap.class)).thenReturn(properties);
+        when(resourceResolver.getResource(itemPath)).thenReturn(item);
+    }
+
+    private String getState(final String itemPath) {
+        return items.get(itemPath).get(BulkWorkflowEngine.KEY_STATE, String.class);
+    }
+}
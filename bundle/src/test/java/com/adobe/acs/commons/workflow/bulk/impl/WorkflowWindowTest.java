@@ -0,0 +1,107 @@
+package com.adobe.acs.commons.workflow.bulk.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkflowWindowTest {
+
+    @Test
+    public void testCapacity() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+        assertEquals(2, window.getCapacity());
+        assertTrue(window.isEmpty());
+
+        window.add("/batches/1/1", "wf-1");
+        window.add("/batches/1/2", "wf-2");
+        assertEquals(0, window.getCapacity());
+        assertArrayEquals(new String[]{ "/batches/1/1", "/batches/1/2" }, window.getItemPaths());
+
+        // Finished workflows keep their place until drained
+        window.finish("wf-1", "COMPLETED");
+        assertEquals(0, window.getCapacity());
+
+        final List<WorkflowWindow.ActiveWorkflow> finished = window.drainFinished();
+        assertEquals(1, finished.size());
+        assertEquals("/batches/1/1", finished.get(0).getItemPath());
+        assertEquals("COMPLETED", finished.get(0).getState());
+        assertEquals(1, window.getCapacity());
+        assertFalse(window.isEmpty());
+    }
+
+    @Test
+    public void testDrainFinished_FinishTime() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+        window.add("/batches/1/1", "wf-1");
+
+        final long finishedAfter = System.currentTimeMillis();
+        window.finish("wf-1", "COMPLETED");
+        final long finishedBefore = System.currentTimeMillis();
+        Thread.sleep(50L);
+
+        // The time of the finish, not of the drain
+        final WorkflowWindow.ActiveWorkflow workflow = window.drainFinished().get(0);
+        assertTrue(workflow.getFinishedAt() >= finishedAfter);
+        assertTrue(workflow.getFinishedAt() <= finishedBefore);
+
+        final BulkWorkflowTelemetry telemetry = new BulkWorkflowTelemetry(2, 100L, 0L);
+        telemetry.recordRefill(System.currentTimeMillis() - workflow.getFinishedAt());
+        assertTrue((Long) telemetry.toMap().get("meanRefillDelay") >= 50L);
+    }
+
+    @Test
+    public void testDrainFinished_UnknownWorkflow() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+        window.add("/batches/1/1", "wf-1");
+
+        window.finish("wf-unknown", "ABORTED");
+
+        assertTrue(window.drainFinished().isEmpty());
+        assertEquals(Arrays.asList("wf-1"), window.getWorkflowIds());
+    }
+
+    @Test
+    public void testRemoveTimedOut() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+        window.add("/batches/1/1", "wf-1");
+
+        assertTrue(window.removeTimedOut(0L).isEmpty());
+
+        final List<WorkflowWindow.ActiveWorkflow> timedOut = window.removeTimedOut(Long.MAX_VALUE);
+        assertEquals(1, timedOut.size());
+        assertEquals("wf-1", timedOut.get(0).getWorkflowId());
+        assertEquals(2, window.getCapacity());
+    }
+
+    @Test
+    public void testRemovePurgeable() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+        window.add("/batches/1/1", "wf-1");
+        window.finish("wf-1", "COMPLETED");
+
+        for (final WorkflowWindow.ActiveWorkflow workflow : window.drainFinished()) {
+            window.addPurgeable(workflow);
+        }
+
+        assertTrue(window.removePurgeable(0L).isEmpty());
+        assertEquals(Arrays.asList("wf-1"), window.removePurgeable(Long.MAX_VALUE));
+        assertTrue(window.removePurgeable(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testRequestRefill() throws Exception {
+        final WorkflowWindow window = new WorkflowWindow("/etc/bulk/jcr:content", "/etc/workflow/model", 2);
+
+        assertTrue(window.requestRefill());
+        assertFalse(window.requestRefill());
+
+        window.clearRefillRequest();
+        assertTrue(window.requestRefill());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ACS AEM Commons Bundle
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.commons.workflow.bulk.removal.impl;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkflowInstanceMatcherTest {
+
+    private ValueMap instance(final String status, final String model, final Calendar startedAt,
+                              final String payload) {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(WorkflowInstanceMatcher.PN_STATUS, status);
+        properties.put(WorkflowInstanceMatcher.PN_MODEL_ID, model);
+        if (startedAt != null) {
+            properties.put(WorkflowInstanceMatcher.PN_STARTED_AT, startedAt);
+        }
+        if (payload != null) {
+            properties.put(WorkflowInstanceMatcher.PAYLOAD_PATH, payload);
+        }
+        return new ValueMapDecorator(properties);
+    }
+
+    @Test
+    public void testMatches_StatusAndModel() throws Exception {
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(
+                Arrays.asList("/etc/workflow/models/dam/update_asset/jcr:content/model"),
+                Arrays.asList("COMPLETED", "ABORTED"),
+                null, null);
+
+        assertTrue(matcher.matches(instance("COMPLETED",
+                "/etc/workflow/models/dam/update_asset/jcr:content/model", null, null)));
+        assertFalse(matcher.matches(instance("RUNNING",
+                "/etc/workflow/models/dam/update_asset/jcr:content/model", null, null)));
+        assertFalse(matcher.matches(instance("COMPLETED",
+                "/etc/workflow/models/request_for_activation/jcr:content/model", null, null)));
+    }
+
+    @Test
+    public void testMatches_Payloads() throws Exception {
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(null, null,
+                Arrays.asList(Pattern.compile("/content/dam/.*"), Pattern.compile("/content/geometrixx/.*")), null);
+
+        assertTrue(matcher.matches(instance("COMPLETED", "model", null, "/content/dam/asset.jpg")));
+        assertTrue(matcher.matches(instance("COMPLETED", "model", null, "/content/geometrixx/en")));
+        assertFalse(matcher.matches(instance("COMPLETED", "model", null, "/etc/designs/geometrixx")));
+
+        // Instances without payload are not held to the payload patterns
+        assertTrue(matcher.matches(instance("COMPLETED", "model", null, null)));
+    }
+
+    @Test
+    public void testMatches_OlderThan() throws Exception {
+        final Calendar olderThan = Calendar.getInstance();
+        olderThan.add(Calendar.DATE, -1);
+
+        final Calendar before = (Calendar) olderThan.clone();
+        before.add(Calendar.DATE, -1);
+
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(null, null, null, olderThan);
+
+        assertTrue(matcher.matches(instance("COMPLETED", "model", Calendar.getInstance(), null)));
+        assertFalse(matcher.matches(instance("COMPLETED", "model", before, null)));
+        assertTrue(matcher.matches(instance("COMPLETED", "model", null, null)));
+    }
+
+    @Test
+    public void testGetQuery() throws Exception {
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(
+                Collections.<String>emptyList(),
+                Arrays.asList("COMPLETED"),
+                null, null);
+
+        assertEquals("SELECT * FROM [cq:Workflow] AS w WHERE ISDESCENDANTNODE(w, '/etc/workflow/instances') "
+                + "AND (w.[status] = 'COMPLETED')", matcher.getQuery("/etc/workflow/instances"));
+    }
+
+    @Test
+    public void testGetQuery_Escaping() throws Exception {
+        final WorkflowInstanceMatcher matcher = new WorkflowInstanceMatcher(
+                Arrays.asList("/etc/workflow/models/o'brien/jcr:content/model"),
+                null, null, null);
+
+        assertTrue(matcher.getQuery("/etc/workflow/instances")
+                .endsWith("AND (w.[modelId] = '/etc/workflow/models/o''brien/jcr:content/model')"));
+    }
+}
@@ -66,6 +66,48 @@
             </select>
         </div>
 
+        <div class="coral-Form-fieldwrapper">
+            <label class="coral-Form-fieldlabel">Execution Mode</label>
+
+            <select
+                    class="acs-select"
+                    name="executionMode"
+                    ng-model="form.executionMode">
+                <option value="workflow">Workflow</option>
+                <option value="synthetic">Synthetic Workflow</option>
+            </select>
+            <span class="coral-Form-fieldinfo coral-Icon coral-Icon--infoCircle coral-Icon--sizeS" data-init="quicktip" data-quicktip-type="info" data-quicktip-arrow="right"
+                  data-quicktip-content="Workflow starts an AEM workflow for each payload. Synthetic Workflow executes the process steps of the workflow model in-process on a pool of workers, without workflow instances; only Workflow Processes are supported, and the batch interval and timeout do not apply."></span>
+        </div>
+
+        <div class="coral-Form-fieldwrapper"
+             ng-show="form.executionMode === 'synthetic'">
+            <label class="coral-Form-fieldlabel">Workers</label>
+
+            <input name="workerCount"
+                   type="text"
+                   class="coral-Form-field coral-Textfield"
+                   ng-pattern="/^[1-9]\d*$/"
+                   ng-model="form.workerCount"
+                   placeholder="# of payloads to process concurrently [ Default: 4 ]"/>
+            <span class="coral-Form-fieldinfo coral-Icon coral-Icon--infoCircle coral-Icon--sizeS" data-init="quicktip" data-quicktip-type="info" data-quicktip-arrow="right"
+                  data-quicktip-content="Number of worker threads executing the synthetic workflow. Capped by the Bulk Workflow Engine OSGi configuration. Use a batch size of many times the number of workers."></span>
+        </div>
+
+        <div class="coral-Form-fieldwrapper">
+            <label class="coral-Form-fieldlabel">Payload Enumeration</label>
+
+            <select
+                    class="acs-select"
+                    name="enumeration"
+                    ng-model="form.enumeration">
+                <option value="up-front">Up front</option>
+                <option value="streaming">Streaming</option>
+            </select>
+            <span class="coral-Form-fieldinfo coral-Icon coral-Icon--infoCircle coral-Icon--sizeS" data-init="quicktip" data-quicktip-type="info" data-quicktip-arrow="right"
+                  data-quicktip-content="Up front collects all query results into batches before processing starts. Streaming traverses the tree below the query path one batch at a time, in document order, as processing advances, and only keeps the current batch, the failed payloads and a checkpoint in the repository; use it for very large queries of the form SELECT * FROM [dam:Asset] WHERE ISDESCENDANTNODE([/content/dam]). Its Total Size stays an estimate until all payloads are enumerated."></span>
+        </div>
+
         <div class="coral-Form-fieldwrapper">
             <label class="coral-Form-fieldlabel">Total Size</label>
 
@@ -104,7 +146,7 @@
                    ng-model="form.interval"
                    placeholder="in seconds [ Default: 10 ]"/>
             <span class="coral-Form-fieldinfo coral-Icon coral-Icon--infoCircle coral-Icon--sizeS" data-init="quicktip" data-quicktip-type="info" data-quicktip-arrow="right"
-                data-quicktip-content="The minimum number of seconds to wait before trying to process the next batch. If unsure: [ Batch Size ] x [ Seconds for One WF to Complete ] / 2"></span>
+                data-quicktip-content="Workflows are started on the next payloads as soon as others complete, keeping [ Batch Size ] workflows in flight. This is the number of seconds between checks for timed out workflows."></span>
         </div>
 
         <div class="coral-Form-fieldwrapper">
@@ -115,9 +157,9 @@
                    class="coral-Form-field coral-Textfield"
                    ng-pattern="/\d*/"
                    ng-model="form.batchTimeout"
-                   placeholder="Number of batch intervals to wait for entire batch to complete [ Default: 20 ]"/>
+                   placeholder="Number of batch intervals to wait for a workflow to complete [ Default: 20 ]"/>
             <span class="coral-Form-fieldinfo coral-Icon coral-Icon--infoCircle coral-Icon--sizeS" data-init="quicktip" data-quicktip-type="info" data-quicktip-arrow="right"
-                data-quicktip-content="Any active workflows in a batch after this duration will be terminated and marked as \"FORCE TERMINATED\". [ Time to Process One Batch ] x [ Batch Interval ] should be sufficient for all workflows to complete for the entire batch under normal conditions."></span>
+                data-quicktip-content="Any workflow still active after this duration will be terminated and marked as \"FORCE TERMINATED\". [ Batch Timeout ] x [ Batch Interval ] should be sufficient for one workflow to complete under normal conditions."></span>
         </div>
 
         <div class="coral-Form-fieldwrapper">
@@ -128,7 +170,7 @@
                        name="purgeWorkflow"
                        ng-model="form.purgeWorkflow"
                        checked>
-                <span>Delete completed workflow instances after each batch is processed.</span>
+                <span>Delete workflow instances once completed.</span>
             </label>
         </div>
 
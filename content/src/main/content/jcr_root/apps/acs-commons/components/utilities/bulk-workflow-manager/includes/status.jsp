@@ -56,12 +56,14 @@
     <div class="acs-column-50-50">
         <ul acs-coral-list>
             <li>Status: <span style="text-transform: capitalize;">{{ data.status.state }}</span></li>
-            <li>Total: {{ data.status.total }}</li>
+            <li>Total: {{ data.status.total }}
+                <span ng-show="data.status.enumeration === 'streaming' && data.status.enumeratedCount < data.status.total">
+                    ( estimated; {{ data.status.enumeratedCount }} enumerated so far )</span>
+            </li>
             <li>Complete: {{ data.status.complete }}</li>
             <li>Remaining: {{ data.status.remaining }}</li>
+            <li ng-show="data.status.failureCount">Failed: {{ data.status.failureCount }}</li>
             <li>Current Batch: {{ data.status.currentBatch }}</li>
-            <li>Current Batch Timeout: {{ data.status.batchTimeoutCount }}
-                    of {{ data.status.batchTimeout }}</li>
 
             <li ng-show="data.status.startedAt">Started At: {{ data.status.startedAt }}</li>
             <li ng-show="data.status.stoppedAt && !data.status.completedAt">Stopped At: {{ data.status.stoppedAt }}</li>
@@ -77,6 +79,9 @@
             </li>
             <li>Batch Interval: {{ data.status.interval }} seconds</li>
             <li>Workflow Model: {{ data.status.workflowModel }}</li>
+            <li>Execution Mode: <span style="text-transform: capitalize;">{{ data.status.executionMode }}</span>
+                <span ng-show="data.status.executionMode === 'synthetic'">( workers: {{ data.status.workerCount }} )</span>
+            </li>
             <li>Purge Workflow: {{ data.status.purgeWorkflow }}</li>
         </ul>
     </div>
@@ -85,7 +90,43 @@
 </section>
 
 
-<%-- Progress Bar --%>    
+<%-- Telemetry --%>
+<section class="coral-Well" ng-show="data.status.telemetry">
+
+    <h4 acs-coral-heading>Throughput since {{ data.status.telemetry.since }}</h4>
+
+    <div class="acs-column-50-50">
+        <ul acs-coral-list>
+            <li>Rate: {{ data.status.telemetry.instantRate | number:2 }} payloads/sec
+                ( smoothed: {{ data.status.telemetry.smoothedRate | number:2 }} )
+            </li>
+            <li>Processed: {{ data.status.telemetry.processed }}
+                ( failed: {{ data.status.telemetry.failureRate * 100 | number:1 }}% )
+            </li>
+            <li>Projected Completion: {{ data.status.telemetry.projectedCompletion || 'Unknown' }}</li>
+        </ul>
+    </div>
+
+    <div class="acs-column-50-50">
+        <ul acs-coral-list>
+            <li>Payload Latency: {{ data.status.telemetry.p50Latency }} ms median,
+                {{ data.status.telemetry.p99Latency }} ms 99th percentile
+            </li>
+            <li>Utilization: {{ data.status.telemetry.utilization * 100 | number:1 }}%
+                ( waiting: {{ data.status.telemetry.waitingTime / 1000 | number:0 }} seconds,
+                executing: {{ data.status.telemetry.executingTime / 1000 | number:0 }} seconds )
+            </li>
+            <li ng-repeat="(step, latency) in data.status.telemetry.steps">
+                {{ step }}: {{ latency.p50Latency }} ms median, {{ latency.p99Latency }} ms 99th percentile
+            </li>
+        </ul>
+    </div>
+
+    <br clear="all"/>
+</section>
+
+
+<%-- Progress Bar --%>
 
 <div class="coral-Progress acs-section"
      ng-show="data.status.percentComplete || data.status.percentComplete === 0">